@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the {@link Scheduler} used by the daemons.
+ *
+ * The implementation is selected with the {@value #SCHEDULER_TYPE_SYS_PROP}
+ * system property: {@code legacy} (the default) creates a {@link LegacyScheduler},
+ * {@code timingwheel} creates a {@link TimingWheelScheduler}.
+ */
+public final class Schedulers {
+
+    public static final String SCHEDULER_TYPE_SYS_PROP = "org.opennms.netmgt.scheduler.type";
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timingwheel";
+
+    private Schedulers() {
+    }
+
+    /**
+     * Creates a new scheduler of the configured type.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a new, not yet started, scheduler
+     */
+    public static Scheduler create(final String parent, final int maxSize) {
+        if (TIMING_WHEEL.equalsIgnoreCase(System.getProperty(SCHEDULER_TYPE_SYS_PROP, LEGACY))) {
+            return new TimingWheelScheduler(parent, maxSize);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    /**
+     * Returns the pool of threads used by the given scheduler to run its tasks.
+     *
+     * @param scheduler the scheduler
+     * @return the thread pool, or {@code null} if the scheduler does not expose one
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler) scheduler).getRunner();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) scheduler).getRunner();
+        }
+        return null;
+    }
+}
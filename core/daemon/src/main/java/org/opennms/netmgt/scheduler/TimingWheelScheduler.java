@@ -0,0 +1,453 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * Unlike the {@link LegacyScheduler}, which scans every interval queue on each
+ * pass, scheduling and expiring a runnable are both constant time operations.
+ * Callers hand new entries to the wheel through a lock-free queue; the wheel
+ * itself is owned by a single worker thread that advances one tick at a time,
+ * cascades entries from the coarser levels down as they come due and hands the
+ * expired entries of each slot to the runner pool as one batch.
+ *
+ * Runnables that are due but not yet {@link ReadyRunnable#isReady() ready} are
+ * re-checked after {@link #NOT_READY_RETRY_MILLIS}, which matches the idle
+ * wait of the {@link LegacyScheduler}.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * Default resolution of the wheel in milliseconds.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10;
+
+    /**
+     * Delay before a due runnable that reported itself as not ready is checked again.
+     */
+    public static final long NOT_READY_RETRY_MILLIS = 1000;
+
+    /**
+     * Number of bits used to index the slots of a single level.
+     */
+    private static final int WHEEL_BITS = 8;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * With 256 slots per level and four levels, a 10ms wheel spans more than
+     * 500 days before entries are clamped to the outermost level.
+     */
+    private static final int WHEEL_LEVELS = 4;
+
+    private static final long MAX_TICKS = (1L << (WHEEL_BITS * WHEEL_LEVELS)) - 1;
+
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private long m_deadlineTick;
+
+        private Entry(final ReadyRunnable runnable, final long deadlineTick) {
+            m_runnable = runnable;
+            m_deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * Entries handed over by {@link #schedule(long, ReadyRunnable)} that have
+     * not yet been placed in the wheel.
+     */
+    private final Queue<Entry> m_pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The slots of the wheel, indexed by level and slot. Only accessed by the worker thread.
+     */
+    private final ArrayDeque<Entry>[][] m_wheel;
+
+    private final long m_tickNanos;
+
+    private final long m_startNanos;
+
+    /**
+     * The next tick to be processed by the worker. Only written by the worker thread.
+     */
+    private volatile long m_currentTick;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    /**
+     * Constructs a new instance of the scheduler with the default tick.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The resolution of the wheel in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        m_startNanos = System.nanoTime();
+        m_currentTick = 0;
+        m_wheel = new ArrayDeque[WHEEL_LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < WHEEL_LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                m_wheel[level][slot] = new ArrayDeque<>();
+            }
+        }
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        final long deadlineTick = toTick(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval)));
+        m_scheduled.incrementAndGet();
+        m_pending.add(new Entry(runnable, deadlineTick));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of entries waiting in the wheel
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+
+    /**
+     * The main method of the scheduler. Advances the wheel one tick at a time,
+     * catching up on any ticks that were missed while the thread was busy, and
+     * sleeps until the next tick is due.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            // don't overwrite a pause that was requested before the thread got here
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        final List<ReadyRunnable> expired = new ArrayList<>();
+        try {
+            for (;;) {
+                synchronized (this) {
+                    if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                        LOG.debug("run: status = {}, time to exit", m_status);
+                        break;
+                    }
+
+                    // if paused or pause pending then block
+                    while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                        if (m_status == PAUSE_PENDING) {
+                            LOG.debug("run: pausing.");
+                        }
+                        m_status = PAUSED;
+                        wait();
+                    }
+
+                    if (m_status == RESUME_PENDING) {
+                        LOG.debug("run: resuming.");
+                        m_status = RUNNING;
+                    }
+                }
+
+                final long nowTick = toCurrentTick(System.nanoTime());
+                while (m_currentTick <= nowTick) {
+                    transferPending();
+                    advance(m_currentTick, expired);
+                    m_currentTick++;
+                    dispatch(expired);
+                }
+
+                final long sleepNanos = m_startNanos + m_currentTick * m_tickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("run: interrupted");
+        } catch (RejectedExecutionException e) {
+            if (m_status != STOP_PENDING) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    private long toCurrentTick(final long nanos) {
+        final long elapsed = nanos - m_startNanos;
+        // round down, a tick is only reached once its whole duration has elapsed
+        return elapsed <= 0 ? 0 : elapsed / m_tickNanos;
+    }
+
+    private long toTick(final long nanos) {
+        final long elapsed = nanos - m_startNanos;
+        // round up so that entries never run early
+        return elapsed <= 0 ? 0 : (elapsed + m_tickNanos - 1) / m_tickNanos;
+    }
+
+    /**
+     * Moves the entries handed over by other threads into the wheel.
+     */
+    private void transferPending() {
+        Entry entry;
+        while ((entry = m_pending.poll()) != null) {
+            place(entry);
+        }
+    }
+
+    /**
+     * Places an entry in the level whose span covers the remaining delay.
+     * Entries that are already due are placed in the slot of the current tick.
+     */
+    private void place(final Entry entry) {
+        final long current = m_currentTick;
+        long delta = entry.m_deadlineTick - current;
+        if (delta < 0) {
+            delta = 0;
+            entry.m_deadlineTick = current;
+        } else if (delta > MAX_TICKS) {
+            delta = MAX_TICKS;
+            entry.m_deadlineTick = current + MAX_TICKS;
+        }
+
+        int level = 0;
+        while (level < WHEEL_LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        final int slot = (int) ((entry.m_deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        m_wheel[level][slot].add(entry);
+    }
+
+    /**
+     * Processes the given tick: cascades the coarser levels that wrapped around
+     * and collects the runnables of the expired slot that are ready to run.
+     */
+    private void advance(final long tick, final List<ReadyRunnable> expired) {
+        for (int level = 1; level < WHEEL_LEVELS; level++) {
+            if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            final ArrayDeque<Entry> slot = m_wheel[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+            for (int i = slot.size(); i > 0; i--) {
+                place(slot.poll());
+            }
+        }
+
+        final ArrayDeque<Entry> slot = m_wheel[0][(int) (tick & WHEEL_MASK)];
+        final long retryTicks = Math.max(1, TimeUnit.MILLISECONDS.toNanos(NOT_READY_RETRY_MILLIS) / m_tickNanos);
+        for (int i = slot.size(); i > 0; i--) {
+            final Entry entry = slot.poll();
+            if (entry.m_deadlineTick > tick) {
+                place(entry);
+            } else if (entry.m_runnable.isReady()) {
+                expired.add(entry.m_runnable);
+            } else {
+                LOG.debug("run: runnable {} is not ready, checking again in {}ms", entry.m_runnable, NOT_READY_RETRY_MILLIS);
+                entry.m_deadlineTick = tick + retryTicks;
+                place(entry);
+            }
+        }
+    }
+
+    /**
+     * Hands the expired runnables to the runner pool outside of any lock.
+     */
+    private void dispatch(final List<ReadyRunnable> expired) {
+        if (expired.isEmpty()) {
+            return;
+        }
+        m_scheduled.addAndGet(-expired.size());
+        m_numTasksExecuted.addAndGet(expired.size());
+        for (final ReadyRunnable runnable : expired) {
+            LOG.debug("run: found ready runnable {}", runnable);
+            m_runner.execute(runnable);
+        }
+        expired.clear();
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the {@link LegacyScheduler}
+ * with the {@link TimingWheelScheduler}.
+ * <p>
+ * Each invocation schedules the given number of entries with intervals spread over
+ * a couple of seconds, the way pollerd and collectd stagger their services, and
+ * measures the time until all of them have been run.
+ */
+public class SchedulerBenchmark {
+
+    // the intervals of the scheduled entries are spread over this many milliseconds
+    private static final int SPREAD_MILLIS = 2000;
+
+    // number of distinct intervals, the legacy scheduler keeps one queue per interval
+    private static final int DISTINCT_INTERVALS = 200;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({Schedulers.LEGACY, Schedulers.TIMING_WHEEL})
+        public String type;
+
+        @Param({"10000", "100000", "1000000"})
+        public int entries;
+
+        private Scheduler scheduler;
+        private long[] intervals;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            final Random random = new Random(123456L);
+            intervals = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                intervals[i] = random.nextInt(DISTINCT_INTERVALS) * (SPREAD_MILLIS / DISTINCT_INTERVALS);
+            }
+            scheduler = Schedulers.TIMING_WHEEL.equals(type)
+                    ? new TimingWheelScheduler("SchedulerBenchmark", 8)
+                    : new LegacyScheduler("SchedulerBenchmark", 8);
+            scheduler.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            scheduler.stop();
+        }
+    }
+
+    private static class CountingRunnable implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+
+        private CountingRunnable(final CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_latch.countDown();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public void scheduleAndExpire(BState state) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(state.entries);
+        final CountingRunnable runnable = new CountingRunnable(latch);
+        for (final long interval : state.intervals) {
+            state.scheduler.schedule(interval, runnable);
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.fiber.Fiber;
+import org.opennms.core.fiber.PausableFiber;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, 5);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    private static class LatchRunnable implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+        private final AtomicLong m_ranAt = new AtomicLong(0);
+        private final AtomicBoolean m_ready = new AtomicBoolean(true);
+
+        private LatchRunnable(final CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready.get();
+        }
+
+        @Override
+        public void run() {
+            m_ranAt.set(System.nanoTime());
+            m_latch.countDown();
+        }
+    }
+
+    @Test
+    public void testRunsAfterInterval() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final LatchRunnable runnable = new LatchRunnable(latch);
+
+        final long scheduledAt = System.nanoTime();
+        m_scheduler.schedule(200, runnable);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(runnable.m_ranAt.get() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void testCascadesFromOuterLevels() throws InterruptedException {
+        // 5ms ticks with 256 slots per level -> anything above 1280ms starts on the second level
+        final CountDownLatch latch = new CountDownLatch(3);
+        m_scheduler.schedule(0, new LatchRunnable(latch));
+        m_scheduler.schedule(700, new LatchRunnable(latch));
+        final LatchRunnable outer = new LatchRunnable(latch);
+        final long scheduledAt = System.nanoTime();
+        m_scheduler.schedule(1500, outer);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(outer.m_ranAt.get() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void testRetriesWhenNotReady() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final LatchRunnable runnable = new LatchRunnable(latch);
+        runnable.m_ready.set(false);
+
+        m_scheduler.schedule(0, runnable);
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+
+        runnable.m_ready.set(true);
+        assertTrue(latch.await(TimingWheelScheduler.NOT_READY_RETRY_MILLIS * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPauseAndResume() throws InterruptedException {
+        m_scheduler.pause();
+        // give the worker a chance to notice the pause request
+        Thread.sleep(100);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new LatchRunnable(latch));
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(PausableFiber.PAUSED, m_scheduler.getStatus());
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Fiber.RUNNING, m_scheduler.getStatus());
+    }
+}
@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * A {@link DispatchQueue} that first attempts to queue items in memory and upon overflowing the allocated in-memory
+ * queue appends items to a series of memory-mapped segment files. The in-memory queue is volatile and if the process
+ * crashes its contents are lost. The contents written to the segments survive a crash of the process and are reloaded
+ * when the queue is created again.
+ * <p>
+ * Entries are written as length-prefixed frames containing the bytes produced by the serializer, no additional
+ * serialization is involved. Enqueuing threads serialize on a writer lock and dequeuing threads serialize on a reader
+ * lock, so that one writer and one reader can make progress at the same time. Once the reader moves past a segment
+ * the segment file is deleted in the background, which frees up capacity for the writer.
+ * <p>
+ * Each frame starts with a 4 byte header. The header is written after the payload, so a frame that was only partially
+ * written when the process died is never read back. The header holds the payload length plus one for an unread frame,
+ * the negated value once the frame has been read and {@link #END_OF_SEGMENT} when the writer moved on to the next
+ * segment. A header of 0 marks the end of the written data.
+ * <p>
+ * This queue can be configured to only queue to memory by specifying the maximum off-heap size of 0. Using this
+ * configuration causes {@link #enqueue} to block when the in-memory queue fills up rather than writing to the off-heap
+ * queue.
+ *
+ * @param <T> the type being queued
+ */
+public class MappedSegmentDispatchQueue<T> implements DispatchQueue<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSegmentDispatchQueue.class);
+    private final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5)
+            .every(Duration.ofSeconds(30))
+            .build();
+
+    private static final String DIRECTORY_EXTENSION = ".segments";
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    private static final int HEADER_SIZE_IN_BYTES = 4;
+    private static final int END_OF_SEGMENT = Integer.MIN_VALUE;
+
+    // Segment files are deleted on a shared background thread
+    private static final ExecutorService SEGMENT_CLEANER = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "MappedSegmentDispatchQueue-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Function<T, byte[]> serializer;
+    private final Function<byte[], T> deserializer;
+    private final String moduleName;
+    private final BlockingQueue<Map.Entry<String, T>> inMemoryQueue;
+
+    private final Path directory;
+    private final long maxFileSizeInBytes;
+    private final int segmentSizeInBytes;
+
+    // Number of entries available for dequeueing, both in-memory and off-heap
+    private final Semaphore available = new Semaphore(0);
+    // Number of unread frames in the segments
+    private final AtomicLong offHeapEntries = new AtomicLong(0);
+    private final FileCapacityLatch fileCapacityLatch = new FileCapacityLatch();
+
+    // Used to ensure only one thread can be enqueueing at a time, guards the writer state below
+    private final Lock enqueueLock = new ReentrantLock(true);
+    private long nextSegmentId;
+    private Segment writeSegment;
+    private int writePosition;
+
+    // Used to ensure only one thread can be reading off-heap at a time, guards the reader state below
+    private final Lock dequeueLock = new ReentrantLock(true);
+    private Segment readSegment;
+    private int readPosition;
+
+    public MappedSegmentDispatchQueue(Function<T, byte[]> serializer, Function<byte[], T> deserializer,
+                                      String moduleName, Path filePath, int inMemoryQueueSize, int segmentSizeInBytes,
+                                      long maxFileSizeInBytes) throws IOException {
+        Objects.requireNonNull(serializer);
+        Objects.requireNonNull(deserializer);
+        Objects.requireNonNull(moduleName);
+
+        if (inMemoryQueueSize < 1) {
+            throw new IllegalArgumentException("In memory queue size must be greater than 0");
+        }
+
+        if (segmentSizeInBytes <= 2 * HEADER_SIZE_IN_BYTES) {
+            throw new IllegalArgumentException("Segment size must be greater than " + 2 * HEADER_SIZE_IN_BYTES);
+        }
+
+        if (maxFileSizeInBytes < 0) {
+            throw new IllegalArgumentException("Max file size must be either 0 or a positive integer");
+        }
+
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.moduleName = moduleName;
+        this.maxFileSizeInBytes = maxFileSizeInBytes;
+        this.segmentSizeInBytes = (int) Math.min(segmentSizeInBytes, Math.max(maxFileSizeInBytes, 2 * HEADER_SIZE_IN_BYTES + 1));
+
+        inMemoryQueue = new ArrayBlockingQueue<>(inMemoryQueueSize, true);
+
+        // Setting the max file size to 0 or less will disable the off-heap portion of this queue
+        if (maxFileSizeInBytes > 0) {
+            Objects.requireNonNull(filePath);
+            directory = filePath.resolve(moduleName + DIRECTORY_EXTENSION);
+            Files.createDirectories(directory);
+            recover();
+        } else {
+            directory = null;
+        }
+    }
+
+    /**
+     * Loads the segments left behind by a previous instance, positions the reader on the first unread frame and the
+     * writer at the end of the written data.
+     */
+    private void recover() throws IOException {
+        final List<Path> segmentFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            stream.forEach(segmentFiles::add);
+        }
+        Collections.sort(segmentFiles);
+
+        Segment previous = null;
+        long unread = 0;
+        for (int i = 0; i < segmentFiles.size(); i++) {
+            final Path file = segmentFiles.get(i);
+            final Segment segment;
+            try {
+                segment = Segment.open(file, segmentIdOf(file));
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warn("Deleting unreadable segment file {} for module {}", file, moduleName, e);
+                Files.deleteIfExists(file);
+                continue;
+            }
+
+            int position = 0;
+            int firstUnread = -1;
+            int segmentUnread = 0;
+            boolean ended = false;
+            while (position + HEADER_SIZE_IN_BYTES <= segment.size) {
+                final int header = segment.buffer.getInt(position);
+                if (header == 0) {
+                    break;
+                } else if (header == END_OF_SEGMENT) {
+                    ended = true;
+                    break;
+                }
+                final int length = Math.abs(header) - 1;
+                if (header > 0) {
+                    if (firstUnread < 0) {
+                        firstUnread = position;
+                    }
+                    segmentUnread++;
+                }
+                position += frameSize(length);
+            }
+
+            if (segmentUnread == 0 && ended) {
+                // Everything in this segment was consumed before the restart
+                segment.delete();
+                continue;
+            }
+
+            fileCapacityLatch.addUsedBytes(segment.size);
+            if (previous == null) {
+                readSegment = segment;
+                readPosition = firstUnread < 0 ? position : firstUnread;
+            } else {
+                previous.next = segment;
+            }
+            previous = segment;
+            segment.lastWritePosition = position;
+            writeSegment = segment;
+            // If the last segment was ended, make sure the writer starts a new one
+            writePosition = ended ? segment.size : position;
+            nextSegmentId = segment.id + 1;
+            unread += segmentUnread;
+
+            if (!ended) {
+                // Anything after a segment that was not properly ended can not be trusted. The writer creates the
+                // next segment before it ends the current one, so a crash in between leaves an empty segment behind
+                // that would otherwise collide with the next segment created by the writer.
+                for (final Path trailing : segmentFiles.subList(i + 1, segmentFiles.size())) {
+                    LOG.warn("Deleting segment file {} for module {} following an unfinished segment", trailing, moduleName);
+                    Files.deleteIfExists(trailing);
+                }
+                break;
+            }
+        }
+
+        offHeapEntries.set(unread);
+        available.release((int) Math.min(unread, Integer.MAX_VALUE));
+        LOG.debug("Recovered {} entries off-heap for module {}", unread, moduleName);
+    }
+
+    private static long segmentIdOf(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    private static int frameSize(final int payloadLength) {
+        // Keep the headers aligned
+        return HEADER_SIZE_IN_BYTES + ((payloadLength + 3) & ~3);
+    }
+
+    /**
+     * When enqueueing we prefer the in-memory queue unless the segments are already utilized. If that fails (because
+     * it is full) we then append the entry to the segments provided they are not currently full and have been
+     * configured. If the segments are full or not configured we block and wait for capacity.
+     */
+    @Override
+    public EnqueueResult enqueue(T message, String key) throws WriteFailedException {
+        enqueueLock.lock();
+        try {
+            final Map.Entry<String, T> msgEntry = new AbstractMap.SimpleImmutableEntry<>(key, message);
+
+            if (directory == null) {
+                LOG.trace("Enqueueing {} with key {} in-memory since there is no off-heap queue configured",
+                        message, key);
+                try {
+                    inMemoryQueue.put(msgEntry);
+                } catch (InterruptedException e) {
+                    throw new WriteFailedException(e);
+                }
+                available.release();
+                return EnqueueResult.IMMEDIATE;
+            }
+
+            // Only use the in-memory queue while there is nothing off-heap, otherwise we would break the ordering
+            if (offHeapEntries.get() == 0 && inMemoryQueue.offer(msgEntry)) {
+                LOG.trace("Enqueueing {} with key {} in-memory", message, key);
+                available.release();
+                return EnqueueResult.IMMEDIATE;
+            }
+
+            LOG.trace("Appending {} with key {} off-heap", message, key);
+            try {
+                append(serializer.apply(message));
+            } catch (IOException e) {
+                RATE_LIMITED_LOGGER.warn("Failed to write off-heap for module {}", moduleName, e);
+                throw new WriteFailedException(e);
+            } catch (InterruptedException e) {
+                throw new WriteFailedException(e);
+            }
+            offHeapEntries.incrementAndGet();
+            available.release();
+            return EnqueueResult.DEFERRED;
+        } finally {
+            enqueueLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a frame to the current write segment, rolling over to a new segment when it does not fit.
+     * Must be called while holding the {@link #enqueueLock}.
+     */
+    private void append(final byte[] payload) throws IOException, InterruptedException, WriteFailedException {
+        final int frameSize = frameSize(payload.length);
+
+        if (writeSegment == null || writePosition + frameSize > writeSegment.size - HEADER_SIZE_IN_BYTES) {
+            final long newSegmentSize = Math.max(segmentSizeInBytes, (long) frameSize + HEADER_SIZE_IN_BYTES);
+            if (newSegmentSize > maxFileSizeInBytes || newSegmentSize > Integer.MAX_VALUE) {
+                throw new WriteFailedException("Entry of " + payload.length + " bytes exceeds the off-heap size for module " + moduleName);
+            }
+
+            fileCapacityLatch.waitForCapacity(newSegmentSize);
+
+            final Segment segment = Segment.create(directory.resolve(String.format("%019d%s", nextSegmentId++, SEGMENT_EXTENSION)),
+                    nextSegmentId - 1, (int) newSegmentSize);
+            final Segment previous = writeSegment;
+            writeSegment = segment;
+            writePosition = 0;
+
+            if (previous != null) {
+                // Link the segments before ending the previous one, the reader follows the link once it sees the end
+                previous.next = segment;
+                previous.writeView.putInt(previous.lastWritePosition, END_OF_SEGMENT);
+            } else {
+                dequeueLock.lock();
+                try {
+                    readSegment = segment;
+                    readPosition = 0;
+                } finally {
+                    dequeueLock.unlock();
+                }
+            }
+        }
+
+        final ByteBuffer view = writeSegment.writeView;
+        view.position(writePosition + HEADER_SIZE_IN_BYTES);
+        view.put(payload);
+        // Publish the frame by writing its header last
+        view.putInt(writePosition, payload.length + 1);
+        writePosition += frameSize;
+        writeSegment.lastWritePosition = writePosition;
+    }
+
+    /**
+     * On every call to dequeue we wait for an entry to be available and then take it from the head of the in-memory
+     * queue. Since entries are only added to the in-memory queue while there is nothing off-heap the in-memory
+     * entries are always older than the ones in the segments, which are read once the in-memory queue is empty.
+     */
+    @Override
+    public Map.Entry<String, T> dequeue() throws InterruptedException {
+        LOG.debug("Dequeueing an entry from queue with current size {}", getSize());
+
+        available.acquire();
+
+        dequeueLock.lock();
+        try {
+            final Map.Entry<String, T> entry = inMemoryQueue.poll();
+            if (entry != null) {
+                return entry;
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(null, deserializer.apply(read()));
+        } finally {
+            dequeueLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next frame, moving on to the next segment when the end of the current one is reached.
+     * Must be called while holding the {@link #dequeueLock}.
+     */
+    private byte[] read() {
+        int header = readSegment.readView.getInt(readPosition);
+        while (header == END_OF_SEGMENT) {
+            final Segment consumed = readSegment;
+            readSegment = consumed.next;
+            readPosition = 0;
+            SEGMENT_CLEANER.execute(() -> {
+                try {
+                    consumed.delete();
+                } catch (IOException e) {
+                    RATE_LIMITED_LOGGER.warn("Failed to delete segment {} for module {}", consumed.file, moduleName, e);
+                }
+                fileCapacityLatch.addUsedBytes(-consumed.size);
+            });
+            header = readSegment.readView.getInt(readPosition);
+        }
+
+        if (header <= 0) {
+            // The semaphore guarantees that a frame was published, so this should never happen
+            throw new IllegalStateException("No frame available at position " + readPosition + " of " + readSegment.file);
+        }
+
+        final int length = header - 1;
+        final byte[] payload = new byte[length];
+        final ByteBuffer view = readSegment.readView;
+        view.position(readPosition + HEADER_SIZE_IN_BYTES);
+        view.get(payload);
+        // Mark the frame as consumed so it is skipped after a restart
+        view.putInt(readPosition, -header);
+        readPosition += frameSize(length);
+        offHeapEntries.decrementAndGet();
+        return payload;
+    }
+
+    @Override
+    public boolean isFull() {
+        if (directory == null) {
+            int remaining = inMemoryQueue.remainingCapacity();
+            LOG.trace("Checked if full and remaining capacity is {}", remaining);
+
+            return remaining <= 0;
+        }
+
+        return fileCapacityLatch.isFull();
+    }
+
+    @Override
+    public int getSize() {
+        return (int) Math.min(inMemoryQueue.size() + offHeapEntries.get(), Integer.MAX_VALUE);
+    }
+
+    @VisibleForTesting
+    long getUsedBytes() {
+        return fileCapacityLatch.getUsedBytes();
+    }
+
+    /**
+     * A latch that can be used to wait for the segments to have capacity.
+     */
+    private final class FileCapacityLatch {
+        private boolean isFull = false;
+        private long usedBytes = 0;
+
+        public synchronized void waitForCapacity(long capacityNeededBytes) throws InterruptedException {
+            while (usedBytes + capacityNeededBytes > maxFileSizeInBytes) {
+                markFull();
+                LOG.trace("Waiting for capacity... Need {} bytes but {} of {} bytes are used",
+                        capacityNeededBytes, usedBytes, maxFileSizeInBytes);
+                wait();
+            }
+
+            usedBytes += capacityNeededBytes;
+            markNotFull();
+        }
+
+        public synchronized void addUsedBytes(long bytes) {
+            usedBytes += bytes;
+            notifyAll();
+        }
+
+        public synchronized long getUsedBytes() {
+            return usedBytes;
+        }
+
+        private void markFull() {
+            if (!isFull) {
+                RATE_LIMITED_LOGGER.info("Off heap segments for module {} are now full", moduleName);
+                isFull = true;
+            }
+        }
+
+        private void markNotFull() {
+            if (isFull) {
+                RATE_LIMITED_LOGGER.info("Off heap segments for module {} are no longer full", moduleName);
+                isFull = false;
+            }
+        }
+
+        public synchronized boolean isFull() {
+            return isFull;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file. The writer and the reader each get their own view of the mapping so that they
+     * can position it independently.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long id;
+        private final int size;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer writeView;
+        private final ByteBuffer readView;
+        private volatile Segment next;
+        private int lastWritePosition;
+
+        private Segment(final Path file, final long id, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.id = id;
+            this.size = buffer.capacity();
+            this.buffer = buffer;
+            this.writeView = buffer.duplicate();
+            this.readView = buffer.duplicate();
+        }
+
+        static Segment create(final Path file, final long id, final int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                return new Segment(file, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        static Segment open(final Path file, final long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final long size = channel.size();
+                if (size <= 2 * HEADER_SIZE_IN_BYTES || size > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid segment size " + size);
+                }
+                return new Segment(file, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        void delete() throws IOException {
+            // The mapping itself is released once the buffer is garbage collected
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import org.opennms.core.ipc.sink.api.DispatchQueueFactory;
+
+/**
+ * Creates the {@link DispatchQueueFactory} that is exposed to the {@link DispatchQueueServiceLoader} based on the
+ * configured queue type.
+ */
+public final class OffHeapDispatchQueueFactories {
+
+    public static final String TYPE_QUEUE_FILE = "queuefile";
+
+    public static final String TYPE_MAPPED_SEGMENTS = "mapped";
+
+    private OffHeapDispatchQueueFactories() {
+    }
+
+    public static DispatchQueueFactory newDispatchQueueFactory(String type, int inMemoryEntrySize, int batchSize,
+                                                               String segmentSize, String offHeapSize,
+                                                               String baseFilePath) {
+        if (TYPE_MAPPED_SEGMENTS.equalsIgnoreCase(type)) {
+            return new MappedSegmentDispatchQueueFactory(inMemoryEntrySize, segmentSize, offHeapSize, baseFilePath);
+        }
+        return new QueueFileOffHeapDispatchQueueFactory(inMemoryEntrySize, batchSize, offHeapSize, baseFilePath);
+    }
+}
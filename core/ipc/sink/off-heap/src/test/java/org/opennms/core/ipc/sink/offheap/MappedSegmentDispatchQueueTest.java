@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+
+import com.jayway.awaitility.core.ConditionTimeoutException;
+
+public class MappedSegmentDispatchQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void canQueueAndDequeue() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeue", Paths.get(folder.newFolder().toURI()), 1, 1024, 10000);
+
+        // Since size is 1, the first entry should be in-memory and the second entry should be on disk
+        assertThat(queue.enqueue("msg1", "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+        assertThat(queue.enqueue("msg2", "key2"), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+
+        assertThat(queue.getSize(), equalTo(2));
+
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg2"));
+        assertThat(queue.getSize(), equalTo(0));
+    }
+
+    @Test
+    public void dequeuesInOrderAcrossSegments() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                "dequeuesInOrderAcrossSegments", Paths.get(folder.newFolder().toURI()), 100, 256, 10_000_000);
+
+        int numEntries = 10020;
+        List<String> toQueue = IntStream.range(0, numEntries)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+
+        for (String s : toQueue) {
+            queue.enqueue(s, "key" + s);
+        }
+
+        assertThat(queue.getSize(), equalTo(numEntries));
+
+        List<String> dequeued = new ArrayList<>();
+        while (queue.getSize() > 0) {
+            dequeued.add(queue.dequeue().getValue());
+        }
+
+        assertThat(dequeued, equalTo(toQueue));
+    }
+
+    @Test
+    public void canQueueAndDequeueInParallel() throws IOException {
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeueInParallel", Paths.get(folder.newFolder().toURI()), 20, 1024, 100_000_000);
+
+        int numEntries = 11_111;
+        List<String> toQueue = IntStream.range(0, numEntries)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+
+        CompletableFuture.runAsync(() -> {
+            for (String s : toQueue) {
+                try {
+                    queue.enqueue(s, "key");
+                } catch (WriteFailedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        List<String> dequeued = new CopyOnWriteArrayList<>();
+        CompletableFuture.runAsync(() -> {
+            while (true) {
+                try {
+                    dequeued.add(queue.dequeue().getValue());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        await().atMost(1, TimeUnit.MINUTES).until(() -> dequeued, equalTo(toQueue));
+    }
+
+    @Test
+    public void deletesConsumedSegments() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        MappedSegmentDispatchQueue<byte[]> queue = new MappedSegmentDispatchQueue<>(b -> b, b -> b,
+                "deletesConsumedSegments", path, 1, 64, 10000);
+
+        for (int i = 0; i < 20; i++) {
+            queue.enqueue(new byte[20], "key" + i);
+        }
+        assertThat(segmentCount(path, "deletesConsumedSegments") > 1, equalTo(true));
+
+        for (int i = 0; i < 20; i++) {
+            queue.dequeue();
+        }
+
+        // Only the segment that is still being written to remains
+        await().atMost(5, TimeUnit.SECONDS).until(() -> segmentCount(path, "deletesConsumedSegments"), equalTo(1L));
+        await().atMost(5, TimeUnit.SECONDS).until(queue::getUsedBytes, equalTo(64L));
+    }
+
+    @Test
+    public void blocksWhenFull() throws WriteFailedException, IOException, InterruptedException {
+        MappedSegmentDispatchQueue<byte[]> queue = new MappedSegmentDispatchQueue<>(b -> b, b -> b,
+                "blocksWhenFull", Paths.get(folder.newFolder().toURI()), 1, 32, 64);
+
+        // Fill the in-memory queue and both segments
+        queue.enqueue(new byte[0], "key1");
+        queue.enqueue(new byte[20], "key2");
+        queue.enqueue(new byte[20], "key3");
+
+        AtomicBoolean didQueue = new AtomicBoolean(false);
+        CompletableFuture.runAsync(() -> {
+            try {
+                queue.enqueue(new byte[20], "key4");
+                didQueue.set(true);
+            } catch (WriteFailedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        try {
+            await().pollDelay(10, TimeUnit.MILLISECONDS)
+                    .atMost(100, TimeUnit.MILLISECONDS)
+                    .until(didQueue::get);
+            fail("Enqueue happened but we should have been blocking");
+        } catch (ConditionTimeoutException expected) {
+        }
+        assertThat(queue.isFull(), equalTo(true));
+
+        // Consuming the first segment frees up space
+        queue.dequeue();
+        queue.dequeue();
+        queue.dequeue();
+
+        await().atMost(5, TimeUnit.SECONDS).until(didQueue::get);
+        assertThat(queue.isFull(), equalTo(false));
+    }
+
+    @Test
+    public void canDequeueOffHeapAfterRestart() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "canDequeueOffHeapAfterRestart";
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                moduleName, path, 1, 64, 10000);
+
+        assertThat(queue.enqueue("msg1", "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+        for (int i = 2; i <= 10; i++) {
+            assertThat(queue.enqueue("msg" + i, "key" + i), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+        }
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg2"));
+
+        // Reinitialize to simulate coming back up after restart
+        queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 64, 10000);
+
+        // Entries that were already consumed must not be delivered again
+        assertThat(queue.getSize(), equalTo(8));
+        for (int i = 3; i <= 10; i++) {
+            assertThat(queue.dequeue().getValue(), equalTo("msg" + i));
+        }
+
+        // And the writer continues where it left off
+        queue.enqueue("msg11", "key11");
+        queue.enqueue("msg12", "key12");
+        assertThat(queue.dequeue().getValue(), equalTo("msg11"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg12"));
+    }
+
+    @Test
+    public void ignoresPartiallyWrittenFrames() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "ignoresPartiallyWrittenFrames";
+        Path segments = path.resolve(moduleName + ".segments");
+        Files.createDirectories(segments);
+        // A segment with a payload but without header, as left behind by a crash during the write
+        byte[] contents = new byte[64];
+        contents[4] = 'x';
+        Files.write(segments.resolve(String.format("%019d.seg", 0)), contents);
+
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                moduleName, path, 1, 64, 10000);
+        assertThat(queue.getSize(), equalTo(0));
+
+        queue.enqueue("msg1", "key1");
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+    }
+
+    @Test
+    public void canRollOverAfterCrashDuringRollOver() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "canRollOverAfterCrashDuringRollOver";
+        DispatchQueue<String> queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new,
+                moduleName, path, 1, 64, 10000);
+
+        queue.enqueue("msg1", "key1");
+        queue.enqueue("msg2", "key2");
+        queue.enqueue("msg3", "key3");
+
+        // The next segment was created but the current one was not ended yet when the process died
+        Files.write(path.resolve(moduleName + ".segments").resolve(String.format("%019d.seg", 1)), new byte[64]);
+
+        queue = new MappedSegmentDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 64, 10000);
+        assertThat(queue.getSize(), equalTo(2));
+        assertThat(segmentCount(path, moduleName), equalTo(1L));
+
+        // Enough entries to roll over to the next segment
+        for (int i = 4; i <= 20; i++) {
+            queue.enqueue("msg" + i, "key" + i);
+        }
+        for (int i = 2; i <= 20; i++) {
+            assertThat(queue.dequeue().getValue(), equalTo("msg" + i));
+        }
+    }
+
+    private static long segmentCount(Path path, String moduleName) throws IOException {
+        try (Stream<Path> files = Files.list(path.resolve(moduleName + ".segments"))) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the tape2 based {@link QueueFileOffHeapDispatchQueue} with
+ * the {@link MappedSegmentDispatchQueue}.
+ * <p>
+ * The in-memory portion of both queues is kept small so that nearly all entries are spooled to disk, which is what
+ * happens on a Minion that lost its connection to the broker.
+ */
+public class OffHeapDispatchQueueBenchmark {
+
+    // the number of entries that are enqueued and dequeued in a single benchmark method call
+    private static final int BATCH_SIZE = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"queuefile", "mapped"})
+        public String type;
+
+        @Param({"256", "4096"})
+        public int payloadSize;
+
+        private Path directory;
+        private DispatchQueue<byte[]> queue;
+        private byte[] payload;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("offheap-benchmark");
+            payload = new byte[payloadSize];
+            new Random(123456L).nextBytes(payload);
+            if (OffHeapDispatchQueueFactories.TYPE_MAPPED_SEGMENTS.equals(type)) {
+                queue = new MappedSegmentDispatchQueue<>(b -> b, b -> b, "benchmark", directory, 100,
+                        64 * 1024 * 1024, 1024L * 1024 * 1024);
+            } else {
+                queue = new QueueFileOffHeapDispatchQueue<>(b -> b, b -> b, "benchmark", directory, 100, 100,
+                        1024L * 1024 * 1024);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void enqueueThenDequeue(BState state, Blackhole blackhole) throws Exception {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            state.queue.enqueue(state.payload, "key");
+        }
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(state.queue.dequeue());
+        }
+    }
+}
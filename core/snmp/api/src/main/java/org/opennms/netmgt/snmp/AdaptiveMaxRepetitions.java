@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+/**
+ * Tunes the max-repetitions of the GETBULK requests sent during a walk.
+ * <p>
+ * The value grows while the responses are complete and comfortably fit into the maximum message size of the agent,
+ * shrinks once the responses come close to that size and is halved on every tooBig error. A tooBig error also lowers
+ * the ceiling the value may grow back to, so a walk does not keep running into the same limit.
+ * <p>
+ * A single instance may be shared by the walkers of a pipelined walk, so all methods are thread-safe.
+ */
+public class AdaptiveMaxRepetitions {
+
+    private int m_maxRepetitions;
+
+    private int m_ceiling;
+
+    public AdaptiveMaxRepetitions(final int maxRepetitions, final int limit) {
+        m_ceiling = Math.max(1, limit);
+        m_maxRepetitions = Math.max(1, Math.min(maxRepetitions, m_ceiling));
+    }
+
+    public synchronized int get() {
+        return m_maxRepetitions;
+    }
+
+    /**
+     * Halves the max-repetitions after the agent answered with a tooBig error.
+     *
+     * @return false if the max-repetitions can not be reduced any further
+     */
+    public synchronized boolean onTooBig() {
+        if (m_maxRepetitions <= 1) {
+            return false;
+        }
+        m_maxRepetitions = m_maxRepetitions / 2;
+        m_ceiling = m_maxRepetitions;
+        return true;
+    }
+
+    /**
+     * Adjusts the max-repetitions to the size of a response.
+     *
+     * @param responseSize the encoded size of the response in bytes
+     * @param maxResponseSize the maximum message size of the agent in bytes
+     * @param full true if the agent returned all of the requested repetitions
+     */
+    public synchronized void onResponse(final int responseSize, final int maxResponseSize, final boolean full) {
+        if (maxResponseSize <= 0) {
+            return;
+        }
+        if (responseSize > maxResponseSize / 4 * 3) {
+            m_maxRepetitions = Math.max(1, m_maxRepetitions - m_maxRepetitions / 4);
+        } else if (full && responseSize < maxResponseSize / 2) {
+            m_maxRepetitions = Math.min(m_ceiling, m_maxRepetitions + Math.max(1, m_maxRepetitions / 2));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return new ToStringBuilder(this)
+            .append("maxRepetitions", m_maxRepetitions)
+            .append("ceiling", m_ceiling)
+            .toString();
+    }
+}
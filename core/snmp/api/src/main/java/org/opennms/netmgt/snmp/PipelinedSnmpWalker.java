@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks an agent with several requests in flight at the same time.
+ * <p>
+ * The columns of the tracker are split into up to <code>window</code> lanes which are walked by walkers of their
+ * own, so the latency of the agent is paid once per lane instead of once per column. The leaf trackers are found by
+ * descending into nested {@link AggregateTracker}s; any other tracker, like a {@link TableTracker}, is kept in one
+ * piece. The leaves keep their parents, so results are still stored through the original tracker hierarchy. Since
+ * the trackers are not thread-safe, the responses of all lanes are processed one at a time.
+ * <p>
+ * The walk completes once all lanes are done, or fails as soon as the first lane fails. The requests themselves are
+ * built and sent by the walkers of the lanes, this walker only coordinates them.
+ */
+public class PipelinedSnmpWalker extends SnmpWalker {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSnmpWalker.class);
+
+    private final CollectionTracker m_tracker;
+    private final int m_window;
+    private final Function<CollectionTracker, SnmpWalker> m_laneFactory;
+
+    private final Object m_lock = new Object();
+    private final AtomicBoolean m_done = new AtomicBoolean(false);
+    private final AtomicInteger m_remaining = new AtomicInteger();
+
+    private List<CollectionTracker> m_laneTrackers = Collections.emptyList();
+    private List<SnmpWalker> m_lanes = Collections.emptyList();
+
+    /**
+     * @param window the maximum number of requests in flight
+     * @param laneFactory creates the walker for the tracker of a lane
+     */
+    public PipelinedSnmpWalker(InetAddress address, String name, int maxRepetitions, int maxRetries, CollectionTracker tracker,
+                               int window, Function<CollectionTracker, SnmpWalker> laneFactory) {
+        super(address, name, maxRepetitions, maxRetries, tracker);
+        m_tracker = tracker;
+        m_window = Math.max(1, window);
+        m_laneFactory = laneFactory;
+    }
+
+    @Override
+    public void start() {
+        try {
+            m_laneTrackers = createLaneTrackers();
+            final List<SnmpWalker> lanes = new ArrayList<>(m_laneTrackers.size());
+            for (final CollectionTracker laneTracker : m_laneTrackers) {
+                final SnmpWalker lane = m_laneFactory.apply(laneTracker);
+                lane.setAdaptiveMaxRepetitions(getAdaptiveMaxRepetitions());
+                lane.setCallback(this::laneComplete);
+                lanes.add(lane);
+            }
+            m_lanes = lanes;
+            m_remaining.set(lanes.size());
+        } catch (Throwable e) {
+            handleFatalError(e);
+            return;
+        }
+
+        LOG.debug("Walking {} for {} in {} lanes", getName(), getAddress(), m_lanes.size());
+        if (m_lanes.isEmpty()) {
+            m_done.set(true);
+            handleDone();
+            return;
+        }
+        for (final SnmpWalker lane : m_lanes) {
+            if (m_done.get()) {
+                break;
+            }
+            lane.start();
+        }
+    }
+
+    int getLaneCount() {
+        return m_lanes.size();
+    }
+
+    private List<CollectionTracker> createLaneTrackers() {
+        final List<CollectionTracker> leaves = new ArrayList<>();
+        collectLeaves(m_tracker, leaves);
+        if (leaves.size() <= 1 || m_window == 1) {
+            // nothing to split
+            return m_tracker.isFinished() ? Collections.emptyList() : Collections.singletonList(m_tracker);
+        }
+
+        final int laneCount = Math.min(m_window, leaves.size());
+        final List<List<CollectionTracker>> laneLeaves = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            laneLeaves.add(new ArrayList<>());
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            laneLeaves.get(i % laneCount).add(leaves.get(i));
+        }
+
+        final List<CollectionTracker> laneTrackers = new ArrayList<>(laneCount);
+        for (final List<CollectionTracker> l : laneLeaves) {
+            laneTrackers.add(LaneTracker.create(l, m_lock));
+        }
+        return laneTrackers;
+    }
+
+    private static void collectLeaves(final CollectionTracker tracker, final List<CollectionTracker> leaves) {
+        if (tracker.isFinished()) {
+            return;
+        }
+        if (tracker instanceof AggregateTracker) {
+            for (final CollectionTracker child : ((AggregateTracker)tracker).getChildTrackers()) {
+                collectLeaves(child, leaves);
+            }
+        } else {
+            leaves.add(tracker);
+        }
+    }
+
+    private void laneComplete(final SnmpWalker lane, final Throwable t) {
+        if (t == null) {
+            if (m_remaining.decrementAndGet() == 0 && m_done.compareAndSet(false, true)) {
+                handleDone();
+            }
+            return;
+        }
+
+        if (!m_done.compareAndSet(false, true)) {
+            return;
+        }
+
+        // give up on the other lanes
+        for (final SnmpWalker other : m_lanes) {
+            if (other != lane) {
+                other.close();
+            }
+        }
+
+        final CollectionTracker laneTracker = m_laneTrackers.get(m_lanes.indexOf(lane));
+        if (lane.timedOut()) {
+            handleTimeout(t.getMessage());
+        } else if (laneTracker.failed()) {
+            handleFatalError(t);
+        } else {
+            handleError(t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (final SnmpWalker lane : m_lanes) {
+            lane.close();
+        }
+    }
+
+    /**
+     * Builds the requests of a lane from its leaves and processes the responses while holding the lock shared by
+     * all lanes of the walk.
+     */
+    private static class LaneTracker extends AggregateTracker {
+        private final Object m_lock;
+
+        private LaneTracker(final Collectable[] leaves, final Object lock) {
+            super(leaves);
+            m_lock = lock;
+        }
+
+        private static LaneTracker create(final List<CollectionTracker> leaves, final Object lock) {
+            final CollectionTracker[] parents = new CollectionTracker[leaves.size()];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = leaves.get(i).getParent();
+            }
+            final LaneTracker laneTracker = new LaneTracker(leaves.toArray(new Collectable[0]), lock);
+            // the lane only builds the requests, results must still go to the original parents
+            for (int i = 0; i < parents.length; i++) {
+                leaves.get(i).setParent(parents[i]);
+            }
+            return laneTracker;
+        }
+
+        @Override
+        public ResponseProcessor buildNextPdu(final PduBuilder pduBuilder) throws SnmpException {
+            final ResponseProcessor responseProcessor = super.buildNextPdu(pduBuilder);
+            return new ResponseProcessor() {
+                @Override
+                public void processResponse(final SnmpObjId snmpObjId, final SnmpValue val) throws SnmpException {
+                    synchronized (m_lock) {
+                        responseProcessor.processResponse(snmpObjId, val);
+                    }
+                }
+
+                @Override
+                public boolean processErrors(final int errorStatus, final int errorIndex) throws SnmpException {
+                    synchronized (m_lock) {
+                        return responseProcessor.processErrors(errorStatus, errorIndex);
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+
+/**
+ * Walks an agent with a single request in flight: the next request is built from the tracker once the response
+ * to the previous one was processed.
+ */
+public abstract class SequentialSnmpWalker extends SnmpWalker {
+
+    protected abstract static class WalkerPduBuilder extends PduBuilder {
+        protected WalkerPduBuilder(int maxVarsPerPdu) {
+            super(maxVarsPerPdu);
+        }
+        
+        public abstract void reset();
+    }
+
+    private final CollectionTracker m_tracker;
+    private final int m_maxVarsPerPdu;
+    private WalkerPduBuilder m_pduBuilder;
+    private ResponseProcessor m_responseProcessor;
+
+    protected SequentialSnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, int maxRetries, CollectionTracker tracker) {
+        super(address, name, maxRepetitions, maxRetries, tracker);
+        m_tracker = tracker;
+        m_maxVarsPerPdu = maxVarsPerPdu;
+    }
+
+    protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
+
+    @Override
+    public void start() {
+        m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
+        try {
+            buildAndSendNextPdu();
+        } catch (Throwable e) {
+            handleFatalError(e);
+        }
+    }
+    
+    public final int getMaxVarsPerPdu() {
+        return (m_pduBuilder == null ? m_maxVarsPerPdu : m_pduBuilder.getMaxVarsPerPdu());
+    }
+
+    protected void buildAndSendNextPdu() throws SnmpException {
+        if (m_tracker.isFinished()) {
+            handleDone();
+        } else {
+            m_pduBuilder.reset();
+            final AdaptiveMaxRepetitions adaptiveMaxRepetitions = getAdaptiveMaxRepetitions();
+            if (adaptiveMaxRepetitions != null) {
+                m_tracker.setMaxRepetitions(adaptiveMaxRepetitions.get());
+            }
+            m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            sendNextPdu(m_pduBuilder);
+        }
+    }
+
+    protected abstract void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException;
+
+    // processErrors returns true if we need to retry the request and false otherwise
+    protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+        final AdaptiveMaxRepetitions adaptiveMaxRepetitions = getAdaptiveMaxRepetitions();
+        if (adaptiveMaxRepetitions != null && ErrorStatus.fromStatus(errorStatus) == ErrorStatus.TOO_BIG && adaptiveMaxRepetitions.onTooBig()) {
+            // fewer repetitions will do, the request is rebuilt from the unchanged trackers
+            return true;
+        }
+        return m_responseProcessor.processErrors(errorStatus, errorIndex);
+    }
+    
+    protected void processResponse(SnmpObjId receivedOid, SnmpValue val) throws SnmpException {
+        m_responseProcessor.processResponse(receivedOid, val);
+    }
+
+    /**
+     * Reports the size of a response to a GETBULK request.
+     *
+     * @param responseSize the encoded size of the response in bytes
+     * @param maxResponseSize the maximum message size of the agent in bytes
+     * @param full true if the agent returned all of the requested repetitions
+     */
+    protected void processResponseSize(int responseSize, int maxResponseSize, boolean full) {
+        final AdaptiveMaxRepetitions adaptiveMaxRepetitions = getAdaptiveMaxRepetitions();
+        if (adaptiveMaxRepetitions != null) {
+            adaptiveMaxRepetitions.onResponse(responseSize, maxResponseSize, full);
+        }
+    }
+}
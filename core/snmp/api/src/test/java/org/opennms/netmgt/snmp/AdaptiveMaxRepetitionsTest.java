@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AdaptiveMaxRepetitionsTest {
+
+    @Test
+    public void canGrowUpToTheLimit() {
+        final AdaptiveMaxRepetitions maxRepetitions = new AdaptiveMaxRepetitions(2, 10);
+        maxRepetitions.onResponse(100, 1000, true);
+        assertEquals(3, maxRepetitions.get());
+        maxRepetitions.onResponse(100, 1000, true);
+        assertEquals(4, maxRepetitions.get());
+        for (int i = 0; i < 10; i++) {
+            maxRepetitions.onResponse(100, 1000, true);
+        }
+        assertEquals(10, maxRepetitions.get());
+
+        // Responses which were cut short, or already are of a decent size, don't change anything
+        final AdaptiveMaxRepetitions unchanged = new AdaptiveMaxRepetitions(4, 10);
+        unchanged.onResponse(100, 1000, false);
+        unchanged.onResponse(600, 1000, true);
+        assertEquals(4, unchanged.get());
+    }
+
+    @Test
+    public void canShrinkOnLargeResponses() {
+        final AdaptiveMaxRepetitions maxRepetitions = new AdaptiveMaxRepetitions(8, 10);
+        maxRepetitions.onResponse(900, 1000, true);
+        assertEquals(6, maxRepetitions.get());
+    }
+
+    @Test
+    public void canBackOffOnTooBig() {
+        final AdaptiveMaxRepetitions maxRepetitions = new AdaptiveMaxRepetitions(8, 10);
+        assertTrue(maxRepetitions.onTooBig());
+        assertEquals(4, maxRepetitions.get());
+
+        // The value may not grow past the one that was too big anymore
+        for (int i = 0; i < 10; i++) {
+            maxRepetitions.onResponse(100, 1000, true);
+        }
+        assertEquals(4, maxRepetitions.get());
+
+        assertTrue(maxRepetitions.onTooBig());
+        assertTrue(maxRepetitions.onTooBig());
+        assertEquals(1, maxRepetitions.get());
+        assertFalse(maxRepetitions.onTooBig());
+    }
+}
@@ -31,10 +31,10 @@ package org.opennms.netmgt.snmp.joesnmp;
 import java.net.SocketException;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SequentialSnmpWalker;
 import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpValue;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.opennms.protocols.snmp.SnmpHandler;
 import org.opennms.protocols.snmp.SnmpObjectId;
 import org.opennms.protocols.snmp.SnmpPduBulk;
@@ -48,7 +48,7 @@ import org.opennms.protocols.snmp.SnmpVarBind;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class JoeSnmpWalker extends SnmpWalker {
+public class JoeSnmpWalker extends SequentialSnmpWalker {
 	
 	private static final transient Logger LOG = LoggerFactory.getLogger(JoeSnmpWalker.class);
 	
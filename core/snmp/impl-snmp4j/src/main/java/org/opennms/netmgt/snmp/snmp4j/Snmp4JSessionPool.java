@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.DefaultTimeoutModel;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A pool of long-lived SNMP4J sessions that are shared by all of the requests and walks sent to the agents.
+ * <p>
+ * Without the pool every get and every walk creates its own {@link Snmp} session with its own UDP socket, listen
+ * thread and message dispatcher, and closes them once it is done. With the pool, SNMPv1 and SNMPv2c requests are sent
+ * over a small, fixed set of UDP transports. The responses are demultiplexed by request ID by the session that owns
+ * the transport and are processed on a shared pool of dispatcher threads. A given agent is always reached through the
+ * same transport, so it always sees the same source port.
+ * <p>
+ * The USM of an SNMPv3 session can only hold a single set of credentials per security name, so SNMPv3 sessions are
+ * cached per security context instead. Agents sharing the same credentials share the same session, and sessions that
+ * have not been used for a while are closed once the requests and walks using them are done.
+ * <p>
+ * Callers must not close the sessions they get from the pool, but hand them back with {@link #releaseSession(Snmp)}
+ * once they are done with them. Since the sessions outlive the requests, the callers must cancel their requests once
+ * they have been answered, or when they give up on them.
+ */
+public class Snmp4JSessionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    public static final String ENABLED_SYS_PROP = "org.opennms.snmp.snmp4j.pool.enabled";
+
+    public static final String TRANSPORTS_SYS_PROP = "org.opennms.snmp.snmp4j.pool.transports";
+
+    public static final String DISPATCHER_THREADS_SYS_PROP = "org.opennms.snmp.snmp4j.pool.dispatcherThreads";
+
+    public static final String RECEIVE_BUFFER_SIZE_SYS_PROP = "org.opennms.snmp.snmp4j.pool.receiveBufferSize";
+
+    public static final String MAX_V3_SESSIONS_SYS_PROP = "org.opennms.snmp.snmp4j.pool.maxV3Sessions";
+
+    public static final String V3_IDLE_TIMEOUT_SYS_PROP = "org.opennms.snmp.snmp4j.pool.v3IdleTimeout";
+
+    public static final String JMX_DOMAIN = "org.opennms.snmp.snmp4j.pool";
+
+    private static Snmp4JSessionPool s_instance;
+
+    private final List<Snmp> m_sessions = new ArrayList<>();
+
+    // SNMPv3 sessions by security context, in access order
+    private final LinkedHashMap<List<Object>, V3Session> m_v3Sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    // All of the open SNMPv3 sessions, including the evicted ones that are still in use
+    private final Map<Snmp, V3Session> m_openV3Sessions = new IdentityHashMap<>();
+
+    private final ThreadPool m_dispatcherThreads;
+
+    private final int m_receiveBufferSize;
+
+    private final int m_maxV3Sessions;
+
+    private final long m_v3IdleTimeoutMs;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Histogram m_attempts = m_metrics.histogram("attempts");
+
+    private final Meter m_retries = m_metrics.meter("retries");
+
+    private final Meter m_timeouts = m_metrics.meter("timeouts");
+
+    private final Meter m_responses = m_metrics.meter("responses");
+
+    private JmxReporter m_reporter;
+
+    private static class V3Session {
+        private final Snmp m_session;
+        private long m_lastUsed;
+        // The number of callers that got the session and did not release it yet
+        private int m_references;
+        // Set once the session was removed from the cache, it is closed when the last reference is released
+        private boolean m_evicted;
+
+        private V3Session(final Snmp session) {
+            m_session = session;
+        }
+    }
+
+    /**
+     * Records the attempt number of every PDU sent by the pooled sessions, retries included.
+     */
+    private class MeteredTimeoutModel extends DefaultTimeoutModel {
+        @Override
+        public long getRetryTimeout(final int retryCount, final int totalNumberOfRetries, final long targetTimeout) {
+            m_attempts.update(retryCount + 1);
+            if (retryCount > 0) {
+                m_retries.mark();
+            }
+            return super.getRetryTimeout(retryCount, totalNumberOfRetries, targetTimeout);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_SYS_PROP);
+    }
+
+    public static synchronized Snmp4JSessionPool getInstance() throws IOException {
+        if (s_instance == null) {
+            final Snmp4JSessionPool pool = new Snmp4JSessionPool(
+                    SystemProperties.getInteger(TRANSPORTS_SYS_PROP, 4),
+                    SystemProperties.getInteger(DISPATCHER_THREADS_SYS_PROP, Runtime.getRuntime().availableProcessors()),
+                    SystemProperties.getInteger(RECEIVE_BUFFER_SIZE_SYS_PROP, 4 * 1024 * 1024),
+                    SystemProperties.getInteger(MAX_V3_SESSIONS_SYS_PROP, 256),
+                    SystemProperties.getLong(V3_IDLE_TIMEOUT_SYS_PROP, 15 * 60 * 1000L));
+            pool.startReporter();
+            s_instance = pool;
+        }
+        return s_instance;
+    }
+
+    /**
+     * Closes the pooled sessions, if the pool was ever used.
+     */
+    public static synchronized void shutdown() {
+        if (s_instance != null) {
+            s_instance.close();
+            s_instance = null;
+        }
+    }
+
+    protected Snmp4JSessionPool(final int transports, final int dispatcherThreads, final int receiveBufferSize,
+                                final int maxV3Sessions, final long v3IdleTimeoutMs) throws IOException {
+        m_dispatcherThreads = ThreadPool.create("SNMP4J-Pool-Dispatcher", Math.max(1, dispatcherThreads));
+        m_receiveBufferSize = receiveBufferSize;
+        m_maxV3Sessions = Math.max(1, maxV3Sessions);
+        m_v3IdleTimeoutMs = v3IdleTimeoutMs;
+
+        try {
+            for (int i = 0; i < Math.max(1, transports); i++) {
+                final MessageDispatcher dispatcher = new MessageDispatcherImpl();
+                dispatcher.addMessageProcessingModel(new MPv1());
+                dispatcher.addMessageProcessingModel(new MPv2c());
+                m_sessions.add(createSession(dispatcher, "SNMP4J-Pool-Transport-" + i));
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+
+        m_metrics.register("inFlight", (Gauge<Integer>) this::getInFlight);
+        m_metrics.register("v3Sessions", (Gauge<Integer>) this::getV3SessionCount);
+    }
+
+    private Snmp createSession(final MessageDispatcher dispatcher, final String name) throws IOException {
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+        transport.setThreadName(name);
+        if (m_receiveBufferSize > 0) {
+            transport.setReceiveBufferSize(m_receiveBufferSize);
+        }
+        final Snmp session = new Snmp(new MultiThreadedMessageDispatcher(m_dispatcherThreads, dispatcher), transport);
+        session.setTimeoutModel(new MeteredTimeoutModel());
+        try {
+            session.listen();
+        } catch (final IOException e) {
+            closeQuietly(session);
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Returns the shared session to use to talk to the given agent. Every session returned must be handed back with
+     * {@link #releaseSession(Snmp)} once the caller is done with it.
+     */
+    public Snmp getSession(final Snmp4JAgentConfig agentConfig) throws IOException {
+        if (agentConfig.isSnmpV3()) {
+            return getV3Session(agentConfig);
+        }
+        return m_sessions.get(Math.floorMod(agentConfig.getInetAddress().hashCode(), m_sessions.size()));
+    }
+
+    private synchronized Snmp getV3Session(final Snmp4JAgentConfig agentConfig) throws IOException {
+        final long now = System.currentTimeMillis();
+        expireIdleV3Sessions(now);
+
+        final List<Object> securityContext = Arrays.asList(agentConfig.getSecurityName(),
+                agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase());
+        V3Session v3Session = m_v3Sessions.get(securityContext);
+        if (v3Session == null) {
+            final USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+            usm.addUser(agentConfig.getSecurityName(), new UsmUser(agentConfig.getSecurityName(),
+                    agentConfig.getAuthProtocol(), agentConfig.getAuthPassPhrase(),
+                    agentConfig.getPrivProtocol(), agentConfig.getPrivPassPhrase()));
+            final MessageDispatcher dispatcher = new MessageDispatcherImpl();
+            dispatcher.addMessageProcessingModel(new MPv3(usm));
+            v3Session = new V3Session(createSession(dispatcher, "SNMP4J-Pool-V3-Transport"));
+            m_v3Sessions.put(securityContext, v3Session);
+            m_openV3Sessions.put(v3Session.m_session, v3Session);
+
+            if (m_v3Sessions.size() > m_maxV3Sessions) {
+                final Iterator<V3Session> it = m_v3Sessions.values().iterator();
+                final V3Session eldest = it.next();
+                it.remove();
+                LOG.warn("More than {} SNMPv3 security contexts are in use, closing the least recently used session.", m_maxV3Sessions);
+                evict(eldest);
+            }
+        }
+        v3Session.m_lastUsed = now;
+        v3Session.m_references++;
+        return v3Session.m_session;
+    }
+
+    /**
+     * Hands back a session returned by {@link #getSession(Snmp4JAgentConfig)}.
+     */
+    public synchronized void releaseSession(final Snmp session) {
+        final V3Session v3Session = m_openV3Sessions.get(session);
+        if (v3Session == null) {
+            // Not an SNMPv3 session, or the pool was closed in the meantime
+            return;
+        }
+        v3Session.m_references--;
+        if (v3Session.m_evicted && v3Session.m_references <= 0) {
+            m_openV3Sessions.remove(session);
+            closeQuietly(session);
+        }
+    }
+
+    private void expireIdleV3Sessions(final long now) {
+        final Iterator<V3Session> it = m_v3Sessions.values().iterator();
+        while (it.hasNext()) {
+            final V3Session v3Session = it.next();
+            if (now - v3Session.m_lastUsed < m_v3IdleTimeoutMs) {
+                // The sessions are in access order, all of the remaining ones were used more recently
+                break;
+            }
+            it.remove();
+            evict(v3Session);
+        }
+    }
+
+    private void evict(final V3Session v3Session) {
+        v3Session.m_evicted = true;
+        if (v3Session.m_references <= 0) {
+            m_openV3Sessions.remove(v3Session.m_session);
+            closeQuietly(v3Session.m_session);
+        }
+    }
+
+    /**
+     * Must be called with every response event received for a request sent over a pooled session.
+     */
+    public void responseReceived(final ResponseEvent responseEvent) {
+        if (responseEvent.getResponse() == null) {
+            if (responseEvent.getError() == null) {
+                m_timeouts.mark();
+            }
+        } else {
+            m_responses.mark();
+        }
+    }
+
+    /**
+     * @return the number of requests that have been sent over the pooled sessions and not been answered or
+     * cancelled yet
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (final Snmp session : m_sessions) {
+            inFlight += session.getPendingAsyncRequestCount();
+        }
+        synchronized (this) {
+            for (final Snmp v3Session : m_openV3Sessions.keySet()) {
+                inFlight += v3Session.getPendingAsyncRequestCount();
+            }
+        }
+        return inFlight;
+    }
+
+    public synchronized int getV3SessionCount() {
+        return m_v3Sessions.size();
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    private void startReporter() {
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        m_reporter.start();
+    }
+
+    protected synchronized void close() {
+        if (m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+        }
+        m_sessions.forEach(Snmp4JSessionPool::closeQuietly);
+        m_sessions.clear();
+        m_openV3Sessions.keySet().forEach(Snmp4JSessionPool::closeQuietly);
+        m_openV3Sessions.clear();
+        m_v3Sessions.clear();
+        m_dispatcherThreads.cancel();
+    }
+
+    private static void closeQuietly(final Snmp session) {
+        try {
+            session.close();
+        } catch (final IOException e) {
+            LOG.warn("Error closing pooled SNMP session", e);
+        }
+    }
+}
@@ -53,7 +53,9 @@ import java.util.stream.Collectors;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.core.utils.SystemInfoUtils;
+import org.opennms.netmgt.snmp.AdaptiveMaxRepetitions;
 import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.PipelinedSnmpWalker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpAgentTimeoutException;
 import org.opennms.netmgt.snmp.SnmpConfiguration;
@@ -90,6 +92,7 @@ import org.snmp4j.mp.MPv2c;
 import org.snmp4j.mp.MPv3;
 import org.snmp4j.mp.MessageProcessingModel;
 import org.snmp4j.mp.PduHandle;
+import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.security.SecurityModel;
 import org.snmp4j.security.SecurityModels;
@@ -131,6 +134,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
     private static long s_trackSummaryDelay = SystemProperties.getLong("org.opennms.core.snmp.trackSummaryDelay", 60);
     private static long s_trackSummaryLimit = SystemProperties.getLong("org.opennms.core.snmp.trackSummaryLimit", 10);
 
+    // Number of requests a walk may have in flight, 1 disables pipelining
+    public static final String WALKER_WINDOW_SYS_PROP = "org.opennms.snmp.snmp4j.walker.window";
+    public static final String WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP = "org.opennms.snmp.snmp4j.walker.adaptiveMaxRepetitions";
+    public static final String WALKER_MAX_REPETITIONS_LIMIT_SYS_PROP = "org.opennms.snmp.snmp4j.walker.maxRepetitionsLimit";
+
     /**
      * Initialize for v3 communications
      */
@@ -180,15 +188,49 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(snmpAgentConfig);
+        final int window = SystemProperties.getInteger(WALKER_WINDOW_SYS_PROP, 1);
+        final SnmpWalker walker;
+        if (window > 1) {
+            walker = new PipelinedSnmpWalker(agentConfig.getInetAddress(), name, agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker,
+                    window, laneTracker -> new Snmp4JWalker(agentConfig, name, laneTracker));
+        } else {
+            walker = new Snmp4JWalker(agentConfig, name, tracker);
+        }
+        if (Boolean.getBoolean(WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP) && agentConfig.getVersion() != SnmpConstants.version1) {
+            walker.setAdaptiveMaxRepetitions(new AdaptiveMaxRepetitions(agentConfig.getMaxRepetitions(),
+                    SystemProperties.getInteger(WALKER_MAX_REPETITIONS_LIMIT_SYS_PROP, 100)));
+        }
+        return walker;
     }
     
     /**
-     * Not yet implemented.  Use a walker.
+     * SNMP GetBulk implementation. Like {@link #getNext(SnmpAgentConfig, SnmpObjId[])}, this returns the value
+     * following each of the given OIDs, but uses a single GETBULK request where the version allows it.
+     * 
+     * @param agentConfig
+     * @param oids
+     * @return
+     *        Returns an array of Snmp4JValues.  If the
+     *        getBulk was unsuccessful, then the first element
+     *        of the array will be null and length of 1. 
      */
         @Override
-    public SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oid) {
-    	throw new UnsupportedOperationException("Snmp4JStrategy.getBulk not yet implemented.");
+    public SnmpValue[] getBulk(SnmpAgentConfig agentConfig, SnmpObjId[] oids) {
+    	LOG.debug("getBulk: OID: {} for Agent: {}", oids, agentConfig);
+
+        final Snmp4JAgentConfig snmp4jAgentConfig = new Snmp4JAgentConfig(agentConfig);
+        if (snmp4jAgentConfig.getVersion() == SnmpConstants.version1) {
+            return getNext(agentConfig, oids);
+        }
+
+        final PDU pdu = buildPdu(snmp4jAgentConfig, PDU.GETBULK, oids, null);
+        if (pdu == null) {
+            return null;
+        }
+        pdu.setNonRepeaters(0);
+        pdu.setMaxRepetitions(1);
+        return send(snmp4jAgentConfig, pdu, true);
     }
 
         @Override
@@ -315,6 +357,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse && Snmp4JSessionPool.isEnabled()) {
+            sendPooled(agentConfig, pdu, future);
+            return;
+        }
+
         Snmp session;
 
         try {
@@ -379,6 +426,40 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private void sendPooled(Snmp4JAgentConfig agentConfig, PDU pdu, CompletableFuture<SnmpValue[]> future) {
+        final Snmp4JSessionPool pool;
+        final Snmp session;
+        try {
+            pool = Snmp4JSessionPool.getInstance();
+            session = pool.getSession(agentConfig);
+        } catch (final Exception e) {
+            LOG.error("send: Could not get pooled SNMP session for agent {}", agentConfig, e);
+            future.completeExceptionally(new SnmpException("Could not get pooled SNMP session for agent", e));
+            return;
+        }
+
+        try {
+            session.send(pdu, agentConfig.getTarget(), null, new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    // The session outlives the request, cancel it so that SNMP4J doesn't keep it around
+                    session.cancel(responseEvent.getRequest(), this);
+                    pool.releaseSession(session);
+                    pool.responseReceived(responseEvent);
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent, pdu));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(new SnmpException(e));
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            LOG.error("send: error during SNMP operation", e);
+            pool.releaseSession(session);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected static PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
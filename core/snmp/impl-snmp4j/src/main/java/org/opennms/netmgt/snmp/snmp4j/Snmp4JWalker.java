@@ -31,10 +31,10 @@ package org.opennms.netmgt.snmp.snmp4j;
 import java.io.IOException;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SequentialSnmpWalker;
 import org.opennms.netmgt.snmp.SnmpException;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpValue;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.snmp4j.PDU;
@@ -46,7 +46,7 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
 
-public class Snmp4JWalker extends SnmpWalker {
+public class Snmp4JWalker extends SequentialSnmpWalker {
 	
 	private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JWalker.class);
 	
@@ -135,7 +135,7 @@ public class Snmp4JWalker extends SnmpWalker {
      */
     public class Snmp4JResponseListener implements ResponseListener {
 
-        private void processResponse(final PDU response) throws SnmpException {
+        private void processResponse(final PDU request, final PDU response) throws SnmpException {
             try {
                 LOG.debug("Received a tracker PDU of type {} from {} of size {}, errorStatus = {}, errorStatusText = {}, errorIndex = {}", PDU.getTypeString(response.getType()), getAddress(), response.size(), response.getErrorStatus(), response.getErrorStatusText(), response.getErrorIndex());
                 if (response.getType() == PDU.REPORT) {
@@ -145,6 +145,10 @@ public class Snmp4JWalker extends SnmpWalker {
                         if (response.size() == 0) { // NMS-6484
                             handleError("A PDU with no errors and 0 varbinds was returned from the agent at " + getAddress() + ". This seems to be related with a broken SNMP agent.");
                         } else {
+                            if (request.getType() == PDU.GETBULK && getAdaptiveMaxRepetitions() != null) {
+                                final int requested = request.getNonRepeaters() + (request.size() - request.getNonRepeaters()) * request.getMaxRepetitions();
+                                processResponseSize(response.getBERLength(), m_tgt.getMaxSizeRequestPDU(), response.size() >= requested);
+                            }
                             for (int i = 0; i < response.size(); i++) {
                                 final VariableBinding vb = response.get(i);
                                 final SnmpObjId receivedOid = SnmpObjId.get(vb.getOid().getValue());
@@ -164,6 +168,10 @@ public class Snmp4JWalker extends SnmpWalker {
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
             m_session.cancel(responseEvent.getRequest(), this);
+            if (m_pool != null) {
+                m_pendingPdu = null;
+                m_pool.responseReceived(responseEvent);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -177,7 +185,7 @@ public class Snmp4JWalker extends SnmpWalker {
             // If we have a PDU in the response, process it
             } else {
                 try {
-                    processResponse(responseEvent.getResponse());
+                    processResponse(responseEvent.getRequest(), responseEvent.getResponse());
                 } catch (final SnmpException e) {
                     handleFatalError(e);
                 }
@@ -189,6 +197,10 @@ public class Snmp4JWalker extends SnmpWalker {
     }
     
     private Snmp m_session;
+    // Set when m_session is shared with other walkers and requests
+    private Snmp4JSessionPool m_pool;
+    // The last request sent over a pooled session, until it is answered
+    private volatile PDU m_pendingPdu;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
@@ -222,9 +234,14 @@ public class Snmp4JWalker extends SnmpWalker {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
             if (m_session == null) {
-                m_session = m_agentConfig.createSnmpSession();
-                Snmp4JStrategy.trackSession(m_session);
-                m_session.listen();
+                if (Snmp4JSessionPool.isEnabled()) {
+                    m_pool = Snmp4JSessionPool.getInstance();
+                    m_session = m_pool.getSession(m_agentConfig);
+                } else {
+                    m_session = m_agentConfig.createSnmpSession();
+                    Snmp4JStrategy.trackSession(m_session);
+                    m_session.listen();
+                }
             }
         } catch (final IOException e) {
             close();
@@ -233,6 +250,9 @@ public class Snmp4JWalker extends SnmpWalker {
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
         try {
+            if (m_pool != null) {
+                m_pendingPdu = snmp4JPduBuilder.getPdu();
+            }
             m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
@@ -247,7 +267,19 @@ public class Snmp4JWalker extends SnmpWalker {
 
     @Override
     public void close() {
-        if (m_session != null) {
+        if (m_pool != null) {
+            // The session is shared, only give up on our own request
+            final PDU pendingPdu = m_pendingPdu;
+            if (m_session != null && pendingPdu != null) {
+                m_session.cancel(pendingPdu, m_listener);
+            }
+            if (m_session != null) {
+                m_pool.releaseSession(m_session);
+            }
+            m_pendingPdu = null;
+            m_session = null;
+            m_pool = null;
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+public class Snmp4JPipelinedWalkerTest {
+    private static final String IF_X_ENTRY = ".1.3.6.1.2.1.31.1.1.1";
+
+    private static final int COLUMNS = 8;
+
+    private static final int ROWS = 200;
+
+    private final NavigableMap<OID, Variable> m_mib = new TreeMap<>();
+
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    private final AtomicInteger m_maxPending = new AtomicInteger();
+
+    private final AtomicInteger m_tooBigs = new AtomicInteger();
+
+    // Responses larger than this are answered with a tooBig error
+    private volatile int m_maxResponseSize = Integer.MAX_VALUE;
+
+    private ScheduledExecutorService m_executor;
+
+    private Snmp m_agent;
+
+    private int m_agentPort;
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int column = 1; column <= COLUMNS; column++) {
+            for (int row = 1; row <= ROWS; row++) {
+                m_mib.put(new OID(IF_X_ENTRY + "." + column + "." + row), new Counter64(column * 1000000L + row));
+            }
+        }
+        m_mib.put(new OID(".1.3.6.1.2.1.31.1.5.0"), new OctetString("after the table"));
+
+        // Answer every request after a short delay, so the requests of a walk can overlap
+        m_executor = Executors.newScheduledThreadPool(4);
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress(InetAddress.getLoopbackAddress(), 0));
+        m_agent = new Snmp(transport);
+        m_agent.addCommandResponder(event -> {
+            m_maxPending.accumulateAndGet(m_pending.incrementAndGet(), Math::max);
+            event.setProcessed(true);
+            m_executor.schedule(() -> respond(event), 5, TimeUnit.MILLISECONDS);
+        });
+        m_agent.listen();
+        m_agentPort = transport.getListenAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP);
+        System.clearProperty(Snmp4JStrategy.WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP);
+        m_agent.close();
+        m_executor.shutdownNow();
+    }
+
+    private VariableBinding next(final OID oid) {
+        final Map.Entry<OID, Variable> entry = m_mib.higherEntry(oid);
+        return entry == null ? new VariableBinding(oid, Null.endOfMibView) : new VariableBinding(entry.getKey(), entry.getValue());
+    }
+
+    private void respond(final CommandResponderEvent event) {
+        final PDU request = event.getPDU();
+        final PDU response = (PDU) request.clone();
+        response.clear();
+        response.setRequestID(request.getRequestID());
+        response.setType(PDU.RESPONSE);
+        response.setErrorStatus(PDU.noError);
+        response.setErrorIndex(0);
+        if (request.getType() == PDU.GETBULK) {
+            final int nonRepeaters = Math.min(request.getNonRepeaters(), request.size());
+            for (int i = 0; i < nonRepeaters; i++) {
+                response.add(next(request.get(i).getOid()));
+            }
+            final List<OID> last = new ArrayList<>();
+            for (int i = nonRepeaters; i < request.size(); i++) {
+                last.add(request.get(i).getOid());
+            }
+            for (int repetition = 0; repetition < request.getMaxRepetitions(); repetition++) {
+                for (int i = 0; i < last.size(); i++) {
+                    final VariableBinding vb = next(last.get(i));
+                    response.add(vb);
+                    last.set(i, vb.getOid());
+                }
+            }
+        } else {
+            for (final VariableBinding vb : request.getVariableBindings()) {
+                response.add(request.getType() == PDU.GET ? new VariableBinding(vb.getOid(), m_mib.getOrDefault(vb.getOid(), Null.noSuchObject)) : next(vb.getOid()));
+            }
+        }
+        if (response.getBERLength() > m_maxResponseSize) {
+            m_tooBigs.incrementAndGet();
+            response.clear();
+            response.setRequestID(request.getRequestID());
+            response.setErrorStatus(PDU.tooBig);
+        }
+        m_pending.decrementAndGet();
+        try {
+            event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+                    event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+                    event.getStateReference(), new StatusInformation());
+        } catch (final MessageException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static SnmpAgentConfig agentConfig(final int port) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setPort(port);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setReadCommunity("public");
+        config.setTimeout(1000);
+        config.setRetries(1);
+        config.setMaxVarsPerPdu(4);
+        config.setMaxRepetitions(20);
+        return config;
+    }
+
+    /**
+     * Collects the columns of the ifXTable, like the interface collectors do.
+     */
+    private static class ColumnsTracker extends AggregateTracker {
+        private final Map<SnmpObjId, SnmpValue> m_results = new HashMap<>();
+
+        private ColumnsTracker(final int columns) {
+            super(columnTrackers(columns));
+        }
+
+        private static Collectable[] columnTrackers(final int columns) {
+            final Collectable[] trackers = new Collectable[columns];
+            for (int column = 1; column <= columns; column++) {
+                trackers[column - 1] = new ColumnTracker(SnmpObjId.get(IF_X_ENTRY + "." + column));
+            }
+            return trackers;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            // Not synchronized, the walker must not call this concurrently
+            m_results.put(res.getAbsoluteInstance(), res.getValue());
+        }
+    }
+
+    private ColumnsTracker walk(final SnmpAgentConfig config) throws Exception {
+        final ColumnsTracker tracker = new ColumnsTracker(COLUMNS);
+        try (final SnmpWalker walker = m_strategy.createWalker(config, "ifXTable", tracker)) {
+            walker.start();
+            assertTrue(walker.waitFor(30000));
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+        return tracker;
+    }
+
+    private void assertTable(final ColumnsTracker tracker) {
+        assertEquals(COLUMNS * ROWS, tracker.m_results.size());
+        for (int column = 1; column <= COLUMNS; column++) {
+            for (int row = 1; row <= ROWS; row++) {
+                assertEquals(column * 1000000L + row, tracker.m_results.get(SnmpObjId.get(IF_X_ENTRY + "." + column + "." + row)).toLong());
+            }
+        }
+    }
+
+    @Test
+    public void canWalkWithSeveralRequestsInFlight() throws Exception {
+        System.setProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP, "4");
+        assertTable(walk(agentConfig(m_agentPort)));
+        assertTrue("Requests did not overlap", m_maxPending.get() > 1);
+        assertTrue(m_maxPending.get() <= 4);
+    }
+
+    @Test
+    public void canWalkWithOneRequestInFlight() throws Exception {
+        assertTable(walk(agentConfig(m_agentPort)));
+        assertEquals(1, m_maxPending.get());
+    }
+
+    @Test
+    public void canReduceMaxRepetitionsOnTooBig() throws Exception {
+        System.setProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP, "4");
+        System.setProperty(Snmp4JStrategy.WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP, "true");
+        m_maxResponseSize = 400;
+
+        final SnmpAgentConfig config = agentConfig(m_agentPort);
+        config.setMaxVarsPerPdu(1);
+        assertTable(walk(config));
+        assertTrue(m_tooBigs.get() > 0);
+    }
+
+    @Test
+    public void canTimeOutWithSeveralRequestsInFlight() throws Exception {
+        System.setProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP, "4");
+        try (final DatagramSocket silentAgent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final SnmpAgentConfig config = agentConfig(silentAgent.getLocalPort());
+            config.setTimeout(100);
+            try (final SnmpWalker walker = m_strategy.createWalker(config, "ifXTable", new ColumnsTracker(COLUMNS))) {
+                walker.start();
+                assertTrue(walker.waitFor(10000));
+                assertTrue(walker.failed());
+                assertTrue(walker.timedOut());
+            }
+        }
+    }
+
+    @Test
+    public void canGetBulk() throws Exception {
+        final SnmpValue[] values = m_strategy.getBulk(agentConfig(m_agentPort), new SnmpObjId[] {
+                SnmpObjId.get(IF_X_ENTRY + ".1"),
+                SnmpObjId.get(IF_X_ENTRY + ".8." + ROWS)
+        });
+        assertEquals(2, values.length);
+        assertEquals(1000001L, values[0].toLong());
+        assertEquals("after the table", values[1].toDisplayString());
+    }
+}
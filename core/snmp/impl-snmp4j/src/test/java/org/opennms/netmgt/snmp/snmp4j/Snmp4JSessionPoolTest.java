@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.UserTarget;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+public class Snmp4JSessionPoolTest {
+    private static final String SYS_DESCR = ".1.3.6.1.2.1.1.1";
+
+    private Snmp m_agent;
+
+    private int m_agentPort;
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty(Snmp4JSessionPool.ENABLED_SYS_PROP, "true");
+
+        // A minimal agent that answers every GET and GETNEXT with the value of sysDescr.0
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress(InetAddress.getLoopbackAddress(), 0));
+        m_agent = new Snmp(transport);
+        m_agent.addCommandResponder(this::respond);
+        m_agent.listen();
+        m_agentPort = transport.getListenAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Snmp4JSessionPool.shutdown();
+        System.clearProperty(Snmp4JSessionPool.ENABLED_SYS_PROP);
+        m_agent.close();
+    }
+
+    private void respond(final CommandResponderEvent event) {
+        final PDU response = (PDU) event.getPDU().clone();
+        response.setType(PDU.RESPONSE);
+        // GETBULK requests carry the non-repeaters and max-repetitions in these fields
+        response.setErrorStatus(PDU.noError);
+        response.setErrorIndex(0);
+        for (final VariableBinding vb : response.getVariableBindings()) {
+            if (event.getPDU().getType() != PDU.GET) {
+                vb.setOid(new OID(SYS_DESCR + ".0"));
+            }
+            vb.setVariable(new OctetString("pooled"));
+        }
+        try {
+            event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+                    event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+                    event.getStateReference(), new StatusInformation());
+        } catch (final MessageException e) {
+            throw new RuntimeException(e);
+        }
+        event.setProcessed(true);
+    }
+
+    private static SnmpAgentConfig agentConfig(final String address, final int port) throws Exception {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getByName(address));
+        config.setPort(port);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setReadCommunity("public");
+        config.setTimeout(250);
+        config.setRetries(1);
+        return config;
+    }
+
+    private static SnmpAgentConfig v3AgentConfig(final String address, final String securityName, final String authPassPhrase) throws Exception {
+        final SnmpAgentConfig config = agentConfig(address, 161);
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_NOPRIV);
+        config.setSecurityName(securityName);
+        config.setAuthProtocol("SHA");
+        config.setAuthPassPhrase(authPassPhrase);
+        return config;
+    }
+
+    @Test
+    public void canShareTransportsBetweenAgents() throws Exception {
+        final Snmp4JSessionPool pool = new Snmp4JSessionPool(2, 1, 0, 10, 60000);
+        try {
+            final Snmp session = pool.getSession(new Snmp4JAgentConfig(agentConfig("10.0.0.1", 161)));
+            assertSame(session, pool.getSession(new Snmp4JAgentConfig(agentConfig("10.0.0.1", 161))));
+
+            final Set<Snmp> sessions = new HashSet<>();
+            for (int i = 1; i <= 50; i++) {
+                sessions.add(pool.getSession(new Snmp4JAgentConfig(agentConfig("10.0.1." + i, 161))));
+            }
+            assertEquals(2, sessions.size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void canCacheV3SessionsPerSecurityContext() throws Exception {
+        final Snmp4JSessionPool pool = new Snmp4JSessionPool(1, 1, 0, 2, 60000);
+        try {
+            final Snmp session = pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "opennms", "0p3nNMSv3")));
+            assertSame(session, pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.2", "opennms", "0p3nNMSv3"))));
+            assertNotSame(session, pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "opennms", "changeit"))));
+            assertEquals(2, pool.getV3SessionCount());
+
+            // Going over the maximum closes the least recently used session
+            pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "other", "0p3nNMSv3")));
+            assertEquals(2, pool.getV3SessionCount());
+            assertNotSame(session, pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "opennms", "0p3nNMSv3"))));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void canExpireIdleV3Sessions() throws Exception {
+        final Snmp4JSessionPool pool = new Snmp4JSessionPool(1, 1, 0, 10, 0);
+        try {
+            final Snmp session = pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "opennms", "0p3nNMSv3")));
+            Thread.sleep(5);
+            assertNotSame(session, pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "opennms", "0p3nNMSv3"))));
+            assertEquals(1, pool.getV3SessionCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void canEvictV3SessionsInUse() throws Exception {
+        // Bind a socket that never answers
+        try (final DatagramSocket silentAgent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final Snmp4JSessionPool pool = new Snmp4JSessionPool(1, 1, 0, 1, 60000);
+            try {
+                final SnmpAgentConfig config = v3AgentConfig("127.0.0.1", "opennms", "0p3nNMSv3");
+                config.setPort(silentAgent.getLocalPort());
+                config.setRetries(0);
+                final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(config);
+                final Snmp session = pool.getSession(agentConfig);
+
+                // Send a request that stays in flight until it times out, skipping the engine discovery
+                final UserTarget target = (UserTarget) agentConfig.getTarget();
+                target.setAuthoritativeEngineID(new byte[] { (byte) 0x80, 0, 0x1f, (byte) 0x88, 0x04, 0x01 });
+                final PDU pdu = agentConfig.createPdu(PDU.GET);
+                pdu.add(new VariableBinding(new OID(SYS_DESCR + ".0")));
+                final CompletableFuture<ResponseEvent> response = new CompletableFuture<>();
+                session.send(pdu, target, null, new ResponseListener() {
+                    @Override
+                    public void onResponse(final ResponseEvent responseEvent) {
+                        session.cancel(responseEvent.getRequest(), this);
+                        response.complete(responseEvent);
+                    }
+                });
+                assertEquals(1, pool.getInFlight());
+
+                // Another security context evicts the session, but must not close it
+                final Snmp other = pool.getSession(new Snmp4JAgentConfig(v3AgentConfig("10.0.0.1", "other", "0p3nNMSv3")));
+                assertEquals(1, pool.getV3SessionCount());
+                assertTrue(isListening(session));
+                assertEquals(1, pool.getInFlight());
+
+                // The request times out instead of failing because the session was closed
+                final ResponseEvent responseEvent = response.get(10, TimeUnit.SECONDS);
+                assertNull(responseEvent.getResponse());
+                assertNull(responseEvent.getError());
+
+                // The evicted session is closed once it was released
+                pool.releaseSession(session);
+                assertFalse(isListening(session));
+                assertEquals(0, pool.getInFlight());
+
+                // While the cached session stays open after its release
+                pool.releaseSession(other);
+                assertTrue(isListening(other));
+            } finally {
+                pool.close();
+            }
+        }
+    }
+
+    private static boolean isListening(final Snmp session) {
+        for (final TransportMapping<?> transport : session.getMessageDispatcher().getTransportMappings()) {
+            if (transport.isListening()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void canGetAndWalkOverPooledSessions() throws Exception {
+        final SnmpAgentConfig config = agentConfig("127.0.0.1", m_agentPort);
+        for (int i = 0; i < 5; i++) {
+            final SnmpValue value = m_strategy.get(config, SnmpObjId.get(SYS_DESCR + ".0"));
+            assertEquals("pooled", value.toDisplayString());
+        }
+
+        final SingleInstanceTracker tracker = new SingleInstanceTracker(SYS_DESCR, "0");
+        try (final SnmpWalker walker = m_strategy.createWalker(config, "sysDescr", tracker)) {
+            walker.start();
+            assertTrue(walker.waitFor(10000));
+            assertFalse(walker.failed());
+        }
+
+        final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+        assertEquals(0, pool.getInFlight());
+        assertEquals(6, pool.getMetrics().meter("responses").getCount());
+        assertEquals(0, pool.getMetrics().meter("timeouts").getCount());
+    }
+
+    @Test
+    public void canTrackRetriesAndTimeouts() throws Exception {
+        // Bind a socket that never answers
+        try (final DatagramSocket silentAgent = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            final SnmpAgentConfig config = agentConfig("127.0.0.1", silentAgent.getLocalPort());
+            assertNull(m_strategy.get(config, SnmpObjId.get(SYS_DESCR + ".0")));
+
+            final Snmp4JSessionPool pool = Snmp4JSessionPool.getInstance();
+            assertEquals(0, pool.getInFlight());
+            assertEquals(1, pool.getMetrics().meter("timeouts").getCount());
+            assertEquals(1, pool.getMetrics().meter("retries").getCount());
+            assertEquals(2, pool.getMetrics().histogram("attempts").getCount());
+        }
+    }
+}
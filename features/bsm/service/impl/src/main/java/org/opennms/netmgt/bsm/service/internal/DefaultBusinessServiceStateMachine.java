@@ -34,8 +34,11 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -45,7 +48,11 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -77,69 +84,159 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.visualization.VisualizationImageServer;
 
+/**
+ * Maintains the status of the business services by propagating the status of the
+ * alarms through the business service graph.
+ *
+ * The graph is partitioned into its connected components, each with its own lock,
+ * so that alarms on unrelated business services are propagated concurrently. Alarm updates
+ * that arrive while a component is locked are coalesced, and every batch of updates reduces
+ * each affected vertex at most once, deepest vertices first. Handlers are notified
+ * from the threads that propagate the alarms.
+ *
+ * When the business services are reloaded, the new graph is built and primed with the
+ * state of the previous graph without blocking the propagation of alarms. Only the alarm updates
+ * that were applied in the meantime are propagated again before swapping the graphs.
+ */
 public class DefaultBusinessServiceStateMachine implements BusinessServiceStateMachine {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
     @Autowired
-    private AlarmProvider m_alarmProvider;
+    private volatile AlarmProvider m_alarmProvider;
 
     private final List<BusinessServiceStateChangeHandler> m_handlers = Lists.newArrayList();
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
-    private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    private final Lock m_reloadLock = new ReentrantLock();
+    private volatile BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    private Map<GraphVertex, Component> m_components = Collections.emptyMap();
+    // The latest status of the reduction keys that are not part of the current graph, recorded while reloading
+    private volatile Map<String, Status> m_statusesWhileReloading;
+
+    /**
+     * A connected component of the graph.
+     */
+    private static class Component {
+        private final Lock m_lock = new ReentrantLock();
+        // The latest status of the reduction keys that are waiting for the lock
+        private final Map<GraphVertex, Status> m_pending = new ConcurrentHashMap<>();
+    }
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
-        m_rwLock.writeLock().lock();
+        m_reloadLock.lock();
         try {
             // Create a new graph
             BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
+            Map<GraphVertex, Component> components = partition(g);
 
             // Prime the graph with the state from the previous graph and
             // keep track of the new reductions keys
+            final BusinessServiceGraph previousGraph = m_g;
+            Map<GraphVertex, Status> primedStatuses = Maps.newHashMap();
             Set<String> reductionsKeysToLookup = Sets.newHashSet();
             for (String reductionKey : g.getReductionKeys()) {
-                GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
+                GraphVertex reductionKeyVertex = previousGraph.getVertexByReductionKey(reductionKey);
                 if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
+                    primedStatuses.put(g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
                 } else {
                     reductionsKeysToLookup.add(reductionKey);
                 }
             }
 
-            if (m_alarmProvider == null && reductionsKeysToLookup.size() > 0) {
+            // Record the alarms of the reduction keys that are not part of the current graph from here on,
+            // otherwise the ones that arrive after the lookup would be dropped
+            m_statusesWhileReloading = new ConcurrentHashMap<>();
+
+            final AlarmProvider alarmProvider = m_alarmProvider;
+            if (alarmProvider == null && reductionsKeysToLookup.size() > 0) {
                 LOG.warn("There are one or more reduction keys to lookup, but no alarm provider is set.");
             } else {
                 // Query the status of the reductions keys that were added
                 // We do this so that we can immediately reflect the state of the new
                 // graph without having to wait for calls to handleNewOrUpdatedAlarm()
                 if (reductionsKeysToLookup.size() > 0) {
-                    final Map<String, AlarmWrapper> lookup = m_alarmProvider.lookup(reductionsKeysToLookup);
+                    final Map<String, AlarmWrapper> lookup = alarmProvider.lookup(reductionsKeysToLookup);
                     for (Entry<String, AlarmWrapper> eachEntry : lookup.entrySet()) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
+                        primedStatuses.put(g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
                     }
                 }
             }
-            m_g = g;
+            final Map<GraphVertex, Status> previousStatuses = updateAndPropagateVertices(g, primedStatuses);
+
+            m_rwLock.writeLock().lock();
+            try {
+                // Apply the alarms that were propagated on the previous graph while we were priming the new one
+                Map<GraphVertex, Status> updatedStatuses = Maps.newHashMap();
+                for (String reductionKey : g.getReductionKeys()) {
+                    GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
+                    GraphVertex newReductionKeyVertex = g.getVertexByReductionKey(reductionKey);
+                    if (reductionKeyVertex != null && !reductionKeyVertex.getStatus().equals(primedStatuses.get(newReductionKeyVertex))) {
+                        updatedStatuses.put(newReductionKeyVertex, reductionKeyVertex.getStatus());
+                    }
+                }
+                // And the alarms of the added reduction keys that arrived after the lookup
+                for (Entry<String, Status> entry : m_statusesWhileReloading.entrySet()) {
+                    GraphVertex newReductionKeyVertex = g.getVertexByReductionKey(entry.getKey());
+                    if (newReductionKeyVertex != null) {
+                        updatedStatuses.put(newReductionKeyVertex, entry.getValue());
+                    }
+                }
+                updateAndPropagateVertices(g, updatedStatuses).forEach(previousStatuses::putIfAbsent);
+
+                onStatusUpdated(g, previousStatuses);
+                m_g = g;
+                m_components = components;
+            } finally {
+                m_rwLock.writeLock().unlock();
+            }
         } finally {
-            m_rwLock.writeLock().unlock();
+            m_statusesWhileReloading = null;
+            m_reloadLock.unlock();
         }
     }
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
-        m_rwLock.writeLock().lock();
+        m_rwLock.readLock().lock();
         try {
-            // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            final GraphVertex vertex = m_g.getVertexByReductionKey(alarm.getReductionKey());
+            if (vertex == null) {
+                final Map<String, Status> statusesWhileReloading = m_statusesWhileReloading;
+                if (statusesWhileReloading != null) {
+                    // The reduction key may be part of the graph that is being loaded
+                    statusesWhileReloading.put(alarm.getReductionKey(), alarm.getStatus());
+                }
+                return;
+            }
+
+            // Queue the status, replacing any status of the same reduction key that has not been propagated yet
+            final Component component = m_components.get(vertex);
+            component.m_pending.put(vertex, alarm.getStatus());
+
+            component.m_lock.lock();
+            try {
+                // Propagate the queued statuses, unless another thread already took care of them
+                final Map<GraphVertex, Status> newStatuses = Maps.newHashMap();
+                for (GraphVertex pendingVertex : component.m_pending.keySet()) {
+                    final Status pendingStatus = component.m_pending.remove(pendingVertex);
+                    if (pendingStatus != null) {
+                        newStatuses.put(pendingVertex, pendingStatus);
+                    }
+                }
+                onStatusUpdated(m_g, updateAndPropagateVertices(m_g, newStatuses));
+            } finally {
+                component.m_lock.unlock();
+            }
         } finally {
-            m_rwLock.writeLock().unlock();
+            m_rwLock.readLock().unlock();
         }
     }
 
@@ -148,9 +245,12 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         final Set<String> reductionKeysFromGivenAlarms = new HashSet<>(alarms.size());
         m_rwLock.writeLock().lock();
         try {
+            final Map<GraphVertex, Status> newStatuses = Maps.newHashMap();
             for (AlarmWrapper alarm : alarms) {
-                // Recursively propagate the status for all of the given alarms
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+                final GraphVertex vertex = m_g.getVertexByReductionKey(alarm.getReductionKey());
+                if (vertex != null) {
+                    newStatuses.put(vertex, alarm.getStatus());
+                }
                 // Keep track of the reduction keys that have been processed
                 reductionKeysFromGivenAlarms.add(alarm.getReductionKey());
             }
@@ -158,14 +258,64 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), reductionKeysFromGivenAlarms)) {
                 // There is a vertex on the graph that corresponds to this reduction key
                 // but no alarm with this reduction key exists
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
+                newStatuses.put(m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
             }
+
+            // Propagate the statuses for all of the given alarms at once
+            onStatusUpdated(m_g, updateAndPropagateVertices(m_g, newStatuses));
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
+    /**
+     * Partitions the graph into its (weakly) connected components.
+     */
+    private static Map<GraphVertex, Component> partition(BusinessServiceGraph graph) {
+        final Map<GraphVertex, Component> components = Maps.newHashMapWithExpectedSize(graph.getVertexCount());
+        final Deque<GraphVertex> toVisit = new ArrayDeque<>();
+        for (GraphVertex vertex : graph.getVertices()) {
+            if (components.containsKey(vertex)) {
+                continue;
+            }
+            final Component component = new Component();
+            components.put(vertex, component);
+            toVisit.push(vertex);
+            while (!toVisit.isEmpty()) {
+                for (GraphVertex neighbor : graph.getNeighbors(toVisit.pop())) {
+                    if (components.putIfAbsent(neighbor, component) == null) {
+                        toVisit.push(neighbor);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * Updates the status of the given vertices and propagates the changes up the graph.
+     *
+     * The affected vertices are reduced one level at a time, starting from the deepest one,
+     * so that every vertex is reduced at most once, after all of its children were updated.
+     *
+     * @return the status the updated vertices had before the update
+     */
+    private static Map<GraphVertex, Status> updateAndPropagateVertices(BusinessServiceGraph graph, Map<GraphVertex, Status> newStatuses) {
+        final Map<GraphVertex, Status> previousStatuses = new LinkedHashMap<>();
+        final TreeMap<Integer, Set<GraphVertex>> verticesToReduce = new TreeMap<>(Comparator.reverseOrder());
+        for (Entry<GraphVertex, Status> entry : newStatuses.entrySet()) {
+            updateVertex(graph, entry.getKey(), entry.getValue(), previousStatuses, verticesToReduce);
+        }
+        while (!verticesToReduce.isEmpty()) {
+            for (GraphVertex vertex : verticesToReduce.pollFirstEntry().getValue()) {
+                updateVertex(graph, vertex, reduce(graph, vertex), previousStatuses, verticesToReduce);
+            }
+        }
+        return previousStatuses;
+    }
+
+    private static void updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus,
+            Map<GraphVertex, Status> previousStatuses, Map<Integer, Set<GraphVertex>> verticesToReduce) {
         if (vertex == null) {
             // Nothing to do here
             return;
@@ -181,12 +331,9 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             return;
         }
         vertex.setStatus(newStatus);
-
-        // Notify the listeners
-        onStatusUpdated(graph, vertex, previousStatus);
+        previousStatuses.putIfAbsent(vertex, previousStatus);
 
         // Update the edges with the mapped status
-        List<GraphEdge> updatedEges = Lists.newArrayList();
         for (GraphEdge edge : graph.getInEdges(vertex)) {
             Status mappedStatus = newStatus;
             if (newStatus.isGreaterThan(MIN_SEVERITY)) {
@@ -201,38 +348,25 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 continue;
             }
 
-            // Update the status and add it to the list of edges to propagate
+            // Update the status and reduce the parent once all of its children have been updated
             edge.setStatus(mappedStatus);
-            updatedEges.add(edge);
-        }
-
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            verticesToReduce.computeIfAbsent(parent.getLevel(), level -> Sets.newHashSet()).add(parent);
         }
     }
 
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
-        }
-
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
         Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
 
-        Status newStatus;
         if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
+            return reducedStatus.get().getStatus();
         } else {
-            newStatus = MIN_SEVERITY;
+            return MIN_SEVERITY;
         }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -271,6 +405,14 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         return statuses;
     }
 
+    private void onStatusUpdated(BusinessServiceGraph graph, Map<GraphVertex, Status> previousStatuses) {
+        for (Entry<GraphVertex, Status> entry : previousStatuses.entrySet()) {
+            if (!entry.getKey().getStatus().equals(entry.getValue())) {
+                onStatusUpdated(graph, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     private void onStatusUpdated(BusinessServiceGraph graph, GraphVertex vertex, Status previousStatus) {
         BusinessService businessService = vertex.getBusinessService();
         if (businessService == null) {
@@ -37,6 +37,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -56,6 +60,7 @@ import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DefaultBusinessServiceStateMachineTest {
@@ -156,6 +161,124 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals(1, stateChangeHandler.getStateChanges().size());
     }
 
+    @Test
+    public void canPropagateAlarmsFromConcurrentThreads() throws Exception {
+        // Create 10 unrelated hierarchies, each with a child sharing 5 reduction keys with its parent
+        MockBusinessServiceHierarchy.HierarchyBuilder builder = MockBusinessServiceHierarchy.builder();
+        for (int i = 0; i < 10; i++) {
+            MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder parent = builder.withBusinessService(i * 10);
+            MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder child = parent.withBusinessService(i * 10 + 1);
+            for (int k = 0; k < 5; k++) {
+                parent.withReductionKey(i * 100 + k, "a" + i + "-" + k);
+                child.withReductionKey(i * 100 + 50 + k, "a" + i + "-" + k);
+            }
+            child.commit();
+            parent.commit();
+        }
+        MockBusinessServiceHierarchy h = builder.build();
+
+        // Setup the state machine
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Send a burst of alarms from every thread, raising and clearing all of the reduction keys
+        final Status[] statuses = new Status[] { Status.WARNING, Status.CRITICAL, Status.MINOR, Status.NORMAL };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (Status status : statuses) {
+                        for (int i = 0; i < 10; i++) {
+                            for (int k = 0; k < 5; k++) {
+                                stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a" + i + "-" + k, status));
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Raise a single reduction key, and verify the state of every business service
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a3-2", Status.MAJOR));
+        for (int i = 0; i < 10; i++) {
+            Status expectedStatus = i == 3 ? Status.MAJOR : Status.NORMAL;
+            assertEquals(expectedStatus, stateMachine.getOperationalStatus(h.getBusinessServiceById(i * 10)));
+            assertEquals(expectedStatus, stateMachine.getOperationalStatus(h.getBusinessServiceById(i * 10 + 1)));
+        }
+
+        // The notifications of every business service must end with its current status
+        Map<Long, Status> lastNotifiedStatuses = Maps.newHashMap();
+        for (LoggingStateChangeHandler.StateChange stateChange : stateChangeHandler.getStateChanges()) {
+            lastNotifiedStatuses.put(stateChange.getBusinessService().getId(), stateChange.getNewSeverity());
+        }
+        for (BusinessService businessService : h.getBusinessServices()) {
+            assertEquals(stateMachine.getOperationalStatus(businessService), lastNotifiedStatuses.getOrDefault(businessService.getId(), Status.NORMAL));
+        }
+    }
+
+    @Test
+    public void canHandleAlarmsWhileReloading() throws Exception {
+        // Create a simple hierarchy
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionKey(1, "a1")
+                    .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+
+        // Setup the state machine
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Update a1 and the newly added a2 from another thread after the new reduction keys were looked up
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            stateMachine.setAlarmProvider(new AlarmProvider() {
+                @Override
+                public Map<String, AlarmWrapper> lookup(Set<String> reductionKeys) {
+                    try {
+                        executor.submit(() -> stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.MAJOR)))
+                            .get(30, TimeUnit.SECONDS);
+                        executor.submit(() -> stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a2", Status.CRITICAL)))
+                            .get(30, TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    return new HashMap<>();
+                }
+            });
+
+            // Update the hierarchy and reload the state machine
+            h = MockBusinessServiceHierarchy.builder()
+                    .withBusinessService(1)
+                        .withReductionKey(1, "a1")
+                        .withReductionKey(2, "a2")
+                        .commit()
+                    .build();
+            stateMachine.setBusinessServices(h.getBusinessServices());
+        } finally {
+            executor.shutdown();
+        }
+
+        // The update of a1 was applied to the previous graph and carried over to the new one
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus("a1"));
+        // The update of a2 was not part of the previous graph nor the lookup, but must not be lost
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus("a2"));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b1));
+        // One state change event for the update of the previous graph and one for the swap
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+    }
+
     @Test
     public void canPerformRootCauseAndImpactAnalysis() {
         // Create a hierarchy using all of the available reduction functions
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.bsm.test;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.opennms.netmgt.bsm.service.BusinessServiceStateChangeHandler;
@@ -69,7 +70,7 @@ public class LoggingStateChangeHandler implements BusinessServiceStateChangeHand
         }
     }
 
-    private final List<StateChange> m_stateChanges = Lists.newArrayList();
+    private final List<StateChange> m_stateChanges = Collections.synchronizedList(Lists.newArrayList());
 
     @Override
     public void handleBusinessServiceStateChanged(BusinessServiceGraph graph, BusinessService businessService, Status newStatus, Status prevStatus) {
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent writes to a storage backend, adjusting the limit with
+ * additive-increase/multiplicative-decrease (AIMD) based on the observed write latency.
+ * <p>
+ * Every write completing within the target latency grows the limit by one over the course of a
+ * full round of writes, while a write that exceeds the target or fails shrinks it by the backoff
+ * ratio. Only writes started after the last decrease can shrink the limit again, so a burst of
+ * slow writes that were in flight together only counts once.
+ * <p>
+ * Callers that can't acquire a permit block, which lets the backpressure propagate to whoever
+ * produces the writes.
+ */
+public class AimdLimiter {
+
+    private final int m_minLimit;
+
+    private final int m_maxLimit;
+
+    private final double m_backoffRatio;
+
+    private volatile long m_targetLatencyNanos;
+
+    // guarded by this
+    private double m_limit;
+
+    private int m_inFlight = 0;
+
+    private long m_lastDecrease;
+
+    /**
+     * Instantiates a new limiter starting at the maximum limit.
+     *
+     * @param minLimit the lowest number of concurrent writes
+     * @param maxLimit the highest number of concurrent writes
+     * @param targetLatency the latency above which the limit is decreased
+     * @param unit the unit of the target latency
+     * @param backoffRatio the factor applied to the limit when decreasing it
+     */
+    public AimdLimiter(final int minLimit, final int maxLimit, final long targetLatency, final TimeUnit unit, final double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + minLimit + " - " + maxLimit);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("The backoff ratio must be between 0 and 1: " + backoffRatio);
+        }
+        m_minLimit = minLimit;
+        m_maxLimit = maxLimit;
+        m_backoffRatio = backoffRatio;
+        m_limit = maxLimit;
+        m_lastDecrease = System.nanoTime();
+        setTargetLatency(targetLatency, unit);
+    }
+
+    public void setTargetLatency(final long targetLatency, final TimeUnit unit) {
+        m_targetLatencyNanos = unit.toNanos(targetLatency);
+    }
+
+    public long getTargetLatency(final TimeUnit unit) {
+        return unit.convert(m_targetLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Blocks until the number of writes in flight is below the limit.
+     *
+     * @return the start time of the write, to be passed to {@link #release(long, boolean)}
+     */
+    public long acquire() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (m_inFlight >= (int) m_limit) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            m_inFlight++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Completes a write and adjusts the limit based on its outcome.
+     *
+     * @param start the value returned by {@link #acquire()}
+     * @param failed true if the write failed
+     */
+    public void release(final long start, final boolean failed) {
+        final long now = System.nanoTime();
+        synchronized (this) {
+            m_inFlight--;
+            if (failed || now - start > m_targetLatencyNanos) {
+                if (start - m_lastDecrease >= 0) {
+                    m_limit = Math.max(m_minLimit, m_limit * m_backoffRatio);
+                    m_lastDecrease = now;
+                }
+            } else {
+                m_limit = Math.min(m_maxLimit, m_limit + 1.0 / m_limit);
+            }
+            notifyAll();
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) m_limit;
+    }
+
+    public synchronized int getInFlight() {
+        return m_inFlight;
+    }
+}
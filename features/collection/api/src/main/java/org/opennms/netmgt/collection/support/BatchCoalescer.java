@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Merges small batches into larger ones before they are written to a storage backend.
+ * <p>
+ * The merged batch is handed out as soon as it reaches the target size in bytes, as estimated
+ * by the given function. Batches that don't fill up are handed out by {@link #takeExpired()}
+ * once they are older than the max delay, which the owner is expected to call periodically.
+ * A target size of zero disables merging.
+ *
+ * @param <T> the type of the batched elements
+ */
+public class BatchCoalescer<T> {
+
+    private final ToLongFunction<T> m_sizeEstimator;
+
+    private volatile long m_targetBytes;
+
+    private volatile long m_maxDelayNanos;
+
+    // guarded by this
+    private List<T> m_batch;
+
+    private long m_bytes;
+
+    private long m_started;
+
+    public BatchCoalescer(final ToLongFunction<T> sizeEstimator, final long targetBytes, final long maxDelay, final TimeUnit unit) {
+        m_sizeEstimator = sizeEstimator;
+        setTargetBytes(targetBytes);
+        setMaxDelay(maxDelay, unit);
+    }
+
+    public long getTargetBytes() {
+        return m_targetBytes;
+    }
+
+    public void setTargetBytes(final long targetBytes) {
+        m_targetBytes = targetBytes;
+    }
+
+    public long getMaxDelay(final TimeUnit unit) {
+        return unit.convert(m_maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void setMaxDelay(final long maxDelay, final TimeUnit unit) {
+        m_maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Adds the elements to the pending batch.
+     *
+     * @return the batch to write if it reached the target size, or the given elements if merging
+     *         is disabled, null otherwise
+     */
+    public List<T> add(final List<T> elements) {
+        final long targetBytes = m_targetBytes;
+        if (targetBytes <= 0) {
+            return elements;
+        }
+
+        long bytes = 0;
+        for (final T element : elements) {
+            bytes += m_sizeEstimator.applyAsLong(element);
+        }
+
+        synchronized (this) {
+            if (m_batch == null) {
+                m_batch = new ArrayList<>(elements.size() * 4);
+                m_started = System.nanoTime();
+            }
+            m_batch.addAll(elements);
+            m_bytes += bytes;
+            return m_bytes >= targetBytes ? take() : null;
+        }
+    }
+
+    /**
+     * @return the pending batch if it waited longer than the max delay, null otherwise
+     */
+    public synchronized List<T> takeExpired() {
+        if (m_batch != null && System.nanoTime() - m_started >= m_maxDelayNanos) {
+            return take();
+        }
+        return null;
+    }
+
+    /**
+     * @return the pending batch, or null if there is none
+     */
+    public synchronized List<T> take() {
+        final List<T> batch = m_batch;
+        m_batch = null;
+        m_bytes = 0;
+        return batch;
+    }
+}
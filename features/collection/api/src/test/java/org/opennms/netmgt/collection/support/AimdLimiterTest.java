@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AimdLimiterTest {
+
+    @Test
+    public void decreasesOnSlowWritesAndRecovers() {
+        final AimdLimiter limiter = new AimdLimiter(1, 8, 1, TimeUnit.SECONDS, 0.5);
+        assertEquals(8, limiter.getLimit());
+
+        // writes taking longer than the target back off
+        limiter.setTargetLatency(0, TimeUnit.NANOSECONDS);
+        limiter.release(limiter.acquire(), false);
+        assertEquals(4, limiter.getLimit());
+        limiter.setTargetLatency(1, TimeUnit.SECONDS);
+
+        // failed writes back off as well
+        limiter.release(limiter.acquire(), true);
+        assertEquals(2, limiter.getLimit());
+
+        // every round of fast writes grows the limit by about one
+        for (int i = 0; i < 3; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.release(limiter.acquire(), false);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void concurrentSlowWritesOnlyBackOffOnce() {
+        final AimdLimiter limiter = new AimdLimiter(1, 8, 1, TimeUnit.SECONDS, 0.5);
+        final long first = limiter.acquire();
+        final long second = limiter.acquire();
+
+        limiter.release(first, true);
+        limiter.release(second, true);
+        assertEquals(4, limiter.getLimit());
+
+        limiter.release(limiter.acquire(), true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test(timeout = 10000)
+    public void blocksAtTheLimit() throws InterruptedException {
+        final AimdLimiter limiter = new AimdLimiter(1, 1, 1, TimeUnit.SECONDS, 0.5);
+        final long start = limiter.acquire();
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            limiter.release(limiter.acquire(), false);
+            acquired.countDown();
+        });
+        thread.start();
+
+        assertEquals(false, acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.release(start, false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+    }
+}
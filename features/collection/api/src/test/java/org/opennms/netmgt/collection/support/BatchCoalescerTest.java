@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BatchCoalescerTest {
+
+    @Test
+    public void mergesUntilTheTargetSize() {
+        final BatchCoalescer<String> coalescer = new BatchCoalescer<>(String::length, 10, 1, TimeUnit.HOURS);
+
+        assertNull(coalescer.add(Arrays.asList("abc", "def")));
+        assertNull(coalescer.add(Arrays.asList("ghi")));
+        assertEquals(Arrays.asList("abc", "def", "ghi", "jkl"), coalescer.add(Arrays.asList("jkl")));
+
+        assertNull(coalescer.add(Arrays.asList("mno")));
+        assertNull(coalescer.takeExpired());
+        assertEquals(Arrays.asList("mno"), coalescer.take());
+        assertNull(coalescer.take());
+    }
+
+    @Test
+    public void handsOutExpiredBatches() throws InterruptedException {
+        final BatchCoalescer<String> coalescer = new BatchCoalescer<>(String::length, 1000, 10, TimeUnit.MILLISECONDS);
+        assertNull(coalescer.add(Arrays.asList("abc")));
+        Thread.sleep(20);
+        assertEquals(Arrays.asList("abc"), coalescer.takeExpired());
+        assertNull(coalescer.takeExpired());
+    }
+
+    @Test
+    public void passesBatchesThroughWhenDisabled() {
+        final BatchCoalescer<String> coalescer = new BatchCoalescer<>(String::length, 0, 1, TimeUnit.HOURS);
+        final List<String> batch = Arrays.asList("abc");
+        assertSame(batch, coalescer.add(batch));
+        assertNull(coalescer.take());
+    }
+}
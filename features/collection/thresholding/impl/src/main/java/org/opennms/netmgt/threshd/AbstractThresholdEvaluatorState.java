@@ -97,6 +97,11 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
 
     private final SerializingBlobStore<T> kvStore;
 
+    /**
+     * The write-behind buffer of the session, null if states are persisted as soon as they change.
+     */
+    private final ThresholdStateBuffer stateBuffer;
+
     protected T state;
     
     protected final ThresholdingSession thresholdingSession;
@@ -176,6 +181,9 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
 
         this.thresholdingSession = thresholdingSession;
         kvStore = getKvStoreForType(stateType, thresholdingSession.getBlobStore());
+        stateBuffer = thresholdingSession instanceof ThresholdingSessionImpl
+                ? ((ThresholdingSessionImpl) thresholdingSession).getStateBuffer()
+                : null;
         key = String.format("%d-%s-%s-%s-%s-%s", thresholdingSession.getKey().getNodeId(),
                 thresholdingSession.getKey().getLocation(), threshold.getDsType(),
                 threshold.getDatasourceExpression(), threshold.getType(),
@@ -232,8 +240,13 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
     private void persistStateIfNeeded() {
         if (shouldPersist()) {
             try {
-                long newTimestamp = kvStore.put(key, state, THRESHOLDING_KV_CONTEXT, stateTTL);
-                lastUpdatedCache.put(key, newTimestamp);
+                if (stateBuffer != null) {
+                    // The timestamp is recorded by the buffer once the state has been flushed
+                    stateBuffer.put(key, fst.asByteArray(state), stateTTL);
+                } else {
+                    long newTimestamp = kvStore.put(key, state, THRESHOLDING_KV_CONTEXT, stateTTL);
+                    lastUpdatedCache.put(key, newTimestamp);
+                }
 
                 // If we successfully stored the state we will mark that the persisted state is up to date and no longer
                 // dirty
@@ -244,6 +257,13 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
         }
     }
 
+    /**
+     * Records the timestamp of a state that was written to the store by a {@link ThresholdStateBuffer}.
+     */
+    static void statePersisted(String key, Long timestamp) {
+        lastUpdatedCache.put(key, timestamp);
+    }
+
     @SuppressWarnings("unchecked")
     private void fetchState() {
         thresholdingSession.getThresholdStateMonitor().withReadLock(() -> {
@@ -257,6 +277,11 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
             }
 
             try {
+                // Make sure we read our own writes
+                if (stateBuffer != null && stateBuffer.isPending(key)) {
+                    stateBuffer.flush();
+                }
+
                 Long lastKnownUpdate = lastUpdatedCache.get(key);
 
                 // If we don't have a record of when this was last updated locally, get it from the store
@@ -377,6 +402,10 @@ public abstract class AbstractThresholdEvaluatorState<T extends AbstractThreshol
     @Override
     public synchronized void reinitialize() {
         firstEvaluation = true;
+        if (stateBuffer != null) {
+            // The persisted state is about to be cleared, don't let a pending write bring it back
+            stateBuffer.remove(key);
+        }
         clearStateBeforePersist();
     }
 
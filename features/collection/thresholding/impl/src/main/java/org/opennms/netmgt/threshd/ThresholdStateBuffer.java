@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.opennms.features.distributed.kvstore.api.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterables;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * Write-behind buffer for the serialized states of the threshold evaluators of a single
+ * {@link org.opennms.netmgt.threshd.api.ThresholdingSession}.
+ * <p>
+ * Dirty states are kept in memory, with repeated updates to the same key coalesced, and written to the
+ * {@link BlobStore} in multi-key batches by the {@link ThresholdStateFlusher}. A flush is triggered once the batch
+ * size is reached or once the oldest pending state has been waiting for the flush interval, whichever comes first.
+ * <p>
+ * The states that can be lost when the process dies are bounded by the flush interval and by the maximum number of
+ * pending states. Once this maximum is reached, the evaluating thread flushes the buffer itself.
+ */
+public class ThresholdStateBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateBuffer.class);
+    private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.ofSeconds(30))
+            .build();
+
+    private final BlobStore blobStore;
+
+    private final String context;
+
+    private final ThresholdStateFlusher flusher;
+
+    private final BiConsumer<String, Long> persistedCallback;
+
+    // Guarded by this
+    private Map<String, PendingState> pending = new LinkedHashMap<>();
+
+    // Guarded by this, the time at which the oldest pending state was added
+    private long oldestPendingMillis;
+
+    // Held for the duration of the flush so that batches for the same keys are never written out of order
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private static class PendingState {
+        private final byte[] value;
+        private final Integer ttlInSeconds;
+
+        private PendingState(byte[] value, Integer ttlInSeconds) {
+            this.value = value;
+            this.ttlInSeconds = ttlInSeconds;
+        }
+    }
+
+    /**
+     * @param persistedCallback invoked with the key and timestamp of every state that was written to the store
+     */
+    public ThresholdStateBuffer(BlobStore blobStore, String context, ThresholdStateFlusher flusher,
+                                BiConsumer<String, Long> persistedCallback) {
+        this.blobStore = Objects.requireNonNull(blobStore);
+        this.context = Objects.requireNonNull(context);
+        this.flusher = Objects.requireNonNull(flusher);
+        this.persistedCallback = Objects.requireNonNull(persistedCallback);
+    }
+
+    /**
+     * Buffers the given state, replacing any pending state for the same key.
+     */
+    public void put(String key, byte[] value, Integer ttlInSeconds) {
+        final int size;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestPendingMillis = System.currentTimeMillis();
+            }
+            pending.put(key, new PendingState(value, ttlInSeconds));
+            size = pending.size();
+        }
+
+        if (size >= flusher.getMaxPending()) {
+            // Don't let the buffer grow any further, this bounds the number of states we can lose
+            flush();
+        } else if (size >= flusher.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+            flusher.flushNow(this);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flusher.scheduleFlush(this);
+        }
+    }
+
+    public synchronized boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    /**
+     * Discards any pending state for the given key, waiting for a flush that may be writing it to complete.
+     */
+    public void remove(String key) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pending.remove(key);
+            }
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all of the pending states to the store.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            flushRequested.set(false);
+
+            final Map<String, PendingState> batch;
+            final long oldestMillis;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                oldestMillis = oldestPendingMillis;
+                pending = new LinkedHashMap<>();
+            }
+            flusher.getFlushLag().update(System.currentTimeMillis() - oldestMillis);
+
+            // The TTL is configured globally, but group by it anyways since the batch API takes a single TTL
+            final Map<Integer, List<Map.Entry<String, PendingState>>> byTtl = new HashMap<>();
+            for (Map.Entry<String, PendingState> entry : batch.entrySet()) {
+                byTtl.computeIfAbsent(entry.getValue().ttlInSeconds, ttl -> new ArrayList<>()).add(entry);
+            }
+
+            for (Map.Entry<Integer, List<Map.Entry<String, PendingState>>> ttlEntries : byTtl.entrySet()) {
+                for (List<Map.Entry<String, PendingState>> entries : Iterables.partition(ttlEntries.getValue(), flusher.getBatchSize())) {
+                    final Map<String, byte[]> values = new LinkedHashMap<>();
+                    entries.forEach(e -> values.put(e.getKey(), e.getValue().value));
+                    try {
+                        final Map<String, Long> timestamps = flusher.getFlushTimer().time(() ->
+                                blobStore.putAll(values, context, ttlEntries.getKey()));
+                        timestamps.forEach(persistedCallback);
+                        flusher.getBatchSizes().update(values.size());
+                    } catch (Exception e) {
+                        RATE_LIMITED_LOGGER.warn("Failed to store {} threshold states. Retrying on the next flush.", values.size(), e);
+                        flusher.getFlushFailures().inc();
+                        requeue(entries, oldestMillis);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the states of a failed batch back to the buffer, unless they were updated in the meantime.
+     */
+    private void requeue(List<Map.Entry<String, PendingState>> entries, long oldestMillis) {
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestPendingMillis = oldestMillis;
+            } else {
+                oldestPendingMillis = Math.min(oldestPendingMillis, oldestMillis);
+            }
+            final Map<String, PendingState> merged = new LinkedHashMap<>();
+            entries.forEach(e -> merged.put(e.getKey(), e.getValue()));
+            merged.putAll(pending);
+            pending = merged;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.scheduleFlush(this);
+        }
+    }
+}
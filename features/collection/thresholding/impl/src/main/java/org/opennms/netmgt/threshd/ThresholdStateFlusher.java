@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Flushes the {@link ThresholdStateBuffer}s of all the thresholding sessions using a shared pool of threads.
+ * <p>
+ * The flush lag (how long the oldest state in a batch was pending), the batch sizes, the flush latency and the number
+ * of failed flushes are exposed via JMX.
+ */
+public class ThresholdStateFlusher {
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateFlusher.class);
+
+    public static final String ENABLED_SYS_PROP = "org.opennms.netmgt.threshd.state.write_behind";
+
+    public static final String BATCH_SIZE_SYS_PROP = "org.opennms.netmgt.threshd.state.batch_size";
+
+    public static final String FLUSH_INTERVAL_MS_SYS_PROP = "org.opennms.netmgt.threshd.state.flush_interval_ms";
+
+    public static final String MAX_PENDING_SYS_PROP = "org.opennms.netmgt.threshd.state.max_pending";
+
+    public static final String FLUSH_THREADS_SYS_PROP = "org.opennms.netmgt.threshd.state.flush_threads";
+
+    public static final String JMX_DOMAIN = "org.opennms.netmgt.threshd.state";
+
+    private final int batchSize;
+
+    private final long flushIntervalMs;
+
+    private final int maxPending;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    // The buffers with a flush that has been scheduled but has not started yet
+    private final Set<ThresholdStateBuffer> scheduledBuffers = ConcurrentHashMap.newKeySet();
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private final Histogram flushLag = metrics.histogram("flushLag");
+
+    private final Histogram batchSizes = metrics.histogram("batchSize");
+
+    private final Timer flushTimer = metrics.timer("flush");
+
+    private final Counter flushFailures = metrics.counter("flushFailures");
+
+    private JmxReporter reporter;
+
+    public ThresholdStateFlusher() {
+        this(SystemProperties.getInteger(BATCH_SIZE_SYS_PROP, 500),
+                SystemProperties.getLong(FLUSH_INTERVAL_MS_SYS_PROP, TimeUnit.SECONDS.toMillis(5)),
+                SystemProperties.getInteger(MAX_PENDING_SYS_PROP, 10000),
+                SystemProperties.getInteger(FLUSH_THREADS_SYS_PROP, 2));
+    }
+
+    public ThresholdStateFlusher(int batchSize, long flushIntervalMs, int maxPending, int threads) {
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+        executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactoryBuilder()
+                .setNameFormat("threshd-state-flusher-%d")
+                .setDaemon(true)
+                .build());
+        // Flush the buffers ourselves on stop instead of waiting for the delayed flushes to come due
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        metrics.register("pendingFlushes", (Gauge<Integer>) () -> executor.getQueue().size());
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_SYS_PROP, "true"));
+    }
+
+    public void start() {
+        reporter = JmxReporter.forRegistry(metrics)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        reporter.start();
+    }
+
+    /**
+     * Stops the flusher, writing the states that were scheduled to be flushed before returning.
+     */
+    public void stop() {
+        if (reporter != null) {
+            reporter.stop();
+            reporter = null;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warn("Timed out waiting for the threshold states to be flushed.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduledBuffers.forEach(this::flush);
+    }
+
+    void scheduleFlush(ThresholdStateBuffer buffer) {
+        submit(buffer, flushIntervalMs);
+    }
+
+    void flushNow(ThresholdStateBuffer buffer) {
+        submit(buffer, 0);
+    }
+
+    private void submit(ThresholdStateBuffer buffer, long delayMs) {
+        try {
+            scheduledBuffers.add(buffer);
+            executor.schedule(() -> flush(buffer), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // We're shutting down, flush on the calling thread instead
+            flush(buffer);
+        }
+    }
+
+    private void flush(ThresholdStateBuffer buffer) {
+        scheduledBuffers.remove(buffer);
+        buffer.flush();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    Histogram getFlushLag() {
+        return flushLag;
+    }
+
+    Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    Timer getFlushTimer() {
+        return flushTimer;
+    }
+
+    Counter getFlushFailures() {
+        return flushFailures;
+    }
+}
@@ -36,6 +36,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.opennms.core.soa.lookup.ServiceLookup;
 import org.opennms.core.soa.lookup.ServiceLookupBuilder;
@@ -106,6 +107,8 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
 
     private final Timer reInitializeTimer = new Timer();
 
+    private final ThresholdStateFlusher stateFlusher = ThresholdStateFlusher.isEnabled() ? new ThresholdStateFlusher() : null;
+
     private boolean isDistributed = false;
     
     // Spring init entry point
@@ -113,6 +116,7 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
     private void init() {
         // When we are on OpenNMS we will have been wired an event manager and can listen for events
         eventIpcManager.addEventListener(this, UEI_LIST);
+        startStateFlusher();
     }
 
     // OSGi init entry point
@@ -120,6 +124,7 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
         // If we were started viag OSGi then we are on Sentinel therefore we will mark ourselves as being distributed
         // for thresholding
         isDistributed = true;
+        startStateFlusher();
         
         reInitializeTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
@@ -131,6 +136,21 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
         }, 0, TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES));
     }
     
+    private void startStateFlusher() {
+        if (stateFlusher != null) {
+            stateFlusher.start();
+        }
+    }
+
+    // Spring and OSGi destroy entry point
+    @PreDestroy
+    public void destroy() {
+        reInitializeTimer.cancel();
+        if (stateFlusher != null) {
+            stateFlusher.stop();
+        }
+    }
+
     private void reinitializeOnTimer() {
         thresholdingSetPersister.reinitializeThresholdingSets();
     }
@@ -187,8 +207,11 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
         }
         
         ThresholdingSessionKey sessionKey = new ThresholdingSessionKeyImpl(nodeId, hostAddress, serviceName);
+        ThresholdStateBuffer stateBuffer = stateFlusher == null ? null : new ThresholdStateBuffer(kvStore.get(),
+                AbstractThresholdEvaluatorState.THRESHOLDING_KV_CONTEXT, stateFlusher,
+                AbstractThresholdEvaluatorState::statePersisted);
         return new ThresholdingSessionImpl(this, sessionKey, serviceParams,
-                                           kvStore.get(), isDistributed, thresholdStateMonitor);
+                                           kvStore.get(), isDistributed, thresholdStateMonitor, stateBuffer);
     }
 
     public ThresholdingVisitorImpl getThresholdingVistor(ThresholdingSession session, Long sequenceNumber) throws ThresholdInitializationException {
@@ -275,4 +298,8 @@ public class ThresholdingServiceImpl implements ThresholdingService, EventListen
     public void setThresholdStateMonitor(ThresholdStateMonitor thresholdStateMonitor) {
         this.thresholdStateMonitor = Objects.requireNonNull(thresholdStateMonitor);
     }
+
+    public ThresholdStateFlusher getStateFlusher() {
+        return stateFlusher;
+    }
 }
@@ -54,15 +54,24 @@ public class ThresholdingSessionImpl implements ThresholdingSession {
     
     private final ThresholdStateMonitor thresholdStateMonitor;
 
+    private final ThresholdStateBuffer stateBuffer;
+
     public ThresholdingSessionImpl(ThresholdingServiceImpl service, ThresholdingSessionKey sessionKey,
                                    ServiceParameters serviceParams, BlobStore blobStore, boolean isDistributed,
                                    ThresholdStateMonitor thresholdStateMonitor) {
+        this(service, sessionKey, serviceParams, blobStore, isDistributed, thresholdStateMonitor, null);
+    }
+
+    public ThresholdingSessionImpl(ThresholdingServiceImpl service, ThresholdingSessionKey sessionKey,
+                                   ServiceParameters serviceParams, BlobStore blobStore, boolean isDistributed,
+                                   ThresholdStateMonitor thresholdStateMonitor, ThresholdStateBuffer stateBuffer) {
         this.service = service;
         this.sessionKey = sessionKey;
         this.serviceParameters = serviceParams;
         this.blobStore = blobStore;
         this.isDistributed = isDistributed;
         this.thresholdStateMonitor = thresholdStateMonitor;
+        this.stateBuffer = stateBuffer;
     }
 
     @Override
@@ -72,6 +81,9 @@ public class ThresholdingSessionImpl implements ThresholdingSession {
 
     @Override
     public void close() throws Exception {
+        if (stateBuffer != null) {
+            stateBuffer.flush();
+        }
         service.close(this);
     }
 
@@ -85,6 +97,14 @@ public class ThresholdingSessionImpl implements ThresholdingSession {
         return blobStore;
     }
 
+    /**
+     * @return the buffer used to persist the states of the evaluators in batches, or null if they should be
+     * persisted as soon as they change
+     */
+    public ThresholdStateBuffer getStateBuffer() {
+        return stateBuffer;
+    }
+
     public ServiceParameters getServiceParameters() {
         return serviceParameters;
     }
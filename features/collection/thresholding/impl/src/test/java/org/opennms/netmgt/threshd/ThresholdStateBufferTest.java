@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.features.distributed.kvstore.blob.inmemory.InMemoryMapBlobStore;
+
+public class ThresholdStateBufferTest {
+    private static final String CONTEXT = "thresholding";
+
+    private final TestBlobStore blobStore = new TestBlobStore();
+
+    private final Map<String, Long> persisted = new ConcurrentHashMap<>();
+
+    private ThresholdStateFlusher flusher;
+
+    private static class TestBlobStore extends InMemoryMapBlobStore {
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final AtomicBoolean failing = new AtomicBoolean(false);
+
+        private TestBlobStore() {
+            super(System::currentTimeMillis);
+        }
+
+        @Override
+        public Map<String, Long> putAll(Map<String, byte[]> values, String context, Integer ttlInSeconds) {
+            if (failing.get()) {
+                throw new RuntimeException("Store unavailable");
+            }
+            synchronized (batchSizes) {
+                batchSizes.add(values.size());
+            }
+            return super.putAll(values, context, ttlInSeconds);
+        }
+
+        private List<Integer> getBatchSizes() {
+            synchronized (batchSizes) {
+                return new ArrayList<>(batchSizes);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (flusher != null) {
+            flusher.stop();
+        }
+    }
+
+    private ThresholdStateBuffer createBuffer(int batchSize, long flushIntervalMs, int maxPending) {
+        flusher = new ThresholdStateFlusher(batchSize, flushIntervalMs, maxPending, 1);
+        return new ThresholdStateBuffer(blobStore, CONTEXT, flusher, persisted::put);
+    }
+
+    @Test
+    public void canCoalesceUpdatesToTheSameKey() {
+        ThresholdStateBuffer buffer = createBuffer(100, TimeUnit.HOURS.toMillis(1), 1000);
+        buffer.put("a", new byte[]{1}, 60);
+        buffer.put("a", new byte[]{2}, 60);
+        buffer.put("b", new byte[]{3}, 60);
+        assertEquals(2, buffer.getPendingCount());
+        assertTrue(buffer.isPending("a"));
+        assertFalse(blobStore.get("a", CONTEXT).isPresent());
+
+        buffer.flush();
+        assertEquals(0, buffer.getPendingCount());
+        assertArrayEquals(new byte[]{2}, blobStore.get("a", CONTEXT).get());
+        assertArrayEquals(new byte[]{3}, blobStore.get("b", CONTEXT).get());
+        assertEquals(1, blobStore.getBatchSizes().size());
+        assertEquals(2, blobStore.getBatchSizes().get(0).intValue());
+        assertEquals(blobStore.getLastUpdated("a", CONTEXT).getAsLong(), persisted.get("a").longValue());
+    }
+
+    @Test
+    public void canFlushOnceTheBatchSizeIsReached() {
+        ThresholdStateBuffer buffer = createBuffer(10, TimeUnit.HOURS.toMillis(1), 1000);
+        for (int i = 0; i < 10; i++) {
+            buffer.put("key" + i, new byte[]{(byte) i}, 60);
+        }
+        await().atMost(10, TimeUnit.SECONDS).until(persisted::size, equalTo(10));
+        assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    public void canFlushOnceTheIntervalElapses() {
+        ThresholdStateBuffer buffer = createBuffer(100, 100, 1000);
+        buffer.put("a", new byte[]{1}, 60);
+        await().atMost(10, TimeUnit.SECONDS).until(() -> persisted.containsKey("a"));
+        assertFalse(buffer.isPending("a"));
+    }
+
+    @Test
+    public void canSplitFlushesIntoBatches() {
+        ThresholdStateBuffer buffer = createBuffer(4, TimeUnit.HOURS.toMillis(1), 10);
+        // Stop the flusher from writing so we can check the batches of a single flush
+        blobStore.failing.set(true);
+        for (int i = 0; i < 9; i++) {
+            buffer.put("key" + i, new byte[]{(byte) i}, 60);
+        }
+        blobStore.failing.set(false);
+        buffer.flush();
+        assertEquals(9, persisted.size());
+        List<Integer> batchSizes = blobStore.getBatchSizes();
+        assertEquals(3, batchSizes.size());
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 4));
+    }
+
+    @Test
+    public void canRequeueStatesWhenTheFlushFails() {
+        ThresholdStateBuffer buffer = createBuffer(100, TimeUnit.HOURS.toMillis(1), 1000);
+        buffer.put("a", new byte[]{1}, 60);
+        buffer.put("b", new byte[]{1}, 60);
+
+        blobStore.failing.set(true);
+        buffer.flush();
+        assertEquals(2, buffer.getPendingCount());
+        assertEquals(1, flusher.getFlushFailures().getCount());
+
+        // Newer states win over the requeued ones
+        buffer.put("a", new byte[]{2}, 60);
+        blobStore.failing.set(false);
+        buffer.flush();
+        assertEquals(0, buffer.getPendingCount());
+        assertArrayEquals(new byte[]{2}, blobStore.get("a", CONTEXT).get());
+        assertArrayEquals(new byte[]{1}, blobStore.get("b", CONTEXT).get());
+    }
+
+    @Test
+    public void canDiscardPendingStates() {
+        ThresholdStateBuffer buffer = createBuffer(100, TimeUnit.HOURS.toMillis(1), 1000);
+        buffer.put("a", new byte[]{1}, 60);
+        buffer.remove("a");
+        buffer.flush();
+        assertFalse(blobStore.get("a", CONTEXT).isPresent());
+    }
+}
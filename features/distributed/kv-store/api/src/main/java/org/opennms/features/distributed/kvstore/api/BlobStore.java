@@ -28,8 +28,31 @@
 
 package org.opennms.features.distributed.kvstore.api;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
 /**
  * Marker interface for implementations of {@link KeyValueStore} that deal with byte arrays.
  */
 public interface BlobStore extends KeyValueStore<byte[]> {
+    /**
+     * Put multiple values in the same context with a single request, if supported by the implementation.
+     * <p>
+     * The default implementation puts the values one at a time. The batch is not atomic, if the call fails some of
+     * the values may have been persisted.
+     *
+     * @param values       the values to persist, keyed by their key
+     * @param context      a context used to differentiate between keys with the same name (forms a compound key)
+     * @param ttlInSeconds the time to live in seconds for the keys or no ttl if null
+     * @return the timestamps the values were persisted with, keyed by their key
+     */
+    default Map<String, Long> putAll(Map<String, byte[]> values, String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+        Objects.requireNonNull(context);
+
+        Map<String, Long> timestamps = new HashMap<>();
+        values.forEach((key, value) -> timestamps.put(key, put(key, value, context, ttlInSeconds)));
+        return timestamps;
+    }
 }
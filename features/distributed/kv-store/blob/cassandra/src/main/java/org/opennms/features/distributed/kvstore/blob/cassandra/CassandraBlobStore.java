@@ -31,10 +31,12 @@ package org.opennms.features.distributed.kvstore.blob.cassandra;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -120,6 +122,24 @@ public class CassandraBlobStore extends AbstractKeyValueStore<byte[]> implements
         return timestamp;
     }
 
+    @Override
+    public Map<String, Long> putAll(Map<String, byte[]> values, String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+        Objects.requireNonNull(context);
+
+        long timestamp = System.currentTimeMillis();
+        // The keys are spread across partitions so we issue the inserts concurrently rather than using a batch
+        List<ResultSetFuture> futures = new ArrayList<>(values.size());
+        values.forEach((key, value) -> futures.add(session.executeAsync(getStatementForInsert(key, context,
+                ByteBuffer.wrap(value), timestamp, ttlInSeconds))));
+        // Cassandra will throw a runtime exception here if any of the executions failed
+        futures.forEach(ResultSetFuture::getUninterruptibly);
+
+        Map<String, Long> timestamps = new HashMap<>();
+        values.keySet().forEach(key -> timestamps.put(key, timestamp));
+        return timestamps;
+    }
+
     @Override
     public Optional<byte[]> get(String key, String context) {
         byte[] serializedValue;
@@ -34,6 +34,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -119,30 +120,76 @@ public abstract class AbstractPostgresKeyValueStore<T, S> extends AbstractAsyncK
         long now = System.currentTimeMillis();
 
         withStatement(this::getUpsertStatement, upsertStatement -> {
-            // The below sets the prepared values for both the INSERT and UPDATE cases hence some values being 
-            // repeated
-            upsertStatement.setString(1, key);
-            upsertStatement.setString(2, context);
-            upsertStatement.setTimestamp(3, new java.sql.Timestamp(now));
-            upsertStatement.setTimestamp(6, new java.sql.Timestamp(now));
-
-            if (ttlInSeconds != null) {
-                long expireTime = now + TimeUnit.MILLISECONDS.convert(ttlInSeconds, TimeUnit.SECONDS);
-                upsertStatement.setTimestamp(4, new java.sql.Timestamp(expireTime));
-                upsertStatement.setTimestamp(7, new java.sql.Timestamp(expireTime));
-            } else {
-                upsertStatement.setNull(4, Types.DATE);
-                upsertStatement.setNull(7, Types.DATE);
-            }
-
-            upsertStatement.setObject(5, getSQLTypeFromValueType(value));
-            upsertStatement.setObject(8, getSQLTypeFromValueType(value));
+            setUpsertValues(upsertStatement, key, value, context, ttlInSeconds, now);
             return upsertStatement.execute();
         });
 
         return now;
     }
 
+    /**
+     * Put multiple values in the same context using a single batched upsert within one transaction.
+     *
+     * @return the timestamps the values were persisted with, keyed by their key
+     */
+    public Map<String, Long> putAll(Map<String, T> values, String context, Integer ttlInSeconds) {
+        Objects.requireNonNull(values);
+        Objects.requireNonNull(context);
+
+        if (values.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        long now = System.currentTimeMillis();
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsertStatement = getUpsertStatement(connection)) {
+                for (Map.Entry<String, T> entry : values.entrySet()) {
+                    setUpsertValues(upsertStatement, Objects.requireNonNull(entry.getKey()),
+                            Objects.requireNonNull(entry.getValue()), context, ttlInSeconds, now);
+                    upsertStatement.addBatch();
+                }
+                upsertStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<String, Long> timestamps = new HashMap<>();
+        values.keySet().forEach(key -> timestamps.put(key, now));
+        return timestamps;
+    }
+
+    private void setUpsertValues(PreparedStatement upsertStatement, String key, T value, String context,
+                                 Integer ttlInSeconds, long now) throws SQLException {
+        // The below sets the prepared values for both the INSERT and UPDATE cases hence some values being 
+        // repeated
+        upsertStatement.setString(1, key);
+        upsertStatement.setString(2, context);
+        upsertStatement.setTimestamp(3, new java.sql.Timestamp(now));
+        upsertStatement.setTimestamp(6, new java.sql.Timestamp(now));
+
+        if (ttlInSeconds != null) {
+            long expireTime = now + TimeUnit.MILLISECONDS.convert(ttlInSeconds, TimeUnit.SECONDS);
+            upsertStatement.setTimestamp(4, new java.sql.Timestamp(expireTime));
+            upsertStatement.setTimestamp(7, new java.sql.Timestamp(expireTime));
+        } else {
+            upsertStatement.setNull(4, Types.DATE);
+            upsertStatement.setNull(7, Types.DATE);
+        }
+
+        upsertStatement.setObject(5, getSQLTypeFromValueType(value));
+        upsertStatement.setObject(8, getSQLTypeFromValueType(value));
+    }
+
     @Override
     public Optional<T> get(String key, String context) {
         Objects.requireNonNull(key);
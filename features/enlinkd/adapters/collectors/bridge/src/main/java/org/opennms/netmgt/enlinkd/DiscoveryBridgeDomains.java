@@ -29,6 +29,7 @@
 package org.opennms.netmgt.enlinkd;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
@@ -38,8 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 import org.opennms.netmgt.enlinkd.common.Discovery;
@@ -48,6 +48,7 @@ import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyException;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyService;
 import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
 import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,12 +67,12 @@ public class DiscoveryBridgeDomains extends Discovery {
         m_bridgeTopologyService = bridgeTopologyService;
     }
             
-    private BroadcastDomain find(Set<Integer> nodes, Set<String> setA) throws BridgeTopologyException {
+    private BroadcastDomain find(Set<Integer> nodes, BitSet setA, MacIndex macIndex) throws BridgeTopologyException {
         
         BroadcastDomain domain = null;
         
         for (BroadcastDomain curBDomain : m_bridgeTopologyService.findAll()) {
-            if (BroadcastDomain.checkMacSets(setA, curBDomain.getMacsOnSegments())) {
+            if (BroadcastDomain.checkMacSets(setA, macIndex.toBitmap(curBDomain.getMacsOnSegments()))) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("find: node:{}, domain:{}",
                              nodes, 
@@ -117,8 +118,9 @@ public class DiscoveryBridgeDomains extends Discovery {
 
         Map<Integer, Set<BridgeForwardingTableEntry>> nodeBft 
             = new HashMap<Integer, Set<BridgeForwardingTableEntry>>();
-        Map<Integer, Set<String>> nodeMacs 
-        = new HashMap<Integer, Set<String>>();
+        Map<Integer, BitSet> nodeMacs 
+        = new HashMap<Integer, BitSet>();
+        MacIndex macIndex = new MacIndex();
 
         Set<Integer> nodeids 
         = new HashSet<Integer>(
@@ -134,11 +136,11 @@ public class DiscoveryBridgeDomains extends Discovery {
                 continue;
             }
             nodeBft.put(nodeid, links);
-            Set<String> macs = new HashSet<String>();
+            BitSet macs = new BitSet();
             for (BridgeForwardingTableEntry link : links) {
-                macs.add(link.getMacAddress());
+                macs.set(macIndex.intern(link.getMacAddress()));
             }
-            LOG.debug("run: node:[{}]. macs:{}", nodeid, macs);
+            LOG.debug("run: node:[{}]. macs:{}", nodeid, macIndex.asSet(macs));
             nodeMacs.put(nodeid, macs);
         }
 
@@ -170,7 +172,8 @@ public class DiscoveryBridgeDomains extends Discovery {
             LOG.debug("run: nodes are on same domain {}",nodeondomainbft.get(nodeid).keySet());
             try {
                 BroadcastDomain domain = find(nodeondomainbft.get(nodeid).keySet(),
-                                              nodeMacs.get(nodeid));
+                                              nodeMacs.get(nodeid),
+                                              macIndex);
                 DiscoveryBridgeTopology nodebridgetopology = new DiscoveryBridgeTopology(domain);
                 
                 synchronized (domain) {
@@ -221,18 +224,19 @@ public class DiscoveryBridgeDomains extends Discovery {
         }
 
         if (n > 0) {
-            LOG.debug("run: creating executorService with {} Threads", n);
-            ExecutorService executorService = Executors.newFixedThreadPool(n);
-            LOG.debug("run: created executorService with {} Threads", n);
+            // broadcast domains are independent: calculate them in parallel
+            LOG.debug("run: creating forkJoinPool with {} Threads", n);
+            ForkJoinPool forkJoinPool = new ForkJoinPool(n);
+            LOG.debug("run: created forkJoinPool with {} Threads", n);
 
             try {
-                for (Future<String> future : executorService.invokeAll(taskList)) {
+                for (Future<String> future : forkJoinPool.invokeAll(taskList)) {
                     LOG.info("run: {}", future.get());
                 }
             } catch (InterruptedException | ExecutionException e) {
                 LOG.error("run: executing task {}", e.getMessage(), e);
             }
-            executorService.shutdown();
+            forkJoinPool.shutdown();
         } else {
             LOG.info("run: no updates on broadcast domains");
         }
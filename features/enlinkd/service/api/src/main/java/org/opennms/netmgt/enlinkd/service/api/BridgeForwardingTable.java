@@ -29,6 +29,8 @@
 package org.opennms.netmgt.enlinkd.service.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -147,12 +149,22 @@ public class BridgeForwardingTable implements Topology {
 
         return bridgeFt;
     }
+
+    public static BridgeForwardingTable create(Bridge bridge, Set<BridgeForwardingTableEntry> entries, MacIndex macIndex) throws BridgeTopologyException {
+        final BridgeForwardingTable bridgeFt = create(bridge, entries);
+        bridgeFt.index(macIndex);
+        return bridgeFt;
+    }
     
     private final Bridge m_bridge;
     private final Set<BridgeForwardingTableEntry> m_entries;
     private Map<String, BridgePort> m_mactoport = new HashMap<String, BridgePort>();
     private Map<String, Set<BridgePort>> m_duplicated = new HashMap<String, Set<BridgePort>>();
     private Set<BridgePortWithMacs> m_porttomac = new HashSet<BridgePortWithMacs>();
+    private MacIndex m_macIndex;
+    private BitSet m_learned;
+    private int[] m_learnedPositions;
+    private BridgePort[] m_learnedPorts;
 
     private BridgeForwardingTable(Bridge bridge, Set<BridgeForwardingTableEntry> entries) {
         m_bridge = bridge;
@@ -179,6 +191,57 @@ public class BridgeForwardingTable implements Topology {
 
     public void setMactoport(Map<String, BridgePort> mactoport) {
         m_mactoport = mactoport;
+        m_macIndex = null;
+        m_learned = null;
+        m_learnedPositions = null;
+        m_learnedPorts = null;
+    }
+
+    // the learned macs as a bitmap of the positions in the index,
+    // with the learned ports sorted by position.
+    // the mac to port map must not change after the table is indexed
+    public void index(MacIndex macIndex) {
+        final long[] sorted = new long[m_mactoport.size()];
+        final BridgePort[] ports = new BridgePort[sorted.length];
+        int i = 0;
+        for (Map.Entry<String, BridgePort> entry: m_mactoport.entrySet()) {
+            sorted[i] = (long) macIndex.intern(entry.getKey()) << 32 | i;
+            ports[i++] = entry.getValue();
+        }
+        Arrays.sort(sorted);
+
+        m_learnedPositions = new int[sorted.length];
+        m_learnedPorts = new BridgePort[sorted.length];
+        m_learned = new BitSet(macIndex.size());
+        for (i = 0; i < sorted.length; i++) {
+            m_learnedPositions[i] = (int) (sorted[i] >>> 32);
+            m_learnedPorts[i] = ports[(int) sorted[i]];
+            m_learned.set(m_learnedPositions[i]);
+        }
+        m_macIndex = macIndex;
+    }
+
+    // the ports of the learned macs at the given positions, which must be sorted
+    BridgePort[] getLearnedPorts(int[] positions) {
+        final BridgePort[] ports = new BridgePort[positions.length];
+        int j = 0;
+        for (int i = 0; i < positions.length; i++) {
+            while (j < m_learnedPositions.length && m_learnedPositions[j] < positions[i]) {
+                j++;
+            }
+            if (j < m_learnedPositions.length && m_learnedPositions[j] == positions[i]) {
+                ports[i] = m_learnedPorts[j];
+            }
+        }
+        return ports;
+    }
+
+    public MacIndex getMacIndex() {
+        return m_macIndex;
+    }
+
+    public BitSet getLearnedBitmap() {
+        return m_learned;
     }
 
     public Map<String, Set<BridgePort>> getDuplicated() {
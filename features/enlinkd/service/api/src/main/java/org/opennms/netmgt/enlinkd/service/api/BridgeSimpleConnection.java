@@ -29,10 +29,13 @@
 package org.opennms.netmgt.enlinkd.service.api;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -196,8 +199,7 @@ public class BridgeSimpleConnection implements Topology {
         }
         
         
-        Set<String> commonlearnedmacs = new HashSet<String>(m_xBridge.getMactoport().keySet()); 
-        commonlearnedmacs.retainAll(new HashSet<String>(m_yBridge.getMactoport().keySet()));
+        CommonLearnedMacs commonlearnedmacs = getCommonLearnedMacs(m_xBridge, m_yBridge);
         if (LOG.isDebugEnabled()) {
             LOG.debug("bridge: [{}] <-> [{}] common (learned mac): {}",
                   m_yBridge.getNodeId(),
@@ -244,7 +246,64 @@ public class BridgeSimpleConnection implements Topology {
         m_yxPort= ports.get(1);
     }
 
-    private static List<BridgePort> condition3(Set<String> commonlearnedmacs,
+    // the macs learned by both bridges, with the ports on which each bridge learned them
+    private static final class CommonLearnedMacs {
+        private final BridgeForwardingTable m_xBridgeFt;
+        private final BridgePort[] m_xPorts;
+        private final BridgePort[] m_yPorts;
+        private final IntFunction<String> m_macs;
+
+        private CommonLearnedMacs(BridgeForwardingTable xBridgeFt, BridgePort[] xPorts, BridgePort[] yPorts, IntFunction<String> macs) {
+            m_xBridgeFt = xBridgeFt;
+            m_xPorts = xPorts;
+            m_yPorts = yPorts;
+            m_macs = macs;
+        }
+
+        private int size() {
+            return m_xPorts.length;
+        }
+
+        private String getMac(int i) {
+            return m_macs.apply(i);
+        }
+
+        private BridgePort getPort(BridgeForwardingTable bridgeFt, int i) {
+            return bridgeFt == m_xBridgeFt ? m_xPorts[i] : m_yPorts[i];
+        }
+
+        @Override
+        public String toString() {
+            return IntStream.range(0, size()).mapToObj(m_macs).collect(Collectors.joining(", ", "[", "]"));
+        }
+    }
+
+    // intersect the bitmaps when both tables are indexed by the same calculation
+    private static CommonLearnedMacs getCommonLearnedMacs(BridgeForwardingTable bridgexFt,
+                                                          BridgeForwardingTable bridgeyFt) {
+        final MacIndex macIndex = bridgexFt.getMacIndex();
+        if (macIndex != null && macIndex == bridgeyFt.getMacIndex()) {
+            BitSet common = (BitSet) bridgexFt.getLearnedBitmap().clone();
+            common.and(bridgeyFt.getLearnedBitmap());
+            final int[] positions = common.stream().toArray();
+            return new CommonLearnedMacs(bridgexFt,
+                                         bridgexFt.getLearnedPorts(positions),
+                                         bridgeyFt.getLearnedPorts(positions),
+                                         i -> macIndex.getMac(positions[i]));
+        }
+        Set<String> commonlearnedmacs = new HashSet<String>(bridgexFt.getMactoport().keySet()); 
+        commonlearnedmacs.retainAll(new HashSet<String>(bridgeyFt.getMactoport().keySet()));
+        final String[] macs = commonlearnedmacs.toArray(new String[commonlearnedmacs.size()]);
+        final BridgePort[] xPorts = new BridgePort[macs.length];
+        final BridgePort[] yPorts = new BridgePort[macs.length];
+        for (int i = 0; i < macs.length; i++) {
+            xPorts[i] = bridgexFt.getMactoport().get(macs[i]);
+            yPorts[i] = bridgeyFt.getMactoport().get(macs[i]);
+        }
+        return new CommonLearnedMacs(bridgexFt, xPorts, yPorts, i -> macs[i]);
+    }
+
+    private static List<BridgePort> condition3(CommonLearnedMacs commonlearnedmacs,
                                                BridgeForwardingTable bridgexFt,
                                                BridgeForwardingTable bridgeyFt
                                                ) throws BridgeTopologyException {
@@ -260,9 +319,6 @@ public class BridgeSimpleConnection implements Topology {
     //                                                  m_3 belongs to FDB(xy,X) FDB(p3,Y)
     //
 
-        Map<String,BridgePort> xbft = bridgexFt.getMactoport();
-        Map<String,BridgePort> ybft = bridgeyFt.getMactoport();
-
         if (LOG.isDebugEnabled()) {
             LOG.debug("condition3: common (learned mac): -> {}",
                   commonlearnedmacs);
@@ -274,11 +330,13 @@ public class BridgeSimpleConnection implements Topology {
         BridgePort xp1=null;
         BridgePort xp2=null;
         List<BridgePort> bbports = new ArrayList<BridgePort>(2);
-        for (String mac: commonlearnedmacs) {
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            BridgePort yp = commonlearnedmacs.getPort(bridgeyFt, i);
+            BridgePort xp = commonlearnedmacs.getPort(bridgexFt, i);
             if (mac1 == null) {
-                mac1=mac;
-                yp1=ybft.get(mac);
-                xp1=xbft.get(mac);
+                mac1=commonlearnedmacs.getMac(i);
+                yp1=yp;
+                xp1=xp;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("condition3: mac:[{}] {} - {} ", mac1,
                               xp1.printTopology(),
@@ -286,14 +344,14 @@ public class BridgeSimpleConnection implements Topology {
                 }
                 continue;
             }
-            if (ybft.get(mac).getBridgePort() == yp1.getBridgePort()
-                    && xbft.get(mac).getBridgePort() == xp1.getBridgePort()) {
+            if (yp.getBridgePort() == yp1.getBridgePort()
+                    && xp.getBridgePort() == xp1.getBridgePort()) {
                 continue;
             }
             if (mac2 == null) {
-                mac2=mac;
-                yp2=ybft.get(mac);
-                xp2=xbft.get(mac);
+                mac2=commonlearnedmacs.getMac(i);
+                yp2=yp;
+                xp2=xp;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("condition3: mac:[{}], {} - {} ", mac2,
                           xp2.printTopology(),
@@ -301,14 +359,14 @@ public class BridgeSimpleConnection implements Topology {
                 }
                 continue;
             }
-            if (ybft.get(mac).getBridgePort() == yp2.getBridgePort() 
-                    && xbft.get(mac).getBridgePort() == xp2.getBridgePort()) {
+            if (yp.getBridgePort() == yp2.getBridgePort() 
+                    && xp.getBridgePort() == xp2.getBridgePort()) {
                 continue;
             }
-            BridgePort yp3 = ybft.get(mac);
-            BridgePort xp3 = xbft.get(mac);
+            BridgePort yp3 = yp;
+            BridgePort xp3 = xp;
             if (LOG.isDebugEnabled()) {
-                LOG.debug("condition3: mac:[{}], {} - {} ", mac,
+                LOG.debug("condition3: mac:[{}], {} - {} ", commonlearnedmacs.getMac(i),
                           xp3.printTopology(),
                           yp3.printTopology());
             }
@@ -400,13 +458,13 @@ public class BridgeSimpleConnection implements Topology {
     // condition 2 yx found                         m_x belongs to FDB(yx,Y)
     // if exists m_1 and m_2, p1 and p2 on Y :      m_1 belongs to FDB(p1,Y) FDB(xy,X)
     //                                              m_2 belongs to FDB(p2,Y) FDB(xy,X)
-    private static BridgePort condition2(Set<String> commonlearnedmacs, BridgePort bridge1port, 
+    private static BridgePort condition2(CommonLearnedMacs commonlearnedmacs, BridgePort bridge1port, 
             BridgeForwardingTable bridge1Ft, 
             BridgeForwardingTable bridge2Ft) throws BridgeTopologyException {
         
-        for (String mac: commonlearnedmacs) {
-            BridgePort bridge1port1 = bridge1Ft.getMactoport().get(mac);
-            BridgePort bridge2port1 = bridge2Ft.getMactoport().get(mac);
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            BridgePort bridge1port1 = commonlearnedmacs.getPort(bridge1Ft, i);
+            BridgePort bridge2port1 = commonlearnedmacs.getPort(bridge2Ft, i);
             if (bridge1port.getBridgePort().intValue() != bridge1port1.getBridgePort().intValue()) {
                 LOG.debug("condition2: bridge:[{}] <- {}", 
                           bridge1Ft.getNodeId(),
@@ -455,7 +513,25 @@ public class BridgeSimpleConnection implements Topology {
         for (String mac: commonlearnedmacs) {
             ports.add(bridge2Ft.getMactoport().get(mac));
         }
-        
+        return getForwardingPort(ports, bridge2Ft);
+    }
+
+    private static BridgePort conditionB(CommonLearnedMacs commonlearnedmacs, 
+            BridgeForwardingTable bridge2Ft) throws BridgeTopologyException {
+                
+        if (bridge2Ft.getPorttomac().size() != 2) {
+            throw new BridgeTopologyException("conditionB: bft has more then 2 forwarding ports", bridge2Ft);
+        }
+
+        Set<BridgePort> ports =  new HashSet<BridgePort>();
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            ports.add(commonlearnedmacs.getPort(bridge2Ft, i));
+        }
+        return getForwardingPort(ports, bridge2Ft);
+    }
+
+    private static BridgePort getForwardingPort(Set<BridgePort> ports, 
+            BridgeForwardingTable bridge2Ft) throws BridgeTopologyException {
         if (ports.size() != 1) {
             throw new BridgeTopologyException("conditionB: common macs have more then 1 forwarding port", bridge2Ft);
         }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.enlinkd.service.api;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,7 +43,11 @@ public class BroadcastDomain implements Topology {
     public static final float DOMAIN_MATCH_MIN_RATIO = 0.5f;
         
     public static void addforwarders(BroadcastDomain domain, BridgeForwardingTable bridgeFT) {
-        Set<String> macs = new HashSet<String>(domain.getMacsOnSegments());
+        addforwarders(domain, bridgeFT, domain.getMacsOnSegments());
+    }
+
+    // macs are the macs on segments: compute them once when adding the forwarders of many bridges
+    public static void addforwarders(BroadcastDomain domain, BridgeForwardingTable bridgeFT, Set<String> macs) {
         domain.cleanForwarders(bridgeFT.getNodeId());
         for (String forward:  bridgeFT.getMactoport().keySet()) {
             if (macs.contains(forward)) {
@@ -55,10 +60,21 @@ public class BroadcastDomain implements Topology {
     public static boolean checkMacSets(Set<String> setA, Set<String> setB) {
         Set<String>retainedSet = new HashSet<String>(setB);
         retainedSet.retainAll(setA);
+        return checkMacSets(retainedSet.size(), setA.size(), setB.size());
+    }
+
+    // same check on the bitmaps of a MacIndex
+    public static boolean checkMacSets(BitSet setA, BitSet setB) {
+        BitSet retainedSet = (BitSet) setB.clone();
+        retainedSet.and(setA);
+        return checkMacSets(retainedSet.cardinality(), setA.cardinality(), setB.cardinality());
+    }
+
+    private static boolean checkMacSets(int retained, int sizeA, int sizeB) {
         // should contain at list 20 or 50% of the all size
-        if (retainedSet.size() > DOMAIN_MATCH_MIN_SIZE
-            || retainedSet.size() > setA.size() * DOMAIN_MATCH_MIN_RATIO
-            || retainedSet.size() > setB.size() * DOMAIN_MATCH_MIN_RATIO
+        if (retained > DOMAIN_MATCH_MIN_SIZE
+            || retained > sizeA * DOMAIN_MATCH_MIN_RATIO
+            || retained > sizeB * DOMAIN_MATCH_MIN_RATIO
                 ) {
             return true;
         }
@@ -43,6 +43,7 @@ public class DiscoveryBridgeTopology {
 
     private Map<Integer,BridgeForwardingTable> m_bridgeFtMapUpdate = new HashMap<Integer, BridgeForwardingTable>();
     private final BroadcastDomain m_domain;
+    private final MacIndex m_macIndex = new MacIndex();
     private Set<Integer> m_failed;
     private Set<Integer> m_parsed;
     
@@ -63,7 +64,7 @@ public class DiscoveryBridgeTopology {
             Bridge.create(m_domain, bridgeid);
         }
         try {
-            m_bridgeFtMapUpdate.put(bridgeid, BridgeForwardingTable.create(m_domain.getBridge(bridgeid), notYetParsedBFT));
+            m_bridgeFtMapUpdate.put(bridgeid, BridgeForwardingTable.create(m_domain.getBridge(bridgeid), notYetParsedBFT, m_macIndex));
         } catch (BridgeTopologyException e) {
             LOG.warn("calculate:  node[{}], {}, topology:\n{}", 
                       bridgeid,
@@ -241,7 +242,8 @@ public class DiscoveryBridgeTopology {
                     bridgeFtMapCalcul.put(bridge.getNodeId(),
                                           BridgeForwardingTable.create(bridge,
                                                                        BroadcastDomain.calculateBFT(m_domain,
-                                                                                                    bridge)));
+                                                                                                    bridge),
+                                                                       m_macIndex));
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("calculate: bft from domain\n{}", 
                                   bridgeFtMapCalcul.get(bridge.getNodeId()).printTopology());
@@ -412,12 +414,13 @@ public class DiscoveryBridgeTopology {
             m_failed.remove(failedbridgeid);
         }        
 
+        final Set<String> macsOnSegments = m_domain.getMacsOnSegments();
         m_bridgeFtMapUpdate.values().stream().
             filter(ft -> m_parsed.contains(ft.getNodeId())).
-                forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft));
+                forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft, macsOnSegments));
         
         bridgeFtMapCalcul.values().stream().
-            forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft));
+            forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft, macsOnSegments));
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("calculate: domain\n{}", 
@@ -615,7 +618,8 @@ public class DiscoveryBridgeTopology {
                             maconupsegment,
                             bridgeFT.getRootPort(),
                             BridgeForwardingTable.getThroughSet(bridgeFT, parsed));
-        checkforwarders.stream().forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft));        
+        final Set<String> macsOnSegments = m_domain.getMacsOnSegments();
+        checkforwarders.stream().forEach(ft -> BroadcastDomain.addforwarders(m_domain, ft, macsOnSegments));
     }
     
 }
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd.service.api;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Interns the mac addresses seen by a topology calculation.
+// A mac address made of 12 lower case hex digits, the format
+// used by the bridge forwarding tables, is stored as a long,
+// every mac address gets a dense position starting from 0,
+// so that a set of mac addresses can be stored as a bitmap
+// and two sets can be intersected with bitmap operations.
+// The index is not thread safe: it is meant to be used
+// by the single thread calculating a broadcast domain.
+public class MacIndex {
+
+    private static final long NO_MAC = -1L;
+
+    public static long toLong(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return NO_MAC;
+        }
+        long value = 0L;
+        for (int i = 0; i < 12; i++) {
+            char c = mac.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return NO_MAC;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public static String toMac(long value) {
+        char[] mac = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            mac[i] = Character.forDigit((int) (value & 0xf), 16);
+            value >>>= 4;
+        }
+        return new String(mac);
+    }
+
+    // open addressing table from the long value of a mac to its position + 1
+    private long[] m_keys = new long[1024];
+    private int[] m_slots = new int[1024];
+    // position -> long value of the mac, NO_MAC for the others
+    private long[] m_macs = new long[512];
+    // mac addresses that cannot be stored as a long
+    private final Map<String, Integer> m_others = new HashMap<String, Integer>();
+    private final Map<Integer, String> m_otherPositions = new HashMap<Integer, String>();
+    private int m_size;
+
+    public int size() {
+        return m_size;
+    }
+
+    public int intern(String mac) {
+        long value = toLong(mac);
+        if (value == NO_MAC) {
+            Integer position = m_others.get(mac);
+            if (position == null) {
+                position = add(NO_MAC);
+                m_others.put(mac, position);
+                m_otherPositions.put(position, mac);
+            }
+            return position;
+        }
+        int slot = slot(value);
+        if (m_slots[slot] == 0) {
+            int position = add(value);
+            m_keys[slot] = value;
+            m_slots[slot] = position + 1;
+            if (m_size * 2 > m_slots.length) {
+                rehash();
+            }
+            return position;
+        }
+        return m_slots[slot] - 1;
+    }
+
+    public int indexOf(String mac) {
+        long value = toLong(mac);
+        if (value == NO_MAC) {
+            Integer position = m_others.get(mac);
+            return position == null ? -1 : position;
+        }
+        return m_slots[slot(value)] - 1;
+    }
+
+    public String getMac(int position) {
+        if (position < 0 || position >= m_size) {
+            throw new IndexOutOfBoundsException("mac position: " + position);
+        }
+        if (m_macs[position] == NO_MAC) {
+            return m_otherPositions.get(position);
+        }
+        return toMac(m_macs[position]);
+    }
+
+    public BitSet toBitmap(Collection<String> macs) {
+        BitSet bitmap = new BitSet(m_size);
+        for (String mac: macs) {
+            bitmap.set(intern(mac));
+        }
+        return bitmap;
+    }
+
+    // a read only view of the mac addresses in the bitmap
+    public Set<String> asSet(final BitSet bitmap) {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int m_next = bitmap.nextSetBit(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return m_next >= 0;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (m_next < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        String mac = getMac(m_next);
+                        m_next = bitmap.nextSetBit(m_next + 1);
+                        return mac;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof String)) {
+                    return false;
+                }
+                int position = indexOf((String) o);
+                return position >= 0 && bitmap.get(position);
+            }
+
+            @Override
+            public int size() {
+                return bitmap.cardinality();
+            }
+        };
+    }
+
+    private int add(long value) {
+        if (m_size == m_macs.length) {
+            m_macs = Arrays.copyOf(m_macs, m_size * 2);
+        }
+        m_macs[m_size] = value;
+        return m_size++;
+    }
+
+    private int slot(long value) {
+        int mask = m_slots.length - 1;
+        int slot = hash(value) & mask;
+        while (m_slots[slot] != 0 && m_keys[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] keys = m_keys;
+        int[] slots = m_slots;
+        m_keys = new long[keys.length * 2];
+        m_slots = new int[slots.length * 2];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != 0) {
+                int slot = slot(keys[i]);
+                m_keys[slot] = keys[i];
+                m_slots[slot] = slots[i];
+            }
+        }
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd.service.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry.BridgeDot1qTpFdbStatus;
+
+public class MacIndexTest {
+
+    @Test
+    public void shouldInternMacsAtDensePositions() {
+        MacIndex index = new MacIndex();
+        assertEquals(0, index.intern("000c29dcc076"));
+        assertEquals(1, index.intern("0012cf5d3180"));
+        assertEquals(0, index.intern("000c29dcc076"));
+        // not stored as a long, but still interned
+        assertEquals(2, index.intern("000C29DCC076"));
+        assertEquals(3, index.intern("not a mac"));
+        assertEquals(4, index.size());
+
+        assertEquals(1, index.indexOf("0012cf5d3180"));
+        assertEquals(-1, index.indexOf("0012cf5d3181"));
+        assertEquals("000c29dcc076", index.getMac(0));
+        assertEquals("000C29DCC076", index.getMac(2));
+        assertEquals("not a mac", index.getMac(3));
+        assertEquals(0x000c29dcc076L, MacIndex.toLong("000c29dcc076"));
+    }
+
+    @Test
+    public void shouldKeepPositionsWhenGrowing() {
+        MacIndex index = new MacIndex();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.intern(MacIndex.toMac(i * 7919L)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.indexOf(MacIndex.toMac(i * 7919L)));
+        }
+    }
+
+    @Test
+    public void shouldViewBitmapAsSet() {
+        MacIndex index = new MacIndex();
+        Set<String> macs = new HashSet<String>(Arrays.asList("000c29dcc076", "0012cf5d3180", "d4ca6dff4217"));
+        index.intern("00e0b1bb39b4");
+        Set<String> view = index.asSet(index.toBitmap(macs));
+        assertEquals(macs, view);
+        assertEquals(3, view.size());
+        assertTrue(view.contains("0012cf5d3180"));
+        assertFalse(view.contains("00e0b1bb39b4"));
+        assertFalse(view.contains("ffffffffffff"));
+    }
+
+    @Test
+    public void shouldCheckMacSetsOnBitmaps() {
+        MacIndex index = new MacIndex();
+        Set<String> setA = new HashSet<String>();
+        Set<String> setB = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            setA.add(MacIndex.toMac(i));
+        }
+        // 10 common macs out of 40
+        for (int i = 0; i < 40; i++) {
+            setB.add(MacIndex.toMac(i < 10 ? i : i + 1000));
+        }
+        assertFalse(BroadcastDomain.checkMacSets(setA, setB));
+        assertFalse(BroadcastDomain.checkMacSets(index.toBitmap(setA), index.toBitmap(setB)));
+        // 21 common macs out of 51
+        for (int i = 10; i < 21; i++) {
+            setB.add(MacIndex.toMac(i));
+        }
+        assertTrue(BroadcastDomain.checkMacSets(setA, setB));
+        assertTrue(BroadcastDomain.checkMacSets(index.toBitmap(setA), index.toBitmap(setB)));
+    }
+
+    @Test
+    public void shouldFindSameSimpleConnectionOnIndexedTables() throws BridgeTopologyException {
+        BroadcastDomain domain = new BroadcastDomain();
+        Bridge x = Bridge.create(domain, 1);
+        Bridge y = Bridge.create(domain, 2);
+
+        // x:[1] <--> y:[5], hosts a and b on x:[2], hosts c and d on y:[6], host e on y:[7]
+        Set<BridgeForwardingTableEntry> xBft = new HashSet<BridgeForwardingTableEntry>();
+        xBft.add(entry(1, 2, "00000000000a"));
+        xBft.add(entry(1, 2, "00000000000b"));
+        xBft.add(entry(1, 1, "00000000000c"));
+        xBft.add(entry(1, 1, "00000000000d"));
+        xBft.add(entry(1, 1, "00000000000e"));
+        Set<BridgeForwardingTableEntry> yBft = new HashSet<BridgeForwardingTableEntry>();
+        yBft.add(entry(2, 5, "00000000000a"));
+        yBft.add(entry(2, 5, "00000000000b"));
+        yBft.add(entry(2, 6, "00000000000c"));
+        yBft.add(entry(2, 6, "00000000000d"));
+        yBft.add(entry(2, 7, "00000000000e"));
+
+        BridgeSimpleConnection plain = BridgeSimpleConnection.createAndRun(BridgeForwardingTable.create(x, xBft),
+                                                                           BridgeForwardingTable.create(y, yBft));
+        MacIndex index = new MacIndex();
+        BridgeForwardingTable xFt = BridgeForwardingTable.create(x, xBft, index);
+        BridgeForwardingTable yFt = BridgeForwardingTable.create(y, yBft, index);
+        assertSame(index, xFt.getMacIndex());
+        assertEquals(5, xFt.getLearnedBitmap().cardinality());
+        BridgeSimpleConnection indexed = BridgeSimpleConnection.createAndRun(xFt, yFt);
+
+        assertEquals(1, plain.getFirstBridgePort().intValue());
+        assertEquals(5, plain.getSecondBridgePort().intValue());
+        assertEquals(plain.getFirstPort(), indexed.getFirstPort());
+        assertEquals(plain.getSecondPort(), indexed.getSecondPort());
+    }
+
+    private static BridgeForwardingTableEntry entry(Integer nodeid, Integer bridgeport, String mac) {
+        BridgeForwardingTableEntry link = new BridgeForwardingTableEntry();
+        link.setNodeId(nodeid);
+        link.setBridgePort(bridgeport);
+        link.setMacAddress(mac);
+        link.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED);
+        return link;
+    }
+}
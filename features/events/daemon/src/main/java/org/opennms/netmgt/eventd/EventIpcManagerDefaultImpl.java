@@ -32,13 +32,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
@@ -63,6 +67,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 
 /**
@@ -77,6 +82,34 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * System property used to select the default dispatch mode.
+     */
+    public static final String DISPATCH_MODE_PROPERTY = "org.opennms.netmgt.eventd.dispatchMode";
+
+    /**
+     * Every listener is fed by its own {@link ThreadPoolExecutor}, one task per event.
+     */
+    public static final String DISPATCH_MODE_EXECUTOR = "executor";
+
+    /**
+     * Every listener is fed by its own bounded ring buffer which is drained in batches.
+     */
+    public static final String DISPATCH_MODE_RING_BUFFER = "ringbuffer";
+
+    /**
+     * Upper bound for the ring buffer of a single listener. The eventd queue length
+     * defaults to {@link Integer#MAX_VALUE}, which we can't pre-allocate.
+     */
+    protected static final int MAX_RING_BUFFER_SIZE = 65536;
+
+    /**
+     * Maximum number of events handed to a listener thread in one go.
+     */
+    protected static final int DEFAULT_LISTENER_BATCH_SIZE = 256;
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -110,10 +143,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private List<EventListener> m_listeners = new ArrayList<EventListener>();
 
+    /**
+     * Immutable snapshot of the two collections above that is used to route the
+     * events. It is rebuilt whenever the registrations change, so broadcasting
+     * never has to take the lock.
+     */
+    private volatile RoutingTable m_routingTable = RoutingTable.EMPTY;
+
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private final Map<String, ListenerExecutor> m_listenerThreads = new ConcurrentHashMap<String, ListenerExecutor>();
 
     /**
      * The thread pool handling the events
@@ -128,13 +168,136 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     private final MetricRegistry m_registry;
 
+    private String m_dispatchMode = System.getProperty(DISPATCH_MODE_PROPERTY, DISPATCH_MODE_EXECUTOR);
+
+    private int m_listenerBatchSize = DEFAULT_LISTENER_BATCH_SIZE;
+
+    /**
+     * Compiled view of the listener registrations. The UEI lookups, including
+     * the partial wild card "directory" matches, are resolved once per distinct
+     * UEI and then served from the cache.
+     */
+    private static final class RoutingTable {
+        private static final RoutingTable EMPTY = new RoutingTable(Collections.<EventListener>emptyList(), Collections.<String, List<EventListener>>emptyMap());
+
+        /**
+         * Bound the cache in case some source keeps generating new UEIs.
+         */
+        private static final int MAX_RESOLVED_UEIS = 10000;
+
+        private final List<EventListener> m_matchAll;
+        private final Map<String, List<EventListener>> m_ueiListeners;
+        private final Map<String, List<EventListener>> m_resolved = new ConcurrentHashMap<>();
+
+        private RoutingTable(List<EventListener> matchAll, Map<String, List<EventListener>> ueiListeners) {
+            m_matchAll = Collections.unmodifiableList(new ArrayList<>(matchAll));
+            final Map<String, List<EventListener>> copy = new HashMap<>();
+            for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+                }
+            }
+            m_ueiListeners = copy;
+        }
+
+        private List<EventListener> getMatchAllListeners() {
+            return m_matchAll;
+        }
+
+        private List<EventListener> getListenersForUei(String uei) {
+            List<EventListener> listeners = m_resolved.get(uei);
+            if (listeners == null) {
+                listeners = resolve(uei);
+                if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                    m_resolved.put(uei, listeners);
+                }
+            }
+            return listeners;
+        }
+
+        private boolean hasListener(String uei) {
+            return m_ueiListeners.containsKey(uei);
+        }
+
+        private List<EventListener> resolve(final String eventUei) {
+            if (m_ueiListeners.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // Loop to attempt partial wild card "directory" matches.
+            final Set<EventListener> listeners = new LinkedHashSet<>();
+            for (String uei = eventUei; uei.length() > 0; ) {
+                final List<EventListener> ueiListeners = m_ueiListeners.get(uei);
+                if (ueiListeners != null) {
+                    listeners.addAll(ueiListeners);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+            return listeners.isEmpty() ? Collections.<EventListener>emptyList() : Collections.unmodifiableList(new ArrayList<>(listeners));
+        }
+    }
+
+    /**
+     * Delivers the events to a single listener.
+     */
+    private interface ListenerExecutor {
+        /**
+         * Queues the event for the listener.
+         *
+         * @param event the event
+         * @param synchronous whether the caller is going to wait for the event to be handled
+         * @return a future that completes once the listener has handled (or dropped) the event
+         */
+        CompletableFuture<Void> addEvent(IEvent event, boolean synchronous);
+
+        /**
+         * Stops the execution of this listener.
+         */
+        void stop();
+    }
+
+    private static String listenerMetricName(EventListener listener, String name) {
+        return MetricRegistry.name("listeners", listener.getName(), name);
+    }
+
+    private static void deliver(EventListener listener, IEvent event) {
+        try {
+            if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", listener.getName(), event.toStringSimple());
+
+            // Make sure we restore our log4j logging prefix after onEvent is called
+            Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                listener.onEvent(event);
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        } catch (Throwable t) {
+            LOG.warn("run: an unexpected error occured during ListenerThread {}", listener.getName(), t);
+        }
+    }
+
+    private static int getNumThreads(EventListener listener) {
+        if (listener instanceof ThreadAwareEventListener) {
+            return ((ThreadAwareEventListener)listener).getNumThreads();
+        }
+        return 1;
+    }
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
      */
-    private static class EventListenerExecutor {
+    private static class EventListenerExecutor implements ListenerExecutor {
         /**
          * Listener to which this thread is dedicated
          */
@@ -143,18 +306,19 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         /**
          * The thread that is running this runnable.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor m_delegateThread;
+
+        private final MetricRegistry m_registry;
 
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        EventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
             m_listener = listener;
+            m_registry = registry;
 
-            int numThreads = 1;
-            if (m_listener instanceof ThreadAwareEventListener) {
-                numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
-            }
+            final int numThreads = getNumThreads(m_listener);
+            final Meter dropped = registerMetrics(m_registry, m_listener);
 
             m_delegateThread = new ThreadPoolExecutor(
                     numThreads,
@@ -170,41 +334,162 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            dropped.mark();
                             LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
                         }
                     }
             );
+            m_registry.register(listenerMetricName(m_listener, "queued"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return m_delegateThread.getQueue().size();
+                }
+            });
         }
 
-        public CompletableFuture<Void> addEvent(final IEvent event) {
+        @Override
+        public CompletableFuture<Void> addEvent(final IEvent event, boolean synchronous) {
             return CompletableFuture.runAsync(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                         if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
-
-                        // Make sure we restore our log4j logging prefix after onEvent is called
-                        Map<String,String> mdc = Logging.getCopyOfContextMap();
-                        try {
-                            m_listener.onEvent(event);
-                        } finally {
-                            Logging.setContextMap(mdc);
-                        }
-                    } catch (Throwable t) {
-                        LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
-                    }
+                    deliver(m_listener, event);
                 }
             }, m_delegateThread);
         }
 
-        /**
-         * Stops the execution of this listener.
-         */
+        @Override
         public void stop() {
             m_delegateThread.shutdown();
+            removeMetrics(m_registry, m_listener);
+        }
+    }
+
+    /**
+     * An event that was queued for a listener, along with the future the
+     * broadcasting thread is waiting on when the broadcast is synchronous.
+     */
+    private static final class QueuedEvent {
+        private final IEvent m_event;
+        private final CompletableFuture<Void> m_future;
+
+        private QueuedEvent(IEvent event, CompletableFuture<Void> future) {
+            m_event = event;
+            m_future = future;
         }
     }
 
+    /**
+     * Feeds a listener from a bounded ring buffer. The listener threads drain
+     * the buffer in batches, and once it is full further events for this
+     * listener are dropped without affecting the other listeners.
+     */
+    private static class RingBufferEventListenerExecutor implements ListenerExecutor {
+        private final EventListener m_listener;
+
+        private final BlockingQueue<QueuedEvent> m_ringBuffer;
+
+        private final int m_batchSize;
+
+        private final ExecutorService m_consumers;
+
+        private final MetricRegistry m_registry;
+
+        private final Meter m_dropped;
+
+        private final Meter m_delivered;
+
+        private volatile boolean m_running = true;
+
+        RingBufferEventListenerExecutor(EventListener listener, Integer handlerQueueLength, int batchSize, MetricRegistry registry) {
+            m_listener = listener;
+            m_registry = registry;
+            m_batchSize = batchSize;
+            m_ringBuffer = new ArrayBlockingQueue<>(handlerQueueLength == null ? MAX_RING_BUFFER_SIZE : Math.max(1, Math.min(handlerQueueLength, MAX_RING_BUFFER_SIZE)));
+
+            m_dropped = registerMetrics(m_registry, m_listener);
+            m_delivered = m_registry.meter(listenerMetricName(m_listener, "delivered"));
+            m_registry.register(listenerMetricName(m_listener, "queued"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return m_ringBuffer.size();
+                }
+            });
+
+            final int numThreads = getNumThreads(m_listener);
+            // See EventListenerExecutor, this keeps the log prefix of the calling thread
+            m_consumers = Executors.newFixedThreadPool(numThreads, new LogPreservingThreadFactory(m_listener.getName(), numThreads));
+            for (int i = 0; i < numThreads; i++) {
+                m_consumers.execute(this::drain);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> addEvent(IEvent event, boolean synchronous) {
+            final QueuedEvent queuedEvent = new QueuedEvent(event, synchronous ? new CompletableFuture<Void>() : null);
+            if (!m_running || !m_ringBuffer.offer(queuedEvent)) {
+                m_dropped.mark();
+                LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                return COMPLETED;
+            }
+            return synchronous ? queuedEvent.m_future : COMPLETED;
+        }
+
+        private void drain() {
+            final List<QueuedEvent> batch = new ArrayList<>(m_batchSize);
+            while (m_running) {
+                try {
+                    final QueuedEvent first = m_ringBuffer.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    m_ringBuffer.drainTo(batch, m_batchSize - 1);
+                    for (QueuedEvent queuedEvent : batch) {
+                        deliver(m_listener, queuedEvent.m_event);
+                    }
+                    m_delivered.mark(batch.size());
+                    for (QueuedEvent queuedEvent : batch) {
+                        if (queuedEvent.m_future != null) {
+                            queuedEvent.m_future.complete(null);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            m_running = false;
+            m_consumers.shutdownNow();
+            // Don't leave anyone waiting on events that will never be delivered
+            final List<QueuedEvent> remaining = new ArrayList<>();
+            m_ringBuffer.drainTo(remaining);
+            for (QueuedEvent queuedEvent : remaining) {
+                if (queuedEvent.m_future != null) {
+                    queuedEvent.m_future.complete(null);
+                }
+            }
+            removeMetrics(m_registry, m_listener);
+        }
+    }
+
+    private static Meter registerMetrics(MetricRegistry registry, EventListener listener) {
+        // Remove any leftovers from a previous registration with the same name
+        removeMetrics(registry, listener);
+        return registry.meter(listenerMetricName(listener, "dropped"));
+    }
+
+    private static void removeMetrics(MetricRegistry registry, EventListener listener) {
+        registry.remove(listenerMetricName(listener, "queued"));
+        registry.remove(listenerMetricName(listener, "dropped"));
+        registry.remove(listenerMetricName(listener, "delivered"));
+    }
+
     /**
      * <p>Constructor for EventIpcManagerDefaultImpl.</p>
      */
@@ -296,7 +581,9 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
         }
 
-        if (LOG.isDebugEnabled() && m_listeners.isEmpty()) {
+        final RoutingTable routingTable = m_routingTable;
+
+        if (LOG.isDebugEnabled() && routingTable.getMatchAllListeners().isEmpty()) {
             LOG.debug("No listeners interested in all events");
         }
 
@@ -305,8 +592,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         IEvent immutableEvent = ImmutableMapper.fromMutableEvent(event);
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(immutableEvent, listener));
+        for (EventListener listener : routingTable.getMatchAllListeners()) {
+            listenerFutures.add(queueEventToListener(immutableEvent, listener, synchronous));
         }
 
         if (event.getUei() == null) {
@@ -316,33 +603,13 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(immutableEvent, listener));
-                        sentToListeners.add(listener);
-                    }
-                }
-            }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
-            }
+        // Send to listeners who are interested in this event UEI or one of its wild cards
+        final List<EventListener> ueiListeners = routingTable.getListenersForUei(event.getUei());
+        for (EventListener listener : ueiListeners) {
+            listenerFutures.add(queueEventToListener(immutableEvent, listener, synchronous));
         }
-        
-        if (sentToListeners.isEmpty()) {
+
+        if (ueiListeners.isEmpty()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
             }
@@ -355,8 +622,21 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
-    private CompletableFuture<Void> queueEventToListener(IEvent event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+    private CompletableFuture<Void> queueEventToListener(IEvent event, EventListener listener, boolean synchronous) {
+        final ListenerExecutor listenerThread = m_listenerThreads.get(listener.getName());
+        if (listenerThread == null) {
+            // The listener was removed after we took the routing table snapshot
+            return COMPLETED;
+        }
+        return listenerThread.addEvent(event, synchronous);
+    }
+
+    /**
+     * Publishes a new routing table. Must be called whenever the registrations
+     * change, while holding the lock.
+     */
+    private void updateRoutingTable() {
+        m_routingTable = new RoutingTable(m_listeners, m_ueiListeners);
     }
 
     /**
@@ -377,6 +657,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -406,6 +688,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -440,6 +724,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutingTable();
     }
 
     /**
@@ -459,6 +745,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateRoutingTable();
     }
 
     /**
@@ -479,11 +767,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             removeUeiForListener(uei, listener);
         }
 
-        // stop and remove the listener thread for this listener
-        if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
+        updateRoutingTable();
 
-            m_listenerThreads.remove(listener.getName());
+        // stop and remove the listener thread for this listener
+        final ListenerExecutor listenerThread = m_listenerThreads.remove(listener.getName());
+        if (listenerThread != null) {
+            listenerThread.stop();
         }
     }
 
@@ -496,7 +785,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        final ListenerExecutor listenerThread;
+        if (DISPATCH_MODE_RING_BUFFER.equals(m_dispatchMode)) {
+            listenerThread = new RingBufferEventListenerExecutor(listener, m_handlerQueueLength, m_listenerBatchSize, m_registry);
+        } else {
+            listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, m_registry);
+        }
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
@@ -636,12 +930,48 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    /**
+     * <p>getDispatchMode</p>
+     *
+     * @return either {@link #DISPATCH_MODE_EXECUTOR} or {@link #DISPATCH_MODE_RING_BUFFER}
+     */
+    public String getDispatchMode() {
+        return m_dispatchMode;
+    }
+
+    /**
+     * <p>setDispatchMode</p>
+     *
+     * @param dispatchMode either {@link #DISPATCH_MODE_EXECUTOR} or {@link #DISPATCH_MODE_RING_BUFFER}
+     */
+    public void setDispatchMode(String dispatchMode) {
+        Assert.state(m_eventHandlerPool == null, "dispatchMode property cannot be set after afterPropertiesSet() is called");
+        Assert.isTrue(DISPATCH_MODE_EXECUTOR.equals(dispatchMode) || DISPATCH_MODE_RING_BUFFER.equals(dispatchMode), "unsupported dispatch mode: " + dispatchMode);
+        m_dispatchMode = dispatchMode;
+    }
+
+    /**
+     * <p>getListenerBatchSize</p>
+     *
+     * @return a int.
+     */
+    public int getListenerBatchSize() {
+        return m_listenerBatchSize;
+    }
+
+    /**
+     * <p>setListenerBatchSize</p>
+     *
+     * @param listenerBatchSize maximum number of events a listener thread takes off its ring buffer at once
+     */
+    public void setListenerBatchSize(int listenerBatchSize) {
+        Assert.state(m_eventHandlerPool == null, "listenerBatchSize property cannot be set after afterPropertiesSet() is called");
+        Assert.isTrue(listenerBatchSize > 0, "listenerBatchSize must be positive");
+        m_listenerBatchSize = listenerBatchSize;
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        return m_routingTable.hasListener(uei);
     }
 }
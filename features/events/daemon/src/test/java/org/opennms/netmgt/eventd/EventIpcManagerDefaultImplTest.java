@@ -33,6 +33,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -41,6 +42,7 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
@@ -825,4 +827,123 @@ public class EventIpcManagerDefaultImplTest {
         // Release
         locker.release();
     }
+
+    /**
+     * Verify that with the ring buffer dispatch mode a slow listener only drops
+     * its own events, and doesn't hold back delivery to the other listeners.
+     */
+    @Test
+    public void testRingBufferSlowListenerDoesNotStallOthers() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger slowCounter = new AtomicInteger();
+        final EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferSlowListener";
+            }
+
+            @Override
+            public void onEvent(IEvent event) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                }
+                slowCounter.incrementAndGet();
+            }
+        };
+        final AtomicInteger fastCounter = new AtomicInteger();
+        final EventListener fastListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferFastListener";
+            }
+
+            @Override
+            public void onEvent(IEvent event) {
+                fastCounter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setDispatchMode(EventIpcManagerDefaultImpl.DISPATCH_MODE_RING_BUFFER);
+        manager.setListenerBatchSize(1);
+        manager.setHandlerPoolSize(1);
+        manager.setHandlerQueueLength(5);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(slowListener);
+        manager.addEventListener(fastListener, "uei.opennms.org/foo/");
+
+        // The fast listener gets all of its events while the slow one is still stuck on the first
+        for (int i = 0; i < 10; i++) {
+            EventBuilder bldr = new EventBuilder("uei.opennms.org/foo/" + i, "testRingBufferSlowListenerDoesNotStallOthers");
+            manager.broadcastNow(bldr.getEvent(), false);
+            await().atMost(5, TimeUnit.SECONDS).untilAtomic(fastCounter, is(equalTo(i + 1)));
+        }
+        assertEquals(0, slowCounter.get());
+
+        // At most one event is being handled and 5 are buffered, the rest is dropped
+        final long dropped = m_registry.meter("listeners.testRingBufferSlowListener.dropped").getCount();
+        assertTrue("dropped " + dropped, dropped >= 4);
+        assertEquals(0, m_registry.meter("listeners.testRingBufferFastListener.dropped").getCount());
+
+        blocked.countDown();
+        await().atMost(5, TimeUnit.SECONDS).untilAtomic(slowCounter, is(equalTo((int)(10 - dropped))));
+
+        manager.removeEventListener(slowListener);
+        manager.removeEventListener(fastListener);
+        assertTrue(m_registry.getMetrics().keySet().stream().noneMatch(name -> name.startsWith("listeners.")));
+    }
+
+    /**
+     * Verify that synchronous broadcasts in the ring buffer dispatch mode wait for
+     * the listeners, and that an event matching several UEIs of the same listener
+     * is only delivered once.
+     */
+    @Test
+    public void testRingBufferBroadcastNowSync() {
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setDispatchMode(EventIpcManagerDefaultImpl.DISPATCH_MODE_RING_BUFFER);
+        manager.setHandlerPoolSize(1);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+
+        final AtomicInteger counter = new AtomicInteger();
+        final EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferBroadcastNowSync";
+            }
+
+            @Override
+            public void onEvent(IEvent event) {
+                try {
+                    Thread.sleep(SLOW_EVENT_OPERATION_DELAY);
+                } catch (InterruptedException e) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+        manager.addEventListener(slowListener, Arrays.asList("uei.opennms.org/foo/bar", "uei.opennms.org/foo/"));
+        assertTrue(manager.hasEventListener("uei.opennms.org/foo/"));
+
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(1, counter.get());
+
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(1, counter.get());
+        assertEquals(1, m_registry.meter("listeners.testRingBufferBroadcastNowSync.delivered").getCount());
+
+        // The routing table is updated when the registrations change
+        manager.removeEventListener(slowListener, "uei.opennms.org/foo/bar");
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(2, counter.get());
+        manager.removeEventListener(slowListener, "uei.opennms.org/foo/");
+        assertFalse(manager.hasEventListener("uei.opennms.org/foo/"));
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(2, counter.get());
+
+        manager.removeEventListener(slowListener);
+    }
 }
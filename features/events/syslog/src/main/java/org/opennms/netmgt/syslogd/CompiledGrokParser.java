@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+
+/**
+ * <p>Parses messages with a set of grok patterns that are compiled into a single
+ * tree of {@link ParserStage}s up front.</p>
+ *
+ * <p>The tree is built the same way as the one of the {@link RadixTreeParser}, so
+ * both parsers return the same result for any message. Instead of creating a future
+ * for every stage of every pattern, the tree is walked depth-first on the calling
+ * thread and the walk stops at the first complete match. Every node carries a table
+ * of the bytes its stage can start with, so branches that cannot match the next
+ * byte of the message are skipped without running their stages.</p>
+ *
+ * <p>The parser keeps a meter of the hits for each pattern, a meter of the messages
+ * that did not match any pattern and a timer of the parse latency.</p>
+ */
+public class CompiledGrokParser implements ByteBufferParser<SyslogMessage>, MetricSet {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CompiledGrokParser.class);
+
+	private final Node root;
+
+	private final Meter[] hits;
+
+	private final Meter misses = new Meter();
+
+	private final Timer parseTimer = new Timer();
+
+	private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+	public CompiledGrokParser(final List<String> patterns) {
+		final Builder root = new Builder(null, -1);
+		this.hits = new Meter[patterns.size()];
+
+		final Map<String, Meter> hitsByPattern = new LinkedHashMap<>();
+		for (int i = 0; i < patterns.size(); i++) {
+			final String pattern = patterns.get(i);
+			final List<ParserStage> stages = GrokParserStageSequenceBuilder.parseGrok(pattern);
+			if (!stages.isEmpty()) {
+				root.add(stages.toArray(new ParserStage[0]), 0, i);
+			}
+			this.hits[i] = hitsByPattern.computeIfAbsent(pattern, p -> new Meter());
+		}
+		this.root = root.build();
+
+		hitsByPattern.forEach((pattern, meter) -> this.metrics.put("hits." + pattern, meter));
+		this.metrics.put("misses", this.misses);
+		this.metrics.put("parse", this.parseTimer);
+
+		LOG.debug("Compiled {} grok patterns into {} parser stages", patterns.size(), this.root.size() - 1);
+	}
+
+	@Override
+	public CompletableFuture<SyslogMessage> parse(final ByteBuffer incoming) {
+		return CompletableFuture.completedFuture(parseMessage(incoming));
+	}
+
+	/**
+	 * Parse the message on the calling thread.
+	 *
+	 * @return the parsed message or null if no pattern matched
+	 */
+	public SyslogMessage parseMessage(final ByteBuffer incoming) {
+		try (Timer.Context ctx = this.parseTimer.time()) {
+			final ParserState state = match(this.root, new ParserState(incoming));
+			if (state == null) {
+				this.misses.mark();
+				return null;
+			}
+			return state.message;
+		}
+	}
+
+	private ParserState match(final Node node, final ParserState state) {
+		final int next = state.peek();
+		for (final Node child : node.children) {
+			if (next >= 0 && !child.first[next]) {
+				continue;
+			}
+
+			final ParserState result;
+			try {
+				result = child.stage.apply(state);
+			} catch (final RuntimeException e) {
+				LOG.trace("Parser stage {} failed", child.stage, e);
+				continue;
+			}
+			if (result == null) {
+				continue;
+			}
+
+			if (child.children.length == 0) {
+				this.hits[child.pattern].mark();
+				return result;
+			}
+
+			final ParserState leaf = match(child, result);
+			if (leaf != null) {
+				return leaf;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The number of nodes in the compiled tree.
+	 */
+	public int size() {
+		return this.root.size() - 1;
+	}
+
+	@Override
+	public Map<String, Metric> getMetrics() {
+		return Collections.unmodifiableMap(this.metrics);
+	}
+
+	private static final class Node {
+		private final ParserStage stage;
+
+		// The pattern that completes with this node, only meaningful for leaves
+		private final int pattern;
+
+		private final Node[] children;
+
+		// Indexed by the unsigned value of the next byte
+		private final boolean[] first = new boolean[256];
+
+		private Node(final ParserStage stage, final int pattern, final Node[] children) {
+			this.stage = stage;
+			this.pattern = pattern;
+			this.children = children;
+			if (stage != null) {
+				for (int b = 0; b < 256; b++) {
+					// Stages see bytes as chars the same way, see AbstractParserStage#apply
+					this.first[b] = stage.canStartWith((char) (byte) b);
+				}
+			}
+		}
+
+		private int size() {
+			int size = 1;
+			for (final Node child : this.children) {
+				size += child.size();
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Mutable tree used while adding the patterns. It follows the rules of
+	 * {@link org.opennms.core.collections.RadixTreeNodeImpl#addChildren(Object[])}
+	 * so that stages are shared and ordered exactly like in the {@link RadixTreeParser}.
+	 */
+	private static final class Builder {
+		private final ParserStage stage;
+		private final int pattern;
+		private final List<Builder> children = new ArrayList<>();
+
+		private Builder(final ParserStage stage, final int pattern) {
+			this.stage = stage;
+			this.pattern = pattern;
+		}
+
+		private void add(final ParserStage[] chain, final int from, final int pattern) {
+			final ParserStage head = chain[from];
+			for (final Builder child : this.children) {
+				if (head.equals(child.stage) && from < chain.length - 1) {
+					child.add(chain, from + 1, pattern);
+					return;
+				}
+			}
+
+			Builder current = new Builder(head, pattern);
+			this.children.add(current);
+			for (int i = from + 1; i < chain.length; i++) {
+				final Builder next = new Builder(chain[i], pattern);
+				current.children.add(next);
+				current = next;
+			}
+		}
+
+		private Node build() {
+			final Node[] nodes = new Node[this.children.size()];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = this.children.get(i).build();
+			}
+			return new Node(this.stage, this.pattern, nodes);
+		}
+	}
+}
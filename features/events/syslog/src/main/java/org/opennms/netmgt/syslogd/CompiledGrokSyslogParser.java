@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+
+/**
+ * Variant of the {@link RadixTreeSyslogParser} that runs the same grok patterns
+ * through a {@link CompiledGrokParser}. Messages are parsed on the calling thread
+ * and the parser exposes per-pattern hit counts and the parse latency as metrics.
+ */
+public class CompiledGrokSyslogParser extends RadixTreeSyslogParser {
+
+	private static class CompiledParserHolder {
+		private static final CompiledGrokParser PARSER = new CompiledGrokParser(grokPatterns());
+	}
+
+	public CompiledGrokSyslogParser(SyslogdConfig config, ByteBuffer syslogString) {
+		super(config, syslogString);
+	}
+
+	public static CompiledGrokParser getCompiledParser() {
+		return CompiledParserHolder.PARSER;
+	}
+
+	@Override
+	protected SyslogMessage parseText(ByteBuffer text) {
+		return getCompiledParser().parseMessage(text);
+	}
+}
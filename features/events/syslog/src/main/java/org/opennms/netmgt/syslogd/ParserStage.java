@@ -77,4 +77,14 @@ public interface ParserStage {
 	 * that the next stage can continue processing.
 	 */
 	ParserState apply(ParserState state);
+
+	/**
+	 * Check if this stage can possibly succeed on input that starts
+	 * with the given character. This is used to skip sequences before
+	 * running them, so implementations must return true whenever they
+	 * cannot rule out a match.
+	 */
+	default boolean canStartWith(char c) {
+		return true;
+	}
 }
\ No newline at end of file
@@ -337,6 +337,20 @@ public class ParserStageSequenceBuilder {
 
 		public abstract AcceptResult acceptChar(ParserStageState state, char c);
 
+		@Override
+		public boolean canStartWith(char c) {
+			// Optional stages complete without consuming anything if they fail
+			return m_optional || acceptsFirstChar(c);
+		}
+
+		/**
+		 * @return false if the stage fails when the given character is the first
+		 * one that it sees
+		 */
+		protected boolean acceptsFirstChar(char c) {
+			return true;
+		}
+
 		public final ParserState apply(final ParserState incomingState) {
 			if (incomingState == null) {
 				return null;
@@ -508,6 +522,11 @@ public class ParserStageSequenceBuilder {
 			return m_char;
 		}
 
+		@Override
+		protected boolean acceptsFirstChar(char c) {
+			return c == m_char;
+		}
+
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
 			if (c == m_char) {
@@ -616,6 +635,16 @@ public class ParserStageSequenceBuilder {
 			super(consumer);
 		}
 
+		@Override
+		protected boolean acceptsFirstChar(char c) {
+			for (RadixTreeNode<CharacterWithValue> child : MONTH_STRINGS.getChildren()) {
+				if (child.getContent().getCharacter() == c) {
+					return true;
+				}
+			}
+			return false;
+		}
+
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
 			if (state.currentNode == null) {
@@ -737,6 +766,11 @@ public class ParserStageSequenceBuilder {
 			m_charMatcher = charMatcher;
 		}
 
+		@Override
+		protected boolean acceptsFirstChar(char c) {
+			return getLength() <= 0 || m_charMatcher.test(c);
+		}
+
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
 			if (getAccumulatedSize(state) >= getLength()) {
@@ -993,6 +1027,11 @@ public class ParserStageSequenceBuilder {
 			super(consumer);
 		}
 
+		@Override
+		protected boolean acceptsFirstChar(char c) {
+			return c >= '0' && c <= '9';
+		}
+
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
 			if (c >= '0' && c <= '9') {
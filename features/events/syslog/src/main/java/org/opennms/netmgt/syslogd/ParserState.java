@@ -62,6 +62,14 @@ public class ParserState implements Cloneable {
 		return buffer.asReadOnlyBuffer();
 	}
 
+	/**
+	 * @return the next byte of the input without consuming it, or -1 if the
+	 * input is exhausted
+	 */
+	int peek() {
+		return buffer.hasRemaining() ? buffer.get(buffer.position()) & 0xFF : -1;
+	}
+
 	@Override
 	public String toString() {
 		return new ToStringBuilder(this)
@@ -37,8 +37,10 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.time.ZoneId;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.netmgt.config.SyslogdConfig;
@@ -61,47 +63,55 @@ public class RadixTreeSyslogParser extends SyslogParser {
 	private static RadixTreeParser radixParser = new RadixTreeParser();
 
 	static {
+		for (String pattern : grokPatterns()) {
+			radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+		}
+
+		// After we have taught all of the patterns to the parser, perform
+		// edge compression to optimize the tree
+		radixParser.performEdgeCompression();
+	}
+
+	/**
+	 * Read the grok patterns from the <i>syslogd-grok-patterns.txt</i> configuration
+	 * file or fall back to the default pattern set if the file is missing or empty.
+	 *
+	 * @return The patterns in the order that they should be tried
+	 */
+	protected static List<String> grokPatterns() {
 		try {
 			File configFile = ConfigFileConstants.getFile(ConfigFileConstants.SYSLOGD_GROK_PATTERNS_FILE_NAME);
 			if (configFile.exists() && configFile.isFile()) {
+				final List<String> patterns;
 				try (Reader reader = new FileReader(configFile)) {
-					new BufferedReader(reader).lines().forEach(pattern -> {
-						// Ignore comments and blank lines
-						if (pattern == null || pattern.trim().length() == 0 || pattern.trim().startsWith("#")) {
-							return;
-						}
-						radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
-					});
+					patterns = readPatterns(reader);
 				}
 
-				if (radixParser.size() == 0) {
+				if (patterns.isEmpty()) {
 					LOG.warn("{} has no grok patterns, check the content of {}, using default grok pattern set", RadixTreeSyslogParser.class.getSimpleName(), ConfigFileConstants.getFileName(ConfigFileConstants.SYSLOGD_GROK_PATTERNS_FILE_NAME));
-					teachDefaultPatterns();
+					return defaultPatterns();
 				}
+				return patterns;
 			} else {
-				teachDefaultPatterns();
+				return defaultPatterns();
 			}
 		} catch (FileNotFoundException e) {
-			teachDefaultPatterns();
+			return defaultPatterns();
 		} catch (IOException e) {
 			LOG.warn("Unexpeceted exception while reading {}, using default grok pattern set", ConfigFileConstants.getFileName(ConfigFileConstants.SYSLOGD_GROK_PATTERNS_FILE_NAME), e);
-			teachDefaultPatterns();
+			return defaultPatterns();
 		}
+	}
 
-
-		// After we have taught all of the patterns to the parser, perform
-		// edge compression to optimize the tree
-		radixParser.performEdgeCompression();
+	private static final List<String> defaultPatterns() {
+		return readPatterns(new InputStreamReader(RadixTreeSyslogParser.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt")));
 	}
 
-	private static final void teachDefaultPatterns() {
-		new BufferedReader(new InputStreamReader(RadixTreeSyslogParser.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt"))).lines().forEach(pattern -> {
+	private static final List<String> readPatterns(Reader reader) {
+		return new BufferedReader(reader).lines()
 			// Ignore comments and blank lines
-			if (pattern == null || pattern.trim().length() == 0 || pattern.trim().startsWith("#")) {
-				return;
-			}
-			radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
-		});
+			.filter(pattern -> pattern != null && pattern.trim().length() > 0 && !pattern.trim().startsWith("#"))
+			.collect(Collectors.toList());
 	}
 
 	public RadixTreeSyslogParser(SyslogdConfig config, ByteBuffer syslogString) {
@@ -127,7 +137,7 @@ public class RadixTreeSyslogParser extends SyslogParser {
 
 	@Override
 	public SyslogMessage parse() {
-		SyslogMessage retval = radixParser.parse(getText()).join();
+		SyslogMessage retval = parseText(getText());
 
 		if (retval != null) {
 			// Trim off the RFC 5424 structured data to emulate the behavior of the legacy parser (for now)
@@ -146,6 +156,15 @@ public class RadixTreeSyslogParser extends SyslogParser {
 		return retval;
 	}
 
+	/**
+	 * Run the grok patterns against the message text.
+	 *
+	 * @return The parsed message or null if no pattern matched
+	 */
+	protected SyslogMessage parseText(ByteBuffer text) {
+		return radixParser.parse(text).join();
+	}
+
 	private void setYearIfNeeded(SyslogMessage message) {
 	    boolean hasTimeinformation =
 	            message.getMonth() != null ||
@@ -32,6 +32,11 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.codahale.metrics.Gauge;
 import com.google.common.cache.Cache;
@@ -57,6 +62,7 @@ import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -64,13 +70,21 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean {
+public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, SyslogMessageLogDTO>, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SyslogSinkConsumer.class);
 
     private static final String defaultCacheConfig = "maximumSize=1000,expireAfterWrite=8h";
     private static final String dnsCacheConfigProperty = "org.opennms.netmgt.syslogd.dnscache.config";
+    /**
+     * Number of threads that messages are sharded over by their source address, messages
+     * from the same source are always handled by the same thread and keep their order.
+     * With 0 the messages are handled on the thread of the sink consumer.
+     */
+    private static final String shardsProperty = "org.opennms.netmgt.syslogd.shards";
+    private static final int shardQueueSize = 1000;
     @Autowired
     private MessageConsumerManager messageConsumerManager;
 
@@ -89,11 +103,14 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private Cache<HostNameWithLocationKey, String> dnsCache;
 
     private final String localAddr;
+    private final MetricRegistry registry;
+    private final ExecutorService[] shards;
     private final Timer consumerTimer;
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
 
     public SyslogSinkConsumer(MetricRegistry registry) {
+        this.registry = registry;
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
@@ -102,6 +119,26 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
         registry.register("dnsCacheSize", (Gauge<Long>) () -> dnsCache.size());
         registry.register("dnsCacheHitRate", (Gauge<Double>) () -> dnsCache.stats().hitRate());
         localAddr = InetAddressUtils.getLocalHostName();
+        shards = new ExecutorService[Math.max(0, SystemProperties.getInteger(shardsProperty, 0))];
+        for (int i = 0; i < shards.length; i++) {
+            final ThreadPoolExecutor shard = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(shardQueueSize),
+                    new ThreadFactoryBuilder().setNameFormat("syslogd-shard-" + i).build(),
+                    // Block the sink consumer while the shard is busy
+                    (r, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Syslog shard is shut down");
+                        }
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    });
+            registry.register("shard" + i + ".queued", (Gauge<Integer>) () -> shard.getQueue().size());
+            shards[i] = shard;
+        }
     }
 
     @Override
@@ -111,6 +148,14 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
 
     @Override
     public void handleMessage(SyslogMessageLogDTO syslogDTO) {
+        if (shards.length == 0 || syslogDTO.getSourceAddress() == null) {
+            process(syslogDTO);
+        } else {
+            shards[Math.floorMod(syslogDTO.getSourceAddress().hashCode(), shards.length)].execute(() -> process(syslogDTO));
+        }
+    }
+
+    private void process(SyslogMessageLogDTO syslogDTO) {
         try (Context consumerCtx = consumerTimer.time()) {
             try (MDCCloseable mdc = Logging.withPrefixCloseable(Syslogd.LOG4J_CATEGORY)) {
                 // Convert the Syslog UDP messages to Events
@@ -203,10 +248,26 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
 
     @Override
     public void afterPropertiesSet() throws Exception {
+        if (CompiledGrokSyslogParser.class.getName().equals(syslogdConfig.getParser())) {
+            registry.register("parser.grok", CompiledGrokSyslogParser.getCompiledParser());
+        }
+
         // Automatically register the consumer on initialization
         messageConsumerManager.registerConsumer(this);
     }
 
+    @Override
+    public void destroy() throws Exception {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard : shards) {
+            if (!shard.awaitTermination(10, TimeUnit.SECONDS)) {
+                shard.shutdownNow();
+            }
+        }
+    }
+
     public void setEventForwarder(EventForwarder eventForwarder) {
         this.eventForwarder = eventForwarder;
     }
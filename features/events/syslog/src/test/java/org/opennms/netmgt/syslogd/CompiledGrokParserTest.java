@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
+public class CompiledGrokParserTest {
+
+    private static List<String> defaultPatterns() {
+        return new BufferedReader(new InputStreamReader(CompiledGrokParserTest.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt"))).lines()
+            .filter(pattern -> pattern.trim().length() > 0 && !pattern.trim().startsWith("#"))
+            .collect(Collectors.toList());
+    }
+
+    private static String toString(SyslogMessage message) {
+        // Strip the identity hash code of the object
+        return message == null ? null : message.toString().replaceFirst("^[^\\[]*", "");
+    }
+
+    /**
+     * Every message of the test corpus must give the same result as the {@link RadixTreeParser}.
+     */
+    @Test
+    public void shouldMatchRadixTreeParser() throws Exception {
+        final List<String> patterns = defaultPatterns();
+        final RadixTreeParser radixParser = new RadixTreeParser();
+        for (String pattern : patterns) {
+            radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+        }
+        radixParser.performEdgeCompression();
+        final CompiledGrokParser compiledParser = new CompiledGrokParser(patterns);
+
+        final Path resource = ConfigurationTestUtils.getFileForResource(this, "/syslogMessages.txt").toPath();
+        final List<String> messages = Files.lines(resource)
+            .filter(syslog -> syslog.trim().length() > 0 && !syslog.trim().startsWith("#"))
+            .map(syslog -> syslog.replaceAll("\\\\u0000", "\u0000").replaceAll("\\\\uFEFF", "\uFEFF"))
+            .collect(Collectors.toList());
+
+        for (String syslog : messages) {
+            final SyslogMessage expected = radixParser.parse(SyslogdTestUtils.toByteBuffer(syslog)).join();
+            final SyslogMessage actual = compiledParser.parse(SyslogdTestUtils.toByteBuffer(syslog)).join();
+            assertNotNull("Grok parsing failure: " + syslog, actual);
+            assertEquals(syslog, toString(expected), toString(actual));
+        }
+
+        final long hits = compiledParser.getMetrics().entrySet().stream()
+            .filter(e -> e.getKey().startsWith("hits."))
+            .mapToLong(e -> ((Meter)e.getValue()).getCount())
+            .sum();
+        assertEquals(messages.size(), hits);
+        assertEquals(messages.size(), ((Timer)compiledParser.getMetrics().get("parse")).getCount());
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        final List<String> patterns = Arrays.asList(
+            "<%{INT:facilityPriority}> %{MONTH:month} %{INT:day} %{STRING:message}",
+            "<%{INT:facilityPriority}> %{STRING:message}"
+        );
+        final CompiledGrokParser parser = new CompiledGrokParser(patterns);
+
+        SyslogMessage message = parser.parseMessage(SyslogdTestUtils.toByteBuffer("<13> Jan 17 hello"));
+        assertEquals(Integer.valueOf(1), message.getMonth());
+        assertEquals("hello", message.getMessage());
+        message = parser.parseMessage(SyslogdTestUtils.toByteBuffer("<13> hello"));
+        assertEquals("hello", message.getMessage());
+        message = parser.parseMessage(SyslogdTestUtils.toByteBuffer("<13> Feb 2 world"));
+        assertEquals(Integer.valueOf(2), message.getMonth());
+        assertNull(parser.parseMessage(SyslogdTestUtils.toByteBuffer("hello")));
+
+        assertEquals(2, ((Meter)parser.getMetrics().get("hits." + patterns.get(0))).getCount());
+        assertEquals(1, ((Meter)parser.getMetrics().get("hits." + patterns.get(1))).getCount());
+        assertEquals(1, ((Meter)parser.getMetrics().get("misses")).getCount());
+        assertEquals(4, ((Timer)parser.getMetrics().get("parse")).getCount());
+    }
+}
@@ -76,6 +76,10 @@ public abstract class IpAddr implements Comparable<IpAddr> {
             this.value = value;
         }
 
+        public int getValue() {
+            return value;
+        }
+
         @Override
         public int compareTo(IpAddr other) {
             if (other instanceof Ip6Addr) {
@@ -124,6 +128,14 @@ public abstract class IpAddr implements Comparable<IpAddr> {
             this.low = low;
         }
 
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
         @Override
         public int compareTo(IpAddr other) {
             if (other instanceof Ip4Addr) {
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+
+/**
+ * Creates the classification engine that is selected by the {@code engine.type} property.
+ */
+public final class ClassificationEngines {
+
+    public static final String TREE = "tree";
+    public static final String COMPILED = "compiled";
+
+    private ClassificationEngines() {
+    }
+
+    /**
+     * Creates an engine that is not yet initialized.
+     *
+     * @param type either {@link #TREE} or {@link #COMPILED}
+     */
+    public static ClassificationEngine newClassificationEngine(String type, ClassificationRuleProvider ruleProvider, FilterService filterService) throws InterruptedException {
+        if (type == null || TREE.equalsIgnoreCase(type.trim())) {
+            return new DefaultClassificationEngine(ruleProvider, filterService, false);
+        } else if (COMPILED.equalsIgnoreCase(type.trim())) {
+            return new CompiledClassificationEngine(ruleProvider, filterService, false);
+        }
+        throw new IllegalArgumentException("Unsupported classification engine type: " + type);
+    }
+}
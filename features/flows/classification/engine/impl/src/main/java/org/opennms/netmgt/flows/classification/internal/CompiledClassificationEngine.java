@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.compiled.CompiledRuleSet;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A classification engine that compiles the classification rules into flat primitive arrays.
+ * <p>
+ * The implementation is thread-safe.
+ *
+ * @see CompiledRuleSet
+ */
+public class CompiledClassificationEngine implements ClassificationEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEngine.class);
+
+    private final AtomicReference<RuleSetAndInvalidRules> ruleSetAndInvalidRules = new AtomicReference<>(new RuleSetAndInvalidRules(CompiledRuleSet.EMPTY, Collections.emptyList()));
+
+    private final ClassificationRuleProvider ruleProvider;
+    private final FilterService filterService;
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService) throws InterruptedException {
+        this(ruleProvider, filterService, true);
+    }
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService, final boolean initialize) throws InterruptedException {
+        this.ruleProvider = Objects.requireNonNull(ruleProvider);
+        this.filterService = Objects.requireNonNull(filterService);
+        if (initialize) {
+            this.reload();
+        }
+    }
+
+    @Override
+    public void reload() throws InterruptedException {
+        var start = System.currentTimeMillis();
+        var invalid = new ArrayList<Rule>();
+
+        final var rules = ruleProvider.getRules();
+        final var preprocessedRules = DefaultClassificationEngine.preprocess(rules, invalid);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        var ruleSet = CompiledRuleSet.of(preprocessedRules, filterService);
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("compiled flow classification rules - time (ms): {}; rules: {} (including reversed rules: {}); {}",
+                    System.currentTimeMillis() - start, rules.size(), preprocessedRules.size(), ruleSet.info);
+        }
+
+        ruleSetAndInvalidRules.set(new RuleSetAndInvalidRules(ruleSet, invalid));
+    }
+
+    @Override
+    public List<Rule> getInvalidRules() {
+        return Collections.unmodifiableList(ruleSetAndInvalidRules.get().invalidRules);
+    }
+
+    public CompiledRuleSet getRuleSet() {
+        return ruleSetAndInvalidRules.get().ruleSet;
+    }
+
+    @Override
+    public String classify(ClassificationRequest classificationRequest) {
+        return ruleSetAndInvalidRules.get().ruleSet.classify(classificationRequest);
+    }
+
+    private static class RuleSetAndInvalidRules {
+        private final CompiledRuleSet ruleSet;
+        private final List<Rule> invalidRules;
+        public RuleSetAndInvalidRules(CompiledRuleSet ruleSet, List<Rule> invalidRules) {
+            this.ruleSet = ruleSet;
+            this.invalidRules = invalidRules;
+        }
+    }
+
+}
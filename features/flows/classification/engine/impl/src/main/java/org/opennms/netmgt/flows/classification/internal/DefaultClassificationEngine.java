@@ -78,20 +78,8 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         var invalid = new ArrayList<Rule>();
 
         // Load all rules and validate them
-        final List<PreprocessedRule> preprocessedRules = Lists.newArrayList();
         final var rules = ruleProvider.getRules();
-        rules.forEach(rule -> {
-            try {
-                final var preprocessedRule = PreprocessedRule.of(rule);
-                preprocessedRules.add(preprocessedRule);
-                if (rule.canBeReversed()) {
-                    preprocessedRules.add(preprocessedRule.reverse());
-                }
-            } catch (Exception ex) {
-                LoggerFactory.getLogger(getClass()).error("Rule {} is not valid. Ignoring rule.", rule, ex);
-                invalid.add(rule);
-            }
-        });
+        final List<PreprocessedRule> preprocessedRules = preprocess(rules, invalid);
 
         var tree = Tree.of(preprocessedRules, filterService);
 
@@ -120,6 +108,28 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         treeAndInvalidRules.set(new TreeAndInvalidRules(tree, invalid));
     }
 
+    /**
+     * Preprocesses the given rules including their reversed rules.
+     *
+     * @param invalid collects the rules that are not valid
+     */
+    static List<PreprocessedRule> preprocess(List<Rule> rules, List<Rule> invalid) {
+        final List<PreprocessedRule> preprocessedRules = Lists.newArrayList();
+        rules.forEach(rule -> {
+            try {
+                final var preprocessedRule = PreprocessedRule.of(rule);
+                preprocessedRules.add(preprocessedRule);
+                if (rule.canBeReversed()) {
+                    preprocessedRules.add(preprocessedRule.reverse());
+                }
+            } catch (Exception ex) {
+                LOG.error("Rule {} is not valid. Ignoring rule.", rule, ex);
+                invalid.add(rule);
+            }
+        });
+        return preprocessedRules;
+    }
+
     @Override
     public List<Rule> getInvalidRules() {
         return Collections.unmodifiableList(treeAndInvalidRules.get().invalidRules);
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A binary radix trie over address prefixes that maps addresses to the rules whose address ranges contain them.
+ * <p>
+ * Address ranges are split into prefixes when they are added. When the trie is built the rules of each prefix are
+ * pushed down to all longer prefixes, i.e. each node references the rules of all prefixes along its path. A lookup
+ * therefore simply follows the bits of an address until it reaches a node without a corresponding child.
+ * <p>
+ * Addresses are given as two longs. IPv4 addresses are left aligned in the high long.
+ */
+public final class AddressTrie {
+
+    public static final int IPV4_BITS = 32;
+    public static final int IPV6_BITS = 128;
+
+    private final int bits;
+
+    // children of the nodes (-1 if absent); node 0 is the root
+    private final int[] zero, one;
+    private final RuleBits[] sets;
+
+    private AddressTrie(int bits, int[] zero, int[] one, RuleBits[] sets) {
+        this.bits = bits;
+        this.zero = zero;
+        this.one = one;
+        this.sets = sets;
+    }
+
+    public RuleBits lookup(long high, long low) {
+        int node = 0;
+        for (int i = 0; i < bits; i++) {
+            final long bit = i < 64 ? (high >>> (63 - i)) & 1 : (low >>> (127 - i)) & 1;
+            final int child = bit == 0 ? zero[node] : one[node];
+            if (child < 0) {
+                break;
+            }
+            node = child;
+        }
+        return sets[node];
+    }
+
+    public int size() {
+        return sets.length;
+    }
+
+    public static final class Builder {
+        private final int bits;
+        private int[] zero = new int[64], one = new int[64];
+        private int size = 1;
+        private final Map<Integer, BitSet> rules = new HashMap<>();
+
+        public Builder(int bits) {
+            this.bits = bits;
+            Arrays.fill(zero, -1);
+            Arrays.fill(one, -1);
+        }
+
+        /**
+         * Adds the given range of addresses for a rule.
+         *
+         * @param begin the first address of the range, right aligned, i.e. IPv4 addresses are in the lowest 32 bits
+         * @param end the last address of the range (inclusive)
+         */
+        public Builder add(BigInteger begin, BigInteger end, int rule) {
+            // split the range into prefixes
+            while (begin.compareTo(end) <= 0) {
+                // the largest block that is aligned at begin and does not exceed end
+                var size = begin.signum() == 0 ? bits : Math.min(begin.getLowestSetBit(), bits);
+                while (size > 0 && begin.add(BigInteger.ONE.shiftLeft(size)).subtract(BigInteger.ONE).compareTo(end) > 0) {
+                    size--;
+                }
+                addPrefix(begin, bits - size, rule);
+                begin = begin.add(BigInteger.ONE.shiftLeft(size));
+            }
+            return this;
+        }
+
+        private void addPrefix(BigInteger prefix, int length, int rule) {
+            int node = 0;
+            for (int i = 0; i < length; i++) {
+                final var bit = prefix.testBit(bits - 1 - i);
+                if ((bit ? one : zero)[node] < 0) {
+                    // newNode() may replace the arrays -> allocate before selecting the array to update
+                    final var child = newNode();
+                    (bit ? one : zero)[node] = child;
+                }
+                node = bit ? one[node] : zero[node];
+            }
+            rules.computeIfAbsent(node, n -> new BitSet()).set(rule);
+        }
+
+        private int newNode() {
+            if (size == zero.length) {
+                zero = Arrays.copyOf(zero, size * 2);
+                one = Arrays.copyOf(one, size * 2);
+                Arrays.fill(zero, size, zero.length, -1);
+                Arrays.fill(one, size, one.length, -1);
+            }
+            return size++;
+        }
+
+        public AddressTrie build(RuleBits.Interner interner) {
+            final var sets = new RuleBits[size];
+            push(0, new BitSet(), RuleBits.EMPTY, interner, sets);
+            return new AddressTrie(bits, Arrays.copyOf(zero, size), Arrays.copyOf(one, size), sets);
+        }
+
+        private void push(int node, BitSet inherited, RuleBits inheritedSet, RuleBits.Interner interner, RuleBits[] sets) {
+            var current = inherited;
+            var currentSet = inheritedSet;
+            final var own = rules.get(node);
+            if (own != null) {
+                current = (BitSet) inherited.clone();
+                current.or(own);
+                currentSet = interner.intern(current);
+            }
+            sets[node] = currentSet;
+            if (zero[node] >= 0) {
+                push(zero[node], current, currentSet, interner, sets);
+            }
+            if (one[node] >= 0) {
+                push(one[node], current, currentSet, interner, sets);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.internal.decision.PreprocessedRule;
+import org.opennms.netmgt.flows.classification.internal.value.IpRange;
+import org.opennms.netmgt.flows.classification.internal.value.IpValue;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+
+/**
+ * A rule set that is compiled into flat primitive arrays.
+ * <p>
+ * Rules are numbered by their priority. For each aspect of a flow (protocol, source / destination port and address)
+ * the set of rules that accept the flow's value is looked up: protocols in a table of bit sets, ports in
+ * {@link PortIntervalTable}s, and addresses in {@link AddressTrie}s. Rules that do not constrain an aspect accept any
+ * value. Classification intersects the five sets word by word and returns as soon as the matching rule with the
+ * highest priority is known. No objects are allocated during classification.
+ * <p>
+ * The semantics are the same as for the decision tree: a rule that constrains an aspect does not match a flow that
+ * has no value for that aspect, and if several rules with the same priority match the one that constrains the most
+ * aspects wins.
+ */
+public final class CompiledRuleSet {
+
+    public static final int NO_ADDRESS = 0;
+    public static final int IPV4 = 4;
+    public static final int IPV6 = 6;
+
+    private static final int MAX_PROTOCOL = 255;
+
+    public static final CompiledRuleSet EMPTY = of(new ArrayList<>(), FilterService.NOOP);
+
+    public static CompiledRuleSet of(List<PreprocessedRule> rules, FilterService filterService) {
+        return new CompiledRuleSet(rules, filterService);
+    }
+
+    private final int size;
+    private final int words;
+
+    // indexed by rule
+    private final String[] names;
+    private final int[] ranks;
+    private final int[] matchedAspects;
+    private final String[] exporterFilters;
+
+    // rules that do not constrain the corresponding aspect
+    private final long[] anyProtocol, anySrcPort, anyDstPort, anySrcAddr, anyDstAddr;
+
+    private final RuleBits[] protocols;
+    private final PortIntervalTable srcPorts, dstPorts;
+    private final AddressTrie srcAddr4, srcAddr6, dstAddr4, dstAddr6;
+
+    private final FilterService filterService;
+
+    public final Info info;
+
+    private CompiledRuleSet(List<PreprocessedRule> unsorted, FilterService filterService) {
+        this.filterService = Objects.requireNonNull(filterService);
+
+        final var rules = new ArrayList<>(unsorted);
+        rules.sort(Comparator.<PreprocessedRule>comparingInt(r -> r.ruleDefinition.getGroupPosition())
+                .thenComparingInt(r -> r.ruleDefinition.getPosition()));
+
+        size = rules.size();
+        words = (size + 63) >>> 6;
+        names = new String[size];
+        ranks = new int[size];
+        matchedAspects = new int[size];
+        exporterFilters = new String[size];
+
+        final var anyProtocol = new BitSet();
+        final var anySrcPort = new BitSet();
+        final var anyDstPort = new BitSet();
+        final var anySrcAddr = new BitSet();
+        final var anyDstAddr = new BitSet();
+
+        final var protocols = new BitSet[MAX_PROTOCOL + 1];
+        final var srcPorts = new PortIntervalTable.Builder();
+        final var dstPorts = new PortIntervalTable.Builder();
+        final var srcAddr4 = new AddressTrie.Builder(AddressTrie.IPV4_BITS);
+        final var srcAddr6 = new AddressTrie.Builder(AddressTrie.IPV6_BITS);
+        final var dstAddr4 = new AddressTrie.Builder(AddressTrie.IPV4_BITS);
+        final var dstAddr6 = new AddressTrie.Builder(AddressTrie.IPV6_BITS);
+
+        var rank = -1;
+        for (int i = 0; i < size; i++) {
+            final var rule = rules.get(i);
+            final var definition = rule.ruleDefinition;
+            if (i == 0
+                || definition.getGroupPosition() != rules.get(i - 1).ruleDefinition.getGroupPosition()
+                || definition.getPosition() != rules.get(i - 1).ruleDefinition.getPosition()) {
+                rank++;
+            }
+            names[i] = definition.getName();
+            ranks[i] = rank;
+            exporterFilters[i] = definition.hasExportFilterDefinition() ? definition.getExporterFilter() : null;
+
+            var aspects = 0;
+            if (rule.protocol != null) {
+                aspects++;
+                for (int p : rule.protocol.getProtocols()) {
+                    if (p >= 0 && p <= MAX_PROTOCOL) {
+                        if (protocols[p] == null) {
+                            protocols[p] = new BitSet();
+                        }
+                        protocols[p].set(i);
+                    }
+                }
+            } else {
+                anyProtocol.set(i);
+            }
+            aspects += addPorts(rule.srcPort, i, srcPorts, anySrcPort);
+            aspects += addPorts(rule.dstPort, i, dstPorts, anyDstPort);
+            aspects += addAddresses(rule.srcAddr, i, srcAddr4, srcAddr6, anySrcAddr);
+            aspects += addAddresses(rule.dstAddr, i, dstAddr4, dstAddr6, anyDstAddr);
+            matchedAspects[i] = aspects;
+        }
+
+        final var interner = new RuleBits.Interner();
+        this.protocols = new RuleBits[MAX_PROTOCOL + 1];
+        for (int p = 0; p <= MAX_PROTOCOL; p++) {
+            this.protocols[p] = protocols[p] == null ? RuleBits.EMPTY : interner.intern(protocols[p]);
+        }
+        this.srcPorts = srcPorts.build(interner);
+        this.dstPorts = dstPorts.build(interner);
+        this.srcAddr4 = srcAddr4.build(interner);
+        this.srcAddr6 = srcAddr6.build(interner);
+        this.dstAddr4 = dstAddr4.build(interner);
+        this.dstAddr6 = dstAddr6.build(interner);
+
+        this.anyProtocol = dense(anyProtocol);
+        this.anySrcPort = dense(anySrcPort);
+        this.anyDstPort = dense(anyDstPort);
+        this.anySrcAddr = dense(anySrcAddr);
+        this.anyDstAddr = dense(anyDstAddr);
+
+        this.info = new Info(size, this.srcPorts.size() + this.dstPorts.size(),
+                this.srcAddr4.size() + this.srcAddr6.size() + this.dstAddr4.size() + this.dstAddr6.size(),
+                interner.size());
+    }
+
+    private static int addPorts(PortValue value, int rule, PortIntervalTable.Builder table, BitSet any) {
+        if (value == null) {
+            any.set(rule);
+            return 0;
+        }
+        for (var range : value.getPortRanges()) {
+            table.add(range.getBegin(), range.getEnd(), rule);
+        }
+        return 1;
+    }
+
+    private static int addAddresses(IpValue value, int rule, AddressTrie.Builder ip4, AddressTrie.Builder ip6, BitSet any) {
+        if (value == null) {
+            any.set(rule);
+            return 0;
+        }
+        for (IpRange range : value.getIpAddressRanges()) {
+            if (range.begin instanceof IpAddr.Ip4Addr) {
+                ip4.add(toBigInteger(range.begin), toBigInteger(range.end), rule);
+            } else {
+                ip6.add(toBigInteger(range.begin), toBigInteger(range.end), rule);
+            }
+        }
+        return 1;
+    }
+
+    private static BigInteger toBigInteger(IpAddr addr) {
+        if (addr instanceof IpAddr.Ip4Addr) {
+            return BigInteger.valueOf(((IpAddr.Ip4Addr) addr).getValue() & 0xffffffffL);
+        } else {
+            final var ip6 = (IpAddr.Ip6Addr) addr;
+            return unsigned(ip6.getHigh()).shiftLeft(64).or(unsigned(ip6.getLow()));
+        }
+    }
+
+    private static BigInteger unsigned(long value) {
+        return BigInteger.valueOf(value >>> 1).shiftLeft(1).or(BigInteger.valueOf(value & 1));
+    }
+
+    private long[] dense(BitSet bitSet) {
+        final var dense = new long[words];
+        final var array = bitSet.toLongArray();
+        System.arraycopy(array, 0, dense, 0, array.length);
+        return dense;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Classifies a flow given by its primitive fields.
+     *
+     * @param protocol the protocol number or a negative value if the protocol is not known
+     * @param srcPort the source port or a negative value if the port is not known
+     * @param dstPort the destination port or a negative value if the port is not known
+     * @param srcFamily {@link #IPV4}, {@link #IPV6}, or {@link #NO_ADDRESS}
+     * @param srcHigh the upper 64 bits of the source address; IPv4 addresses are given in the lower 32 bits
+     * @param srcLow the lower 64 bits of the source address; ignored for IPv4 addresses
+     * @param dstFamily {@link #IPV4}, {@link #IPV6}, or {@link #NO_ADDRESS}
+     * @param dstHigh the upper 64 bits of the destination address; IPv4 addresses are given in the lower 32 bits
+     * @param dstLow the lower 64 bits of the destination address; ignored for IPv4 addresses
+     * @param exporterAddress the address of the exporter; only used for rules with an exporter filter
+     * @return the name of the matching rule or {@code null}
+     */
+    public String classify(int protocol, int srcPort, int dstPort,
+                           int srcFamily, long srcHigh, long srcLow,
+                           int dstFamily, long dstHigh, long dstLow,
+                           String exporterAddress) {
+        final RuleBits p = protocol >= 0 && protocol <= MAX_PROTOCOL ? protocols[protocol] : RuleBits.EMPTY;
+        final RuleBits sp = srcPorts.lookup(srcPort);
+        final RuleBits dp = dstPorts.lookup(dstPort);
+        final RuleBits sa = lookup(srcAddr4, srcAddr6, srcFamily, srcHigh, srcLow);
+        final RuleBits da = lookup(dstAddr4, dstAddr6, dstFamily, dstHigh, dstLow);
+
+        // cursors into the sparse sets
+        int pc = 0, spc = 0, dpc = 0, sac = 0, dac = 0;
+        int best = -1;
+        for (int w = 0; w < words; w++) {
+            long pw = 0, spw = 0, dpw = 0, saw = 0, daw = 0;
+            if (pc < p.index.length && p.index[pc] == w) {
+                pw = p.words[pc++];
+            }
+            if (spc < sp.index.length && sp.index[spc] == w) {
+                spw = sp.words[spc++];
+            }
+            if (dpc < dp.index.length && dp.index[dpc] == w) {
+                dpw = dp.words[dpc++];
+            }
+            if (sac < sa.index.length && sa.index[sac] == w) {
+                saw = sa.words[sac++];
+            }
+            if (dac < da.index.length && da.index[dac] == w) {
+                daw = da.words[dac++];
+            }
+            long matches = (anyProtocol[w] | pw)
+                           & (anySrcPort[w] | spw)
+                           & (anyDstPort[w] | dpw)
+                           & (anySrcAddr[w] | saw)
+                           & (anyDstAddr[w] | daw);
+            while (matches != 0) {
+                final int rule = (w << 6) + Long.numberOfTrailingZeros(matches);
+                matches &= matches - 1;
+                if (best >= 0 && ranks[rule] != ranks[best]) {
+                    // all remaining rules have a lower priority
+                    return names[best];
+                }
+                if (exporterFilters[rule] != null && !filterService.matches(exporterAddress, exporterFilters[rule])) {
+                    continue;
+                }
+                if (best < 0 || matchedAspects[rule] > matchedAspects[best]) {
+                    best = rule;
+                }
+            }
+        }
+        return best >= 0 ? names[best] : null;
+    }
+
+    private static RuleBits lookup(AddressTrie ip4, AddressTrie ip6, int family, long high, long low) {
+        switch (family) {
+            case IPV4:
+                return ip4.lookup(high << 32, 0);
+            case IPV6:
+                return ip6.lookup(high, low);
+            default:
+                return RuleBits.EMPTY;
+        }
+    }
+
+    public String classify(ClassificationRequest request) {
+        return classify(
+                request.getProtocol() != null ? request.getProtocol().getDecimal() : -1,
+                request.getSrcPort() != null ? request.getSrcPort() : -1,
+                request.getDstPort() != null ? request.getDstPort() : -1,
+                family(request.getSrcAddress()), high(request.getSrcAddress()), low(request.getSrcAddress()),
+                family(request.getDstAddress()), high(request.getDstAddress()), low(request.getDstAddress()),
+                request.getExporterAddress()
+        );
+    }
+
+    /**
+     * @return the address family of the given address as expected by {@link #classify(int, int, int, int, long, long, int, long, long, String)}
+     */
+    public static int family(IpAddr addr) {
+        return addr == null ? NO_ADDRESS : addr instanceof IpAddr.Ip4Addr ? IPV4 : IPV6;
+    }
+
+    public static long high(IpAddr addr) {
+        return addr == null ? 0 : addr instanceof IpAddr.Ip4Addr ? ((IpAddr.Ip4Addr) addr).getValue() & 0xffffffffL : ((IpAddr.Ip6Addr) addr).getHigh();
+    }
+
+    public static long low(IpAddr addr) {
+        return addr instanceof IpAddr.Ip6Addr ? ((IpAddr.Ip6Addr) addr).getLow() : 0;
+    }
+
+    /**
+     * Statistical information about a compiled rule set.
+     */
+    public static class Info {
+        public final int rules;
+        public final int portIntervals;
+        public final int trieNodes;
+        public final int distinctSets;
+
+        public Info(int rules, int portIntervals, int trieNodes, int distinctSets) {
+            this.rules = rules;
+            this.portIntervals = portIntervals;
+            this.trieNodes = trieNodes;
+            this.distinctSets = distinctSets;
+        }
+
+        @Override
+        public String toString() {
+            return "Info{" +
+                   "rules=" + rules +
+                   ", portIntervals=" + portIntervals +
+                   ", trieNodes=" + trieNodes +
+                   ", distinctSets=" + distinctSets +
+                   '}';
+        }
+    }
+}
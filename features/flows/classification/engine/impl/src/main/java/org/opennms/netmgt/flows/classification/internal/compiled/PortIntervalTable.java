@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Maps ports to the rules whose port ranges contain them.
+ * <p>
+ * The port space is split into elementary intervals at the borders of all port ranges. Each interval references the
+ * set of rules that contain all of its ports. Lookups are a binary search over the interval starts.
+ */
+public final class PortIntervalTable {
+
+    public static final PortIntervalTable EMPTY = new PortIntervalTable(new int[] { 0 }, new RuleBits[] { RuleBits.EMPTY });
+
+    private final int[] starts;
+    private final RuleBits[] sets;
+
+    private PortIntervalTable(int[] starts, RuleBits[] sets) {
+        this.starts = starts;
+        this.sets = sets;
+    }
+
+    /**
+     * @param port the port or a negative value if the port is not known
+     */
+    public RuleBits lookup(int port) {
+        if (port < 0) {
+            return RuleBits.EMPTY;
+        }
+        int i = Arrays.binarySearch(starts, port);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return sets[i];
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public static final class Builder {
+        // triples of begin (inclusive), end (inclusive), and rule
+        private final List<int[]> ranges = new ArrayList<>();
+
+        public Builder add(int begin, int end, int rule) {
+            ranges.add(new int[] { begin, end, rule });
+            return this;
+        }
+
+        public PortIntervalTable build(RuleBits.Interner interner) {
+            if (ranges.isEmpty()) {
+                return EMPTY;
+            }
+
+            final var begins = ranges.toArray(new int[0][]);
+            final var ends = ranges.toArray(new int[0][]);
+            Arrays.sort(begins, (a, b) -> Integer.compare(a[0], b[0]));
+            Arrays.sort(ends, (a, b) -> Integer.compare(a[1], b[1]));
+
+            // a rule may list overlapping ranges -> count how many of its ranges contain the current interval
+            final var counts = new int[ranges.stream().mapToInt(r -> r[2]).max().getAsInt() + 1];
+            final var current = new BitSet();
+
+            final var starts = new int[2 * begins.length + 1];
+            final var sets = new RuleBits[starts.length];
+            var size = 0;
+            var b = 0;
+            var e = 0;
+            var position = 0;
+            while (true) {
+                // apply all ranges that begin or have ended at the current position
+                while (e < ends.length && ends[e][1] + 1 <= position) {
+                    final var rule = ends[e++][2];
+                    if (--counts[rule] == 0) {
+                        current.clear(rule);
+                    }
+                }
+                while (b < begins.length && begins[b][0] <= position) {
+                    final var rule = begins[b++][2];
+                    if (counts[rule]++ == 0) {
+                        current.set(rule);
+                    }
+                }
+                final var set = interner.intern(current);
+                // merge neighbouring intervals that select the same rules
+                if (size == 0 || sets[size - 1] != set) {
+                    starts[size] = position;
+                    sets[size++] = set;
+                }
+                // advance to the next border
+                final var nextBegin = b < begins.length ? begins[b][0] : Integer.MAX_VALUE;
+                final var nextEnd = e < ends.length ? ends[e][1] + 1 : Integer.MAX_VALUE;
+                position = Math.min(nextBegin, nextEnd);
+                if (position == Integer.MAX_VALUE) {
+                    break;
+                }
+            }
+            return new PortIntervalTable(Arrays.copyOf(starts, size), Arrays.copyOf(sets, size));
+        }
+    }
+}
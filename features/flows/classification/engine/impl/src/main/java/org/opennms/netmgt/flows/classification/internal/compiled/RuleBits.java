@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable, sparse set of rule indices.
+ * <p>
+ * Only the non-zero 64 bit words of the set are stored together with their word indices. The word indices are
+ * ascending which allows to combine several sets in a single pass over all words without allocating anything.
+ */
+public final class RuleBits {
+
+    public static final RuleBits EMPTY = new RuleBits(new int[0], new long[0]);
+
+    final int[] index;
+    final long[] words;
+
+    private RuleBits(int[] index, long[] words) {
+        this.index = index;
+        this.words = words;
+    }
+
+    public static RuleBits of(BitSet bitSet) {
+        final long[] dense = bitSet.toLongArray();
+        int nonZero = 0;
+        for (long w : dense) {
+            if (w != 0) {
+                nonZero++;
+            }
+        }
+        if (nonZero == 0) {
+            return EMPTY;
+        }
+        final int[] index = new int[nonZero];
+        final long[] words = new long[nonZero];
+        int pos = 0;
+        for (int i = 0; i < dense.length; i++) {
+            if (dense[i] != 0) {
+                index[pos] = i;
+                words[pos++] = dense[i];
+            }
+        }
+        return new RuleBits(index, words);
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    public boolean contains(int rule) {
+        final int i = Arrays.binarySearch(index, rule >>> 6);
+        return i >= 0 && (words[i] & (1L << rule)) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final RuleBits that = (RuleBits) o;
+        return Arrays.equals(index, that.index) && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(index) + Arrays.hashCode(words);
+    }
+
+    /**
+     * Deduplicates rule sets while a rule set is compiled.
+     * <p>
+     * Neighbouring port intervals and address prefixes often select the same rules. Sharing their sets keeps the
+     * memory footprint of the compiled rule set small.
+     */
+    public static final class Interner {
+        private final Map<BitSet, RuleBits> sets = new HashMap<>();
+
+        public RuleBits intern(BitSet bitSet) {
+            if (bitSet.isEmpty()) {
+                return EMPTY;
+            }
+            return sets.computeIfAbsent((BitSet) bitSet.clone(), RuleBits::of);
+        }
+
+        public int size() {
+            return sets.size();
+        }
+    }
+}
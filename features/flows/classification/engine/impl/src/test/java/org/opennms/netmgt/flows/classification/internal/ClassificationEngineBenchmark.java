@@ -27,7 +27,9 @@
  *******************************************************************************/
 package org.opennms.netmgt.flows.classification.internal;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import org.openjdk.jmh.annotations.Benchmark;
@@ -45,16 +47,19 @@ import org.opennms.netmgt.flows.classification.FilterService;
 import org.opennms.netmgt.flows.classification.csv.CsvService;
 import org.opennms.netmgt.flows.classification.internal.csv.CsvServiceImpl;
 import org.opennms.netmgt.flows.classification.internal.csv.CsvServiceTest;
+import org.opennms.netmgt.flows.classification.internal.compiled.CompiledRuleSet;
 import org.opennms.netmgt.flows.classification.internal.validation.RuleValidator;
 import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
 import org.opennms.netmgt.flows.classification.persistence.api.Groups;
 import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
 
 /**
  * Use the Java Microbenchmarking Harness (JMH) to measure classification performance.
  * <p>
- * Rule sets are loaded from csv files and classification is done with randomly generated flows based on the
- * protocols, ports, and addresses found in the loaded rule sets.
+ * Rule sets are loaded from csv files or are generated. Classification is done with randomly generated flows based
+ * on the protocols, ports, and addresses found in the rule sets. The decision tree engine is compared with the
+ * compiled engine.
  */
 public class ClassificationEngineBenchmark {
 
@@ -66,12 +71,20 @@ public class ClassificationEngineBenchmark {
     // the benchmark is run for different rule sets
     private static final String EXAMPLE_RULES_RESOURCE = "/example-rules.csv";
     private static final String PRE_DEFINED_RULES_RESOURCE = "/pre-defined-rules.csv";
+    // a generated rule set with 10k rules
+    private static final String GENERATED_10K_RULES = "generated:10000";
+
+    private static final String TREE = ClassificationEngines.TREE;
+    private static final String COMPILED = ClassificationEngines.COMPILED;
 
     public static void main(String[] args) throws Exception {
         org.openjdk.jmh.Main.main(args);
     }
 
     public static List<Rule> getRules(String resource) {
+        if (resource.startsWith("generated:")) {
+            return generateRules(Integer.parseInt(resource.substring("generated:".length())), 123456L);
+        }
         var group = new GroupBuilder().withName(Groups.USER_DEFINED).build();
         final CsvService csvService = new CsvServiceImpl(org.mockito.Mockito.mock(RuleValidator.class));
         final List<Rule> rules = csvService.parseCSV(group, CsvServiceTest.class.getResourceAsStream(resource), true).getRules();
@@ -82,22 +95,58 @@ public class ClassificationEngineBenchmark {
         return rules;
     }
 
+    /**
+     * Generates a rule set that resembles user defined rules: mostly single ports or small port ranges, sometimes
+     * combined with IPv4 or IPv6 networks.
+     */
+    public static List<Rule> generateRules(int count, long seed) {
+        final var random = new Random(seed);
+        final var protocols = new String[] { "tcp", "udp", "tcp,udp" };
+        final var rules = new ArrayList<Rule>(count);
+        for (int i = 0; i < count; i++) {
+            final var builder = new RuleBuilder()
+                    .withName("app" + (i % 1000))
+                    .withPosition(i)
+                    .withProtocol(protocols[random.nextInt(protocols.length)])
+                    .withOmnidirectional(random.nextInt(5) == 0);
+            final var port = 1 + random.nextInt(65000);
+            final var portKind = random.nextInt(10);
+            if (portKind < 7) {
+                builder.withDstPort(port);
+            } else if (portKind < 9) {
+                builder.withDstPort(port + "-" + (port + random.nextInt(100)));
+            }
+            final var addressKind = random.nextInt(20);
+            if (addressKind < 6) {
+                builder.withDstAddress("10." + random.nextInt(256) + "." + random.nextInt(256) + ".0/" + (16 + random.nextInt(17)));
+            } else if (addressKind < 7) {
+                builder.withSrcAddress("2001:db8:" + Integer.toHexString(random.nextInt(65536)) + "::/" + (48 + random.nextInt(17)));
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
     @State(Scope.Benchmark)
     public static class BState {
 
         @Param({"0", "1"})
         public int index;
 
-        @Param({EXAMPLE_RULES_RESOURCE, PRE_DEFINED_RULES_RESOURCE})
+        @Param({EXAMPLE_RULES_RESOURCE, PRE_DEFINED_RULES_RESOURCE, GENERATED_10K_RULES})
         public String ruleSet;
 
+        @Param({TREE, COMPILED})
+        public String engine;
+
         private ClassificationEngine classificationEngine;
         private List<ClassificationRequest> classificationRequests;
 
         @Setup
         public void setup() throws InterruptedException {
             var rules = getRules(ruleSet);
-            classificationEngine = new DefaultClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class));
+            classificationEngine = ClassificationEngines.newClassificationEngine(engine, () -> rules, org.mockito.Mockito.mock(FilterService.class));
+            classificationEngine.reload();
             classificationRequests = RandomClassificationEngineTest.streamOfclassificationRequests(rules, 123456l).skip(index * BATCH_SIZE).limit(BATCH_SIZE).collect(Collectors.toList());
         }
 
@@ -111,6 +160,51 @@ public class ClassificationEngineBenchmark {
 
     }
 
+    /**
+     * Holds the flows of a batch as primitive fields for the allocation free classification by the compiled engine.
+     */
+    @State(Scope.Benchmark)
+    public static class PrimitiveState {
+
+        @Param({"0", "1"})
+        public int index;
+
+        @Param({EXAMPLE_RULES_RESOURCE, PRE_DEFINED_RULES_RESOURCE, GENERATED_10K_RULES})
+        public String ruleSet;
+
+        private CompiledRuleSet compiledRuleSet;
+        private int[] protocols, srcPorts, dstPorts, srcFamilies, dstFamilies;
+        private long[] srcHighs, srcLows, dstHighs, dstLows;
+
+        @Setup
+        public void setup() throws InterruptedException {
+            var rules = getRules(ruleSet);
+            compiledRuleSet = new CompiledClassificationEngine(() -> rules, org.mockito.Mockito.mock(FilterService.class)).getRuleSet();
+            var requests = RandomClassificationEngineTest.streamOfclassificationRequests(rules, 123456l).skip(index * BATCH_SIZE).limit(BATCH_SIZE).collect(Collectors.toList());
+            protocols = new int[BATCH_SIZE];
+            srcPorts = new int[BATCH_SIZE];
+            dstPorts = new int[BATCH_SIZE];
+            srcFamilies = new int[BATCH_SIZE];
+            dstFamilies = new int[BATCH_SIZE];
+            srcHighs = new long[BATCH_SIZE];
+            srcLows = new long[BATCH_SIZE];
+            dstHighs = new long[BATCH_SIZE];
+            dstLows = new long[BATCH_SIZE];
+            for (int i = 0; i < requests.size(); i++) {
+                var r = requests.get(i);
+                protocols[i] = r.getProtocol().getDecimal();
+                srcPorts[i] = r.getSrcPort();
+                dstPorts[i] = r.getDstPort();
+                srcFamilies[i] = CompiledRuleSet.family(r.getSrcAddress());
+                srcHighs[i] = CompiledRuleSet.high(r.getSrcAddress());
+                srcLows[i] = CompiledRuleSet.low(r.getSrcAddress());
+                dstFamilies[i] = CompiledRuleSet.family(r.getDstAddress());
+                dstHighs[i] = CompiledRuleSet.high(r.getDstAddress());
+                dstLows[i] = CompiledRuleSet.low(r.getDstAddress());
+            }
+        }
+    }
+
     @Benchmark
     @Fork(value = 1)
     @Warmup(iterations = 1)
@@ -123,4 +217,19 @@ public class ClassificationEngineBenchmark {
         }
     }
 
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public void classifyPrimitives(PrimitiveState state, Blackhole blackhole) {
+        var compiledRuleSet = state.compiledRuleSet;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            var app = compiledRuleSet.classify(state.protocols[i], state.srcPorts[i], state.dstPorts[i],
+                    state.srcFamilies[i], state.srcHighs[i], state.srcLows[i],
+                    state.dstFamilies[i], state.dstHighs[i], state.dstLows[i],
+                    null);
+            blackhole.consume(app);
+        }
+    }
+
 }
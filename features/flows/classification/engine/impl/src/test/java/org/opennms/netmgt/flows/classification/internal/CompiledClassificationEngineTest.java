@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Objects;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.IpAddr;
+import org.opennms.netmgt.flows.classification.internal.compiled.CompiledRuleSet;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineTest {
+
+    private static ClassificationRequest classificationRequest(int srcPort, String srcAddress, int dstPort, String dstAddress) {
+        return new ClassificationRequest("Default", srcPort, IpAddr.of(srcAddress), dstPort, IpAddr.of(dstAddress), ProtocolType.TCP);
+    }
+
+    @Test
+    public void verifyRuleEngineBasic() throws InterruptedException {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+            Lists.newArrayList(
+                    new RuleBuilder().withName("rule1").withPosition(1).withSrcPort(80).build(),
+                    new RuleBuilder().withName("rule2").withPosition(2).withDstPort(443).build(),
+                    new RuleBuilder().withName("rule3").withPosition(3).withSrcPort(8888).withDstPort(9999).build(),
+                    new RuleBuilder().withName("rule4").withPosition(4).withSrcPort(8888).withDstPort(80).build(),
+                    new RuleBuilder().withName("rule5").withPosition(5).build()
+            ), FilterService.NOOP);
+
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(443).build()));
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(81).build()));
+    }
+
+    @Test
+    public void verifyRuleEngineWithOmnidirectionals() throws InterruptedException {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+                Lists.newArrayList(
+                        new RuleBuilder().withName("rule1").withSrcPort(80).withOmnidirectional(true).build(),
+                        new RuleBuilder().withName("rule2").withDstPort(443).withOmnidirectional(true).build(),
+                        new RuleBuilder().withName("rule3").withSrcPort(8080).withDstPort(8443).withOmnidirectional(true).build()
+                ), FilterService.NOOP);
+
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(80).build()));
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(9999).build()));
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(443).withDstPort(9999).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8443).withDstPort(8080).build()));
+        assertNull(engine.classify(new ClassificationRequestBuilder().withSrcPort(8443).withDstPort(8443).build()));
+    }
+
+    @Test
+    public void verifyMoreSpecificRuleWinsForSamePosition() throws InterruptedException {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("HTTP").withDstPort(80).withPosition(1).build(),
+                new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
+                new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("XXX", engine.classify(classificationRequest(0, null, 80, "192.168.2.1")));
+        assertEquals("XXX2", engine.classify(classificationRequest(4789, "192.168.2.1", 80, "192.168.2.1")));
+        assertEquals("HTTP", engine.classify(classificationRequest(4789, "192.168.2.2", 80, "52.31.45.219")));
+    }
+
+    @Test
+    public void verifyAddressRangesAndNetworks() throws InterruptedException {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("v4-range").withPosition(1).withDstAddress("10.0.0.5-10.0.1.7").build(),
+                new RuleBuilder().withName("v4-cidr").withPosition(2).withDstAddress("10.0.0.0/16").build(),
+                new RuleBuilder().withName("v6-cidr").withPosition(3).withDstAddress("2001:db8::/32").withDstPort(443).build()
+        ), FilterService.NOOP);
+
+        assertEquals("v4-cidr", engine.classify(classificationRequest(1234, "1.1.1.1", 80, "10.0.0.4")));
+        assertEquals("v4-range", engine.classify(classificationRequest(1234, "1.1.1.1", 80, "10.0.0.5")));
+        assertEquals("v4-range", engine.classify(classificationRequest(1234, "1.1.1.1", 80, "10.0.1.7")));
+        assertEquals("v4-cidr", engine.classify(classificationRequest(1234, "1.1.1.1", 80, "10.0.255.255")));
+        assertNull(engine.classify(classificationRequest(1234, "1.1.1.1", 80, "10.1.0.0")));
+        assertEquals("v6-cidr", engine.classify(classificationRequest(1234, "::1", 443, "2001:db8:ffff::1")));
+        assertNull(engine.classify(classificationRequest(1234, "::1", 80, "2001:db8:ffff::1")));
+        assertNull(engine.classify(classificationRequest(1234, "::1", 443, "2001:db9::1")));
+    }
+
+    @Test
+    public void verifyExporterFilter() throws InterruptedException {
+        final FilterService filterService = new FilterService() {
+            @Override
+            public void validate(String filterExpression) {
+            }
+
+            @Override
+            public boolean matches(String address, String filterExpression) {
+                return Objects.equals(address, filterExpression);
+            }
+        };
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("filtered").withPosition(1).withDstPort(80).withExporterFilter("127.0.0.1").build(),
+                new RuleBuilder().withName("http").withPosition(2).withDstPort(80).build()
+        ), filterService);
+
+        final ClassificationRequest request = classificationRequest(1234, "1.1.1.1", 80, "2.2.2.2");
+        assertEquals("http", engine.classify(request));
+        request.setExporterAddress("127.0.0.1");
+        assertEquals("filtered", engine.classify(request));
+    }
+
+    @Test
+    public void verifyClassifyPrimitives() throws InterruptedException {
+        final CompiledClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("dns").withProtocol("udp").withDstPort(53).withDstAddress("192.168.0.0/24").build(),
+                new RuleBuilder().withName("v6").withSrcAddress("fe80::/10").build()
+        ), FilterService.NOOP);
+        final CompiledRuleSet ruleSet = engine.getRuleSet();
+
+        final int udp = ProtocolType.UDP.getDecimal();
+        assertEquals("dns", ruleSet.classify(udp, 1234, 53, CompiledRuleSet.IPV4, 0x01010101L, 0, CompiledRuleSet.IPV4, 0xc0a80001L, 0, null));
+        assertNull(ruleSet.classify(ProtocolType.TCP.getDecimal(), 1234, 53, CompiledRuleSet.IPV4, 0x01010101L, 0, CompiledRuleSet.IPV4, 0xc0a80001L, 0, null));
+        assertNull(ruleSet.classify(udp, 1234, 53, CompiledRuleSet.IPV4, 0x01010101L, 0, CompiledRuleSet.NO_ADDRESS, 0, 0, null));
+        assertEquals("v6", ruleSet.classify(-1, -1, -1, CompiledRuleSet.IPV6, 0xfe80000000000000L, 1, CompiledRuleSet.NO_ADDRESS, 0, 0, null));
+    }
+
+    @Test
+    public void verifySameResultsAsDecisionTree() throws InterruptedException {
+        for (var ruleSet : new String[] { "/example-rules.csv", "/pre-defined-rules.csv", "generated:2000" }) {
+            final var rules = ClassificationEngineBenchmark.getRules(ruleSet);
+            final var tree = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+            final var compiled = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+            RandomClassificationEngineTest.streamOfclassificationRequests(rules, 123456l).limit(50000).forEach(cr ->
+                assertEquals("classification request: " + cr, tree.classify(cr), compiled.classify(cr))
+            );
+        }
+    }
+}
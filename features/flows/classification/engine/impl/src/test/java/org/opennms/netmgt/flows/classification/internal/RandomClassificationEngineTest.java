@@ -42,6 +42,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.opennms.core.network.IPAddress;
 import org.opennms.core.network.IPAddressRange;
 import org.opennms.core.network.IPPortRange;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.FilterService;
 import org.opennms.netmgt.flows.classification.internal.decision.Classifier;
@@ -78,7 +79,7 @@ import net.jqwik.api.Tuple;
  * <p>
  * Random rule sets are generated and used to instantiate classification engines. Then randomized classification
  * requests are generated based on the rule sets. Classification is checked by comparing the outcome when classifying
- * by the decision tree or by a simple brute force algorithm.
+ * by the decision tree (or the compiled rule set) or by a simple brute force algorithm.
  */
 public class RandomClassificationEngineTest {
 
@@ -125,7 +126,21 @@ public class RandomClassificationEngineTest {
             });
         }
         var ce = new DefaultClassificationEngine(() -> rulesAndRequests.get1(), FILTER_SERVICE);
+        return matchesBruteForce(ce, rulesAndRequests);
+    }
+
+    @Property
+    public boolean testCompiled(
+            @ForAll("rulesAndRequests") Tuple.Tuple2<List<Rule>, List<ClassificationRequest>> rulesAndRequests
+    ) throws InterruptedException {
+        var ce = new CompiledClassificationEngine(() -> rulesAndRequests.get1(), FILTER_SERVICE);
+        return matchesBruteForce(ce, rulesAndRequests);
+    }
 
+    private static boolean matchesBruteForce(
+            ClassificationEngine ce,
+            Tuple.Tuple2<List<Rule>, List<ClassificationRequest>> rulesAndRequests
+    ) {
         var classifiers = rulesAndRequests.get1().stream()
                 .flatMap(r -> r.isOmnidirectional() ? Stream.of(r, r.reversedRule()) : Stream.of(r))
                 .map(r -> RandomClassificationEngineTest.classifier(r))
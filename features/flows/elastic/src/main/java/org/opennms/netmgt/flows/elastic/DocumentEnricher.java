@@ -132,6 +132,9 @@ public class DocumentEnricher {
             return Collections.emptyList();
         }
 
+        // The flows are enriched one after the other, so a single classification request is reused for all of them
+        final ClassificationRequest classificationRequest = new ClassificationRequest();
+
         return sessionUtils.withTransaction(() -> flows.stream().map(flow -> {
             final FlowDocument document = FlowDocument.from(flow);
             // Metadata from message
@@ -161,7 +164,7 @@ public class DocumentEnricher {
                 document.setFlowLocality(Locality.PRIVATE);
             }
 
-            final ClassificationRequest classificationRequest = createClassificationRequest(document);
+            populateClassificationRequest(classificationRequest, document);
 
             // Check whether classification is possible
             if (classificationRequest.isClassifiable()) {
@@ -301,6 +304,14 @@ public class DocumentEnricher {
 
     protected static ClassificationRequest createClassificationRequest(FlowDocument document) {
         final ClassificationRequest request = new ClassificationRequest();
+        populateClassificationRequest(request, document);
+        return request;
+    }
+
+    /**
+     * Overwrites all fields of the given request with the fields of the document.
+     */
+    protected static void populateClassificationRequest(ClassificationRequest request, FlowDocument document) {
         request.setProtocol(document.getProtocol() == null ? null : Protocols.getProtocol(document.getProtocol()));
         request.setLocation(document.getLocation());
         request.setExporterAddress(document.getHost());
@@ -309,8 +320,6 @@ public class DocumentEnricher {
         request.setDstPort(document.getDstPort());
         request.setSrcAddress(document.getSrcAddr());
         request.setSrcPort(document.getSrcPort());
-
-        return request;
     }
 
     private CacheConfig buildMetadataCacheConfig(CacheConfig cacheConfig) {
@@ -165,6 +165,11 @@ public class ElasticFlowRepository implements FlowRepository {
     private int bulkRetryCount = 5;
     private int bulkFlushMs = 500;
 
+    /**
+     * Optional stage merging similar flow documents before persisting them
+     */
+    private FlowAggregator flowAggregator;
+
     /**
      * Can be used to skip persisting the flows into ES>
      */
@@ -281,6 +286,13 @@ public class ElasticFlowRepository implements FlowRepository {
                 @Override
                 public void run() {
                     final long currentTimeMillis = System.currentTimeMillis();
+                    if (isAggregationEnabled()) {
+                        try {
+                            addToBulk(flowAggregator.flush(currentTimeMillis));
+                        } catch (Throwable t) {
+                            LOG.error("An error occurred while flushing aggregated flows in ElasticFlowRepository.", t);
+                        }
+                    }
                     for(final Map.Entry<Thread, ElasticFlowRepository.FlowBulk> entry : flowBulks.entrySet()) {
                         final ElasticFlowRepository.FlowBulk flowBulk = entry.getValue();
                         if (currentTimeMillis - flowBulk.lastPersist > bulkFlushMs) {
@@ -345,18 +357,10 @@ public class ElasticFlowRepository implements FlowRepository {
 
         if (skipElasticsearchPersistence) {
             RATE_LIMITED_LOGGER.info("Flow persistence disabled. Dropping {} flow documents.", flowDocuments.size());
+        } else if (isAggregationEnabled()) {
+            this.addToBulk(this.flowAggregator.aggregate(flowDocuments, System.currentTimeMillis()));
         } else {
-            final FlowBulk flowBulk = this.flowBulks.computeIfAbsent(Thread.currentThread(), (thread) -> new FlowBulk());
-            flowBulk.lock.lock();
-            try {
-                flowBulk.documents.addAll(flowDocuments);
-                if (flowBulk.documents.size() >= this.bulkSize) {
-                    this.persistBulk(flowBulk.documents);
-                    flowBulk.lastPersist = System.currentTimeMillis();
-                }
-            } finally {
-                flowBulk.lock.unlock();
-            }
+            this.addToBulk(flowDocuments);
         }
 
         // Mark nodes and interfaces as having associated flows
@@ -420,6 +424,27 @@ public class ElasticFlowRepository implements FlowRepository {
         }
     }
 
+    private void addToBulk(final List<FlowDocument> flowDocuments) throws FlowException {
+        if (flowDocuments.isEmpty()) {
+            return;
+        }
+        final FlowBulk flowBulk = this.flowBulks.computeIfAbsent(Thread.currentThread(), (thread) -> new FlowBulk());
+        flowBulk.lock.lock();
+        try {
+            flowBulk.documents.addAll(flowDocuments);
+            if (flowBulk.documents.size() >= this.bulkSize) {
+                this.persistBulk(flowBulk.documents);
+                flowBulk.lastPersist = System.currentTimeMillis();
+            }
+        } finally {
+            flowBulk.lock.unlock();
+        }
+    }
+
+    private boolean isAggregationEnabled() {
+        return this.flowAggregator != null && this.flowAggregator.isEnabled();
+    }
+
     private void persistBulk(final List<FlowDocument> bulk) throws FlowException {
         LOG.debug("Persisting {} flow documents.", bulk.size());
         final Tracer tracer = getTracer();
@@ -476,6 +501,9 @@ public class ElasticFlowRepository implements FlowRepository {
         stopTimer();
         markerCacheSyncDone.countDown();
         executorService.shutdownNow();
+        if (isAggregationEnabled()) {
+            addToBulk(flowAggregator.flushAll());
+        }
         for(final FlowBulk flowBulk : flowBulks.values()) {
             persistBulk(flowBulk.documents);
         }
@@ -522,6 +550,15 @@ public class ElasticFlowRepository implements FlowRepository {
         stopTimer();
         startTimer();
     }
+
+    public FlowAggregator getFlowAggregator() {
+        return this.flowAggregator;
+    }
+
+    public void setFlowAggregator(final FlowAggregator flowAggregator) {
+        this.flowAggregator = flowAggregator;
+    }
+
     public boolean isSkipElasticsearchPersistence() {
         return skipElasticsearchPersistence;
     }
@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
+/**
+ * Merges flow documents before they are persisted.
+ * <p>
+ * Documents of the same exporter, interfaces, direction, application and conversation are merged if their timestamps
+ * fall into the same time bucket. Merged documents carry the sum of bytes and packets and the union of the switched
+ * times of all merged documents, all other fields are taken from the first document. A bucket is released once it
+ * was held for the configured bucket width. If the number of held documents reaches the configured maximum size the
+ * oldest held document is released early.
+ * <p>
+ * The documents are held in the order they were created in, so releasing them only visits the released documents.
+ * <p>
+ * Aggregation is disabled if the bucket width is not positive.
+ */
+public class FlowAggregator {
+
+    private final long bucketWidthMs;
+
+    private final int maxSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // In the order the entries were created in, merging does not change the order
+    private final Map<Key, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Number of documents passed into the aggregator
+     */
+    private final Meter documentsIn;
+
+    /**
+     * Number of documents released by the aggregator
+     */
+    private final Meter documentsOut;
+
+    /**
+     * Number of documents released early because the maximum size was reached
+     */
+    private final Counter overflows;
+
+    public FlowAggregator(final MetricRegistry metricRegistry, final long bucketWidthMs, final int maxSize) {
+        this.bucketWidthMs = bucketWidthMs;
+        this.maxSize = maxSize;
+
+        this.documentsIn = metricRegistry.meter("aggregationIn");
+        this.documentsOut = metricRegistry.meter("aggregationOut");
+        this.overflows = metricRegistry.counter("aggregationOverflows");
+        metricRegistry.register("aggregationSize", (Gauge<Integer>) this::size);
+        metricRegistry.register("aggregationReductionRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(documentsIn.getCount(), documentsOut.getCount());
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return this.bucketWidthMs > 0;
+    }
+
+    public long getBucketWidthMs() {
+        return this.bucketWidthMs;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Merges the given documents into the held documents.
+     *
+     * @return the documents that are released and must be persisted
+     */
+    public List<FlowDocument> aggregate(final Collection<FlowDocument> documents, final long now) {
+        final List<FlowDocument> released = new ArrayList<>();
+
+        this.lock.lock();
+        try {
+            this.release(now, released);
+
+            for (final FlowDocument document : documents) {
+                final Key key = new Key(document, Math.floorDiv(document.getTimestamp(), this.bucketWidthMs));
+
+                final Entry entry = this.entries.get(key);
+                if (entry != null) {
+                    merge(entry.document, document);
+                    continue;
+                }
+
+                if (this.entries.size() >= this.maxSize) {
+                    this.overflows.inc();
+                    this.releaseOldest(released);
+                }
+                this.entries.put(key, new Entry(document, now));
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.documentsIn.mark(documents.size());
+        this.documentsOut.mark(released.size());
+        return released;
+    }
+
+    /**
+     * Releases all documents that were held for at least the bucket width.
+     */
+    public List<FlowDocument> flush(final long now) {
+        final List<FlowDocument> released = new ArrayList<>();
+
+        this.lock.lock();
+        try {
+            this.release(now, released);
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.documentsOut.mark(released.size());
+        return released;
+    }
+
+    /**
+     * Releases all held documents.
+     */
+    public List<FlowDocument> flushAll() {
+        final List<FlowDocument> released = new ArrayList<>();
+
+        this.lock.lock();
+        try {
+            this.releaseAll(released);
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.documentsOut.mark(released.size());
+        return released;
+    }
+
+    private void release(final long now, final List<FlowDocument> released) {
+        for (final Iterator<Entry> it = this.entries.values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            if (now - entry.created < this.bucketWidthMs) {
+                // All following entries were created later
+                break;
+            }
+            released.add(entry.document);
+            it.remove();
+        }
+    }
+
+    private void releaseOldest(final List<FlowDocument> released) {
+        final Iterator<Entry> it = this.entries.values().iterator();
+        if (it.hasNext()) {
+            released.add(it.next().document);
+            it.remove();
+        }
+    }
+
+    private void releaseAll(final List<FlowDocument> released) {
+        for (final Entry entry : this.entries.values()) {
+            released.add(entry.document);
+        }
+        this.entries.clear();
+    }
+
+    private static void merge(final FlowDocument target, final FlowDocument source) {
+        target.setBytes(sum(target.getBytes(), source.getBytes()));
+        target.setPackets(sum(target.getPackets(), source.getPackets()));
+        target.setFirstSwitched(min(target.getFirstSwitched(), source.getFirstSwitched()));
+        target.setDeltaSwitched(min(target.getDeltaSwitched(), source.getDeltaSwitched()));
+        target.setLastSwitched(max(target.getLastSwitched(), source.getLastSwitched()));
+        if (source.getTcpFlags() != null) {
+            target.setTcpFlags(target.getTcpFlags() != null
+                               ? target.getTcpFlags() | source.getTcpFlags()
+                               : source.getTcpFlags());
+        }
+    }
+
+    private static Long sum(final Long a, final Long b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a + b;
+    }
+
+    private static Long min(final Long a, final Long b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return Math.min(a, b);
+    }
+
+    private static Long max(final Long a, final Long b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return Math.max(a, b);
+    }
+
+    private static class Entry {
+        private final FlowDocument document;
+        private final long created;
+
+        private Entry(final FlowDocument document, final long created) {
+            this.document = document;
+            this.created = created;
+        }
+    }
+
+    private static class Key {
+        private final String host;
+        private final Direction direction;
+        private final Integer inputSnmp;
+        private final Integer outputSnmp;
+        private final String application;
+        private final String convoKey;
+        private final Double samplingInterval;
+        private final long bucket;
+        private final int hashCode;
+
+        private Key(final FlowDocument document, final long bucket) {
+            this.host = document.getHost();
+            this.direction = document.getDirection();
+            this.inputSnmp = document.getInputSnmp();
+            this.outputSnmp = document.getOutputSnmp();
+            this.application = document.getApplication();
+            this.convoKey = document.getConvoKey();
+            this.samplingInterval = document.getSamplingInterval();
+            this.bucket = bucket;
+            this.hashCode = Objects.hash(this.host, this.direction, this.inputSnmp, this.outputSnmp,
+                                         this.application, this.convoKey, this.samplingInterval, this.bucket);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key that = (Key) o;
+            return this.hashCode == that.hashCode &&
+                   this.bucket == that.bucket &&
+                   this.direction == that.direction &&
+                   Objects.equals(this.host, that.host) &&
+                   Objects.equals(this.inputSnmp, that.inputSnmp) &&
+                   Objects.equals(this.outputSnmp, that.outputSnmp) &&
+                   Objects.equals(this.application, that.application) &&
+                   Objects.equals(this.convoKey, that.convoKey) &&
+                   Objects.equals(this.samplingInterval, that.samplingInterval);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+}
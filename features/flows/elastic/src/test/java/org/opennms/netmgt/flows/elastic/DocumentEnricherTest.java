@@ -144,6 +144,11 @@ public class DocumentEnricherTest {
 
         classificationRequest = enricher.createClassificationRequest(flowDocument);
         assertEquals(true, classificationRequest.isClassifiable());
+
+        // a reused request must not keep the fields of the previous document
+        enricher.populateClassificationRequest(classificationRequest, new FlowDocument());
+        assertEquals(new ClassificationRequest(), classificationRequest);
+        assertEquals(false, classificationRequest.isClassifiable());
     }
 
     @Test
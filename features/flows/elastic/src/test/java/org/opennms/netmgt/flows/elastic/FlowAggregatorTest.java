@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+public class FlowAggregatorTest {
+
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+    }
+
+    private static FlowDocument document(final long timestamp, final String convoKey, final long bytes, final long packets) {
+        final FlowDocument document = new FlowDocument();
+        document.setTimestamp(timestamp);
+        document.setHost("10.0.0.1");
+        document.setDirection(Direction.INGRESS);
+        document.setInputSnmp(1);
+        document.setOutputSnmp(2);
+        document.setApplication("http");
+        document.setConvoKey(convoKey);
+        document.setBytes(bytes);
+        document.setPackets(packets);
+        document.setDeltaSwitched(timestamp - 500);
+        document.setFirstSwitched(timestamp - 500);
+        document.setLastSwitched(timestamp);
+        return document;
+    }
+
+    @Test
+    public void canMergeDocumentsOfSameBucket() {
+        final FlowAggregator aggregator = new FlowAggregator(metricRegistry, 1000, 100);
+
+        final FlowDocument a = document(10_100, "a", 10, 1);
+        final FlowDocument b = document(10_900, "a", 20, 2);
+        final FlowDocument c = document(11_000, "a", 30, 3);
+        final FlowDocument d = document(10_500, "b", 40, 4);
+
+        assertThat(aggregator.aggregate(Arrays.asList(a, b, c, d), 0), empty());
+        assertEquals(3, aggregator.size());
+
+        // Nothing is released before the bucket width has passed
+        assertThat(aggregator.flush(999), empty());
+
+        final List<FlowDocument> released = aggregator.flush(1000);
+        assertThat(released, containsInAnyOrder(a, c, d));
+        assertEquals(0, aggregator.size());
+
+        assertEquals(Long.valueOf(30), a.getBytes());
+        assertEquals(Long.valueOf(3), a.getPackets());
+        assertEquals(Long.valueOf(9_600), a.getDeltaSwitched());
+        assertEquals(Long.valueOf(10_900), a.getLastSwitched());
+        assertEquals(Long.valueOf(30), c.getBytes());
+
+        assertEquals(4, metricRegistry.meter("aggregationIn").getCount());
+        assertEquals(3, metricRegistry.meter("aggregationOut").getCount());
+        assertEquals(4.0 / 3.0, (Double) metricRegistry.getGauges().get("aggregationReductionRatio").getValue(), 0.0001);
+    }
+
+    @Test
+    public void doesNotMergeDifferentInterfacesOrDirections() {
+        final FlowAggregator aggregator = new FlowAggregator(metricRegistry, 1000, 100);
+
+        final FlowDocument a = document(10_100, "a", 10, 1);
+        final FlowDocument b = document(10_200, "a", 10, 1);
+        b.setInputSnmp(3);
+        final FlowDocument c = document(10_300, "a", 10, 1);
+        c.setDirection(Direction.EGRESS);
+        final FlowDocument d = document(10_400, "a", 10, 1);
+        d.setApplication("https");
+
+        aggregator.aggregate(Arrays.asList(a, b, c, d), 0);
+        assertThat(aggregator.flushAll(), containsInAnyOrder(a, b, c, d));
+    }
+
+    @Test
+    public void releasesOldestDocumentWhenFull() {
+        final FlowAggregator aggregator = new FlowAggregator(metricRegistry, 1000, 2);
+
+        final FlowDocument a = document(10_100, "a", 10, 1);
+        final FlowDocument b = document(10_100, "b", 10, 1);
+        final FlowDocument c = document(10_100, "c", 10, 1);
+        final FlowDocument a2 = document(10_200, "a", 10, 1);
+
+        assertThat(aggregator.aggregate(Arrays.asList(a, b), 0), empty());
+        // Merging into an existing document does not require space
+        assertThat(aggregator.aggregate(Arrays.asList(a2), 0), empty());
+        assertThat(aggregator.aggregate(Arrays.asList(c), 0), contains(a));
+        assertThat(aggregator.flushAll(), contains(b, c));
+
+        assertEquals(1, metricRegistry.counter("aggregationOverflows").getCount());
+        assertEquals(0, ((Gauge<?>) metricRegistry.getGauges().get("aggregationSize")).getValue());
+    }
+
+    @Test
+    public void releasesExpiredDocumentsWhenAggregating() {
+        final FlowAggregator aggregator = new FlowAggregator(metricRegistry, 1000, 100);
+
+        final FlowDocument a = document(10_100, "a", 10, 1);
+        final FlowDocument b = document(10_200, "a", 10, 1);
+
+        assertThat(aggregator.aggregate(Arrays.asList(a), 0), empty());
+        // The document held for bucket 10 is released and the new one starts a fresh entry
+        assertThat(aggregator.aggregate(Arrays.asList(b), 1500), containsInAnyOrder(a));
+        assertEquals(Long.valueOf(10), a.getBytes());
+        assertThat(aggregator.flushAll(), containsInAnyOrder(b));
+    }
+
+    @Test
+    public void releasesExpiredDocumentsInCreationOrder() {
+        final FlowAggregator aggregator = new FlowAggregator(metricRegistry, 1000, 100);
+
+        final FlowDocument a = document(10_100, "a", 10, 1);
+        final FlowDocument b = document(10_100, "b", 10, 1);
+        final FlowDocument c = document(10_100, "c", 10, 1);
+        final FlowDocument a2 = document(10_200, "a", 10, 1);
+
+        assertThat(aggregator.aggregate(Arrays.asList(a, b), 0), empty());
+        assertThat(aggregator.aggregate(Arrays.asList(c), 500), empty());
+        // Merging does not extend the time the document is held
+        assertThat(aggregator.aggregate(Arrays.asList(a2), 900), empty());
+
+        assertThat(aggregator.flush(1000), contains(a, b));
+        assertThat(aggregator.flush(1499), empty());
+        assertThat(aggregator.flush(1500), contains(c));
+        assertEquals(Long.valueOf(20), a.getBytes());
+    }
+}
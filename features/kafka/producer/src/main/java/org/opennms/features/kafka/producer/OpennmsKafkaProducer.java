@@ -60,6 +60,7 @@ import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
 import org.opennms.features.situationfeedback.api.AlarmFeedback;
 import org.opennms.features.situationfeedback.api.AlarmFeedbackListener;
 import org.opennms.netmgt.alarmd.api.AlarmCallbackStateTracker;
+import org.opennms.netmgt.alarmd.api.AlarmDelta;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.events.api.EventSubscriptionService;
@@ -304,7 +305,8 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
                 AlarmEqualityChecker.Exclusions.defaultExclusions(protobufMapper.toAlarm(alarm)).build());
     }
 
-    private void updateAlarm(String reductionKey, OnmsAlarm alarm) {
+    @VisibleForTesting
+    void updateAlarm(String reductionKey, OnmsAlarm alarm) {
         // Always push null records, no good way to perform filtering on these
         if (alarm == null) {
             // The alarm has been deleted so we shouldn't track it in the map of outstanding alarms any longer
@@ -471,6 +473,45 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         stateTracker.resetStateAndStopTrackingAlarms();
     }
 
+    @Override
+    public boolean handleAlarmDelta(AlarmDelta delta) {
+        if (!forwardAlarms || dataSync == null) {
+            // Ignore
+            return true;
+        }
+        if (!dataSync.isReady()) {
+            LOG.debug("Alarm store is not ready yet. Skipping synchronization.");
+            return true;
+        }
+        // The callbacks already forwarded most of the changes in the delta, so only forward the alarms that differ
+        // from the ones in the ktable and for which we did not receive any callbacks while the delta was loaded
+        for (OnmsAlarm alarm : delta.getUpdatedAlarms()) {
+            if (!stateTracker.wasAlarmWithReductionKeyUpdated(alarm.getReductionKey())
+                    && !stateTracker.wasAlarmWithReductionKeyDeleted(alarm.getReductionKey())
+                    && !wasAlarmForwarded(alarm)) {
+                updateAlarm(alarm.getReductionKey(), alarm);
+            }
+        }
+        for (String reductionKey : delta.getDeletedAlarms().values()) {
+            if (!stateTracker.wasAlarmWithReductionKeyUpdated(reductionKey)
+                    && dataSync.getAlarm(reductionKey) != null) {
+                handleDeletedAlarm(reductionKey);
+            }
+        }
+        return true;
+    }
+
+    private boolean wasAlarmForwarded(OnmsAlarm alarm) {
+        final OpennmsModelProtos.Alarm alarmFromKtable = dataSync.getAlarm(alarm.getReductionKey());
+        if (alarmFromKtable == null) {
+            return false;
+        }
+        final OpennmsModelProtos.Alarm.Builder mappedAlarm = protobufMapper.toAlarm(alarm);
+        return suppressIncrementalAlarms
+                ? alarmEqualityChecker.equalsExcludingOnBoth(mappedAlarm, alarmFromKtable.toBuilder())
+                : Objects.equals(mappedAlarm.build(), alarmFromKtable);
+    }
+
     @Override
     public void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
         if (!forwardAlarms) {
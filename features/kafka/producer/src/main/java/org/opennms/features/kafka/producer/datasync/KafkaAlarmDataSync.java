@@ -73,6 +73,7 @@ import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -324,6 +325,11 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
         this.startWithCleanState = startWithCleanState;
     }
 
+    @VisibleForTesting
+    void setStreams(KafkaStreams streams) {
+        this.streams = streams;
+    }
+
     private ReadOnlyKeyValueStore<String, byte[]> getAlarmTableNow() throws InvalidStateStoreException {
         return streams.store(StoreQueryParameters.fromNameAndType(ALARM_STORE_NAME, QueryableStoreTypes.keyValueStore()));
     }
@@ -361,6 +367,9 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
     @Override
     public OpennmsModelProtos.Alarm getAlarm(String reductionKey) {
         final byte[] alarmBytes = getAlarmTableNow().get(reductionKey);
+        if (alarmBytes == null) {
+            return null;
+        }
         try {
             return OpennmsModelProtos.Alarm.parseFrom(alarmBytes);
         } catch (InvalidProtocolBufferException e) {
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.kafka.producer;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.kafka.producer.datasync.KafkaAlarmDataSync;
+import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
+import org.opennms.netmgt.alarmd.api.AlarmDelta;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.HwEntityDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.SessionUtils;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.topologies.service.api.OnmsTopologyDao;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests for {@link OpennmsKafkaProducer#handleAlarmDelta(AlarmDelta)}.
+ */
+public class OpennmsKafkaProducerTest {
+
+    private final ProtobufMapper protobufMapper = new ProtobufMapper(mock(EventConfDao.class), mock(HwEntityDao.class),
+            mock(SessionUtils.class), mock(NodeDao.class), 1);
+
+    private final KafkaAlarmDataSync dataSync = mock(KafkaAlarmDataSync.class);
+
+    /**
+     * The alarms in the ktable by reduction key.
+     */
+    private final Map<String, OpennmsModelProtos.Alarm> ktable = new HashMap<>();
+
+    private OpennmsKafkaProducer producer;
+
+    @Before
+    public void setUp() {
+        producer = spy(new OpennmsKafkaProducer(protobufMapper, mock(NodeCache.class), mock(ConfigurationAdmin.class),
+                mock(EventSubscriptionService.class), mock(OnmsTopologyDao.class), 1));
+        producer.setAlarmTopic("alarms");
+        producer.setDataSync(dataSync);
+        // Record what would be forwarded instead of sending it
+        doNothing().when(producer).updateAlarm(anyString(), any());
+
+        when(dataSync.isReady()).thenReturn(true);
+        when(dataSync.getAlarm(anyString())).thenAnswer(invocation -> ktable.get(invocation.<String>getArgument(0)));
+    }
+
+    /**
+     * Tests that only the updated alarms that differ from the ones in the ktable are forwarded.
+     */
+    @Test
+    public void canForwardChangedAlarmsOnly() {
+        final OnmsAlarm unchanged = generateTestAlarm(1, "unchanged");
+        forwarded(unchanged);
+        final OnmsAlarm changed = generateTestAlarm(2, "changed");
+        forwarded(changed);
+        changed.setSeverity(OnmsSeverity.CRITICAL);
+        final OnmsAlarm unknown = generateTestAlarm(3, "unknown");
+
+        assertTrue(producer.handleAlarmDelta(delta(Arrays.asList(unchanged, changed, unknown), Collections.emptyMap())));
+
+        verify(producer, never()).updateAlarm("unchanged", unchanged);
+        verify(producer).updateAlarm("changed", changed);
+        verify(producer).updateAlarm("unknown", unknown);
+    }
+
+    /**
+     * Tests that incremental changes are not forwarded again when they are suppressed.
+     */
+    @Test
+    public void canSkipIncrementalChangesWhenSuppressed() {
+        producer.setSuppressIncrementalAlarms(true);
+
+        final OnmsAlarm incremental = generateTestAlarm(1, "incremental");
+        forwarded(incremental);
+        incremental.setCounter(2);
+        final OnmsAlarm changed = generateTestAlarm(2, "changed");
+        forwarded(changed);
+        changed.setSeverity(OnmsSeverity.CRITICAL);
+
+        producer.handleAlarmDelta(delta(Arrays.asList(incremental, changed), Collections.emptyMap()));
+
+        verify(producer, never()).updateAlarm("incremental", incremental);
+        verify(producer).updateAlarm("changed", changed);
+    }
+
+    /**
+     * Tests that deletes are only forwarded for the alarms that are still in the ktable.
+     */
+    @Test
+    public void canForwardDeletesOfAlarmsInKtableOnly() {
+        forwarded(generateTestAlarm(1, "stale"));
+        final Map<Integer, String> deletedAlarms = new HashMap<>();
+        deletedAlarms.put(1, "stale");
+        deletedAlarms.put(2, "gone");
+
+        producer.handleAlarmDelta(delta(Collections.emptyList(), deletedAlarms));
+
+        verify(producer).updateAlarm("stale", null);
+        verify(producer, never()).updateAlarm("gone", null);
+    }
+
+    /**
+     * Tests that the alarms for which the callbacks were invoked while the delta was loaded are not forwarded again.
+     */
+    @Test
+    public void canSkipAlarmsUpdatedByCallbacks() {
+        // both differ from the ktable, so only the callbacks prevent forwarding them again
+        forwarded(generateTestAlarm(1, "updated"));
+        producer.preHandleAlarmSnapshot();
+        final OnmsAlarm updated = generateTestAlarm(1, "updated");
+        updated.setSeverity(OnmsSeverity.CRITICAL);
+        producer.handleNewOrUpdatedAlarm(updated);
+        forwarded(generateTestAlarm(2, "deleted"));
+        producer.handleDeletedAlarm(2, "deleted");
+
+        final OnmsAlarm stale = generateTestAlarm(2, "deleted");
+        stale.setSeverity(OnmsSeverity.CRITICAL);
+        producer.handleAlarmDelta(delta(Arrays.asList(updated, stale), Collections.singletonMap(1, "updated")));
+        producer.postHandleAlarmSnapshot();
+
+        // once by the callbacks, but not again by the delta
+        verify(producer).updateAlarm("updated", updated);
+        verify(producer, never()).updateAlarm("updated", null);
+        verify(producer, never()).updateAlarm("deleted", stale);
+    }
+
+    /**
+     * Tests that nothing is forwarded before the ktable can be queried.
+     */
+    @Test
+    public void canSkipDeltaWhenStoreIsNotReady() {
+        when(dataSync.isReady()).thenReturn(false);
+
+        assertTrue(producer.handleAlarmDelta(delta(Collections.singletonList(generateTestAlarm(1, "new")),
+                Collections.singletonMap(2, "deleted"))));
+
+        verify(producer, never()).updateAlarm(anyString(), any());
+    }
+
+    private void forwarded(final OnmsAlarm alarm) {
+        ktable.put(alarm.getReductionKey(), protobufMapper.toAlarm(alarm).build());
+    }
+
+    private static AlarmDelta delta(final List<OnmsAlarm> updatedAlarms, final Map<Integer, String> deletedAlarms) {
+        return new AlarmDelta(0, 1, updatedAlarms, deletedAlarms);
+    }
+
+    private static OnmsAlarm generateTestAlarm(final int id, final String reductionKey) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setUei("uei.opennms.org/test");
+        alarm.setReductionKey(reductionKey);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MAJOR);
+        alarm.setAlarmType(1);
+        return alarm;
+    }
+}
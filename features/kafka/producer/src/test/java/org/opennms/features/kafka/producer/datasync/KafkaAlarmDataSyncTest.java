@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.kafka.producer.datasync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.kafka.producer.OpennmsKafkaProducer;
+import org.opennms.features.kafka.producer.ProtobufMapper;
+import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Tests for {@link KafkaAlarmDataSync}.
+ */
+public class KafkaAlarmDataSyncTest {
+
+    @SuppressWarnings("unchecked")
+    private final ReadOnlyKeyValueStore<String, byte[]> store = mock(ReadOnlyKeyValueStore.class);
+
+    private final KafkaStreams streams = mock(KafkaStreams.class);
+
+    private KafkaAlarmDataSync dataSync;
+
+    @Before
+    public void setUp() {
+        dataSync = new KafkaAlarmDataSync(mock(ConfigurationAdmin.class), mock(OpennmsKafkaProducer.class), mock(ProtobufMapper.class));
+        dataSync.setStreams(streams);
+        when(streams.store(any())).thenReturn(store);
+    }
+
+    /**
+     * Tests that the alarms are looked up in the ktable by their reduction key.
+     */
+    @Test
+    public void canGetAlarm() {
+        final OpennmsModelProtos.Alarm alarm = OpennmsModelProtos.Alarm.newBuilder()
+                .setId(1)
+                .setReductionKey("known")
+                .build();
+        when(store.get("known")).thenReturn(alarm.toByteArray());
+
+        assertEquals(alarm, dataSync.getAlarm("known"));
+    }
+
+    /**
+     * Tests that unknown reduction keys and deleted alarms, which are null in the ktable, are not parsed.
+     */
+    @Test
+    public void canGetAlarmForUnknownReductionKey() {
+        assertNull(dataSync.getAlarm("unknown"));
+    }
+
+    /**
+     * Tests that the ktable is not ready until its store can be queried.
+     */
+    @Test
+    public void canDetectWhenStoreIsNotReady() {
+        assertTrue(dataSync.isReady());
+
+        when(streams.store(any())).thenThrow(new InvalidStateStoreException("rebalancing"));
+        assertFalse(dataSync.isReady());
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ExpressionCompiler.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An expression engine that compiles the expressions once and evaluates them over
+ * whole columns, instead of interpreting them for every row like the {@link JEXLExpressionEngine}.
+ *
+ * The expressions are evaluated with the same semantics as JEXL. Requests with expressions
+ * the compiler does not support, or that fail to evaluate, are handed to the JEXL engine,
+ * which also takes care of reporting the errors.
+ */
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledExpressionEngine.class);
+
+    private final ExpressionEngine fallback;
+
+    public CompiledExpressionEngine() {
+        this(new JEXLExpressionEngine());
+    }
+
+    public CompiledExpressionEngine(final ExpressionEngine fallback) {
+        this.fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+
+        // Don't do anything if there are no expressions
+        if (expressions.size() < 1) {
+            return;
+        }
+
+        final double[][] values;
+        try {
+            values = evaluate(expressions, results);
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Using JEXL to evaluate the expressions: {}", e.getMessage());
+            fallback.applyExpressions(request, results);
+            return;
+        }
+
+        // Store the results of the non-transient expressions
+        for (int k = 0; k < values.length; k++) {
+            if (!expressions.get(k).getTransient()) {
+                results.getColumns().put(expressions.get(k).getLabel(), values[k]);
+            }
+        }
+    }
+
+    private static double[][] evaluate(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final Map<String, Integer> labels = new HashMap<>();
+        for (int k = 0; k < expressions.size(); k++) {
+            if (labels.put(expressions.get(k).getLabel(), k) != null) {
+                throw new UnsupportedExpressionException("Duplicate label '" + expressions.get(k).getLabel() + "'");
+            }
+        }
+
+        final long[] timestamps = results.getTimestamps();
+        final VectorExpression.Context context = new VectorExpression.Context(timestamps.length, timestamps, expressions.size());
+
+        // Compile all of the expressions before evaluating any of them
+        final VectorExpression[] compiled = new VectorExpression[expressions.size()];
+        for (int k = 0; k < compiled.length; k++) {
+            compiled[k] = ExpressionCompiler.compile(expressions.get(k).getExpression(), new Scope(results, labels, k));
+        }
+
+        for (int k = 0; k < compiled.length; k++) {
+            final VectorExpression.Vector vector;
+            try {
+                vector = compiled[k].evaluate(context);
+            } catch (ArithmeticException e) {
+                throw new UnsupportedExpressionException("Integral overflow in expression with label '" + expressions.get(k).getLabel() + "'");
+            }
+            if (vector.hasFailures()) {
+                throw new UnsupportedExpressionException("Failed to evaluate expression with label '" + expressions.get(k).getLabel() + "'");
+            }
+
+            double[] values = vector.asDoubles();
+            if (compiled[k] instanceof VectorExpression.Column || compiled[k] instanceof VectorExpression.Result) {
+                // Don't share the array with the referenced column
+                values = values.clone();
+            }
+            context.results[k] = values;
+        }
+        return context.results;
+    }
+
+    /**
+     * Resolves variables in the same order as the JEXL engine fills its context.
+     */
+    private static class Scope implements ExpressionCompiler.Scope {
+        private final FetchResults results;
+        private final Map<String, Integer> labels;
+        private final int index;
+        private final Map<String, Double> specials;
+
+        private Scope(FetchResults results, Map<String, Integer> labels, int index) {
+            this.results = results;
+            this.labels = labels;
+            this.index = index;
+
+            final long[] timestamps = results.getTimestamps();
+            final int numRows = timestamps.length;
+            specials = ImmutableMap.<String, Double>builder()
+                    .put("__inf", Double.POSITIVE_INFINITY)
+                    .put("__neg_inf", Double.NEGATIVE_INFINITY)
+                    .put("NaN", Double.NaN)
+                    .put("__E", java.lang.Math.E)
+                    .put("__PI", java.lang.Math.PI)
+                    .put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0])
+                    .build();
+        }
+
+        @Override
+        public VectorExpression resolve(String name) throws UnsupportedExpressionException {
+            final Map<String, double[]> columns = results.getColumns();
+            if (columns.containsKey(name)) {
+                return new VectorExpression.Column(columns.get(name));
+            } else if (name.startsWith("__") && columns.containsKey(name.substring(2))) {
+                throw new UnsupportedExpressionException("Unsupported reference to the samples of '" + name.substring(2) + "'");
+            } else if (name.equals("timestamp")) {
+                return new VectorExpression.Timestamp();
+            } else if (name.equals("__i")) {
+                return new VectorExpression.RowIndex();
+            }
+
+            final Integer label = labels.get(name);
+            if (label != null) {
+                if (label >= index) {
+                    // JEXL would use the value from the previous row
+                    throw new UnsupportedExpressionException("Unsupported reference to expression '" + name + "'");
+                }
+                return new VectorExpression.Result(label);
+            }
+
+            if (name.equals("__step")) {
+                return VectorExpression.Literal.ofLong(results.getStep());
+            } else if (specials.containsKey(name)) {
+                return VectorExpression.Literal.ofDouble(specials.get(name));
+            }
+
+            final Object constant = results.getConstants() != null ? results.getConstants().get(name) : null;
+            if (constant instanceof Double || constant instanceof Float) {
+                return VectorExpression.Literal.ofDouble(((Number) constant).doubleValue());
+            } else if (constant instanceof Long || constant instanceof Integer || constant instanceof Short || constant instanceof Byte) {
+                return VectorExpression.Literal.ofLong(((Number) constant).longValue());
+            }
+            throw new UnsupportedExpressionException("Unsupported variable '" + name + "'");
+        }
+
+        @Override
+        public double[] getSourceValues(String label) {
+            return results.getColumns().get(label);
+        }
+    }
+}
@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.opennms.netmgt.measurements.impl.VectorExpression.Arithmetic;
+import org.opennms.netmgt.measurements.impl.VectorExpression.Comparison;
+import org.opennms.netmgt.measurements.impl.VectorExpression.Literal;
+import org.opennms.netmgt.measurements.impl.VectorExpression.MinMaxAbs;
+import org.opennms.netmgt.measurements.impl.VectorExpression.Shift;
+import org.opennms.netmgt.measurements.impl.VectorExpression.Type;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Parses JEXL expressions into a tree of {@link VectorExpression}s.
+ *
+ * Only the subset of JEXL used by graph definitions is supported: number and boolean
+ * literals, variables, arithmetic, comparisons, logical operators, conditionals and
+ * calls to the math, strictmath and fn namespaces. Anything else, including syntax
+ * errors, raises an {@link UnsupportedExpressionException} so that the expression
+ * can be left to JEXL.
+ */
+final class ExpressionCompiler {
+
+    /**
+     * Thrown when an expression cannot be compiled.
+     */
+    static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 2542711237458155395L;
+
+        UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Resolves the variables referenced by the expressions.
+     */
+    interface Scope {
+        VectorExpression resolve(String name) throws UnsupportedExpressionException;
+
+        /**
+         * @return the values of the source with the given label, or null if there is no such source
+         */
+        double[] getSourceValues(String label);
+    }
+
+    private static final Set<String> KEYWORDS = ImmutableSet.of("and", "or", "not", "eq", "ne", "lt", "gt",
+            "le", "ge", "div", "mod", "empty", "size", "new", "null", "if", "else", "for", "foreach", "while",
+            "var", "return", "function", "in");
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sin", Math::sin).put("cos", Math::cos).put("tan", Math::tan)
+            .put("asin", Math::asin).put("acos", Math::acos).put("atan", Math::atan)
+            .put("sinh", Math::sinh).put("cosh", Math::cosh).put("tanh", Math::tanh)
+            .put("toRadians", Math::toRadians).put("toDegrees", Math::toDegrees)
+            .put("exp", Math::exp).put("expm1", Math::expm1)
+            .put("log", Math::log).put("log10", Math::log10).put("log1p", Math::log1p)
+            .put("sqrt", Math::sqrt).put("cbrt", Math::cbrt)
+            .put("ceil", Math::ceil).put("floor", Math::floor).put("rint", Math::rint)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", Math::atan2).put("pow", Math::pow).put("hypot", Math::hypot)
+            .put("IEEEremainder", Math::IEEEremainder)
+            .build();
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sin", StrictMath::sin).put("cos", StrictMath::cos).put("tan", StrictMath::tan)
+            .put("asin", StrictMath::asin).put("acos", StrictMath::acos).put("atan", StrictMath::atan)
+            .put("sinh", StrictMath::sinh).put("cosh", StrictMath::cosh).put("tanh", StrictMath::tanh)
+            .put("toRadians", StrictMath::toRadians).put("toDegrees", StrictMath::toDegrees)
+            .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1)
+            .put("log", StrictMath::log).put("log10", StrictMath::log10).put("log1p", StrictMath::log1p)
+            .put("sqrt", StrictMath::sqrt).put("cbrt", StrictMath::cbrt)
+            .put("ceil", StrictMath::ceil).put("floor", StrictMath::floor).put("rint", StrictMath::rint)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("atan2", StrictMath::atan2).put("pow", StrictMath::pow).put("hypot", StrictMath::hypot)
+            .put("IEEEremainder", StrictMath::IEEEremainder)
+            .build();
+
+    private static final Map<String, Shift.Fill> SAMPLE_ARRAY_FUNCTIONS = ImmutableMap.of(
+            "arrayZero", Shift.Fill.ZERO,
+            "arrayFirst", Shift.Fill.FIRST,
+            "arrayNaN", Shift.Fill.NAN,
+            "arrayStart", Shift.Fill.START);
+
+    private enum TokenType {
+        NUMBER,
+        IDENTIFIER,
+        STRING,
+        OPERATOR,
+        END
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+
+        private Token(TokenType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        private boolean is(String operator) {
+            return type == TokenType.OPERATOR && text.equals(operator);
+        }
+    }
+
+    private final List<Token> tokens;
+    private final Scope scope;
+    private int position = 0;
+
+    private ExpressionCompiler(List<Token> tokens, Scope scope) {
+        this.tokens = tokens;
+        this.scope = scope;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @throws UnsupportedExpressionException if the expression uses anything outside of the supported subset
+     */
+    static VectorExpression compile(String expression, Scope scope) throws UnsupportedExpressionException {
+        final ExpressionCompiler compiler = new ExpressionCompiler(tokenize(expression), scope);
+        final VectorExpression compiled = compiler.parseExpression();
+        if (compiler.peek().type != TokenType.END) {
+            throw new UnsupportedExpressionException("Unexpected '" + compiler.peek().text + "'");
+        }
+        if (!compiled.isNumeric()) {
+            // JEXL fails to convert the result to a double
+            throw new UnsupportedExpressionException("The expression does not evaluate to a number");
+        }
+        return compiled;
+    }
+
+    private static List<Token> tokenize(String expression) throws UnsupportedExpressionException {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c >= '0' && c <= '9') {
+                int end = i;
+                while (end < length && isDigit(expression.charAt(end))) {
+                    end++;
+                }
+                if (end + 1 < length && expression.charAt(end) == '.' && isDigit(expression.charAt(end + 1))) {
+                    end++;
+                    while (end < length && isDigit(expression.charAt(end))) {
+                        end++;
+                    }
+                    if (end < length && "dDfF".indexOf(expression.charAt(end)) >= 0) {
+                        end++;
+                    }
+                } else if (end < length && "lL".indexOf(expression.charAt(end)) >= 0) {
+                    end++;
+                }
+                if (end < length && (Character.isLetterOrDigit(expression.charAt(end)) || expression.charAt(end) == '.' || expression.charAt(end) == '_')) {
+                    // Exponents, hexadecimal and big number literals
+                    throw new UnsupportedExpressionException("Unsupported number literal");
+                }
+                tokens.add(new Token(TokenType.NUMBER, expression.substring(i, end)));
+                i = end;
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                int end = i;
+                while (end < length && (Character.isLetterOrDigit(expression.charAt(end)) || expression.charAt(end) == '_' || expression.charAt(end) == '$')) {
+                    end++;
+                }
+                if (end < length && expression.charAt(end) == '.') {
+                    // Properties, methods and dotted variable names
+                    throw new UnsupportedExpressionException("Unsupported reference");
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(i, end)));
+                i = end;
+            } else if (c == '"' || c == '\'') {
+                final int end = expression.indexOf(c, i + 1);
+                if (end < 0 || expression.lastIndexOf('\\', end) > i) {
+                    throw new UnsupportedExpressionException("Unsupported string literal");
+                }
+                tokens.add(new Token(TokenType.STRING, expression.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                final String pair = i + 1 < length ? expression.substring(i, i + 2) : "";
+                if (pair.equals("==") || pair.equals("!=") || pair.equals("<=") || pair.equals(">=")
+                        || pair.equals("&&") || pair.equals("||")) {
+                    tokens.add(new Token(TokenType.OPERATOR, pair));
+                    i += 2;
+                } else if ("+-*/%<>!?:(),".indexOf(c) >= 0 && !pair.equals("=~") && !pair.equals("!~")) {
+                    tokens.add(new Token(TokenType.OPERATOR, String.valueOf(c)));
+                    i++;
+                } else {
+                    throw new UnsupportedExpressionException("Unsupported character '" + c + "'");
+                }
+            }
+        }
+        tokens.add(new Token(TokenType.END, ""));
+        return tokens;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token peek(int offset) {
+        return tokens.get(Math.min(position + offset, tokens.size() - 1));
+    }
+
+    private Token next() {
+        final Token token = tokens.get(position);
+        if (token.type != TokenType.END) {
+            position++;
+        }
+        return token;
+    }
+
+    private void expect(String operator) throws UnsupportedExpressionException {
+        if (!next().is(operator)) {
+            throw new UnsupportedExpressionException("Expected '" + operator + "'");
+        }
+    }
+
+    private VectorExpression parseExpression() throws UnsupportedExpressionException {
+        final VectorExpression condition = parseOr();
+        if (!peek().is("?")) {
+            return condition;
+        }
+        next();
+        final VectorExpression whenTrue = parseExpression();
+        expect(":");
+        final VectorExpression whenFalse = parseExpression();
+        if (condition.getType() != Type.BOOLEAN || whenTrue.isNumeric() != whenFalse.isNumeric()) {
+            throw new UnsupportedExpressionException("Unsupported conditional");
+        }
+        return fold(new VectorExpression.Conditional(condition, whenTrue, whenFalse));
+    }
+
+    private VectorExpression parseOr() throws UnsupportedExpressionException {
+        VectorExpression left = parseAnd();
+        while (peek().is("||")) {
+            next();
+            left = logical(false, left, parseAnd());
+        }
+        return left;
+    }
+
+    private VectorExpression parseAnd() throws UnsupportedExpressionException {
+        VectorExpression left = parseEquality();
+        while (peek().is("&&")) {
+            next();
+            left = logical(true, left, parseEquality());
+        }
+        return left;
+    }
+
+    private VectorExpression logical(boolean and, VectorExpression left, VectorExpression right) throws UnsupportedExpressionException {
+        if (left.getType() != Type.BOOLEAN || right.getType() != Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("Logical operators only support booleans");
+        }
+        return fold(new VectorExpression.Logical(and, left, right));
+    }
+
+    private VectorExpression parseEquality() throws UnsupportedExpressionException {
+        VectorExpression left = parseRelational();
+        while (peek().is("==") || peek().is("!=")) {
+            final Comparison.Operator operator = next().is("==") ? Comparison.Operator.EQ : Comparison.Operator.NE;
+            final VectorExpression right = parseRelational();
+            if (left.isNumeric() != right.isNumeric()) {
+                throw new UnsupportedExpressionException("Unsupported comparison");
+            }
+            left = fold(new Comparison(operator, left, right));
+        }
+        return left;
+    }
+
+    private VectorExpression parseRelational() throws UnsupportedExpressionException {
+        VectorExpression left = parseAdditive();
+        while (true) {
+            final Comparison.Operator operator;
+            if (peek().is("<")) {
+                operator = Comparison.Operator.LT;
+            } else if (peek().is("<=")) {
+                operator = Comparison.Operator.LE;
+            } else if (peek().is(">")) {
+                operator = Comparison.Operator.GT;
+            } else if (peek().is(">=")) {
+                operator = Comparison.Operator.GE;
+            } else {
+                return left;
+            }
+            next();
+            final VectorExpression right = parseAdditive();
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw new UnsupportedExpressionException("Unsupported comparison");
+            }
+            left = fold(new Comparison(operator, left, right));
+        }
+    }
+
+    private VectorExpression parseAdditive() throws UnsupportedExpressionException {
+        VectorExpression left = parseMultiplicative();
+        while (peek().is("+") || peek().is("-")) {
+            final Arithmetic.Operator operator = next().is("+") ? Arithmetic.Operator.ADD : Arithmetic.Operator.SUBTRACT;
+            left = arithmetic(operator, left, parseMultiplicative());
+        }
+        return left;
+    }
+
+    private VectorExpression parseMultiplicative() throws UnsupportedExpressionException {
+        VectorExpression left = parseUnary();
+        while (peek().is("*") || peek().is("/") || peek().is("%")) {
+            final Token token = next();
+            final Arithmetic.Operator operator = token.is("*") ? Arithmetic.Operator.MULTIPLY
+                    : token.is("/") ? Arithmetic.Operator.DIVIDE : Arithmetic.Operator.MODULO;
+            left = arithmetic(operator, left, parseUnary());
+        }
+        return left;
+    }
+
+    private VectorExpression arithmetic(Arithmetic.Operator operator, VectorExpression left, VectorExpression right) throws UnsupportedExpressionException {
+        if (!left.isNumeric() || !right.isNumeric()) {
+            throw new UnsupportedExpressionException("Arithmetic operators only support numbers");
+        }
+        if ((left.getType() == Type.NUMBER && right.getType() != Type.DOUBLE)
+                || (right.getType() == Type.NUMBER && left.getType() != Type.DOUBLE)) {
+            // Whether JEXL uses integral or floating point arithmetic would depend on the row
+            throw new UnsupportedExpressionException("Ambiguous arithmetic");
+        }
+        if (operator == Arithmetic.Operator.MODULO && left.getType() == Type.LONG && right.getType() == Type.LONG) {
+            throw new UnsupportedExpressionException("Unsupported integral modulo");
+        }
+        return fold(new Arithmetic(operator, left, right));
+    }
+
+    private VectorExpression parseUnary() throws UnsupportedExpressionException {
+        if (peek().is("-")) {
+            next();
+            final VectorExpression operand = parseUnary();
+            if (!operand.isNumeric()) {
+                throw new UnsupportedExpressionException("Unsupported negation");
+            }
+            return fold(new VectorExpression.Negate(operand));
+        } else if (peek().is("!")) {
+            next();
+            final VectorExpression operand = parseUnary();
+            if (operand.getType() != Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("Unsupported negation");
+            }
+            return fold(new VectorExpression.Not(operand));
+        }
+        return parsePrimary();
+    }
+
+    private VectorExpression parsePrimary() throws UnsupportedExpressionException {
+        final Token token = next();
+        switch (token.type) {
+            case NUMBER:
+                return parseNumber(token.text);
+            case IDENTIFIER:
+                if (peek().is(":") && peek(1).type == TokenType.IDENTIFIER && peek(2).is("(")) {
+                    next();
+                    final String function = next().text;
+                    next();
+                    return parseCall(token.text, function);
+                } else if (peek().is("(")) {
+                    throw new UnsupportedExpressionException("Unsupported function '" + token.text + "'");
+                } else if (token.text.equals("true") || token.text.equals("false")) {
+                    return Literal.ofBoolean(Boolean.parseBoolean(token.text));
+                } else if (KEYWORDS.contains(token.text)) {
+                    throw new UnsupportedExpressionException("Unsupported keyword '" + token.text + "'");
+                }
+                return scope.resolve(token.text);
+            case OPERATOR:
+                if (token.is("(")) {
+                    final VectorExpression expression = parseExpression();
+                    expect(")");
+                    return expression;
+                }
+                // fall through
+            default:
+                throw new UnsupportedExpressionException("Unexpected '" + token.text + "'");
+        }
+    }
+
+    private static VectorExpression parseNumber(String text) throws UnsupportedExpressionException {
+        final char suffix = text.charAt(text.length() - 1);
+        try {
+            if (text.indexOf('.') >= 0) {
+                // Like JEXL, real literals are floats unless suffixed with d
+                if (suffix == 'd' || suffix == 'D') {
+                    return Literal.ofDouble(Double.parseDouble(text));
+                }
+                return Literal.ofDouble(Float.parseFloat(text));
+            }
+            if (text.length() > 1 && text.charAt(0) == '0') {
+                throw new UnsupportedExpressionException("Unsupported octal literal");
+            }
+            if (suffix == 'l' || suffix == 'L') {
+                return Literal.ofLong(Long.parseLong(text.substring(0, text.length() - 1)));
+            }
+            return Literal.ofLong(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            throw new UnsupportedExpressionException("Unsupported number literal");
+        }
+    }
+
+    private List<VectorExpression> parseArguments(List<String> strings) throws UnsupportedExpressionException {
+        final List<VectorExpression> arguments = new ArrayList<>();
+        if (peek().is(")")) {
+            next();
+            return arguments;
+        }
+        do {
+            if (peek().type == TokenType.STRING) {
+                strings.add(next().text);
+                arguments.add(null);
+            } else {
+                arguments.add(parseExpression());
+            }
+        } while (next().is(","));
+        if (!tokens.get(position - 1).is(")")) {
+            throw new UnsupportedExpressionException("Expected ')'");
+        }
+        return arguments;
+    }
+
+    private VectorExpression parseCall(String namespace, String function) throws UnsupportedExpressionException {
+        final List<String> strings = new ArrayList<>();
+        final List<VectorExpression> arguments = parseArguments(strings);
+
+        if (namespace.equals("fn")) {
+            return sampleArrayFunction(function, strings, arguments);
+        }
+
+        final Map<String, DoubleUnaryOperator> unary;
+        final Map<String, DoubleBinaryOperator> binary;
+        if (namespace.equals("math")) {
+            unary = MATH_UNARY;
+            binary = MATH_BINARY;
+        } else if (namespace.equals("strictmath")) {
+            unary = STRICTMATH_UNARY;
+            binary = STRICTMATH_BINARY;
+        } else {
+            throw new UnsupportedExpressionException("Unsupported namespace '" + namespace + "'");
+        }
+        if (!strings.isEmpty() || arguments.stream().anyMatch(a -> !a.isNumeric())) {
+            throw new UnsupportedExpressionException("Unsupported arguments for " + namespace + ":" + function);
+        }
+
+        if (unary.containsKey(function) && arguments.size() == 1) {
+            return fold(new VectorExpression.DoubleFunction(unary.get(function), arguments.get(0)));
+        } else if (binary.containsKey(function) && arguments.size() == 2) {
+            return fold(new VectorExpression.DoubleFunction(binary.get(function), arguments.get(0), arguments.get(1)));
+        } else if (arguments.stream().noneMatch(a -> a.getType() == Type.NUMBER)) {
+            // The overload picked by JEXL would depend on the row for the ambiguous numbers
+            if (function.equals("abs") && arguments.size() == 1) {
+                return fold(new MinMaxAbs(MinMaxAbs.Function.ABS, arguments.get(0), null));
+            } else if (function.equals("min") && arguments.size() == 2) {
+                return fold(new MinMaxAbs(MinMaxAbs.Function.MIN, arguments.get(0), arguments.get(1)));
+            } else if (function.equals("max") && arguments.size() == 2) {
+                return fold(new MinMaxAbs(MinMaxAbs.Function.MAX, arguments.get(0), arguments.get(1)));
+            }
+        }
+        throw new UnsupportedExpressionException("Unsupported function " + namespace + ":" + function);
+    }
+
+    private VectorExpression sampleArrayFunction(String function, List<String> strings, List<VectorExpression> arguments) throws UnsupportedExpressionException {
+        final Shift.Fill fill = SAMPLE_ARRAY_FUNCTIONS.get(function);
+        final int numArguments = fill == Shift.Fill.START ? 3 : 2;
+        if (fill == null || arguments.size() != numArguments || strings.size() != 1 || arguments.get(0) != null
+                || !(arguments.get(1) instanceof Literal) || arguments.get(1).getType() != Type.LONG) {
+            throw new UnsupportedExpressionException("Unsupported function fn:" + function);
+        }
+
+        final long n = ((Literal) arguments.get(1)).getLongValue();
+        final double[] values = scope.getSourceValues(strings.get(0));
+        if (n < 0 || n > Integer.MAX_VALUE || values == null) {
+            // SampleArrayFunctions logs these and returns NaN
+            throw new UnsupportedExpressionException("Unsupported arguments for fn:" + function);
+        }
+
+        VectorExpression start = null;
+        if (fill == Shift.Fill.START) {
+            start = arguments.get(2);
+            if (start == null || !start.isNumeric()) {
+                throw new UnsupportedExpressionException("Unsupported arguments for fn:" + function);
+            }
+        }
+        return new Shift(fill, values, (int) n, start);
+    }
+
+    /**
+     * Replaces constant nodes by their value.
+     */
+    private static VectorExpression fold(VectorExpression expression) throws UnsupportedExpressionException {
+        if (!expression.isConstant() || expression.getType() == Type.NUMBER) {
+            return expression;
+        }
+        try {
+            final VectorExpression.Vector value = expression.evaluate(new VectorExpression.Context(1, new long[1], 0));
+            // Keep the node if it fails, the failure only counts if it is evaluated
+            return value.hasFailures() ? expression : Literal.of(value, expression.getType());
+        } catch (ArithmeticException e) {
+            throw new UnsupportedExpressionException("Integral overflow");
+        }
+    }
+}
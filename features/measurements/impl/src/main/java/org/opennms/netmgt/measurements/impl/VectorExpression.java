@@ -0,0 +1,870 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A node of a typed expression tree built by the {@link ExpressionCompiler}.
+ *
+ * Every node evaluates all of the rows at once into a column, so that the loops
+ * only touch primitive arrays and can be optimized by the JIT.
+ *
+ * The nodes follow the semantics of the JEXL arithmetic: integral values are kept as longs until
+ * they are combined with a floating point value, a division by zero is an error and NaN is equal to
+ * itself. Rows on which the evaluation fails are flagged instead of throwing right away, since
+ * JEXL only fails if the failing operand is evaluated, i.e. not when it is skipped by a
+ * conditional or by a short-circuit operator.
+ */
+abstract class VectorExpression {
+
+    enum Type {
+        DOUBLE,
+        LONG,
+        /**
+         * A conditional with a double and a long branch: the values are stored as doubles,
+         * but JEXL would only use floating point arithmetic on the rows of the double branch.
+         */
+        NUMBER,
+        BOOLEAN
+    }
+
+    /**
+     * The rows and columns the expressions are evaluated against.
+     */
+    static final class Context {
+        final int rows;
+        final long[] timestamps;
+        final double[][] results;
+
+        Context(int rows, long[] timestamps, int numExpressions) {
+            this.rows = rows;
+            this.timestamps = timestamps;
+            this.results = new double[numExpressions][];
+        }
+    }
+
+    /**
+     * The values of a node for all of the rows.
+     *
+     * Only the array matching the type of the node is set. The failed array is
+     * null unless the evaluation failed for at least one of the rows.
+     */
+    static final class Vector {
+        final double[] doubles;
+        final long[] longs;
+        final boolean[] booleans;
+        final boolean[] failed;
+
+        private Vector(double[] doubles, long[] longs, boolean[] booleans, boolean[] failed) {
+            this.doubles = doubles;
+            this.longs = longs;
+            this.booleans = booleans;
+            this.failed = failed;
+        }
+
+        static Vector ofDoubles(double[] values, boolean[] failed) {
+            return new Vector(values, null, null, failed);
+        }
+
+        static Vector ofLongs(long[] values, boolean[] failed) {
+            return new Vector(null, values, null, failed);
+        }
+
+        static Vector ofBooleans(boolean[] values, boolean[] failed) {
+            return new Vector(null, null, values, failed);
+        }
+
+        double[] asDoubles() {
+            if (doubles != null) {
+                return doubles;
+            }
+            final double[] values = new double[longs.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = longs[i];
+            }
+            return values;
+        }
+
+        boolean hasFailures() {
+            if (failed != null) {
+                for (boolean f : failed) {
+                    if (f) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    protected final Type type;
+
+    protected VectorExpression(Type type) {
+        this.type = type;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    boolean isNumeric() {
+        return type != Type.BOOLEAN;
+    }
+
+    /**
+     * Whether the node has the same value on every row.
+     */
+    boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Evaluates the node for all of the rows of the context.
+     *
+     * @throws ArithmeticException if an integral operation overflows, JEXL switches to big integers in that case
+     */
+    abstract Vector evaluate(Context context);
+
+    private static boolean[] or(boolean[] a, boolean[] b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        final boolean[] failed = new boolean[a.length];
+        for (int i = 0; i < failed.length; i++) {
+            failed[i] = a[i] | b[i];
+        }
+        return failed;
+    }
+
+    static final class Literal extends VectorExpression {
+        private final double doubleValue;
+        private final long longValue;
+        private final boolean booleanValue;
+
+        private Literal(Type type, double doubleValue, long longValue, boolean booleanValue) {
+            super(type);
+            this.doubleValue = doubleValue;
+            this.longValue = longValue;
+            this.booleanValue = booleanValue;
+        }
+
+        static Literal ofDouble(double value) {
+            return new Literal(Type.DOUBLE, value, 0, false);
+        }
+
+        static Literal ofLong(long value) {
+            return new Literal(Type.LONG, 0, value, false);
+        }
+
+        static Literal ofBoolean(boolean value) {
+            return new Literal(Type.BOOLEAN, 0, 0, value);
+        }
+
+        static Literal of(Vector vector, Type type) {
+            switch (type) {
+                case LONG:
+                    return ofLong(vector.longs[0]);
+                case BOOLEAN:
+                    return ofBoolean(vector.booleans[0]);
+                default:
+                    return ofDouble(vector.doubles[0]);
+            }
+        }
+
+        long getLongValue() {
+            return longValue;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            switch (type) {
+                case DOUBLE:
+                    final double[] doubles = new double[context.rows];
+                    Arrays.fill(doubles, doubleValue);
+                    return Vector.ofDoubles(doubles, null);
+                case LONG:
+                    final long[] longs = new long[context.rows];
+                    Arrays.fill(longs, longValue);
+                    return Vector.ofLongs(longs, null);
+                default:
+                    final boolean[] booleans = new boolean[context.rows];
+                    Arrays.fill(booleans, booleanValue);
+                    return Vector.ofBooleans(booleans, null);
+            }
+        }
+    }
+
+    /**
+     * References the values of a source.
+     */
+    static final class Column extends VectorExpression {
+        private final double[] values;
+
+        Column(double[] values) {
+            super(Type.DOUBLE);
+            this.values = values;
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            return Vector.ofDoubles(values, null);
+        }
+    }
+
+    /**
+     * References the values of a preceding expression.
+     */
+    static final class Result extends VectorExpression {
+        private final int index;
+
+        Result(int index) {
+            super(Type.DOUBLE);
+            this.index = index;
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            return Vector.ofDoubles(context.results[index], null);
+        }
+    }
+
+    static final class Timestamp extends VectorExpression {
+        Timestamp() {
+            super(Type.LONG);
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            return Vector.ofLongs(context.timestamps, null);
+        }
+    }
+
+    static final class RowIndex extends VectorExpression {
+        RowIndex() {
+            super(Type.LONG);
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final long[] values = new long[context.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i;
+            }
+            return Vector.ofLongs(values, null);
+        }
+    }
+
+    static final class Negate extends VectorExpression {
+        private final VectorExpression operand;
+
+        Negate(VectorExpression operand) {
+            super(operand.type);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector v = operand.evaluate(context);
+            if (type == Type.LONG) {
+                final long[] values = new long[context.rows];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Math.negateExact(v.longs[i]);
+                }
+                return Vector.ofLongs(values, v.failed);
+            }
+            final double[] values = new double[context.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = -v.doubles[i];
+            }
+            return Vector.ofDoubles(values, v.failed);
+        }
+    }
+
+    static final class Not extends VectorExpression {
+        private final VectorExpression operand;
+
+        Not(VectorExpression operand) {
+            super(Type.BOOLEAN);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector v = operand.evaluate(context);
+            final boolean[] values = new boolean[context.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = !v.booleans[i];
+            }
+            return Vector.ofBooleans(values, v.failed);
+        }
+    }
+
+    static final class Arithmetic extends VectorExpression {
+        enum Operator {
+            ADD,
+            SUBTRACT,
+            MULTIPLY,
+            DIVIDE,
+            MODULO
+        }
+
+        private final Operator operator;
+        private final VectorExpression left;
+        private final VectorExpression right;
+
+        Arithmetic(Operator operator, VectorExpression left, VectorExpression right) {
+            super(left.type == Type.LONG && right.type == Type.LONG ? Type.LONG : Type.DOUBLE);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector l = left.evaluate(context);
+            final Vector r = right.evaluate(context);
+            if (type == Type.LONG) {
+                return evaluateLongs(l, r);
+            }
+
+            final double[] a = l.asDoubles();
+            final double[] b = r.asDoubles();
+            final double[] values = new double[a.length];
+            boolean[] failed = or(l.failed, r.failed);
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] + b[i];
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] - b[i];
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] * b[i];
+                    }
+                    break;
+                case DIVIDE:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] / b[i];
+                    }
+                    failed = or(failed, zeros(b));
+                    break;
+                case MODULO:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] % b[i];
+                    }
+                    failed = or(failed, zeros(b));
+                    break;
+            }
+            return Vector.ofDoubles(values, failed);
+        }
+
+        private Vector evaluateLongs(Vector l, Vector r) {
+            final long[] a = l.longs;
+            final long[] b = r.longs;
+            final long[] values = new long[a.length];
+            boolean[] failed = or(l.failed, r.failed);
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Math.addExact(a[i], b[i]);
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Math.subtractExact(a[i], b[i]);
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Math.multiplyExact(a[i], b[i]);
+                    }
+                    break;
+                case DIVIDE:
+                    final boolean[] zeros = new boolean[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        if (b[i] == 0) {
+                            zeros[i] = true;
+                        } else if (a[i] == Long.MIN_VALUE && b[i] == -1) {
+                            throw new ArithmeticException("long overflow");
+                        } else {
+                            values[i] = a[i] / b[i];
+                        }
+                    }
+                    failed = or(failed, zeros);
+                    break;
+                default:
+                    // The compiler does not create integral modulos
+                    throw new IllegalStateException("Unsupported operator: " + operator);
+            }
+            return Vector.ofLongs(values, failed);
+        }
+
+        private static boolean[] zeros(double[] values) {
+            boolean[] zeros = null;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == 0.0) {
+                    if (zeros == null) {
+                        zeros = new boolean[values.length];
+                    }
+                    zeros[i] = true;
+                }
+            }
+            return zeros;
+        }
+    }
+
+    static final class Comparison extends VectorExpression {
+        enum Operator {
+            EQ,
+            NE,
+            LT,
+            LE,
+            GT,
+            GE
+        }
+
+        private final Operator operator;
+        private final VectorExpression left;
+        private final VectorExpression right;
+
+        Comparison(Operator operator, VectorExpression left, VectorExpression right) {
+            super(Type.BOOLEAN);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector l = left.evaluate(context);
+            final Vector r = right.evaluate(context);
+            final boolean[] values = new boolean[context.rows];
+            final boolean[] failed = or(l.failed, r.failed);
+
+            if (left.type == Type.BOOLEAN) {
+                final boolean negate = operator == Operator.NE;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (l.booleans[i] == r.booleans[i]) ^ negate;
+                }
+            } else if (left.type == Type.LONG && right.type == Type.LONG) {
+                final long[] a = l.longs;
+                final long[] b = r.longs;
+                switch (operator) {
+                    case EQ:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] == b[i];
+                        }
+                        break;
+                    case NE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] != b[i];
+                        }
+                        break;
+                    case LT:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] < b[i];
+                        }
+                        break;
+                    case LE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] <= b[i];
+                        }
+                        break;
+                    case GT:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] > b[i];
+                        }
+                        break;
+                    case GE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] >= b[i];
+                        }
+                        break;
+                }
+            } else {
+                // JEXL considers NaN to be equal to itself, the ordering comparisons include equality
+                final double[] a = l.asDoubles();
+                final double[] b = r.asDoubles();
+                switch (operator) {
+                    case EQ:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] == b[i] || (a[i] != a[i] && b[i] != b[i]);
+                        }
+                        break;
+                    case NE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = !(a[i] == b[i] || (a[i] != a[i] && b[i] != b[i]));
+                        }
+                        break;
+                    case LT:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] < b[i];
+                        }
+                        break;
+                    case LE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] <= b[i] || (a[i] != a[i] && b[i] != b[i]);
+                        }
+                        break;
+                    case GT:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] > b[i];
+                        }
+                        break;
+                    case GE:
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = a[i] >= b[i] || (a[i] != a[i] && b[i] != b[i]);
+                        }
+                        break;
+                }
+            }
+            return Vector.ofBooleans(values, failed);
+        }
+    }
+
+    /**
+     * Short-circuit and/or: failures of the right operand only count on the rows where it is evaluated.
+     */
+    static final class Logical extends VectorExpression {
+        private final boolean and;
+        private final VectorExpression left;
+        private final VectorExpression right;
+
+        Logical(boolean and, VectorExpression left, VectorExpression right) {
+            super(Type.BOOLEAN);
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector l = left.evaluate(context);
+            final Vector r = right.evaluate(context);
+            final boolean[] a = l.booleans;
+            final boolean[] b = r.booleans;
+            final boolean[] values = new boolean[context.rows];
+            if (and) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = a[i] & b[i];
+                }
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = a[i] | b[i];
+                }
+            }
+
+            boolean[] failed = l.failed;
+            if (r.failed != null) {
+                failed = new boolean[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    failed[i] = (l.failed != null && l.failed[i]) || (a[i] == and && r.failed[i]);
+                }
+            }
+            return Vector.ofBooleans(values, failed);
+        }
+    }
+
+    /**
+     * The ternary operator: failures of the branches only count on the rows where they are selected.
+     */
+    static final class Conditional extends VectorExpression {
+        private final VectorExpression condition;
+        private final VectorExpression whenTrue;
+        private final VectorExpression whenFalse;
+
+        Conditional(VectorExpression condition, VectorExpression whenTrue, VectorExpression whenFalse) {
+            super(whenTrue.type == whenFalse.type ? whenTrue.type : Type.NUMBER);
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        boolean isConstant() {
+            return condition.isConstant() && whenTrue.isConstant() && whenFalse.isConstant();
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector c = condition.evaluate(context);
+            final Vector t = whenTrue.evaluate(context);
+            final Vector f = whenFalse.evaluate(context);
+            final boolean[] selector = c.booleans;
+            final int rows = context.rows;
+
+            boolean[] failed = c.failed;
+            if (t.failed != null || f.failed != null) {
+                failed = new boolean[rows];
+                for (int i = 0; i < rows; i++) {
+                    failed[i] = (c.failed != null && c.failed[i])
+                            || (selector[i] ? t.failed != null && t.failed[i] : f.failed != null && f.failed[i]);
+                }
+            }
+
+            switch (type) {
+                case BOOLEAN: {
+                    final boolean[] values = new boolean[rows];
+                    for (int i = 0; i < rows; i++) {
+                        values[i] = selector[i] ? t.booleans[i] : f.booleans[i];
+                    }
+                    return Vector.ofBooleans(values, failed);
+                }
+                case LONG: {
+                    final long[] values = new long[rows];
+                    for (int i = 0; i < rows; i++) {
+                        values[i] = selector[i] ? t.longs[i] : f.longs[i];
+                    }
+                    return Vector.ofLongs(values, failed);
+                }
+                default: {
+                    final double[] a = t.asDoubles();
+                    final double[] b = f.asDoubles();
+                    final double[] values = new double[rows];
+                    for (int i = 0; i < rows; i++) {
+                        values[i] = selector[i] ? a[i] : b[i];
+                    }
+                    return Vector.ofDoubles(values, failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls a function of {@link Math} or {@link StrictMath} that only accepts doubles.
+     */
+    static final class DoubleFunction extends VectorExpression {
+        private final DoubleUnaryOperator unary;
+        private final DoubleBinaryOperator binary;
+        private final List<VectorExpression> arguments;
+
+        DoubleFunction(DoubleUnaryOperator unary, VectorExpression argument) {
+            super(Type.DOUBLE);
+            this.unary = unary;
+            this.binary = null;
+            this.arguments = Arrays.asList(argument);
+        }
+
+        DoubleFunction(DoubleBinaryOperator binary, VectorExpression left, VectorExpression right) {
+            super(Type.DOUBLE);
+            this.unary = null;
+            this.binary = binary;
+            this.arguments = Arrays.asList(left, right);
+        }
+
+        @Override
+        boolean isConstant() {
+            return arguments.stream().allMatch(VectorExpression::isConstant);
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector l = arguments.get(0).evaluate(context);
+            final double[] a = l.asDoubles();
+            final double[] values = new double[a.length];
+            if (unary != null) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = unary.applyAsDouble(a[i]);
+                }
+                return Vector.ofDoubles(values, l.failed);
+            }
+            final Vector r = arguments.get(1).evaluate(context);
+            final double[] b = r.asDoubles();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = binary.applyAsDouble(a[i], b[i]);
+            }
+            return Vector.ofDoubles(values, or(l.failed, r.failed));
+        }
+    }
+
+    /**
+     * The abs, min and max functions, which keep integral arguments integral like the overloads picked by JEXL.
+     */
+    static final class MinMaxAbs extends VectorExpression {
+        enum Function {
+            ABS,
+            MIN,
+            MAX
+        }
+
+        private final Function function;
+        private final VectorExpression left;
+        private final VectorExpression right;
+
+        MinMaxAbs(Function function, VectorExpression left, VectorExpression right) {
+            super(left.type == Type.LONG && (right == null || right.type == Type.LONG) ? Type.LONG : Type.DOUBLE);
+            this.function = function;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && (right == null || right.isConstant());
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final Vector l = left.evaluate(context);
+            if (function == Function.ABS) {
+                if (type == Type.LONG) {
+                    final long[] values = new long[context.rows];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Math.abs(l.longs[i]);
+                    }
+                    return Vector.ofLongs(values, l.failed);
+                }
+                final double[] values = new double[context.rows];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Math.abs(l.doubles[i]);
+                }
+                return Vector.ofDoubles(values, l.failed);
+            }
+
+            final Vector r = right.evaluate(context);
+            final boolean[] failed = or(l.failed, r.failed);
+            final boolean min = function == Function.MIN;
+            if (type == Type.LONG) {
+                final long[] values = new long[context.rows];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = min ? Math.min(l.longs[i], r.longs[i]) : Math.max(l.longs[i], r.longs[i]);
+                }
+                return Vector.ofLongs(values, failed);
+            }
+            final double[] a = l.asDoubles();
+            final double[] b = r.asDoubles();
+            final double[] values = new double[context.rows];
+            if (min) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Math.min(a[i], b[i]);
+                }
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Math.max(a[i], b[i]);
+                }
+            }
+            return Vector.ofDoubles(values, failed);
+        }
+    }
+
+    /**
+     * The functions of {@link SampleArrayFunctions}, which shift the values of a source by n rows.
+     */
+    static final class Shift extends VectorExpression {
+        enum Fill {
+            ZERO,
+            FIRST,
+            NAN,
+            START
+        }
+
+        private final Fill fill;
+        private final double[] values;
+        private final int n;
+        private final VectorExpression start;
+
+        Shift(Fill fill, double[] values, int n, VectorExpression start) {
+            super(Type.DOUBLE);
+            this.fill = fill;
+            this.values = values;
+            this.n = n;
+            this.start = start;
+        }
+
+        @Override
+        Vector evaluate(Context context) {
+            final int rows = context.rows;
+            final double[] shifted = new double[rows];
+            final int head = Math.min(n, rows);
+            System.arraycopy(values, 0, shifted, head, rows - head);
+
+            boolean[] failed = null;
+            switch (fill) {
+                case ZERO:
+                    break;
+                case FIRST:
+                    if (head > 0) {
+                        Arrays.fill(shifted, 0, head, values[0]);
+                    }
+                    break;
+                case NAN:
+                    Arrays.fill(shifted, 0, head, Double.NaN);
+                    break;
+                case START:
+                    final Vector s = start.evaluate(context);
+                    final double[] substitutes = s.asDoubles();
+                    System.arraycopy(substitutes, 0, shifted, 0, head);
+                    failed = s.failed;
+                    break;
+            }
+            return Vector.ofDoubles(shifted, failed);
+        }
+    }
+}
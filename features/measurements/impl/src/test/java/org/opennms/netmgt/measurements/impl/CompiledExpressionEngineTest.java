@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class CompiledExpressionEngineTest {
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    private final AtomicInteger numFallbacks = new AtomicInteger(0);
+
+    private final ExpressionEngine compiledExpressionEngine = new CompiledExpressionEngine((request, results) -> {
+        numFallbacks.incrementAndGet();
+        jexlExpressionEngine.applyExpressions(request, results);
+    });
+
+    @Test
+    public void evaluatesLikeJexl() throws ExpressionException {
+        final List<String> expressions = Arrays.asList(
+                "x * 5 + 7",
+                "-1.0 * x",
+                "speed / 0.62137",
+                "x * factor - y",
+                "timestamp / 125.0d",
+                "1 * __diff_time",
+                "__step * 2 + __i",
+                "__i / 7 + x",
+                "7 / 2 + x",
+                "x > 10 ? x : 0",
+                "(y == 0) ? NaN : x / y",
+                "y != 0 && x / y > 1 ? 1 : 0",
+                "!(x < y) || y >= 1 ? 1.5 : 2.5d",
+                "( ( (x == __inf) || (x == __neg_inf) || (y < -1) || (x > 50) ) ? NaN : x )",
+                "( ( x == NaN ) ? y : ( ( y == NaN ) ? x : math:min(x,y) ) )",
+                "( ( ( x == NaN ) && ( y == NaN ) ) ? NaN : ( ( x == NaN ) ? y : ( ( y == NaN ) ? x : ( x + y ) ) ) )",
+                "math:max(x, y) + math:abs(-y)",
+                "math:sin(x) + strictmath:cos(y)",
+                "math:pow(x, 2) - math:sqrt(math:abs(y))",
+                "math:atan2(y, x) * __PI / __E",
+                "math:floor(x / 3) % 4",
+                "fn:arrayNaN(\"x\", 5)",
+                "fn:arrayZero(\"x\", 1)",
+                "fn:arrayFirst(\"y\", 3)",
+                "fn:arrayStart(\"x\", 2, 10)",
+                "x - fn:arrayNaN(\"x\", 1)");
+
+        for (String expression : expressions) {
+            assertArrayEquals(expression, performExpression(jexlExpressionEngine, expression),
+                    performExpression(compiledExpressionEngine, expression), 0.0d);
+        }
+        assertEquals(0, numFallbacks.get());
+    }
+
+    @Test
+    public void canReferencePrecedingExpressions() throws ExpressionException {
+        final List<Expression> expressions = Arrays.asList(
+                new Expression("bitsIn", "x * 8", false),
+                new Expression("bitsOut", "y * 8", true),
+                new Expression("bitsOutNeg", "-1.0 * bitsOut", false),
+                new Expression("bitsTotal", "bitsIn + bitsOut", false),
+                new Expression("utilization", "bitsTotal / speed * 100.0", false));
+
+        final FetchResults expected = performExpressions(jexlExpressionEngine, expressions);
+        final FetchResults actual = performExpressions(compiledExpressionEngine, expressions);
+
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (Map.Entry<String, double[]> column : expected.getColumns().entrySet()) {
+            assertArrayEquals(column.getKey(), column.getValue(), actual.getColumns().get(column.getKey()), 0.0d);
+        }
+        assertEquals(0, numFallbacks.get());
+    }
+
+    @Test
+    public void fallsBackToJexlForUnsupportedExpressions() throws ExpressionException {
+        final List<String> expressions = Arrays.asList(
+                "jexl:evaluate(__formula)",
+                "math:signum(x)",
+                "__i % 7 + x",
+                "math:round(x * 10)");
+
+        for (String expression : expressions) {
+            assertArrayEquals(expression, performExpression(jexlExpressionEngine, expression),
+                    performExpression(compiledExpressionEngine, expression), 0.0d);
+        }
+        assertEquals(expressions.size(), numFallbacks.get());
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenDividingByZero() throws ExpressionException {
+        performExpression(compiledExpressionEngine, "x / y");
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        performExpression(compiledExpressionEngine, "x < y");
+    }
+
+    private double[] performExpression(ExpressionEngine engine, String expression) throws ExpressionException {
+        return performExpressions(engine, Lists.newArrayList(new Expression("z", expression, false))).getColumns().get("z");
+    }
+
+    private FetchResults performExpressions(ExpressionEngine engine, List<Expression> expressions) throws ExpressionException {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+
+        // Build the fetch results with known values, including NaNs, infinities and zeros
+        final int N = 100;
+        final long timestamps[] = new long[N];
+        final double xValues[] = new double[N];
+        final double yValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = i % 13 == 0 ? Double.NaN : i * 1.5;
+            yValues[i] = i % 17 == 0 ? Double.NaN : (i % 5) - 2;
+        }
+        xValues[50] = Double.POSITIVE_INFINITY;
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("factor", 0.5d);
+        constants.put("__formula", "x * factor");
+
+        final FetchResults results = new FetchResults(timestamps, values, 300, constants, null);
+        engine.applyExpressions(request, results);
+        return results;
+    }
+}
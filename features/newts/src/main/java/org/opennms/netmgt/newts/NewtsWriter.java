@@ -30,9 +30,12 @@ package org.opennms.netmgt.newts;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -40,6 +43,8 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.collection.support.AimdLimiter;
+import org.opennms.netmgt.collection.support.BatchCoalescer;
 import org.opennms.netmgt.newts.support.NewtsUtils;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
@@ -70,12 +75,29 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The consumers merge the small batches published by the persisters until
+ * they reach coalesceBytes, or waited for coalesceMs, before writing them.
+ * The number of concurrent writes is adjusted to the latency of the
+ * repository by an {@link AimdLimiter}, so that a slow repository fills up
+ * the ring buffer. Once it is full, calls to {@link #insert()} block until
+ * there is room again, unless dropWhenFull is set.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
+    public static final long DEFAULT_COALESCE_BYTES = 64 * 1024;
+
+    public static final long DEFAULT_COALESCE_MS = 250;
+
+    public static final long DEFAULT_TARGET_LATENCY_MS = 1000;
+
+    private static final double WRITE_LIMIT_BACKOFF_RATIO = 0.75;
+
+    private static final long FLUSH_INTERVAL_MS = 50;
+
     private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
             .withRateLimit(LOG)
             .maxRate(5).every(Duration.ofSeconds(30))
@@ -99,6 +121,18 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    private final Meter m_blockedInserts;
+
+    private final AimdLimiter m_writeLimiter;
+
+    private final BatchCoalescer<Sample> m_insertCoalescer;
+
+    private final BatchCoalescer<Sample> m_indexCoalescer;
+
+    private final ScheduledExecutorService m_flusher;
+
+    private volatile boolean m_dropWhenFull = false;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
@@ -135,9 +169,21 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_blockedInserts = registry.meter(MetricRegistry.name("ring-buffer", "blocked-inserts"));
+
+        m_writeLimiter = new AimdLimiter(1, m_numWriterThreads, DEFAULT_TARGET_LATENCY_MS, TimeUnit.MILLISECONDS, WRITE_LIMIT_BACKOFF_RATIO);
+        registry.register(MetricRegistry.name("writer", "concurrency-limit"), (Gauge<Integer>) m_writeLimiter::getLimit);
+        registry.register(MetricRegistry.name("writer", "in-flight"), (Gauge<Integer>) m_writeLimiter::getInFlight);
+
+        m_insertCoalescer = new BatchCoalescer<>(NewtsWriter::estimateSize, DEFAULT_COALESCE_BYTES, DEFAULT_COALESCE_MS, TimeUnit.MILLISECONDS);
+        m_indexCoalescer = new BatchCoalescer<>(NewtsWriter::estimateSize, DEFAULT_COALESCE_BYTES, DEFAULT_COALESCE_MS, TimeUnit.MILLISECONDS);
 
         LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
         setUpWorkerPool();
+
+        m_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NewtsWriter-Flusher-%d").setDaemon(true).build());
+        m_flusher.scheduleWithFixedDelay(this::flushExpired, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     private void setUpWorkerPool() {
@@ -168,6 +214,10 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
+        m_flusher.shutdown();
+        m_flusher.awaitTermination(1, TimeUnit.MINUTES);
+        write(m_insertCoalescer.take(), false);
+        write(m_indexCoalescer.take(), true);
     }
 
     public void insert(List<Sample> samples) {
@@ -181,6 +231,13 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+            if (!m_dropWhenFull) {
+                // Wait for the consumers to catch up, this slows down the persisters
+                m_blockedInserts.mark();
+                m_ringBuffer.publishEvent(translator, samples);
+                m_numEntriesOnRingBuffer.incrementAndGet();
+                return;
+            }
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -206,19 +263,40 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         Logging.putPrefix("collectd");
 
         List<Sample> samples = event.getSamples();
+        boolean indexOnly = event.isIndexOnly();
+        // free sample reference for garbage collection
+        event.setSamples(null);
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
+        // Merge the samples with the ones of previous events until there are enough to write
+        write((indexOnly ? m_indexCoalescer : m_insertCoalescer).add(samples), indexOnly);
+    }
+
+    private void flushExpired() {
+        Logging.putPrefix("collectd");
+        write(m_insertCoalescer.takeExpired(), false);
+        write(m_indexCoalescer.takeExpired(), true);
+    }
+
+    private void write(List<Sample> samples, boolean indexOnly) {
+        if (samples == null) {
+            return;
+        }
+
         // Partition the samples into collections smaller then max_batch_size
         for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+            final long start = m_writeLimiter.acquire();
+            boolean failed = true;
             try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
+                if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
                     LOG.debug("Indexing {} samples", batch.size());
                     m_indexer.update(batch);
                 } else {
                     LOG.debug("Inserting {} samples", batch.size());
                     m_sampleRepository.insert(batch);
                 }
+                failed = false;
 
                 if (LOG.isDebugEnabled()) {
                     String uniqueResourceIds = batch.stream()
@@ -229,8 +307,23 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 }
             } catch (Throwable t) {
                 RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+            } finally {
+                m_writeLimiter.release(start, failed);
+            }
+        }
+    }
+
+    /**
+     * Rough estimate of the size of a sample when written to the repository.
+     */
+    private static long estimateSize(Sample sample) {
+        long size = 32 + sample.getResource().getId().length() + sample.getName().length();
+        if (sample.getAttributes() != null) {
+            for (Map.Entry<String, String> attribute : sample.getAttributes().entrySet()) {
+                size += attribute.getKey().length() + (attribute.getValue() != null ? attribute.getValue().length() : 0);
             }
         }
+        return size;
     }
 
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
@@ -256,4 +349,34 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    /**
+     * Drop the samples when the ring buffer is full, instead of blocking until there is room.
+     */
+    public void setDropWhenFull(boolean dropWhenFull) {
+        m_dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * Sets the estimated size of the merged batches, 0 writes the published batches as they are.
+     */
+    public void setCoalesceBytes(long coalesceBytes) {
+        m_insertCoalescer.setTargetBytes(coalesceBytes);
+        m_indexCoalescer.setTargetBytes(coalesceBytes);
+    }
+
+    /**
+     * Sets how long the samples may wait for a merged batch to fill up.
+     */
+    public void setCoalesceMs(long coalesceMs) {
+        m_insertCoalescer.setMaxDelay(coalesceMs, TimeUnit.MILLISECONDS);
+        m_indexCoalescer.setMaxDelay(coalesceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the write latency above which fewer writes are issued concurrently.
+     */
+    public void setTargetLatencyMs(long targetLatencyMs) {
+        m_writeLimiter.setTargetLatency(targetLatencyMs, TimeUnit.MILLISECONDS);
+    }
 }
@@ -29,9 +29,12 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -70,6 +73,8 @@ public class NewtsWriterTest {
         MetricRegistry registry = new MetricRegistry();
         NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
         writer.setSampleRepository(sampleRepo);
+        // write every batch on its own
+        writer.setCoalesceBytes(0);
 
         for (int i = 0; i < ringBufferSize*2; i++) {
             Resource x = new Resource("x");
@@ -80,7 +85,7 @@ public class NewtsWriterTest {
 
     /**
      * Fills the ring buffer and locks all of the writer threads to verify
-     * that samples additional samples are dropped.
+     * that samples additional samples are dropped when configured to.
      */
     @Test
     public void samplesAreDroppedWhenRingBufferIsFull() throws Exception {
@@ -93,6 +98,8 @@ public class NewtsWriterTest {
         MetricRegistry registry = new MetricRegistry();
         NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
         writer.setSampleRepository(sampleRepo);
+        writer.setDropWhenFull(true);
+        writer.setCoalesceBytes(0);
 
         lock.lock();
         for (int i = 0; i < ringBufferSize; i++) {
@@ -119,6 +126,82 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Fills the ring buffer and locks all of the writer threads to verify
+     * that additional inserts wait for room instead of dropping the samples.
+     */
+    @Test(timeout = 30000)
+    public void insertsBlockWhenRingBufferIsFull() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setCoalesceBytes(0);
+
+        lock.lock();
+        for (int i = 0; i < ringBufferSize; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+        Thread.sleep(250);
+        assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
+
+        // The ring buffer is full, so the next inserts have to wait
+        CountDownLatch inserted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 16; i++) {
+                Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+                writer.insert(Lists.newArrayList(s));
+            }
+            inserted.countDown();
+        });
+        producer.start();
+        assertFalse(inserted.await(250, TimeUnit.MILLISECONDS));
+
+        // Unlock the writer threads and wait for the ring buffer to drain
+        lock.unlock();
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+        writer.destroy();
+
+        // None of the samples were dropped
+        assertEquals(ringBufferSize + 16, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+    }
+
+    /**
+     * Verifies that small batches are merged before being written.
+     */
+    @Test
+    public void smallBatchesAreMerged() throws Exception {
+        Resource x = new Resource("x");
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(new ReentrantLock());
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1000, 1024, 4, registry);
+        writer.setSampleRepository(sampleRepo);
+        // large enough to hold all of the samples, they are written once the delay expired
+        writer.setCoalesceBytes(1024 * 1024);
+        writer.setCoalesceMs(100);
+
+        for (int i = 0; i < 100; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sampleRepo.getNumSamplesInserted() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.destroy();
+
+        assertEquals(100, sampleRepo.getNumSamplesInserted());
+        assertTrue("samples should be written in a few batches, got " + sampleRepo.getNumInserts(), sampleRepo.getNumInserts() < 10);
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -141,6 +224,7 @@ public class NewtsWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger numInserts = new AtomicInteger(0);
 
         public LockedSampleRepository(Lock lock) {
             this.lock = lock;
@@ -151,6 +235,7 @@ public class NewtsWriterTest {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            numInserts.incrementAndGet();
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -162,6 +247,10 @@ public class NewtsWriterTest {
         public int getNumSamplesInserted() {
             return numSamplesInserted.get();
         }
+
+        public int getNumInserts() {
+            return numInserts.get();
+        }
     }
 
     private static class MockSampleRepository implements SampleRepository {
@@ -60,6 +60,8 @@ public class IpfixUdpParser extends UdpParserBase implements UdpParser, Dispatch
 
     private final IpFixMessageBuilder messageBuilder = new IpFixMessageBuilder();
 
+    private boolean directDecoding = false;
+
     public IpfixUdpParser(final String name,
                           final AsyncDispatcher<TelemetryMessage> dispatcher,
                           final EventForwarder eventForwarder,
@@ -77,7 +79,7 @@ public class IpfixUdpParser extends UdpParserBase implements UdpParser, Dispatch
     protected RecordProvider parse(final Session session,
                                    final ByteBuf buffer) throws Exception {
         final Header header = new Header(slice(buffer, Header.SIZE));
-        final Packet packet = new Packet(session, header, slice(buffer, header.payloadLength()));
+        final Packet packet = new Packet(session, header, slice(buffer, header.payloadLength()), this.directDecoding);
 
         detectClockSkew(header.exportTime * 1000L, session.getRemoteAddress());
 
@@ -160,4 +162,12 @@ public class IpfixUdpParser extends UdpParserBase implements UdpParser, Dispatch
     public void setFlowSamplingIntervalFallback(final Long flowSamplingIntervalFallback) {
         this.messageBuilder.setFlowSamplingIntervalFallback(flowSamplingIntervalFallback);
     }
+
+    public boolean getDirectDecoding() {
+        return this.directDecoding;
+    }
+
+    public void setDirectDecoding(final boolean directDecoding) {
+        this.directDecoding = directDecoding;
+    }
 }
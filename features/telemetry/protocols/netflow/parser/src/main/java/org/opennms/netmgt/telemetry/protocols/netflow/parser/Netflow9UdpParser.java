@@ -61,6 +61,8 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
 
     private final Netflow9MessageBuilder messageBuilder = new Netflow9MessageBuilder();
 
+    private boolean directDecoding = false;
+
     public Netflow9UdpParser(final String name,
                              final AsyncDispatcher<TelemetryMessage> dispatcher,
                              final EventForwarder eventForwarder,
@@ -77,7 +79,7 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
     @Override
     protected RecordProvider parse(Session session, ByteBuf buffer) throws Exception {
         final Header header = new Header(slice(buffer, Header.SIZE));
-        final Packet packet = new Packet(session, header, buffer);
+        final Packet packet = new Packet(session, header, buffer, this.directDecoding);
 
         detectClockSkew(header.unixSecs * 1000L, session.getRemoteAddress());
 
@@ -159,4 +161,12 @@ public class Netflow9UdpParser extends UdpParserBase implements UdpParser, Dispa
     public void setFlowSamplingIntervalFallback(final Long flowSamplingIntervalFallback) {
         this.messageBuilder.setFlowSamplingIntervalFallback(flowSamplingIntervalFallback);
     }
+
+    public boolean getDirectDecoding() {
+        return this.directDecoding;
+    }
+
+    public void setDirectDecoding(final boolean directDecoding) {
+        this.directDecoding = directDecoding;
+    }
 }
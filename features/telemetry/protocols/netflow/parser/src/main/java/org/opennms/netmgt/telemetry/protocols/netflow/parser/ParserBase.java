@@ -45,6 +45,7 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
@@ -57,6 +58,7 @@ import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.CursorMessageBuilder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageBuilder;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
 import org.slf4j.Logger;
@@ -117,6 +119,8 @@ public abstract class ParserBase implements Parser {
 
     private final Counter recordDispatchErrors;
 
+    private final Counter recordBuildErrors;
+
     private final Meter invalidFlows;
 
     private final Timer recordEnrichmentTimer;
@@ -179,6 +183,7 @@ public abstract class ParserBase implements Parser {
         recordsScheduled = metricRegistry.meter(MetricRegistry.name("parsers",  name, "recordsScheduled"));
         recordsCompleted = metricRegistry.meter(MetricRegistry.name("parsers",  name, "recordsCompleted"));
         recordDispatchErrors = metricRegistry.counter(MetricRegistry.name("parsers",  name, "recordDispatchErrors"));
+        recordBuildErrors = metricRegistry.counter(MetricRegistry.name("parsers",  name, "recordBuildErrors"));
         sequenceErrors = metricRegistry.counter(MetricRegistry.name("parsers", name, "sequenceErrors"));
 
         // Call setters since these also perform additional handling
@@ -302,96 +307,19 @@ public abstract class ParserBase implements Parser {
         //   LOG.trace("Got packet: {}", packet);
         // Perform the record enrichment and serialization in a thread pool allowing these to be parallelized
         final CompletableFuture<CompletableFuture[]> futureOfFutures = CompletableFuture.supplyAsync(() -> {
-            return packet.getRecords().map(record -> {
-                this.recordsReceived.mark();
-
-                final CompletableFuture<Void> future = new CompletableFuture<>();
-                final Timer.Context timerContext = recordEnrichmentTimer.time();
-                // Trigger record enrichment (performing DNS reverse lookups for example)
-                final RecordEnricher recordEnricher = new RecordEnricher(dnsResolver, getDnsLookupsEnabled());
-                recordEnricher.enrich(record).whenComplete((enrichment, ex) -> {
-                    timerContext.close();
-                    if (ex != null) {
-                        this.recordEnrichmentErrors.inc();
-
-                        // Enrichment failed
-                        future.completeExceptionally(ex);
-                        return;
-                    }
-                    // Enrichment was successful
-
-                    // We're currently in the callback thread from the enrichment process
-                    // We want the remainder of the serialization and dispatching to be performed
-                    // from one of our executor threads so that we can put back-pressure on the listener
-                    // if we can't keep up
-                    final Runnable dispatch = () -> {
-                        // Let's serialize
-                        final FlowMessage.Builder flowMessage;
-                        try {
-                            flowMessage = this.getMessageBuilder().buildMessage(record, enrichment);
-                        } catch (final  Exception e) {
-                            throw new RuntimeException(e);
-                        }
-
-                        // Check if the flow is valid (and maybe correct it)
-                        final List<String> corrections = this.correctFlow(flowMessage);
-                        if (!corrections.isEmpty()) {
-                            this.invalidFlows.mark();
-
-                            final Optional<Instant> instant = illegalFlowEventCache.getUnchecked(session.getRemoteAddress());
-
-                            if (!instant.isPresent() || Duration.between(instant.get(), Instant.now()).getSeconds() > getIllegalFlowEventRate()) {
-                                illegalFlowEventCache.put(session.getRemoteAddress(), Optional.of(Instant.now()));
-
-                                eventForwarder.sendNow(new EventBuilder()
-                                        .setUei(ILLEGAL_FLOW_EVENT_UEI)
-                                        .setTime(new Date())
-                                        .setSource(getName())
-                                        .setInterface(session.getRemoteAddress())
-                                        .setDistPoller(identity.getId())
-                                        .addParam("monitoringSystemId", identity.getId())
-                                        .addParam("monitoringSystemLocation", identity.getLocation())
-                                        .setParam("cause", Joiner.on('\n').join(corrections))
-                                        .setParam("protocol", protocol.name())
-                                        .setParam("illegalFlowEventRate", (int) getIllegalFlowEventRate())
-                                        .getEvent());
-
-                                for (final String correction : corrections) {
-                                    LOG.warn("Illegal flow detected from exporter {}: \n{}", session.getRemoteAddress().getAddress(), correction);
-                                }
-                            }
-                        }
-
-                        // Build the message to dispatch
-                        final TelemetryMessage msg = new TelemetryMessage(remoteAddress, ByteBuffer.wrap(flowMessage.build().toByteArray()));
-
-                        // Dispatch
-                        dispatcher.send(msg).whenComplete((b, exx) -> {
-                            if (exx != null) {
-                                this.recordDispatchErrors.inc();
-                                future.completeExceptionally(exx);
-                            } else {
-                                this.recordsCompleted.mark();
-                                future.complete(null);
-                            }
-                        });
-
-                        recordsDispatched.mark();
-                    };
-
-                    // It's possible that the callback thread is already a thread from the pool, if that's the case
-                    // execute within the current thread. This helps avoid deadlocks.
-                    if (Boolean.TRUE.equals(isParserThread.get())) {
-                        dispatch.run();
-                    } else {
-                        // We're not in one of the parsers threads, execute the dispatch in the pool
-                        executor.execute(dispatch);
-                    }
-
-                    this.recordsScheduled.mark();
-                });
-                return future;
-            }).toArray(CompletableFuture[]::new);
+            final MessageBuilder messageBuilder = this.getMessageBuilder();
+            if (messageBuilder instanceof CursorMessageBuilder) {
+                // Walk the records without materializing their values if the builder supports it
+                final CursorMessageBuilder cursorMessageBuilder = (CursorMessageBuilder) messageBuilder;
+                return packet.getCursors().map(cursor -> this.transmitRecord(session, remoteAddress,
+                        recordEnricher -> recordEnricher.enrich(cursor),
+                        enrichment -> cursorMessageBuilder.buildMessage(cursor, enrichment)))
+                        .toArray(CompletableFuture[]::new);
+            }
+            return packet.getRecords().map(record -> this.transmitRecord(session, remoteAddress,
+                    recordEnricher -> recordEnricher.enrich(record),
+                    enrichment -> messageBuilder.buildMessage(record, enrichment)))
+                    .toArray(CompletableFuture[]::new);
         }, executor);
 
         // Return a future which is completed when all records are finished dispatching (i.e. written to Kafka)
@@ -416,6 +344,114 @@ public abstract class ParserBase implements Parser {
         return future;
     }
 
+    private CompletableFuture<Void> transmitRecord(final Session session,
+                                                   final InetSocketAddress remoteAddress,
+                                                   final Function<RecordEnricher, CompletableFuture<RecordEnrichment>> enrich,
+                                                   final Function<RecordEnrichment, FlowMessage.Builder> build) {
+        this.recordsReceived.mark();
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final Timer.Context timerContext = recordEnrichmentTimer.time();
+        // Trigger record enrichment (performing DNS reverse lookups for example)
+        final RecordEnricher recordEnricher = new RecordEnricher(dnsResolver, getDnsLookupsEnabled());
+        final CompletableFuture<RecordEnrichment> enrichmentFuture;
+        try {
+            enrichmentFuture = enrich.apply(recordEnricher);
+        } catch (final Exception e) {
+            // Directly decoded records are only read while enriching, so this is where malformed contents show up
+            timerContext.close();
+            this.recordEnrichmentErrors.inc();
+            future.completeExceptionally(e);
+            return future;
+        }
+        enrichmentFuture.whenComplete((enrichment, ex) -> {
+            timerContext.close();
+            if (ex != null) {
+                this.recordEnrichmentErrors.inc();
+
+                // Enrichment failed
+                future.completeExceptionally(ex);
+                return;
+            }
+            // Enrichment was successful
+
+            // We're currently in the callback thread from the enrichment process
+            // We want the remainder of the serialization and dispatching to be performed
+            // from one of our executor threads so that we can put back-pressure on the listener
+            // if we can't keep up
+            final Runnable dispatch = () -> {
+                // Let's serialize
+                final FlowMessage.Builder flowMessage;
+                try {
+                    flowMessage = build.apply(enrichment);
+                } catch (final Exception e) {
+                    // Complete the record so that the packet does not hold on to its buffer forever
+                    LOG.debug("Error building flow message from record", e);
+                    this.recordBuildErrors.inc();
+                    future.completeExceptionally(e);
+                    return;
+                }
+
+                // Check if the flow is valid (and maybe correct it)
+                final List<String> corrections = this.correctFlow(flowMessage);
+                if (!corrections.isEmpty()) {
+                    this.invalidFlows.mark();
+
+                    final Optional<Instant> instant = illegalFlowEventCache.getUnchecked(session.getRemoteAddress());
+
+                    if (!instant.isPresent() || Duration.between(instant.get(), Instant.now()).getSeconds() > getIllegalFlowEventRate()) {
+                        illegalFlowEventCache.put(session.getRemoteAddress(), Optional.of(Instant.now()));
+
+                        eventForwarder.sendNow(new EventBuilder()
+                                .setUei(ILLEGAL_FLOW_EVENT_UEI)
+                                .setTime(new Date())
+                                .setSource(getName())
+                                .setInterface(session.getRemoteAddress())
+                                .setDistPoller(identity.getId())
+                                .addParam("monitoringSystemId", identity.getId())
+                                .addParam("monitoringSystemLocation", identity.getLocation())
+                                .setParam("cause", Joiner.on('\n').join(corrections))
+                                .setParam("protocol", protocol.name())
+                                .setParam("illegalFlowEventRate", (int) getIllegalFlowEventRate())
+                                .getEvent());
+
+                        for (final String correction : corrections) {
+                            LOG.warn("Illegal flow detected from exporter {}: \n{}", session.getRemoteAddress().getAddress(), correction);
+                        }
+                    }
+                }
+
+                // Build the message to dispatch
+                final TelemetryMessage msg = new TelemetryMessage(remoteAddress, ByteBuffer.wrap(flowMessage.build().toByteArray()));
+
+                // Dispatch
+                dispatcher.send(msg).whenComplete((b, exx) -> {
+                    if (exx != null) {
+                        this.recordDispatchErrors.inc();
+                        future.completeExceptionally(exx);
+                    } else {
+                        this.recordsCompleted.mark();
+                        future.complete(null);
+                    }
+                });
+
+                recordsDispatched.mark();
+            };
+
+            // It's possible that the callback thread is already a thread from the pool, if that's the case
+            // execute within the current thread. This helps avoid deadlocks.
+            if (Boolean.TRUE.equals(isParserThread.get())) {
+                dispatch.run();
+            } else {
+                // We're not in one of the parsers threads, execute the dispatch in the pool
+                executor.execute(dispatch);
+            }
+
+            this.recordsScheduled.mark();
+        });
+        return future;
+    }
+
     protected void detectClockSkew(final long packetTimestampMs, final InetAddress remoteAddress) {
         if (getMaxClockSkew() > 0) {
             long deltaMs = Math.abs(packetTimestampMs - System.currentTimeMillis());
@@ -39,6 +39,7 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 import org.opennms.netmgt.dnsresolver.api.DnsResolver;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.BooleanValue;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
@@ -71,16 +72,39 @@ public class RecordEnricher {
 
     public CompletableFuture<RecordEnrichment> enrich(Iterable<Value<?>> record) {
         if (!this.dnsLookupsEnabled) {
-            final CompletableFuture<RecordEnrichment> emptyFuture = new CompletableFuture<>();
-            final RecordEnrichment emptyEnrichment = new DefaultRecordEnrichment(Collections.<InetAddress, String>emptyMap());
-            emptyFuture.complete(emptyEnrichment);
-            return emptyFuture;
+            return emptyEnrichment();
         }
         final IpAddressCapturingVisitor ipAddressCapturingVisitor = new IpAddressCapturingVisitor();
         for (final Value<?> value : record) {
             value.visit(ipAddressCapturingVisitor);
         }
-        final Set<InetAddress> addressesToReverseLookup = ipAddressCapturingVisitor.getAddresses();
+        return this.enrich(ipAddressCapturingVisitor.getAddresses());
+    }
+
+    public CompletableFuture<RecordEnrichment> enrich(FieldCursor record) {
+        if (!this.dnsLookupsEnabled) {
+            return emptyEnrichment();
+        }
+        final Set<InetAddress> addresses = new HashSet<>();
+        while (record.next()) {
+            final InetAddress address = record.getInetAddress();
+            if (address != null) {
+                addresses.add(address);
+            }
+        }
+        // Rewind the cursor so it can be used to build the message afterwards
+        record.reset();
+        return this.enrich(addresses);
+    }
+
+    private static CompletableFuture<RecordEnrichment> emptyEnrichment() {
+        final CompletableFuture<RecordEnrichment> emptyFuture = new CompletableFuture<>();
+        final RecordEnrichment emptyEnrichment = new DefaultRecordEnrichment(Collections.<InetAddress, String>emptyMap());
+        emptyFuture.complete(emptyEnrichment);
+        return emptyFuture;
+    }
+
+    private CompletableFuture<RecordEnrichment> enrich(final Set<InetAddress> addressesToReverseLookup) {
         final Map<InetAddress, String> hostnamesByAddress = new HashMap<>(addressesToReverseLookup.size());
         final CompletableFuture reverseLookupFutures[] = addressesToReverseLookup.stream()
                 .map(addr -> {
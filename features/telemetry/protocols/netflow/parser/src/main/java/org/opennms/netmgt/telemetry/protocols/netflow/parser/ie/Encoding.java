@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
+
+/**
+ * The wire encoding of an {@link InformationElement} as far as it is required to read the value directly from a
+ * packet without parsing it into a {@link Value}.
+ */
+public enum Encoding {
+    /** Values are not exposed by {@link FieldCursor}s. */
+    OPAQUE,
+
+    /** Big-endian unsigned integer using the full field length. */
+    UNSIGNED,
+
+    IPV4_ADDRESS,
+    IPV6_ADDRESS,
+
+    /** Seconds since the UNIX epoch as unsigned 32 bit integer. */
+    DATE_TIME_SECONDS,
+
+    /** Milliseconds since the UNIX epoch as unsigned 64 bit integer. */
+    DATE_TIME_MILLISECONDS,
+
+    /** NTP timestamp with the lower 11 bits of the fraction ignored. */
+    DATE_TIME_MICROSECONDS,
+
+    /** NTP timestamp. */
+    DATE_TIME_NANOSECONDS,
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
+
+import java.net.InetAddress;
+import java.time.Instant;
+
+/**
+ * A forward-only cursor over the fields of a flow record.
+ *
+ * Other than iterating over a list of {@link Value}s, a cursor allows to read the fields directly from the received
+ * packet without creating an intermediate object per field. All accessors refer to the field the cursor is currently
+ * positioned on and return <code>null</code> if the field can not be represented as the requested type.
+ */
+public interface FieldCursor {
+
+    /** Advances the cursor to the next field.
+     *
+     * @return <code>false</code> if there are no more fields in the record
+     */
+    boolean next();
+
+    /** Moves the cursor back to before the first field of the record. */
+    void reset();
+
+    String getName();
+
+    /** Returns the value of an unsigned field. */
+    Long getLongValue();
+
+    /** Returns the value of an IPv4 or IPv6 address field. */
+    InetAddress getInetAddress();
+
+    /** Returns the value of a date-time field. */
+    Instant getTime();
+}
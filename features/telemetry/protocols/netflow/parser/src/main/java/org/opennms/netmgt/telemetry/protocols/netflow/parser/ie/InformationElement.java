@@ -44,4 +44,12 @@ public interface InformationElement {
     int getMinimumFieldLength();
 
     int getMaximumFieldLength();
+
+    /** Describes how values of this element can be read without parsing them.
+     *
+     * Elements returning {@link Encoding#OPAQUE} are skipped when reading records using a {@link FieldCursor}.
+     */
+    default Encoding getEncoding() {
+        return Encoding.OPAQUE;
+    }
 }
@@ -33,6 +33,17 @@ import java.util.stream.Stream;
 public interface RecordProvider {
     Stream<Iterable<Value<?>>> getRecords();
 
+    /** Returns the records as cursors over their fields.
+     *
+     * Providers which are able to read the fields directly from the received packet override this to avoid the
+     * creation of intermediate values.
+     *
+     * @return a cursor for each record
+     */
+    default Stream<FieldCursor> getCursors() {
+        return this.getRecords().map(ValueCursor::new);
+    }
+
     /** Returns the observation domain ID as specified by the underlying packet used to generate these records.
      *
      * @return the observation domain ID or <code>0</code> if there is no such concept available.
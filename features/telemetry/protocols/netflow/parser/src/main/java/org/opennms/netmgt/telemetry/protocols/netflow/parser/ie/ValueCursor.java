@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv4AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv6AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+/**
+ * A {@link FieldCursor} over already parsed values.
+ */
+public final class ValueCursor implements FieldCursor {
+    private final Iterable<Value<?>> values;
+
+    private Iterator<Value<?>> iterator;
+    private Value<?> value;
+
+    public ValueCursor(final Iterable<Value<?>> values) {
+        this.values = Objects.requireNonNull(values);
+        this.reset();
+    }
+
+    @Override
+    public boolean next() {
+        if (this.iterator.hasNext()) {
+            this.value = this.iterator.next();
+            return true;
+        }
+
+        this.value = null;
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        this.iterator = this.values.iterator();
+        this.value = null;
+    }
+
+    @Override
+    public String getName() {
+        return this.value.getName();
+    }
+
+    @Override
+    public Long getLongValue() {
+        return longValue(this.value);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return inetAddress(this.value);
+    }
+
+    @Override
+    public Instant getTime() {
+        return time(this.value);
+    }
+
+    public static Long longValue(final Value<?> value) {
+        if (value instanceof UnsignedValue) {
+            return ((UnsignedValue) value).getValue().longValue();
+        }
+        return null;
+    }
+
+    public static InetAddress inetAddress(final Value<?> value) {
+        if (value instanceof IPv4AddressValue) {
+            return ((IPv4AddressValue) value).getValue();
+        }
+        if (value instanceof IPv6AddressValue) {
+            return ((IPv6AddressValue) value).getValue();
+        }
+        return null;
+    }
+
+    public static Instant time(final Value<?> value) {
+        if (value instanceof DateTimeValue) {
+            return ((DateTimeValue) value).getValue();
+        }
+        return null;
+    }
+}
@@ -35,6 +35,7 @@ import java.time.Instant;
 import java.util.Objects;
 import java.util.Optional;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Encoding;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -93,6 +94,11 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.DATE_TIME_SECONDS;
+            }
         };
     }
 
@@ -117,6 +123,11 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.DATE_TIME_MILLISECONDS;
+            }
         };
     }
 
@@ -125,11 +136,9 @@ public class DateTimeValue extends Value<Instant> {
             @Override
             public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) {
                 final long seconds = uint32(buffer);
-                final long fraction = uint32(buffer) & (0xFFFFFFFF << 11);
-
-                final Instant value = Instant.ofEpochSecond(seconds - SECONDS_TO_EPOCH, fraction * 1_000_000_000L / (1L << 32));
+                final long fraction = uint32(buffer);
 
-                return new DateTimeValue(name, semantics, value);
+                return new DateTimeValue(name, semantics, fromNtpMicroseconds(seconds, fraction));
             }
 
             @Override
@@ -146,6 +155,11 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.DATE_TIME_MICROSECONDS;
+            }
         };
     }
 
@@ -156,9 +170,7 @@ public class DateTimeValue extends Value<Instant> {
                 final long seconds = uint32(buffer);
                 final long fraction = uint32(buffer);
 
-                final Instant value = Instant.ofEpochSecond(seconds - SECONDS_TO_EPOCH, fraction * 1_000_000_000L / (1L << 32));
-
-                return new DateTimeValue(name, semantics, value);
+                return new DateTimeValue(name, semantics, fromNtpNanoseconds(seconds, fraction));
             }
 
             @Override
@@ -175,9 +187,23 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.DATE_TIME_NANOSECONDS;
+            }
         };
     }
 
+    /** Converts a NTP timestamp with microsecond precision by ignoring the lower 11 bits of the fraction. */
+    public static Instant fromNtpMicroseconds(final long seconds, final long fraction) {
+        return fromNtpNanoseconds(seconds, fraction & (0xFFFFFFFF << 11));
+    }
+
+    public static Instant fromNtpNanoseconds(final long seconds, final long fraction) {
+        return Instant.ofEpochSecond(seconds - SECONDS_TO_EPOCH, fraction * 1_000_000_000L / (1L << 32));
+    }
+
     @Override
     public Instant getValue() {
         return this.value;
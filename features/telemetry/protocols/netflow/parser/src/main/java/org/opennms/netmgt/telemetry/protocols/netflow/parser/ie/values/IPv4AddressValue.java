@@ -36,6 +36,7 @@ import java.util.Objects;
 import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Encoding;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -92,6 +93,11 @@ public class IPv4AddressValue extends Value<Inet4Address> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.IPV4_ADDRESS;
+            }
         };
     }
 
@@ -37,6 +37,7 @@ import java.util.Objects;
 import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Encoding;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -93,6 +94,11 @@ public class IPv6AddressValue extends Value<Inet6Address> {
             public int getMaximumFieldLength() {
                 return 16;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.IPV6_ADDRESS;
+            }
         };
     }
 
@@ -33,6 +33,7 @@ import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.uint;
 import java.util.Objects;
 import java.util.Optional;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Encoding;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -87,6 +88,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 1;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.UNSIGNED;
+            }
         };
     }
 
@@ -111,6 +117,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 2;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.UNSIGNED;
+            }
         };
     }
 
@@ -135,6 +146,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 3;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.UNSIGNED;
+            }
         };
     }
 
@@ -159,6 +175,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.UNSIGNED;
+            }
         };
     }
 
@@ -183,6 +204,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Encoding getEncoding() {
+                return Encoding.UNSIGNED;
+            }
         };
     }
 
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.RecordLayout;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Iterables;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A data set which reads its records directly from the packet buffer.
+ *
+ * Other than {@link DataSet}, only the record boundaries are located while the packet is parsed. The fields are read
+ * on demand by the cursors handed out for each record. The set keeps a reference to the packet buffer, which must
+ * therefore stay valid until all records have been processed.
+ */
+public final class DirectDataSet {
+    public final Packet packet; // Enclosing packet
+
+    public final FlowSetHeader header;
+
+    public final RecordLayout layout;
+
+    private final Session.Resolver resolver;
+    private final ByteBuf buffer;
+    private final int[] records;
+    private final List<Value<?>>[] options;
+
+    @SuppressWarnings("unchecked")
+    public DirectDataSet(final Packet packet,
+                         final FlowSetHeader header,
+                         final Session.Resolver resolver,
+                         final RecordLayout layout,
+                         final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+        this.packet = Objects.requireNonNull(packet);
+        this.header = Objects.requireNonNull(header);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.layout = Objects.requireNonNull(layout);
+        this.buffer = Objects.requireNonNull(buffer);
+
+        this.records = layout.records(buffer);
+        if (this.records.length == 0) {
+            throw new InvalidPacketException(buffer, "Empty set");
+        }
+
+        // Options are looked up by the values of the scope fields of the record. Only these fields must be parsed
+        // and if the records do not contain any of them, the options are the same for all records.
+        final Set<String> scopeNames = resolver.lookupScopeNames();
+
+        this.options = new List[this.records.length];
+        if (layout.hasField(scopeNames::contains)) {
+            for (int i = 0; i < this.records.length; i++) {
+                this.options[i] = resolver.lookupOptions(layout.parse(resolver, buffer, this.records[i], scopeNames::contains));
+            }
+        } else {
+            final List<Value<?>> options = resolver.lookupOptions(Collections.emptyList());
+            for (int i = 0; i < this.records.length; i++) {
+                this.options[i] = options;
+            }
+        }
+    }
+
+    public int size() {
+        return this.records.length;
+    }
+
+    public Stream<FieldCursor> getCursors(final String[] headerNames, final long[] headerValues) {
+        return IntStream.range(0, this.records.length)
+                .mapToObj(i -> this.layout.cursor(this.buffer, this.records[i], headerNames, headerValues, this.options[i]));
+    }
+
+    public Stream<Iterable<Value<?>>> getRecords(final List<Value<?>> headerValues) {
+        return IntStream.range(0, this.records.length)
+                .mapToObj(i -> {
+                    try {
+                        return Iterables.concat(headerValues, this.layout.parse(this.resolver, this.buffer, this.records[i], name -> true), this.options[i]);
+                    } catch (final InvalidPacketException | MissingTemplateException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("header", this.header)
+                .add("layout", this.layout)
+                .add("records", this.records.length)
+                .toString();
+    }
+}
@@ -103,6 +103,11 @@ public final class FieldSpecifier implements Field, Scope {
         return this.informationElement.parse(resolver, buffer);
     }
 
+    @Override
+    public Optional<InformationElement> getInformationElement() {
+        return Optional.of(this.informationElement);
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
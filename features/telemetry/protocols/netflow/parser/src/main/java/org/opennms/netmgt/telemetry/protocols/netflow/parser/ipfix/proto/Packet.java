@@ -30,18 +30,23 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto;
 
 import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueCursor;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.RecordLayout;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
 import org.slf4j.Logger;
@@ -57,6 +62,9 @@ import io.netty.buffer.ByteBuf;
 public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     private static final Logger LOG = LoggerFactory.getLogger(Packet.class);
 
+    // Names of the packet header values prepended to each record
+    private static final String[] HEADER_NAMES = { "@recordCount", "@sequenceNumber", "@exportTime", "@observationDomainId" };
+
     /*
      +----------------------------------------------------+
      | Message Header                                     |
@@ -76,15 +84,28 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public final List<TemplateSet> templateSets;
     public final List<OptionsTemplateSet> optionTemplateSets;
     public final List<DataSet> dataSets;
+    public final List<DirectDataSet> directDataSets;
 
     public Packet(final Session session,
                   final Header header,
                   final ByteBuf buffer) throws InvalidPacketException {
+        this(session, header, buffer, false);
+    }
+
+    /**
+     * @param directDecoding if set, data records are not parsed but read directly from the buffer when processed.
+     *                       The buffer must stay valid until all records have been processed.
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuf buffer,
+                  final boolean directDecoding) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
         final List<TemplateSet> templateSets = new LinkedList();
         final List<OptionsTemplateSet> optionTemplateSets = new LinkedList();
         final List<DataSet> dataSets = new LinkedList();
+        final List<DirectDataSet> directDataSets = new LinkedList<>();
 
         while (buffer.isReadable()) {
             final ByteBuf headerBuffer = slice(buffer, FlowSetHeader.SIZE);
@@ -150,6 +171,26 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 case DATA_SET: {
                     final Session.Resolver resolver = session.getResolver(header.observationDomainId);
 
+                    if (directDecoding) {
+                        final Optional<RecordLayout> layout;
+                        try {
+                            layout = resolver.lookupLayout(setHeader.setId, true);
+                        } catch (final MissingTemplateException ex) {
+                            LOG.debug("Skipping data-set due to missing template: {}", ex.getMessage());
+                            break;
+                        }
+
+                        // Records of option templates are kept in the session and must be parsed
+                        if (layout.isPresent() && layout.get().template.type == Template.Type.TEMPLATE) {
+                            try {
+                                directDataSets.add(new DirectDataSet(this, setHeader, resolver, layout.get(), payloadBuffer));
+                            } catch (final MissingTemplateException ex) {
+                                LOG.debug("Skipping data-set due to missing template: {}", ex.getMessage());
+                            }
+                            break;
+                        }
+                    }
+
                     final DataSet dataSet;
                     try {
                         dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
@@ -178,6 +219,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
         this.templateSets = Collections.unmodifiableList(templateSets);
         this.optionTemplateSets = Collections.unmodifiableList(optionTemplateSets);
         this.dataSets = Collections.unmodifiableList(dataSets);
+        this.directDataSets = Collections.unmodifiableList(directDataSets);
     }
 
     @Override
@@ -189,10 +231,29 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
     @Override
     public Stream<Iterable<Value<?>>> getRecords() {
-        final int recordCount = this.dataSets.stream()
-                .mapToInt(s -> s.records.size())
-                .sum();
+        final int recordCount = this.recordCount();
+
+        final List<Value<?>> headerValues = new ArrayList<>(HEADER_NAMES.length);
+        final long[] values = this.headerValues(recordCount);
+        for (int i = 0; i < HEADER_NAMES.length; i++) {
+            headerValues.add(new UnsignedValue(HEADER_NAMES[i], values[i]));
+        }
+
+        return Stream.concat(this.directDataSets.stream().flatMap(s -> s.getRecords(headerValues)),
+                this.parsedRecords(recordCount));
+    }
+
+    @Override
+    public Stream<FieldCursor> getCursors() {
+        final int recordCount = this.recordCount();
+
+        final long[] headerValues = this.headerValues(recordCount);
 
+        return Stream.concat(this.directDataSets.stream().flatMap(s -> s.getCursors(HEADER_NAMES, headerValues)),
+                this.parsedRecords(recordCount).map(ValueCursor::new));
+    }
+
+    private Stream<Iterable<Value<?>>> parsedRecords(final int recordCount) {
         return this.dataSets.stream()
                 .flatMap(s -> s.records.stream())
                 .map(r -> Iterables.concat(
@@ -206,6 +267,15 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 ));
     }
 
+    private int recordCount() {
+        return this.dataSets.stream().mapToInt(s -> s.records.size()).sum()
+                + this.directDataSets.stream().mapToInt(DirectDataSet::size).sum();
+    }
+
+    private long[] headerValues(final int recordCount) {
+        return new long[] { recordCount, this.header.sequenceNumber, this.header.exportTime, this.header.observationDomainId };
+    }
+
     @Override
     public long getObservationDomainId() {
         return this.header.observationDomainId;
@@ -223,6 +293,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                 .add("templateSets", this.templateSets)
                 .add("optionTemplateSets", this.optionTemplateSets)
                 .add("dataTemplateSets", this.dataSets)
+                .add("directDataSets", this.directDataSets)
                 .toString();
     }
 }
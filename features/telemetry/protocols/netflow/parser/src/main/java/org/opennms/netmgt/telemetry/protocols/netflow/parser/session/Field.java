@@ -28,8 +28,11 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
+import java.util.Optional;
+
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
 import io.netty.buffer.ByteBuf;
@@ -39,4 +42,12 @@ public interface Field {
 
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException;
+
+    /** Returns the information element describing the values of this field, if known.
+     *
+     * Only fields exposing their element can be read using a {@link RecordLayout}.
+     */
+    default Optional<InformationElement> getInformationElement() {
+        return Optional.empty();
+    }
 }
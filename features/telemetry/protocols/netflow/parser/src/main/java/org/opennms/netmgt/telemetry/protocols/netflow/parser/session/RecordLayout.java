@@ -0,0 +1,440 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Encoding;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueCursor;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
+
+import com.google.common.base.MoreObjects;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The fields of a template compiled for reading data records directly from the packet buffer.
+ *
+ * The layout keeps name, encoding and length of all fields in flat arrays. This allows to find the record boundaries
+ * in a data set and to walk the fields of each record using a {@link FieldCursor} without parsing the fields into
+ * {@link Value}s.
+ */
+public final class RecordLayout {
+
+    /** Field length marking variable sized fields as defined by IPFIX. */
+    public static final int VARIABLE_SIZED = 0xFFFF;
+    public static final int VARIABLE_SIZED_EXTENDED = 0xFF;
+
+    private static final int VARIABLE = -1;
+
+    public final Template template;
+    public final boolean variableSized;
+
+    private final Field[] fields;
+    private final String[] names;
+    private final Encoding[] encodings;
+    private final int[] lengths;
+
+    private final int minimumLength;
+    private final boolean fixed;
+
+    private RecordLayout(final Template template,
+                         final boolean variableSized,
+                         final Field[] fields,
+                         final String[] names,
+                         final Encoding[] encodings,
+                         final int[] lengths) {
+        this.template = Objects.requireNonNull(template);
+        this.variableSized = variableSized;
+        this.fields = fields;
+        this.names = names;
+        this.encodings = encodings;
+        this.lengths = lengths;
+
+        // For variable length fields we assume at least the length value (1 byte) to be present
+        this.minimumLength = Arrays.stream(lengths).map(l -> l != VARIABLE ? l : 1).sum();
+        this.fixed = Arrays.stream(lengths).noneMatch(l -> l == VARIABLE);
+    }
+
+    /** Compiles the layout for the fields of the given template.
+     *
+     * @param template the template to compile
+     * @param variableSized whether fields of length {@link #VARIABLE_SIZED} are prefixed with their actual length
+     * @return the layout or nothing, if not all fields of the template expose their information element
+     */
+    public static Optional<RecordLayout> compile(final Template template, final boolean variableSized) {
+        final int count = template.fields.size();
+
+        final Field[] fields = new Field[count];
+        final String[] names = new String[count];
+        final Encoding[] encodings = new Encoding[count];
+        final int[] lengths = new int[count];
+
+        int i = 0;
+        for (final Field field : template.fields) {
+            final Optional<InformationElement> element = field.getInformationElement();
+            if (!element.isPresent()) {
+                return Optional.empty();
+            }
+
+            fields[i] = field;
+            names[i] = element.get().getName();
+            encodings[i] = element.get().getEncoding();
+            lengths[i] = variableSized && field.length() == VARIABLE_SIZED ? VARIABLE : field.length();
+            i++;
+        }
+
+        return Optional.of(new RecordLayout(template, variableSized, fields, names, encodings, lengths));
+    }
+
+    /** Finds the offsets of all records in the readable part of the buffer and consumes them.
+     *
+     * Records are read as long as the remaining bytes cover the minimum record length - the same way as parsing the
+     * records one by one does.
+     *
+     * @return the offset of each record in the buffer
+     */
+    public int[] records(final ByteBuf buffer) {
+        final int end = buffer.writerIndex();
+
+        int[] records = new int[this.minimumLength > 0 ? buffer.readableBytes() / this.minimumLength : 0];
+        int count = 0;
+
+        int offset = buffer.readerIndex();
+        while (end - offset >= this.minimumLength && (this.minimumLength > 0 || offset < end)) {
+            if (count == records.length) {
+                records = Arrays.copyOf(records, count * 2 + 1);
+            }
+            records[count++] = offset;
+
+            if (this.fixed) {
+                offset += this.minimumLength;
+            } else {
+                for (int i = 0; i < this.lengths.length; i++) {
+                    final long field = this.field(buffer, i, offset, end);
+                    offset = fieldOffset(field) + fieldLength(field);
+                }
+            }
+        }
+
+        buffer.readerIndex(offset);
+        return count == records.length ? records : Arrays.copyOf(records, count);
+    }
+
+    // Locates the value of a field starting at the given offset. Returns offset and length of the value packed into a long.
+    private long field(final ByteBuf buffer, final int index, int offset, final int end) {
+        int length = this.lengths[index];
+        if (length == VARIABLE) {
+            if (offset + 1 > end) {
+                throw new BufferUnderflowException();
+            }
+            length = buffer.getUnsignedByte(offset);
+            offset += 1;
+
+            if (length == VARIABLE_SIZED_EXTENDED) {
+                if (offset + 2 > end) {
+                    throw new BufferUnderflowException();
+                }
+                length = buffer.getUnsignedShort(offset);
+                offset += 2;
+            }
+        }
+
+        if (offset + length > end) {
+            throw new BufferUnderflowException();
+        }
+
+        return ((long) offset << 32) | length;
+    }
+
+    private static int fieldOffset(final long field) {
+        return (int) (field >>> 32);
+    }
+
+    private static int fieldLength(final long field) {
+        return (int) field;
+    }
+
+    /** Parses the fields of the record at the given offset into values.
+     *
+     * @param filter only fields with a name matching the filter are parsed
+     */
+    public List<Value<?>> parse(final Session.Resolver resolver,
+                                final ByteBuf buffer,
+                                final int record,
+                                final Predicate<String> filter) throws InvalidPacketException, MissingTemplateException {
+        final List<Value<?>> values = new ArrayList<>(this.fields.length);
+
+        int offset = record;
+        for (int i = 0; i < this.fields.length; i++) {
+            final long field = this.field(buffer, i, offset, buffer.writerIndex());
+            if (filter.test(this.names[i])) {
+                values.add(this.fields[i].parse(resolver, buffer.slice(fieldOffset(field), fieldLength(field))));
+            }
+            offset = fieldOffset(field) + fieldLength(field);
+        }
+
+        return values;
+    }
+
+    /** Creates a cursor over a single record.
+     *
+     * The cursor yields the given header values first, followed by the fields of the record and the options.
+     *
+     * @param buffer the buffer containing the record
+     * @param record the offset of the record in the buffer
+     * @param headerNames the names of the header values
+     * @param headerValues the header values
+     * @param options the options to append to the record
+     */
+    public FieldCursor cursor(final ByteBuf buffer,
+                              final int record,
+                              final String[] headerNames,
+                              final long[] headerValues,
+                              final List<Value<?>> options) {
+        return new Cursor(buffer, record, headerNames, headerValues, options);
+    }
+
+    public int count() {
+        return this.fields.length;
+    }
+
+    public boolean hasField(final Predicate<String> filter) {
+        return Arrays.stream(this.names).anyMatch(filter);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("template", this.template.id)
+                .add("names", this.names)
+                .add("lengths", this.lengths)
+                .toString();
+    }
+
+    private final class Cursor implements FieldCursor {
+        private final ByteBuf buffer;
+        private final int record;
+
+        private final String[] headerNames;
+        private final long[] headerValues;
+        private final List<Value<?>> options;
+
+        private int index;
+        private int offset;
+        private int length;
+        private Value<?> option;
+
+        private Cursor(final ByteBuf buffer,
+                       final int record,
+                       final String[] headerNames,
+                       final long[] headerValues,
+                       final List<Value<?>> options) {
+            this.buffer = Objects.requireNonNull(buffer);
+            this.record = record;
+            this.headerNames = Objects.requireNonNull(headerNames);
+            this.headerValues = Objects.requireNonNull(headerValues);
+            this.options = Objects.requireNonNull(options);
+            this.reset();
+        }
+
+        @Override
+        public boolean next() {
+            this.index++;
+
+            final int field = this.index - this.headerNames.length;
+            if (field < 0) {
+                return true;
+            }
+
+            if (field < RecordLayout.this.fields.length) {
+                final long location = RecordLayout.this.field(this.buffer, field, field == 0 ? this.record : this.offset + this.length, this.buffer.writerIndex());
+                this.offset = fieldOffset(location);
+                this.length = fieldLength(location);
+                return true;
+            }
+
+            final int option = field - RecordLayout.this.fields.length;
+            if (option < this.options.size()) {
+                this.option = this.options.get(option);
+                return true;
+            }
+
+            this.option = null;
+            return false;
+        }
+
+        @Override
+        public void reset() {
+            this.index = -1;
+            this.offset = this.record;
+            this.length = 0;
+            this.option = null;
+        }
+
+        private int field() {
+            final int field = this.index - this.headerNames.length;
+            return field < RecordLayout.this.fields.length ? field : -1;
+        }
+
+        @Override
+        public String getName() {
+            if (this.index < this.headerNames.length) {
+                return this.headerNames[this.index];
+            }
+
+            final int field = this.field();
+            if (field >= 0) {
+                return RecordLayout.this.names[field];
+            }
+
+            return this.option.getName();
+        }
+
+        @Override
+        public Long getLongValue() {
+            if (this.index < this.headerNames.length) {
+                return this.headerValues[this.index];
+            }
+
+            final int field = this.field();
+            if (field >= 0) {
+                return RecordLayout.this.encodings[field] == Encoding.UNSIGNED
+                        ? unsigned(this.buffer, this.offset, this.length)
+                        : null;
+            }
+
+            return ValueCursor.longValue(this.option);
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            if (this.index < this.headerNames.length) {
+                return null;
+            }
+
+            final int field = this.field();
+            if (field >= 0) {
+                switch (RecordLayout.this.encodings[field]) {
+                    case IPV4_ADDRESS:
+                        return address(this.buffer, this.offset, this.require(4));
+                    case IPV6_ADDRESS:
+                        return (Inet6Address) address(this.buffer, this.offset, this.require(16));
+                    default:
+                        return null;
+                }
+            }
+
+            return ValueCursor.inetAddress(this.option);
+        }
+
+        @Override
+        public Instant getTime() {
+            if (this.index < this.headerNames.length) {
+                return null;
+            }
+
+            final int field = this.field();
+            if (field >= 0) {
+                switch (RecordLayout.this.encodings[field]) {
+                    case DATE_TIME_SECONDS:
+                        this.require(4);
+                        return Instant.ofEpochSecond(this.buffer.getUnsignedInt(this.offset));
+                    case DATE_TIME_MILLISECONDS:
+                        this.require(8);
+                        return Instant.ofEpochMilli(this.buffer.getLong(this.offset));
+                    case DATE_TIME_MICROSECONDS:
+                        this.require(8);
+                        return DateTimeValue.fromNtpMicroseconds(this.buffer.getUnsignedInt(this.offset), this.buffer.getUnsignedInt(this.offset + 4));
+                    case DATE_TIME_NANOSECONDS:
+                        this.require(8);
+                        return DateTimeValue.fromNtpNanoseconds(this.buffer.getUnsignedInt(this.offset), this.buffer.getUnsignedInt(this.offset + 4));
+                    default:
+                        return null;
+                }
+            }
+
+            return ValueCursor.time(this.option);
+        }
+
+        // Like parsing the field into a value, only the leading bytes of a longer field are read and a shorter
+        // field is rejected instead of reading into the following field
+        private int require(final int length) {
+            if (this.length < length) {
+                throw new IndexOutOfBoundsException(String.format("Field '%s' has %d bytes but at least %d are required",
+                        RecordLayout.this.names[this.field()], this.length, length));
+            }
+            return length;
+        }
+    }
+
+    private static long unsigned(final ByteBuf buffer, final int offset, final int length) {
+        switch (length) {
+            case 1:
+                return buffer.getUnsignedByte(offset);
+            case 2:
+                return buffer.getUnsignedShort(offset);
+            case 4:
+                return buffer.getUnsignedInt(offset);
+            case 8:
+                return buffer.getLong(offset);
+            default:
+                long result = 0;
+                for (int i = 0; i < length; i++) {
+                    result = (result << 8L) | buffer.getUnsignedByte(offset + i);
+                }
+                return result;
+        }
+    }
+
+    private static InetAddress address(final ByteBuf buffer, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.getBytes(offset, bytes);
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (final UnknownHostException e) {
+            throw new IllegalStateException("Error parsing address value", e);
+        }
+    }
+}
@@ -31,6 +31,8 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 import java.net.InetAddress;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -40,6 +42,22 @@ public interface Session {
     interface Resolver {
         Template lookupTemplate(final int templateId) throws MissingTemplateException;
         List<Value<?>> lookupOptions(final List<Value<?>> values);
+
+        /** Returns the names of all fields used as scope by the known option templates.
+         *
+         * Only values for these fields are considered by {@link #lookupOptions(List)}.
+         */
+        Set<String> lookupScopeNames();
+
+        /** Returns the record layout compiled for the given template.
+         *
+         * The layout is compiled once and is dropped together with the template when the template is withdrawn,
+         * redeclared or timed out.
+         *
+         * @param variableSized whether the protocol prefixes variable sized fields with their length
+         * @return the layout or nothing, if the template can not be compiled
+         */
+        Optional<RecordLayout> lookupLayout(final int templateId, final boolean variableSized) throws MissingTemplateException;
     }
 
     void addTemplate(final long observationDomainId, final Template template);
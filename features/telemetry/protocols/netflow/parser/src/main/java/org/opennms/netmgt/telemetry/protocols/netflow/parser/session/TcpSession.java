@@ -38,6 +38,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -100,6 +101,28 @@ public class TcpSession implements Session {
 
             return new ArrayList<>(options.values());
         }
+
+        @Override
+        public Set<String> lookupScopeNames() {
+            return TcpSession.this.templates.entrySet().stream()
+                    .filter(e -> e.getKey().observationDomainId == this.observationDomainId)
+                    .flatMap(e -> e.getValue().scopeNames.stream())
+                    .collect(Collectors.toSet());
+        }
+
+        @Override
+        public Optional<RecordLayout> lookupLayout(final int templateId, final boolean variableSized) throws MissingTemplateException {
+            final TemplateKey key = new TemplateKey(this.observationDomainId, templateId);
+
+            final Optional<RecordLayout> layout = TcpSession.this.layouts.get(key);
+            if (layout != null && layout.map(l -> l.variableSized == variableSized).orElse(true)) {
+                return layout;
+            }
+
+            final Optional<RecordLayout> compiled = RecordLayout.compile(this.lookupTemplate(templateId), variableSized);
+            TcpSession.this.layouts.put(key, compiled);
+            return compiled;
+        }
     }
 
     private final static class TemplateKey {
@@ -130,6 +153,7 @@ public class TcpSession implements Session {
 
     private final InetAddress remoteAddress;
     private final Map<TemplateKey, Template> templates = Maps.newHashMap();
+    private final Map<TemplateKey, Optional<RecordLayout>> layouts = Maps.newHashMap();
     private final Map<TemplateKey, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
     private final Map<Long, SequenceNumberTracker> sequenceNumbers = Maps.newHashMap();
 
@@ -142,17 +166,22 @@ public class TcpSession implements Session {
 
     @Override
     public void addTemplate(final long observationDomainId, final Template template) {
-        this.templates.put(new TemplateKey(observationDomainId, template.id), template);
+        final TemplateKey key = new TemplateKey(observationDomainId, template.id);
+        this.templates.put(key, template);
+        this.layouts.remove(key);
     }
 
     @Override
     public void removeTemplate(final long observationDomainId, final int templateId) {
-        this.templates.remove(new TemplateKey(observationDomainId, templateId));
+        final TemplateKey key = new TemplateKey(observationDomainId, templateId);
+        this.templates.remove(key);
+        this.layouts.remove(key);
     }
 
     @Override
     public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
         this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().type == type);
+        this.layouts.keySet().retainAll(this.templates.keySet());
     }
 
     @Override
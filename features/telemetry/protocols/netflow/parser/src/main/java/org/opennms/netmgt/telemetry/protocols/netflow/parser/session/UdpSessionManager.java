@@ -38,6 +38,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
@@ -195,6 +196,9 @@ public class UdpSessionManager {
         public final Template template;
         public final Map<Set<Value<?>>, TimeWrapper<List<Value<?>>>> options;
 
+        // Compiled on first use and replaced together with the template
+        private volatile Optional<RecordLayout> layout;
+
         public TemplateOptions(final Template template) {
             this.template = Objects.requireNonNull(template);
             this.options = Maps.newConcurrentMap();
@@ -204,6 +208,15 @@ public class UdpSessionManager {
             this.template = Objects.requireNonNull(template);
             this.options = Objects.requireNonNull(options);
         }
+
+        public Optional<RecordLayout> getLayout(final boolean variableSized) {
+            Optional<RecordLayout> layout = this.layout;
+            if (layout == null || !layout.map(l -> l.variableSized == variableSized).orElse(true)) {
+                // Compiling concurrently is harmless as the result is the same
+                this.layout = layout = RecordLayout.compile(this.template, variableSized);
+            }
+            return layout;
+        }
     }
 
     private final class UdpSession implements Session {
@@ -287,6 +300,16 @@ public class UdpSessionManager {
                 }
             }
 
+            @Override
+            public Optional<RecordLayout> lookupLayout(final int templateId, final boolean variableSized) throws MissingTemplateException {
+                final TimeWrapper<TemplateOptions> templateOptions = UdpSessionManager.this.templates.get(key(templateId));
+                if (templateOptions != null) {
+                    return templateOptions.wrapped.getLayout(variableSized);
+                } else {
+                    throw new MissingTemplateException(templateId);
+                }
+            }
+
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
                 final LinkedHashMap<String, Value<?>> options = new LinkedHashMap<>();
@@ -316,6 +339,19 @@ public class UdpSessionManager {
 
                 return new ArrayList<>(options.values());
             }
+
+            @Override
+            public Set<String> lookupScopeNames() {
+                final Set<String> scopeNames = new HashSet<>();
+
+                for (final var e : Iterables.filter(UdpSessionManager.this.templates.entrySet(),
+                        e -> Objects.equals(e.getKey().observationDomainId.sessionKey, UdpSession.this.sessionKey) &&
+                                Objects.equals(e.getKey().observationDomainId.observationDomainId, this.observationDomainId))) {
+                    scopeNames.addAll(e.getValue().wrapped.template.scopeNames);
+                }
+
+                return scopeNames;
+            }
         }
     }
 }
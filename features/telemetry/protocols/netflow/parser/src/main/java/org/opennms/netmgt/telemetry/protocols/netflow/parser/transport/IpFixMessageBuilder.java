@@ -29,9 +29,6 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.transport;
 
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.first;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getInetAddress;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getLongValue;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getTime;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getUInt32Value;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getUInt64Value;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.setDoubleValue;
@@ -43,7 +40,7 @@ import java.time.Instant;
 import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.Direction;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.NetflowVersion;
@@ -52,7 +49,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.transport.SamplingAlgorith
 import com.google.common.primitives.UnsignedLong;
 import com.google.protobuf.UInt32Value;
 
-public class IpFixMessageBuilder implements MessageBuilder {
+public class IpFixMessageBuilder implements CursorMessageBuilder {
 
     private Long flowActiveTimeoutFallback;
     private Long flowInactiveTimeoutFallback;
@@ -62,7 +59,7 @@ public class IpFixMessageBuilder implements MessageBuilder {
     }
 
     @Override
-    public FlowMessage.Builder buildMessage(final Iterable<Value<?>> values, final RecordEnrichment enrichment) {
+    public FlowMessage.Builder buildMessage(final FieldCursor cursor, final RecordEnrichment enrichment) {
         final FlowMessage.Builder builder = FlowMessage.newBuilder();
 
         Long exportTime = null;
@@ -129,28 +126,28 @@ public class IpFixMessageBuilder implements MessageBuilder {
         UInt32Value outputSnmp = null;
 
 
-        for (Value<?> value : values) {
-            switch (value.getName()) {
+        while (cursor.next()) {
+            switch (cursor.getName()) {
                 case "@exportTime":
-                    exportTime = getLongValue(value);
+                    exportTime = cursor.getLongValue();
                     break;
                 case "octetDeltaCount":
-                    octetDeltaCount = getLongValue(value);
+                    octetDeltaCount = cursor.getLongValue();
                     break;
                 case "postOctetDeltaCount":
-                    postOctetDeltaCount = getLongValue(value);
+                    postOctetDeltaCount = cursor.getLongValue();
                     break;
                 case "layer2OctetDeltaCount":
-                    layer2OctetDeltaCount = getLongValue(value);
+                    layer2OctetDeltaCount = cursor.getLongValue();
                     break;
                 case "postLayer2OctetDeltaCount":
-                    postLayer2OctetDeltaCount = getLongValue(value);
+                    postLayer2OctetDeltaCount = cursor.getLongValue();
                     break;
                 case "transportOctetDeltaCount":
-                    transportOctetDeltaCount = getLongValue(value);
+                    transportOctetDeltaCount = cursor.getLongValue();
                     break;
                 case "flowDirection":
-                    Long directionValue = getLongValue(value);
+                    Long directionValue = cursor.getLongValue();
                     Direction direction = Direction.UNRECOGNIZED;
                     if (directionValue != null) {
                         switch (directionValue.intValue()) {
@@ -167,214 +164,214 @@ public class IpFixMessageBuilder implements MessageBuilder {
                     }
                     break;
                 case "destinationIPv6Address":
-                    destinationIPv6Address = getInetAddress(value);
+                    destinationIPv6Address = cursor.getInetAddress();
                     break;
                 case "destinationIPv4Address":
-                    destinationIPv4Address = getInetAddress(value);
+                    destinationIPv4Address = cursor.getInetAddress();
                     break;
                 case "bgpDestinationAsNumber":
-                    getUInt64Value(value).ifPresent(builder::setDstAs);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setDstAs);
                     break;
                 case "destinationIPv6PrefixLength":
-                    destinationIPv6PrefixLength = getLongValue(value);
+                    destinationIPv6PrefixLength = cursor.getLongValue();
                     break;
                 case "destinationIPv4PrefixLength":
-                    destinationIPv4PrefixLength = getLongValue(value);
+                    destinationIPv4PrefixLength = cursor.getLongValue();
                     break;
                 case "destinationTransportPort":
-                    getUInt32Value(value).ifPresent(builder::setDstPort);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setDstPort);
                     break;
                 case "engineId":
-                    getUInt32Value(value).ifPresent(builder::setEngineId);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setEngineId);
                     break;
                 case "engineType":
-                    getUInt32Value(value).ifPresent(builder::setEngineType);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setEngineType);
                     break;
                 case "@recordCount":
-                    getUInt32Value(value).ifPresent(builder::setNumFlowRecords);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setNumFlowRecords);
                     break;
                 case "@sequenceNumber":
-                    getUInt64Value(value).ifPresent(builder::setFlowSeqNum);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setFlowSeqNum);
                     break;
                 case "ingressInterface":
-                    inputSnmp = getUInt32Value(value).orElse(null);
+                    inputSnmp = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "ipVersion":
-                    Long ipVersion = getLongValue(value);
+                    Long ipVersion = cursor.getLongValue();
                     if (ipVersion != null) {
                         builder.setIpProtocolVersion(setIntValue(ipVersion.intValue()));
                     }
                     break;
                 case "egressInterface":
-                    outputSnmp = getUInt32Value(value).orElse(null);
+                    outputSnmp = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "protocolIdentifier":
-                    getUInt32Value(value).ifPresent(builder::setProtocol);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setProtocol);
                     break;
                 case "tcpControlBits":
-                    getUInt32Value(value).ifPresent(builder::setTcpFlags);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setTcpFlags);
                     break;
                 case "ipClassOfService":
-                    getUInt32Value(value).ifPresent(builder::setTos);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setTos);
                     break;
                 case "@observationDomainId":
-                    Long observationDomainId = getLongValue(value);
+                    Long observationDomainId = cursor.getLongValue();
                     if (observationDomainId != null) {
                         builder.setNodeIdentifier(String.valueOf(observationDomainId));
                     }
                     break;
 
                 case "flowStartSeconds":
-                    flowStartSeconds = getTime(value);
+                    flowStartSeconds = cursor.getTime();
                     break;
                 case "flowStartMilliseconds":
-                    flowStartMilliseconds = getTime(value);
+                    flowStartMilliseconds = cursor.getTime();
                     break;
                 case "flowStartMicroseconds":
-                    flowStartMicroseconds = getTime(value);
+                    flowStartMicroseconds = cursor.getTime();
                     break;
                 case "flowStartNanoseconds":
-                    flowStartNanoseconds = getTime(value);
+                    flowStartNanoseconds = cursor.getTime();
                     break;
                 case "flowStartDeltaMicroseconds":
-                    flowStartDeltaMicroseconds = getLongValue(value);
+                    flowStartDeltaMicroseconds = cursor.getLongValue();
                     break;
                 case "flowStartSysUpTime":
-                    flowStartSysUpTime = getLongValue(value);
+                    flowStartSysUpTime = cursor.getLongValue();
                     break;
                 case "systemInitTimeMilliseconds":
-                    systemInitTimeMilliseconds = getTime(value);
+                    systemInitTimeMilliseconds = cursor.getTime();
                     break;
                 case "flowEndSeconds":
-                    flowEndSeconds = getTime(value);
+                    flowEndSeconds = cursor.getTime();
                     break;
                 case "flowEndMilliseconds":
-                    flowEndMilliseconds = getTime(value);
+                    flowEndMilliseconds = cursor.getTime();
                     break;
                 case "flowEndMicroseconds":
-                    flowEndMicroseconds = getTime(value);
+                    flowEndMicroseconds = cursor.getTime();
                     break;
                 case "flowEndNanoseconds":
-                    flowEndNanoseconds = getTime(value);
+                    flowEndNanoseconds = cursor.getTime();
                 case "flowEndDeltaMicroseconds":
-                    flowEndDeltaMicroseconds = getLongValue(value);
+                    flowEndDeltaMicroseconds = cursor.getLongValue();
                     break;
                 case "flowEndSysUpTime":
-                    flowEndSysUpTime = getLongValue(value);
+                    flowEndSysUpTime = cursor.getLongValue();
                     break;
                 case "ipNextHopIPv6Address":
-                    ipNextHopIPv6Address = getInetAddress(value);
+                    ipNextHopIPv6Address = cursor.getInetAddress();
                     break;
                 case "ipNextHopIPv4Address":
-                    ipNextHopIPv4Address = getInetAddress(value);
+                    ipNextHopIPv4Address = cursor.getInetAddress();
                     break;
                 case "bgpNextHopIPv6Address":
-                    bgpNextHopIPv6Address = getInetAddress(value);
+                    bgpNextHopIPv6Address = cursor.getInetAddress();
                     break;
                 case "bgpNextHopIPv4Address":
-                    bgpNextHopIPv4Address = getInetAddress(value);
+                    bgpNextHopIPv4Address = cursor.getInetAddress();
                     break;
                 case "packetDeltaCount":
-                    packetDeltaCount = getLongValue(value);
+                    packetDeltaCount = cursor.getLongValue();
                     break;
                 case "postPacketDeltaCount":
-                    postPacketDeltaCount = getLongValue(value);
+                    postPacketDeltaCount = cursor.getLongValue();
                     break;
                 case "transportPacketDeltaCount":
-                    transportPacketDeltaCount = getLongValue(value);
+                    transportPacketDeltaCount = cursor.getLongValue();
                     break;
                 case "samplingAlgorithm":
-                    samplingAlgorithm = getLongValue(value);
+                    samplingAlgorithm = cursor.getLongValue();
                     break;
                 case "samplerMode":
-                    samplerMode = getLongValue(value);
+                    samplerMode = cursor.getLongValue();
                     break;
                 case "selectorAlgorithm":
-                    selectorAlgorithm = getLongValue(value);
+                    selectorAlgorithm = cursor.getLongValue();
                     break;
                 case "samplingInterval":
-                    samplingInterval = getLongValue(value);
+                    samplingInterval = cursor.getLongValue();
                     break;
                 case "samplerRandomInterval":
-                    samplerRandomInterval = getLongValue(value);
+                    samplerRandomInterval = cursor.getLongValue();
                     break;
                 case "samplingFlowInterval":
-                    samplingFlowInterval = getLongValue(value);
+                    samplingFlowInterval = cursor.getLongValue();
                     break;
                 case "samplingFlowSpacing":
-                    samplingFlowSpacing = getLongValue(value);
+                    samplingFlowSpacing = cursor.getLongValue();
                     break;
                 case "flowSamplingTimeInterval":
-                    flowSamplingTimeInterval = getLongValue(value);
+                    flowSamplingTimeInterval = cursor.getLongValue();
                     break;
                 case "flowSamplingTimeSpacing":
-                    flowSamplingTimeSpacing = getLongValue(value);
+                    flowSamplingTimeSpacing = cursor.getLongValue();
                     break;
                 case "samplingSize":
-                    samplingSize = getLongValue(value);
+                    samplingSize = cursor.getLongValue();
                     break;
                 case "samplingPopulation":
-                    samplingPopulation = getLongValue(value);
+                    samplingPopulation = cursor.getLongValue();
                     break;
                 case "samplingProbability":
-                    samplingProbability = getLongValue(value);
+                    samplingProbability = cursor.getLongValue();
                     break;
                 case "hashSelectedRangeMin":
-                    hashSelectedRangeMin = getLongValue(value);
+                    hashSelectedRangeMin = cursor.getLongValue();
                     break;
                 case "hashSelectedRangeMax":
-                    hashSelectedRangeMax = getLongValue(value);
+                    hashSelectedRangeMax = cursor.getLongValue();
                     break;
                 case "hashOutputRangeMin":
-                    hashOutputRangeMin = getLongValue(value);
+                    hashOutputRangeMin = cursor.getLongValue();
                     break;
                 case "hashOutputRangeMax":
-                    hashOutputRangeMax = getLongValue(value);
+                    hashOutputRangeMax = cursor.getLongValue();
                     break;
                 case "sourceIPv6Address":
-                    sourceIPv6Address = getInetAddress(value);
+                    sourceIPv6Address = cursor.getInetAddress();
                     break;
                 case "sourceIPv4Address":
-                    sourceIPv4Address = getInetAddress(value);
+                    sourceIPv4Address = cursor.getInetAddress();
                     break;
                 case "sourceIPv6PrefixLength":
-                    sourceIPv6PrefixLength = getLongValue(value);
+                    sourceIPv6PrefixLength = cursor.getLongValue();
                     break;
                 case "sourceIPv4PrefixLength":
-                    sourceIPv4PrefixLength = getLongValue(value);
+                    sourceIPv4PrefixLength = cursor.getLongValue();
                     break;
                 case "sourceTransportPort":
-                    getUInt32Value(value).ifPresent(builder::setSrcPort);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setSrcPort);
                     break;
                 case "vlanId":
-                    vlanId = getLongValue(value);
+                    vlanId = cursor.getLongValue();
                     break;
                 case "postVlanId":
-                    postVlanId = getLongValue(value);
+                    postVlanId = cursor.getLongValue();
                     break;
                 case "dot1qVlanId":
-                    dot1qVlanId = getLongValue(value);
+                    dot1qVlanId = cursor.getLongValue();
                     break;
                 case "dot1qCustomerVlanId":
-                    dot1qCustomerVlanId = getLongValue(value);
+                    dot1qCustomerVlanId = cursor.getLongValue();
                     break;
                 case "postDot1qVlanId":
-                    postDot1qVlanId = getLongValue(value);
+                    postDot1qVlanId = cursor.getLongValue();
                     break;
                 case "postDot1qCustomerVlanId":
-                    postDot1qCustomerVlanId = getLongValue(value);
+                    postDot1qCustomerVlanId = cursor.getLongValue();
                     break;
                 case "flowActiveTimeout":
-                    flowActiveTimeout = getLongValue(value);
+                    flowActiveTimeout = cursor.getLongValue();
                     break;
                 case "flowInactiveTimeout":
-                    flowInactiveTimeout = getLongValue(value);
+                    flowInactiveTimeout = cursor.getLongValue();
                     break;
                 case "ingressPhysicalInterface":
-                    ingressPhysicalInterface = getUInt32Value(value).orElse(null);
+                    ingressPhysicalInterface = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "egressPhysicalInterface":
-                    egressPhysicalInterface = getUInt32Value(value).orElse(null);
+                    egressPhysicalInterface = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
             }
         }
@@ -113,6 +113,13 @@ public class MessageUtils {
         return Optional.empty();
     }
 
+    static Optional<UInt32Value> getUInt32Value(Long value) {
+        if (value != null) {
+            return Optional.of(UInt32Value.newBuilder().setValue(value.intValue()).build());
+        }
+        return Optional.empty();
+    }
+
 
     static Optional<DoubleValue> getDoubleValue(Value<?> value) {
         Long longValue = getLongValue(value);
@@ -122,6 +129,13 @@ public class MessageUtils {
         return Optional.empty();
     }
 
+    static Optional<DoubleValue> getDoubleValue(Long value) {
+        if (value != null) {
+            return Optional.of(DoubleValue.newBuilder().setValue(value.doubleValue()).build());
+        }
+        return Optional.empty();
+    }
+
     static Optional<String> getString(String value) {
         if (!Strings.isNullOrEmpty(value)) {
             return Optional.of(value);
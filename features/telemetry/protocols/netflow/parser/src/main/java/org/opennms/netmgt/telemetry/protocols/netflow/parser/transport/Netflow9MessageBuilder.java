@@ -30,8 +30,6 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.transport;
 
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.first;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getDoubleValue;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getInetAddress;
-import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getLongValue;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getUInt32Value;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.getUInt64Value;
 import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.MessageUtils.setDoubleValue;
@@ -41,7 +39,7 @@ import static org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Me
 import java.net.InetAddress;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
-import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.Direction;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
 import org.opennms.netmgt.telemetry.protocols.netflow.transport.NetflowVersion;
@@ -49,7 +47,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.transport.SamplingAlgorith
 
 import com.google.protobuf.UInt32Value;
 
-public class Netflow9MessageBuilder implements MessageBuilder {
+public class Netflow9MessageBuilder implements CursorMessageBuilder {
 
     private Long flowActiveTimeoutFallback;
     private Long flowInactiveTimeoutFallback;
@@ -59,7 +57,7 @@ public class Netflow9MessageBuilder implements MessageBuilder {
     }
 
     @Override
-    public FlowMessage.Builder buildMessage(final Iterable<Value<?>> values, final RecordEnrichment enrichment) {
+    public FlowMessage.Builder buildMessage(final FieldCursor cursor, final RecordEnrichment enrichment) {
         final FlowMessage.Builder builder = FlowMessage.newBuilder();
 
         InetAddress ipv4DstAddress = null;
@@ -93,29 +91,29 @@ public class Netflow9MessageBuilder implements MessageBuilder {
 	    builder.setSamplingInterval(setDoubleValue(this.flowSamplingIntervalFallback));
 	}
 
-        for (Value<?> value : values) {
-            switch (value.getName()) {
+        while (cursor.next()) {
+            switch (cursor.getName()) {
                 // Header
                 case "@recordCount":
-                    getUInt32Value(value).ifPresent(builder::setNumFlowRecords);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setNumFlowRecords);
                     break;
                 case "@sequenceNumber":
-                    getUInt64Value(value).ifPresent(builder::setFlowSeqNum);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setFlowSeqNum);
                     break;
                 case "@sourceId":
-                    getUInt64Value(value).ifPresent(srcId -> builder.setNodeIdentifier(String.valueOf(srcId.getValue())));
+                    getUInt64Value(cursor.getLongValue()).ifPresent(srcId -> builder.setNodeIdentifier(String.valueOf(srcId.getValue())));
                     break;
                 case "@sysUpTime":
-                    sysUpTime = getLongValue(value);
+                    sysUpTime = cursor.getLongValue();
                     break;
                 case "@unixSecs":
-                    unixSecs = getLongValue(value);
+                    unixSecs = cursor.getLongValue();
                     break;
                 case "IN_BYTES":
-                    getUInt64Value(value).ifPresent(builder::setNumBytes);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setNumBytes);
                     break;
                 case "DIRECTION":
-                    Long directionValue = getLongValue(value);
+                    Long directionValue = cursor.getLongValue();
                     Direction direction = Direction.UNRECOGNIZED;
                     if (directionValue != null) {
                         switch (directionValue.intValue()) {
@@ -132,64 +130,64 @@ public class Netflow9MessageBuilder implements MessageBuilder {
                     }
                     break;
                 case "IPV4_DST_ADDR":
-                    ipv4DstAddress = getInetAddress(value);
+                    ipv4DstAddress = cursor.getInetAddress();
                     break;
                 case "IPV6_DST_ADDR":
-                    ipv6DstAddress = getInetAddress(value);
+                    ipv6DstAddress = cursor.getInetAddress();
                     break;
                 case "DST_AS":
-                    getUInt64Value(value).ifPresent(builder::setDstAs);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setDstAs);
                     break;
                 case "IPV6_DST_MASK":
-                    ipv6DstMask = getLongValue(value);
+                    ipv6DstMask = cursor.getLongValue();
                     break;
                 case "DST_MASK":
-                    dstMask = getLongValue(value);
+                    dstMask = cursor.getLongValue();
                     break;
                 case "L4_DST_PORT":
-                    getUInt32Value(value).ifPresent(builder::setDstPort);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setDstPort);
                     break;
                 case "ENGINE_ID":
-                    getUInt32Value(value).ifPresent(builder::setEngineId);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setEngineId);
                     break;
                 case "ENGINE_TYPE":
-                    getUInt32Value(value).ifPresent(builder::setEngineType);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setEngineType);
                     break;
                 case "FIRST_SWITCHED":
-                    firstSwitched = getLongValue(value);
+                    firstSwitched = cursor.getLongValue();
                     break;
                 case "LAST_SWITCHED":
-                    lastSwitched = getLongValue(value);
+                    lastSwitched = cursor.getLongValue();
                     break;
                 case "INPUT_SNMP":
-                    inputSnmp = getUInt32Value(value).orElse(null);
+                    inputSnmp = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "IP_PROTOCOL_VERSION":
-                    getUInt32Value(value).ifPresent(builder::setIpProtocolVersion);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setIpProtocolVersion);
                     break;
                 case "OUTPUT_SNMP":
-                    outputSnmp = getUInt32Value(value).orElse(null);
+                    outputSnmp = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "IPV6_NEXT_HOP":
-                    ipv6NextHop = getInetAddress(value);
+                    ipv6NextHop = cursor.getInetAddress();
                     break;
                 case "IPV4_NEXT_HOP":
-                    ipv4NextHop = getInetAddress(value);
+                    ipv4NextHop = cursor.getInetAddress();
                     break;
                 case "BPG_IPV6_NEXT_HOP":
-                    bgpIpv6NextHop = getInetAddress(value);
+                    bgpIpv6NextHop = cursor.getInetAddress();
                     break;
                 case "BPG_IPV4_NEXT_HOP":
-                    bgpIpv4NextHop = getInetAddress(value);
+                    bgpIpv4NextHop = cursor.getInetAddress();
                     break;
                 case "IN_PKTS":
-                    getUInt64Value(value).ifPresent(builder::setNumPackets);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setNumPackets);
                     break;
                 case "PROTOCOL":
-                    getUInt32Value(value).ifPresent(builder::setProtocol);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setProtocol);
                     break;
                 case "SAMPLING_ALGORITHM":
-                    Long saValue = getLongValue(value);
+                    Long saValue = cursor.getLongValue();
                     SamplingAlgorithm samplingAlgorithm = SamplingAlgorithm.UNASSIGNED;
                     if (saValue != null) {
                         if (saValue.intValue() == 1) {
@@ -202,55 +200,55 @@ public class Netflow9MessageBuilder implements MessageBuilder {
                     builder.setSamplingAlgorithm(samplingAlgorithm);
                     break;
                 case "SAMPLING_INTERVAL":
-                    getDoubleValue(value).ifPresent(builder::setSamplingInterval);
+                    getDoubleValue(cursor.getLongValue()).ifPresent(builder::setSamplingInterval);
                     break;
                 case "IPV6_SRC_ADDR":
-                    ipv6SrcAddress = getInetAddress(value);
+                    ipv6SrcAddress = cursor.getInetAddress();
                     break;
                 case "IPV4_SRC_ADDR":
-                    ipv4SrcAddress = getInetAddress(value);
+                    ipv4SrcAddress = cursor.getInetAddress();
                     break;
                 case "IPV6_SRC_MASK":
-                    ipv6SrcMask = getLongValue(value);
+                    ipv6SrcMask = cursor.getLongValue();
                     break;
                 case "SRC_MASK":
-                    srcMask = getLongValue(value);
+                    srcMask = cursor.getLongValue();
                     break;
                 case "SRC_AS":
-                    getUInt64Value(value).ifPresent(builder::setSrcAs);
+                    getUInt64Value(cursor.getLongValue()).ifPresent(builder::setSrcAs);
                     break;
                 case "L4_SRC_PORT":
-                    getUInt32Value(value).ifPresent(builder::setSrcPort);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setSrcPort);
                     break;
                 case "TCP_FLAGS":
-                    getUInt32Value(value).ifPresent(builder::setTcpFlags);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setTcpFlags);
                     break;
                 case "TOS":
-                    getUInt32Value(value).ifPresent(builder::setTos);
+                    getUInt32Value(cursor.getLongValue()).ifPresent(builder::setTos);
                     break;
                 case "SRC_VLAN":
-                    srcVlan = getLongValue(value);
+                    srcVlan = cursor.getLongValue();
                     break;
                 case "DST_VLAN":
-                    dstVlan = getLongValue(value);
+                    dstVlan = cursor.getLongValue();
                     break;
                 case "FLOW_ACTIVE_TIMEOUT":
-                    flowActiveTimeout = getLongValue(value);
+                    flowActiveTimeout = cursor.getLongValue();
                     break;
                 case "FLOW_INACTIVE_TIMEOUT":
-                    flowInActiveTimeout = getLongValue(value);
+                    flowInActiveTimeout = cursor.getLongValue();
                     break;
                 case "flowStartMilliseconds":
-                    flowStartMilliseconds = getLongValue(value);
+                    flowStartMilliseconds = cursor.getLongValue();
                     break;
                 case "flowEndMilliseconds":
-                    flowEndMilliseconds = getLongValue(value);
+                    flowEndMilliseconds = cursor.getLongValue();
                     break;
                 case "ingressPhysicalInterface":
-                    ingressPhysicalInterface = getUInt32Value(value).orElse(null);
+                    ingressPhysicalInterface = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
                 case "egressPhysicalInterface":
-                    egressPhysicalInterface = getUInt32Value(value).orElse(null);
+                    egressPhysicalInterface = getUInt32Value(cursor.getLongValue()).orElse(null);
                     break;
             }
         }
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.CursorMessageBuilder;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.IpFixMessageBuilder;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Netflow9MessageBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the value based decoding of Netflow v9 and IPFIX data
+ * records with the direct decoding path.
+ * <p>
+ * Each invocation parses a captured data packet and builds the flow messages for all of its records.
+ */
+public class FlowDecodingBenchmark {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static RecordEnrichment ENRICHMENT = (address -> Optional.empty());
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"NETFLOW9", "IPFIX"})
+        public Protocol protocol;
+
+        @Param({"false", "true"})
+        public boolean directDecoding;
+
+        private Session session;
+        private CursorMessageBuilder messageBuilder;
+        private ByteBuf data;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.session = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+
+            final ByteBuf template;
+            if (this.protocol == Protocol.IPFIX) {
+                this.messageBuilder = new IpFixMessageBuilder();
+                template = read("ipfix_test_mikrotik_tpl.dat");
+                this.data = read("ipfix_test_mikrotik_data258.dat");
+            } else {
+                this.messageBuilder = new Netflow9MessageBuilder();
+                template = read("netflow9_test_cisco_asr9k_tpl260.dat");
+                this.data = read("netflow9_test_cisco_asr9k_data260.dat");
+            }
+
+            // Make the session learn the templates
+            this.parse(template);
+        }
+
+        private RecordProvider parse(final ByteBuf buf) throws Exception {
+            if (this.protocol == Protocol.IPFIX) {
+                final org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header header = new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header(slice(buf, org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE));
+                return new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet(this.session, header, slice(buf, header.payloadLength()), this.directDecoding);
+            } else {
+                final org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header header = new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header(slice(buf, org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header.SIZE));
+                return new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet(this.session, header, buf, this.directDecoding);
+            }
+        }
+    }
+
+    private static ByteBuf read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return Unpooled.wrappedBuffer(buffer);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = 1)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void decodeAndBuild(final BState state, final Blackhole blackhole) throws Exception {
+        final RecordProvider packet = state.parse(state.data.duplicate());
+        if (state.directDecoding) {
+            packet.getCursors().forEach(cursor -> blackhole.consume(state.messageBuilder.buildMessage(cursor, ENRICHMENT).build()));
+        } else {
+            packet.getRecords().forEach(record -> blackhole.consume(state.messageBuilder.buildMessage(record, ENRICHMENT).build()));
+        }
+    }
+}
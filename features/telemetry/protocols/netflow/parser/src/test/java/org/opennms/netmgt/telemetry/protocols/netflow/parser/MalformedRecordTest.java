@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.distributed.core.api.Identity;
+import org.opennms.netmgt.dnsresolver.api.DnsResolver;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.Netflow9MessageBuilder;
+import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Verifies that records failing while they are read directly from the packet buffer complete the packet.
+ */
+public class MalformedRecordTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AtomicInteger built = new AtomicInteger();
+    private final AtomicInteger dispatched = new AtomicInteger();
+
+    private ScheduledExecutorService executor;
+    private Netflow9UdpParser parser;
+
+    @Before
+    public void setUp() {
+        // Fails on the first record like a cursor reading past the end of a truncated record would
+        final Netflow9MessageBuilder messageBuilder = new Netflow9MessageBuilder() {
+            @Override
+            public FlowMessage.Builder buildMessage(final FieldCursor cursor, final RecordEnrichment enrichment) {
+                if (built.incrementAndGet() == 1) {
+                    throw new IndexOutOfBoundsException("Record is truncated");
+                }
+                return super.buildMessage(cursor, enrichment);
+            }
+        };
+
+        this.parser = new Netflow9UdpParser("FLOW", new AsyncDispatcher<TelemetryMessage>() {
+            @Override
+            public CompletableFuture<DispatchStatus> send(TelemetryMessage message) {
+                dispatched.incrementAndGet();
+                return CompletableFuture.completedFuture(DispatchStatus.DISPATCHED);
+            }
+
+            @Override
+            public int getQueueSize() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, mock(EventForwarder.class), mock(Identity.class), mock(DnsResolver.class), this.metricRegistry) {
+            @Override
+            public Netflow9MessageBuilder getMessageBuilder() {
+                return messageBuilder;
+            }
+        };
+        this.parser.setDirectDecoding(true);
+        this.parser.setDnsLookupsEnabled(false);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.parser.start(this.executor);
+    }
+
+    @After
+    public void tearDown() {
+        this.parser.stop();
+        this.executor.shutdown();
+    }
+
+    @Test(timeout = 30000)
+    public void testTruncatedRecordFailsPacketAndReleasesBuffer() throws Exception {
+        final ByteBuf buffer = read("netflow9_test_valid01.dat");
+
+        // Hold the buffer until the packet is done, like the UDP listener does
+        final CompletableFuture<?> future = this.parser.parse(buffer.retain(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 2055),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 4738))
+                .whenComplete((result, ex) -> buffer.release());
+        buffer.release();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The packet must fail if one of its records fails");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IndexOutOfBoundsException);
+        }
+
+        assertEquals(0, buffer.refCnt());
+        assertEquals(1, this.metricRegistry.counter(MetricRegistry.name("parsers", "FLOW", "recordBuildErrors")).getCount());
+
+        // The remaining records are still dispatched
+        assertTrue(this.built.get() > 1);
+        assertEquals(this.built.get() - 1, this.dispatched.get());
+    }
+
+    private static ByteBuf read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return Unpooled.copiedBuffer(buffer);
+        }
+    }
+}
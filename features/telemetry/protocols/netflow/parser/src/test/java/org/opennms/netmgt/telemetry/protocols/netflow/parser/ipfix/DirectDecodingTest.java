@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.netmgt.telemetry.listeners.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.RecordEnrichment;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.DirectDataSet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.SequenceNumberTracker;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.transport.IpFixMessageBuilder;
+import org.opennms.netmgt.telemetry.protocols.netflow.transport.FlowMessage;
+
+import com.google.common.collect.HashMultiset;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Verifies that the direct decoding path produces the same flow messages as the value based one.
+ */
+@RunWith(Parameterized.class)
+public class DirectDecodingTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static RecordEnrichment ENRICHMENT = (address -> Optional.empty());
+
+    @Parameterized.Parameters(name = "file: {0}")
+    public static Iterable<Object[]> data() throws IOException {
+        return Arrays.asList(
+                new Object[]{Arrays.asList("ipfix.dat")},
+                new Object[]{Arrays.asList("ipfix_test_openbsd_pflow_tpl.dat", "ipfix_test_openbsd_pflow_data.dat")},
+                new Object[]{Arrays.asList("ipfix_test_mikrotik_tpl.dat", "ipfix_test_mikrotik_data258.dat", "ipfix_test_mikrotik_data259.dat")},
+                new Object[]{Arrays.asList("ipfix_test_vmware_vds_tpl.dat", "ipfix_test_vmware_vds_data264.dat", "ipfix_test_vmware_vds_data266.dat", "ipfix_test_vmware_vds_data266_267.dat")},
+                new Object[]{Arrays.asList("ipfix_test_barracuda_tpl.dat", "ipfix_test_barracuda_data256.dat")},
+                new Object[]{Arrays.asList("ipfix_test_yaf_tpls_option_tpl.dat", "ipfix_test_yaf_tpl45841.dat", "ipfix_test_yaf_data45841.dat", "ipfix_test_yaf_data45873.dat", "ipfix_test_yaf_data53248.dat")}
+        );
+    }
+
+    private final List<String> files;
+
+    public DirectDecodingTest(final List<String> files) {
+        this.files = files;
+    }
+
+    @Test
+    public void testEquivalence() throws Exception {
+        final Session legacySession = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+        final Session directSession = new TcpSession(InetAddress.getLoopbackAddress(), () -> new SequenceNumberTracker(32));
+
+        final IpFixMessageBuilder messageBuilder = new IpFixMessageBuilder();
+
+        int records = 0;
+        int directRecords = 0;
+        for (final String file : this.files) {
+            final ByteBuf legacyBuf = read(file);
+            final ByteBuf directBuf = read(file);
+
+            do {
+                final Packet legacy = parse(legacySession, legacyBuf, false);
+                final Packet direct = parse(directSession, directBuf, true);
+
+                final List<FlowMessage> expected = legacy.getRecords()
+                        .map(record -> messageBuilder.buildMessage(record, ENRICHMENT).build())
+                        .collect(Collectors.toList());
+
+                // The cursors walk the raw records
+                final List<FlowMessage> actual = direct.getCursors()
+                        .map(cursor -> messageBuilder.buildMessage(cursor, ENRICHMENT).build())
+                        .collect(Collectors.toList());
+
+                // Materializing the values of directly decoded records must result in the same messages
+                final List<FlowMessage> materialized = direct.getRecords()
+                        .map(record -> messageBuilder.buildMessage(record, ENRICHMENT).build())
+                        .collect(Collectors.toList());
+
+                // Directly decoded records may be emitted in a different order
+                assertThat(HashMultiset.create(actual), is(HashMultiset.create(expected)));
+                assertThat(HashMultiset.create(materialized), is(HashMultiset.create(expected)));
+
+                records += expected.size();
+                directRecords += direct.directDataSets.stream().mapToInt(DirectDataSet::size).sum();
+            } while (legacyBuf.isReadable());
+        }
+
+        assertTrue(records > 0);
+        assertTrue(directRecords > 0);
+    }
+
+    private static Packet parse(final Session session, final ByteBuf buf, final boolean directDecoding) throws Exception {
+        final Header header = new Header(slice(buf, Header.SIZE));
+        return new Packet(session, header, slice(buf, header.payloadLength()), directDecoding);
+    }
+
+    private static ByteBuf read(final String file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer);
+            buffer.flip();
+            return Unpooled.wrappedBuffer(buffer);
+        }
+    }
+}
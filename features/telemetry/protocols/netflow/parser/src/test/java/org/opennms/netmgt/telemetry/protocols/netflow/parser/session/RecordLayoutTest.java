@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Test;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.FieldCursor;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.DateTimeValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.IPv4AddressValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class RecordLayoutTest {
+
+    @Test
+    public void testReadsFields() throws Exception {
+        final RecordLayout layout = layout(
+                field(IPv4AddressValue.parser("sourceIPv4Address", Optional.empty()), 4),
+                field(DateTimeValue.parserWithMilliseconds("flowStartMilliseconds", Optional.empty()), 8),
+                field(UnsignedValue.parserWith32Bit("octetDeltaCount", Optional.empty()), 4));
+
+        final ByteBuf buffer = Unpooled.buffer()
+                .writeBytes(new byte[]{10, 0, 0, 1})
+                .writeLong(1509532300714L)
+                .writeInt(42);
+        final FieldCursor cursor = cursor(layout, buffer);
+
+        assertTrue(cursor.next());
+        assertEquals(InetAddress.getByName("10.0.0.1"), cursor.getInetAddress());
+        assertTrue(cursor.next());
+        assertEquals(Instant.ofEpochMilli(1509532300714L), cursor.getTime());
+        assertTrue(cursor.next());
+        assertEquals(Long.valueOf(42), cursor.getLongValue());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRejectsShortAddressField() throws Exception {
+        final RecordLayout layout = layout(
+                field(IPv4AddressValue.parser("sourceIPv4Address", Optional.empty()), 2),
+                field(UnsignedValue.parserWith32Bit("octetDeltaCount", Optional.empty()), 4));
+
+        final FieldCursor cursor = cursor(layout, Unpooled.buffer()
+                .writeBytes(new byte[]{10, 0})
+                .writeInt(42));
+
+        assertTrue(cursor.next());
+        // Must not read into the following field
+        cursor.getInetAddress();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testRejectsShortTimeField() throws Exception {
+        final RecordLayout layout = layout(
+                field(DateTimeValue.parserWithMilliseconds("flowStartMilliseconds", Optional.empty()), 4),
+                field(UnsignedValue.parserWith32Bit("octetDeltaCount", Optional.empty()), 4));
+
+        final FieldCursor cursor = cursor(layout, Unpooled.buffer()
+                .writeInt(1509532300)
+                .writeInt(42));
+
+        assertTrue(cursor.next());
+        cursor.getTime();
+    }
+
+    private static RecordLayout layout(final Field... fields) {
+        return RecordLayout.compile(Template.builder(256, Template.Type.TEMPLATE)
+                .withFields(Arrays.asList(fields))
+                .build(), false).get();
+    }
+
+    private static FieldCursor cursor(final RecordLayout layout, final ByteBuf buffer) {
+        final int[] records = layout.records(buffer);
+        assertEquals(1, records.length);
+        return layout.cursor(buffer, records[0], new String[0], new long[0], Collections.emptyList());
+    }
+
+    private static Field field(final InformationElement element, final int length) {
+        return new Field() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public Value<?> parse(final Session.Resolver resolver, final ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+                return element.parse(resolver, buffer);
+            }
+
+            @Override
+            public Optional<InformationElement> getInformationElement() {
+                return Optional.of(element);
+            }
+        };
+    }
+}
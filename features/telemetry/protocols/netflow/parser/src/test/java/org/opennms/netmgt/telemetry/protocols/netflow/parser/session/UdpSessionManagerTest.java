@@ -35,8 +35,10 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketExcept
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.IpfixUdpParser;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.Netflow9UdpParser;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.StringValue;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.values.UnsignedValue;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
@@ -45,7 +47,9 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
@@ -100,6 +104,25 @@ public class UdpSessionManagerTest {
         };
     }
 
+    private Field field(InformationElement element, int length) {
+        return new Field() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public Value<?> parse(Session.Resolver resolver, ByteBuf buffer) throws InvalidPacketException, MissingTemplateException {
+                return element.parse(resolver, buffer);
+            }
+
+            @Override
+            public Optional<InformationElement> getInformationElement() {
+                return Optional.of(element);
+            }
+        };
+    }
+
     private Value<?> value(String name, String value) {
         return new StringValue(name, Optional.empty(), value);
     }
@@ -202,6 +225,62 @@ public class UdpSessionManagerTest {
         assertThat(udpSessionManager.templates.get(new UdpSessionManager.TemplateKey(sessionKey, observationId1, template.id)), nullValue());
     }
 
+    @Test
+    public void layoutCacheTest() throws MissingTemplateException {
+        final UdpSessionManager.SessionKey sessionKey = new Netflow9UdpParser.SessionKey(remoteAddress1.getAddress(), localAddress1);
+
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(0), () -> new SequenceNumberTracker(32));
+        final Session session = udpSessionManager.getSession(sessionKey);
+
+        final List<Field> fields = new ArrayList<>();
+        fields.add(field(UnsignedValue.parserWith32Bit("field1", Optional.empty()), 4));
+        fields.add(field(UnsignedValue.parserWith16Bit("field2", Optional.empty()), 2));
+
+        final Template template1 = Template.builder(templateId1, Template.Type.TEMPLATE).withFields(fields).build();
+        session.addTemplate(observationId1, template1);
+
+        // The layout is compiled once per template
+        final RecordLayout layout1 = session.getResolver(observationId1).lookupLayout(templateId1, false).get();
+        assertThat(layout1.template, sameInstance(template1));
+        assertThat(layout1.count(), is(2));
+        assertThat(session.getResolver(observationId1).lookupLayout(templateId1, false).get(), sameInstance(layout1));
+
+        // Other domains and sessions do not share the layout
+        try {
+            session.getResolver(observationId2).lookupLayout(templateId1, false);
+            Assert.fail("Expected MissingTemplateException");
+        } catch (final MissingTemplateException e) {
+        }
+
+        // Redeclaring the template replaces the layout
+        final Template template2 = Template.builder(templateId1, Template.Type.TEMPLATE).withFields(fields.subList(0, 1)).build();
+        session.addTemplate(observationId1, template2);
+
+        final RecordLayout layout2 = session.getResolver(observationId1).lookupLayout(templateId1, false).get();
+        assertThat(layout2, not(sameInstance(layout1)));
+        assertThat(layout2.template, sameInstance(template2));
+        assertThat(layout2.count(), is(1));
+
+        // Withdrawing the template drops the layout
+        session.removeTemplate(observationId1, templateId1);
+        try {
+            session.getResolver(observationId1).lookupLayout(templateId1, false);
+            Assert.fail("Expected MissingTemplateException");
+        } catch (final MissingTemplateException e) {
+        }
+
+        // Timed out templates drop the layout
+        session.addTemplate(observationId1, template1);
+        assertThat(session.getResolver(observationId1).lookupLayout(templateId1, false).get(), not(sameInstance(layout1)));
+
+        udpSessionManager.doHousekeeping();
+        try {
+            session.getResolver(observationId1).lookupLayout(templateId1, false);
+            Assert.fail("Expected MissingTemplateException");
+        } catch (final MissingTemplateException e) {
+        }
+    }
+
     @Test
     public void testNetflow9() {
         testNetflow9SessionKeys(remoteAddress1, localAddress1, remoteAddress1, localAddress1, true);
@@ -32,7 +32,9 @@ import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -42,6 +44,9 @@ import javax.inject.Named;
 import org.opennms.core.logging.Logging;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.netmgt.collection.support.AimdLimiter;
+import org.opennms.netmgt.collection.support.BatchCoalescer;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
 import org.slf4j.Logger;
@@ -69,12 +74,29 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to  publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * The consumers merge the small batches published by the persisters until
+ * they reach coalesceBytes, or waited for coalesceMs, before storing them.
+ * The number of concurrent writes is adjusted to the latency of the storage
+ * by an {@link AimdLimiter}, so that a slow storage fills up the ring buffer.
+ * Once it is full, calls to {@link #insert(List)} block until there is room
+ * again, unless dropWhenFull is set.
+ *
  * @author jwhite
  */
 public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimeseriesWriter.class);
 
+    public static final long DEFAULT_COALESCE_BYTES = 64 * 1024;
+
+    public static final long DEFAULT_COALESCE_MS = 250;
+
+    public static final long DEFAULT_TARGET_LATENCY_MS = 1000;
+
+    private static final double WRITE_LIMIT_BACKOFF_RATIO = 0.75;
+
+    private static final long FLUSH_INTERVAL_MS = 50;
+
     private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
             .withRateLimit(LOG)
             .maxRate(5).every(Duration.ofSeconds(30))
@@ -93,6 +115,16 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
 
     private final Timer sampleWriteTsTimer;
 
+    private final Meter blockedInserts;
+
+    private final AimdLimiter writeLimiter;
+
+    private final BatchCoalescer<Sample> coalescer;
+
+    private final ScheduledExecutorService flusher;
+
+    private volatile boolean dropWhenFull = false;
+
     @Autowired
     private TimeseriesStorageManager storage;
 
@@ -124,10 +156,20 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
 
         droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
         sampleWriteTsTimer = registry.timer("samples.write.ts");
+        blockedInserts = registry.meter(MetricRegistry.name("ring-buffer", "blocked-inserts"));
+
+        writeLimiter = new AimdLimiter(1, numWriterThreads, DEFAULT_TARGET_LATENCY_MS, TimeUnit.MILLISECONDS, WRITE_LIMIT_BACKOFF_RATIO);
+        registry.register(MetricRegistry.name("writer", "concurrency-limit"), (Gauge<Integer>) writeLimiter::getLimit);
+        registry.register(MetricRegistry.name("writer", "in-flight"), (Gauge<Integer>) writeLimiter::getInFlight);
+
+        coalescer = new BatchCoalescer<>(TimeseriesWriter::estimateSize, DEFAULT_COALESCE_BYTES, DEFAULT_COALESCE_MS, TimeUnit.MILLISECONDS);
 
         LOG.debug("Using ring_buffer_size: {}", this.ringBufferSize);
         setUpWorkerPool();
 
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("TimeseriesWriter-Flusher-%d").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(this::flushExpired, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     private void setUpWorkerPool() {
@@ -158,12 +200,26 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         if (workerPool != null) {
             workerPool.drainAndHalt();
         }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write(coalescer.take());
     }
 
     public void insert(List<Sample> samples) {
 
         // Add the samples to the ring buffer
         if (!ringBuffer.tryPublishEvent(TRANSLATOR, samples)) {
+            if (!dropWhenFull) {
+                // Wait for the consumers to catch up, this slows down the persisters
+                blockedInserts.mark();
+                ringBuffer.publishEvent(TRANSLATOR, samples);
+                numEntriesOnRingBuffer.incrementAndGet();
+                return;
+            }
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -191,16 +247,50 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         // Decrement our entry counter
         numEntriesOnRingBuffer.decrementAndGet();
 
+        final List<Sample> samples = event.getSamples();
+        event.setSamples(null); // free sample reference for garbage collection
+
+        // Merge the samples with the ones of previous events until there are enough to write
+        write(coalescer.add(samples));
+    }
+
+    private void flushExpired() {
+        Logging.putPrefix("collectd");
+        write(coalescer.takeExpired());
+    }
+
+    private void write(List<Sample> samples) {
+        if (samples == null) {
+            return;
+        }
+
+        final long start = writeLimiter.acquire();
+        boolean failed = true;
         try(Timer.Context context = this.sampleWriteTsTimer.time()){
-            this.storage.get().store(event.getSamples());
-            this.stats.record(event.getSamples());
+            this.storage.get().store(samples);
+            this.stats.record(samples);
+            failed = false;
         } catch (Throwable t) {
             RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
         } finally {
-            event.setSamples(null); // free sample reference for garbage collection
+            writeLimiter.release(start, failed);
         }
     }
 
+    /**
+     * Rough estimate of the size of a sample when written to the storage.
+     */
+    private static long estimateSize(Sample sample) {
+        long size = 32;
+        for (Tag tag : sample.getMetric().getIntrinsicTags()) {
+            size += tag.getKey().length() + tag.getValue().length();
+        }
+        for (Tag tag : sample.getMetric().getMetaTags()) {
+            size += tag.getKey().length() + tag.getValue().length();
+        }
+        return size;
+    }
+
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR = (event, sequence, samples) -> event.setSamples(samples);
 
     public void setTimeSeriesStorage(final TimeseriesStorageManager timeseriesStorage) {
@@ -210,4 +300,32 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
     public void setStats(StatisticsCollector stats) {
         this.stats = stats;
     }
+
+    /**
+     * Drop the samples when the ring buffer is full, instead of blocking until there is room.
+     */
+    public void setDropWhenFull(boolean dropWhenFull) {
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * Sets the estimated size of the merged batches, 0 stores the published batches as they are.
+     */
+    public void setCoalesceBytes(long coalesceBytes) {
+        coalescer.setTargetBytes(coalesceBytes);
+    }
+
+    /**
+     * Sets how long the samples may wait for a merged batch to fill up.
+     */
+    public void setCoalesceMs(long coalesceMs) {
+        coalescer.setMaxDelay(coalesceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the write latency above which fewer writes are issued concurrently.
+     */
+    public void setTargetLatencyMs(long targetLatencyMs) {
+        writeLimiter.setTargetLatency(targetLatencyMs, TimeUnit.MILLISECONDS);
+    }
 }
@@ -29,12 +29,15 @@
 package org.opennms.netmgt.timeseries.samplewrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -81,6 +84,8 @@ public class TimeseriesWriterTest {
         TimeseriesWriter writer = new TimeseriesWriter(ringBufferSize, numWriterThreads, registry);
         when(storageManager.get()).thenReturn(store);
         writer.setTimeSeriesStorage(storageManager);
+        // write every batch on its own
+        writer.setCoalesceBytes(0);
 
         Metric metric = createMetric().build();
         for (int i = 0; i < ringBufferSize*2; i++) {
@@ -94,7 +99,7 @@ public class TimeseriesWriterTest {
 
     /**
      * Fills the ring buffer and locks all of the writer threads to verify
-     * that samples additional samples are dropped.
+     * that samples additional samples are dropped when configured to.
      */
     @Test
     public void samplesAreDroppedWhenRingBufferIsFull() throws Exception {
@@ -108,6 +113,8 @@ public class TimeseriesWriterTest {
         TimeseriesWriter writer = new TimeseriesWriter(ringBufferSize, numWriterThreads, registry);
         when(storageManager.get()).thenReturn(timeseriesStorage);
         writer.setTimeSeriesStorage(storageManager);
+        writer.setDropWhenFull(true);
+        writer.setCoalesceBytes(0);
 
         lock.lock();
         Metric metric = createMetric().build();
@@ -141,6 +148,93 @@ public class TimeseriesWriterTest {
         assertEquals(ringBufferSize, timeseriesStorage.getNumSamplesInserted());
     }
 
+    /**
+     * Fills the ring buffer and locks all of the writer threads to verify
+     * that additional inserts wait for room instead of dropping the samples.
+     */
+    @Test(timeout = 30000)
+    public void insertsBlockWhenRingBufferIsFull() throws Exception {
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedTimeseriesStorage timeseriesStorage = new LockedTimeseriesStorage(lock);
+        MetricRegistry registry = new MetricRegistry();
+        TimeseriesWriter writer = new TimeseriesWriter(ringBufferSize, numWriterThreads, registry);
+        when(storageManager.get()).thenReturn(timeseriesStorage);
+        writer.setTimeSeriesStorage(storageManager);
+        writer.setCoalesceBytes(0);
+
+        lock.lock();
+        Metric metric = createMetric().build();
+        for (int i = 0; i < ringBufferSize; i++) {
+            Sample s = ImmutableSample.builder()
+                    .metric(metric)
+                    .time(Instant.now())
+                    .value((double)i).build();
+            writer.insert(Lists.newArrayList(s));
+        }
+        Thread.sleep(250);
+        assertEquals(numWriterThreads, timeseriesStorage.getNumThreadsLocked());
+
+        // The ring buffer is full, so the next inserts have to wait
+        CountDownLatch inserted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 16; i++) {
+                Sample s = ImmutableSample.builder()
+                        .metric(metric)
+                        .time(Instant.now())
+                        .value((double)i).build();
+                writer.insert(Lists.newArrayList(s));
+            }
+            inserted.countDown();
+        });
+        producer.start();
+        assertFalse(inserted.await(250, TimeUnit.MILLISECONDS));
+
+        // Unlock the writer threads and wait for the ring buffer to drain
+        lock.unlock();
+        assertTrue(inserted.await(10, TimeUnit.SECONDS));
+        writer.destroy();
+
+        // None of the samples were dropped
+        assertEquals(ringBufferSize + 16, timeseriesStorage.getNumSamplesInserted());
+        assertEquals(0, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+    }
+
+    /**
+     * Verifies that small batches are merged before being stored.
+     */
+    @Test
+    public void smallBatchesAreMerged() throws Exception {
+        LockedTimeseriesStorage timeseriesStorage = new LockedTimeseriesStorage(new ReentrantLock());
+        MetricRegistry registry = new MetricRegistry();
+        TimeseriesWriter writer = new TimeseriesWriter(1024, 4, registry);
+        when(storageManager.get()).thenReturn(timeseriesStorage);
+        writer.setTimeSeriesStorage(storageManager);
+        // large enough to hold all of the samples, they are stored once the delay expired
+        writer.setCoalesceBytes(1024 * 1024);
+        writer.setCoalesceMs(100);
+
+        Metric metric = createMetric().build();
+        for (int i = 0; i < 100; i++) {
+            Sample s = ImmutableSample.builder()
+                    .metric(metric)
+                    .time(Instant.now())
+                    .value((double)i).build();
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (timeseriesStorage.getNumSamplesInserted() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        writer.destroy();
+
+        assertEquals(100, timeseriesStorage.getNumSamplesInserted());
+        assertTrue("samples should be stored in a few batches, got " + timeseriesStorage.getNumStores(), timeseriesStorage.getNumStores() < 10);
+    }
+
     private static class LatchedTimeseriesStorage extends MockTimeSeriesStorage {
         private final CountDownLatch latch;
 
@@ -163,6 +257,7 @@ public class TimeseriesWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger numStores = new AtomicInteger(0);
 
         public LockedTimeseriesStorage(Lock lock) {
             this.lock = lock;
@@ -176,11 +271,16 @@ public class TimeseriesWriterTest {
             return numSamplesInserted.get();
         }
 
+        public int getNumStores() {
+            return numStores.get();
+        }
+
         @Override
         public void store(List<Sample> samples) throws StorageException {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            numStores.incrementAndGet();
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd.api;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.model.OnmsAlarm;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The alarms that changed between two revisions of the alarm change log.
+ *
+ * Every callback issued via the {@link AlarmLifecycleListener} increments the revision.
+ * A delta contains the current state, as read from the database, of all the alarms that
+ * were created or updated after {@link #getFromRevision()} up to and including
+ * {@link #getToRevision()}, along with the alarms that were deleted in that range.
+ *
+ * @see AlarmLifecycleListener#handleAlarmDelta(AlarmDelta)
+ */
+public class AlarmDelta {
+
+    private final long fromRevision;
+    private final long toRevision;
+    private final List<OnmsAlarm> updatedAlarms;
+    private final Map<Integer, String> deletedAlarms;
+
+    public AlarmDelta(long fromRevision, long toRevision, List<OnmsAlarm> updatedAlarms, Map<Integer, String> deletedAlarms) {
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.updatedAlarms = Collections.unmodifiableList(Objects.requireNonNull(updatedAlarms));
+        this.deletedAlarms = Collections.unmodifiableMap(Objects.requireNonNull(deletedAlarms));
+    }
+
+    /**
+     * @return the revision the receiver was last synchronized to, exclusive
+     */
+    public long getFromRevision() {
+        return fromRevision;
+    }
+
+    /**
+     * @return the revision the receiver is synchronized to once the delta is applied, inclusive
+     */
+    public long getToRevision() {
+        return toRevision;
+    }
+
+    /**
+     * @return alarms that were created or updated in the range
+     */
+    public List<OnmsAlarm> getUpdatedAlarms() {
+        return updatedAlarms;
+    }
+
+    /**
+     * @return reduction keys of the alarms that were deleted in the range, by alarm id
+     */
+    public Map<Integer, String> getDeletedAlarms() {
+        return deletedAlarms;
+    }
+
+    public int size() {
+        return updatedAlarms.size() + deletedAlarms.size();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("fromRevision", fromRevision)
+                .add("toRevision", toRevision)
+                .add("updated", updatedAlarms.size())
+                .add("deleted", deletedAlarms.size())
+                .toString();
+    }
+}
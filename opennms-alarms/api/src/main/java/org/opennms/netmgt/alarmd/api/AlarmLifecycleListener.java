@@ -82,6 +82,25 @@ public interface AlarmLifecycleListener {
      */
     void postHandleAlarmSnapshot();
 
+    /**
+     * Called periodically with the alarms that changed since this listener was last
+     * synchronized, instead of a complete snapshot.
+     *
+     * The calls are wrapped by {@link #preHandleAlarmSnapshot} and {@link #postHandleAlarmSnapshot}
+     * in the same way as {@link #handleAlarmSnapshot}, and the same considerations apply
+     * with regards to alarms that are changed while the delta is being processed.
+     *
+     * Implementations that return false will receive a complete snapshot via
+     * {@link #handleAlarmSnapshot} instead. This should be used when the listener
+     * is not able to apply the delta to its current state.
+     *
+     * @param delta the alarms that were created, updated or deleted since the last synchronization
+     * @return true if the delta was applied, false if a complete snapshot is required
+     */
+    default boolean handleAlarmDelta(AlarmDelta delta) {
+        return false;
+    }
+
     /**
      * Called when an alarm has been created or updated.
      *
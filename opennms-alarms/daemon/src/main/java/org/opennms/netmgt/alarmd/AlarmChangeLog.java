@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned log of the changes made to the alarms, as seen by the {@link AlarmLifecycleListenerManager}.
+ *
+ * Every change increments the revision. The log keeps the most recent change for every
+ * alarm, up to a maximum number of alarms, which allows us to determine which alarms
+ * changed since a given revision without reading the whole alarms table.
+ *
+ * The log also tracks the ids of the alarms that are known to exist, so that the number
+ * of alarms can be compared against the database to detect changes that were made without
+ * going through the callbacks.
+ */
+class AlarmChangeLog {
+
+    static class Change {
+        private final int alarmId;
+        private final String reductionKey;
+        private final boolean deleted;
+        private final long revision;
+
+        private Change(int alarmId, String reductionKey, boolean deleted, long revision) {
+            this.alarmId = alarmId;
+            this.reductionKey = reductionKey;
+            this.deleted = deleted;
+            this.revision = revision;
+        }
+
+        public int getAlarmId() {
+            return alarmId;
+        }
+
+        public String getReductionKey() {
+            return reductionKey;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+    }
+
+    private final int maxSize;
+
+    // Ordered by revision, since existing entries are removed before being re-added
+    private final Map<Integer, Change> changesByAlarmId = new LinkedHashMap<>();
+
+    private final Set<Integer> existingAlarmIds = new HashSet<>();
+
+    private long revision = 0;
+
+    // Changes made at or before this revision may have been evicted from the log
+    private long truncatedRevision = 0;
+
+    private boolean existingAlarmIdsKnown = false;
+
+    public AlarmChangeLog(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized long getRevision() {
+        return revision;
+    }
+
+    public synchronized long recordUpdated(int alarmId, String reductionKey) {
+        existingAlarmIds.add(alarmId);
+        return record(new Change(alarmId, reductionKey, false, ++revision));
+    }
+
+    public synchronized long recordDeleted(int alarmId, String reductionKey) {
+        existingAlarmIds.remove(alarmId);
+        return record(new Change(alarmId, reductionKey, true, ++revision));
+    }
+
+    private long record(Change change) {
+        changesByAlarmId.remove(change.alarmId);
+        changesByAlarmId.put(change.alarmId, change);
+        if (changesByAlarmId.size() > maxSize) {
+            final Iterator<Change> it = changesByAlarmId.values().iterator();
+            truncatedRevision = it.next().revision;
+            it.remove();
+        }
+        return change.revision;
+    }
+
+    /**
+     * Retrieves the most recent change for every alarm that changed after the given revision.
+     *
+     * @param fromRevision exclusive
+     * @return the changes ordered by revision, or null if the log no longer covers the given revision
+     */
+    public synchronized List<Change> getChangesSince(long fromRevision) {
+        if (fromRevision < truncatedRevision) {
+            return null;
+        }
+        final List<Change> changes = new ArrayList<>();
+        for (Change change : changesByAlarmId.values()) {
+            if (change.revision > fromRevision) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Replaces the set of known alarms with the ones from a complete snapshot.
+     *
+     * Changes that were recorded after the snapshot was taken are applied on top of it.
+     *
+     * @param alarmIds ids of the alarms in the snapshot
+     * @param snapshotRevision the revision at the time the snapshot was taken
+     */
+    public synchronized void resetExistingAlarms(Collection<Integer> alarmIds, long snapshotRevision) {
+        existingAlarmIds.clear();
+        existingAlarmIds.addAll(alarmIds);
+        for (Change change : changesByAlarmId.values()) {
+            if (change.revision <= snapshotRevision) {
+                continue;
+            }
+            if (change.deleted) {
+                existingAlarmIds.remove(change.alarmId);
+            } else {
+                existingAlarmIds.add(change.alarmId);
+            }
+        }
+        existingAlarmIdsKnown = true;
+    }
+
+    /**
+     * @return the number of alarms that are known to exist, or -1 if no snapshot was taken yet
+     */
+    public synchronized int getExistingAlarmCount() {
+        return existingAlarmIdsKnown ? existingAlarmIds.size() : -1;
+    }
+}
@@ -28,17 +28,25 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.netmgt.alarmd.api.AlarmDelta;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityListener;
@@ -54,6 +62,13 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer.Context;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
 public class AlarmLifecycleListenerManager implements AlarmEntityListener, InitializingBean, DisposableBean {
@@ -63,9 +78,42 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     public static final String ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP = "org.opennms.alarms.snapshot.sync.ms";
     public static final long ALARM_SNAPSHOT_INTERVAL_MS = SystemProperties.getLong(ALARM_SNAPSHOT_INTERVAL_MS_SYS_PROP, TimeUnit.MINUTES.toMillis(2));
 
+    public static final String ALARM_SNAPSHOT_DELTA_SYS_PROP = "org.opennms.alarms.snapshot.delta";
+    public static final boolean ALARM_SNAPSHOT_DELTA = Boolean.parseBoolean(System.getProperty(ALARM_SNAPSHOT_DELTA_SYS_PROP, "true"));
+
+    // Changes made without going through the callbacks, i.e. SQL updates in place, are not part of the deltas
+    // and are only picked up by a complete snapshot. Set to 0 to never force one.
+    public static final String ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL_SYS_PROP = "org.opennms.alarms.snapshot.delta.fullSyncInterval";
+    public static final int ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL = SystemProperties.getInteger(ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL_SYS_PROP, 15);
+
+    public static final String ALARM_CHANGE_LOG_SIZE_SYS_PROP = "org.opennms.alarms.snapshot.changelog.size";
+    public static final int ALARM_CHANGE_LOG_SIZE = SystemProperties.getInteger(ALARM_CHANGE_LOG_SIZE_SYS_PROP, 100000);
+
+    public static final String JMX_DOMAIN = "org.opennms.netmgt.alarmd.snapshot";
+
+    // Number of consecutive syncs in which the alarm count must differ before forcing a complete snapshot,
+    // the count may legitimately differ for a single sync while transactions are in flight
+    private static final int MAX_COUNT_MISMATCHES = 2;
+
+    private static final int DELTA_LOAD_BATCH_SIZE = 1000;
+
     private final Set<AlarmLifecycleListener> listeners = Sets.newConcurrentHashSet();
     private Timer timer;
 
+    private final AlarmChangeLog changeLog = new AlarmChangeLog(ALARM_CHANGE_LOG_SIZE);
+    // The revision each listener was last synchronized to
+    private final Map<AlarmLifecycleListener, Long> syncedRevisions = new ConcurrentHashMap<>();
+    // The number of deltas each listener was given since its last complete snapshot
+    private final Map<AlarmLifecycleListener, Integer> deltasSinceSnapshot = new ConcurrentHashMap<>();
+    private int countMismatches = 0;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final com.codahale.metrics.Timer fullSyncTimer = metrics.timer("fullSync");
+    private final com.codahale.metrics.Timer deltaSyncTimer = metrics.timer("deltaSync");
+    private final Histogram deltaSize = metrics.histogram("deltaSize");
+    private final Counter fullSyncsForced = metrics.counter("fullSyncsForced");
+    private JmxReporter metricsReporter;
+
     @Autowired
     private AlarmDao alarmDao;
 
@@ -73,6 +121,16 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     private SessionUtils sessionUtils;
 
     private void start() {
+        metrics.register("revision", (Gauge<Long>) changeLog::getRevision);
+        metricsReporter = JmxReporter.forRegistry(metrics)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        try {
+            metricsReporter.start();
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Failed to start metrics reporter. JMX metrics for the alarm snapshots may not be available.");
+        }
+
         timer = new Timer("AlarmLifecycleListenerManager");
         // Use a fixed delay instead of a fixed interval so that snapshots are not constantly in progress
         // if they take a long time
@@ -93,28 +151,158 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
             timer.cancel();
             timer = null;
         }
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+            metricsReporter = null;
+        }
     }
 
+    /**
+     * Synchronizes the listeners with the alarms in the database.
+     *
+     * Listeners that were synchronized before are given the alarms that changed since then
+     * via {@link AlarmLifecycleListener#handleAlarmDelta(AlarmDelta)}. A complete snapshot
+     * is only loaded for new listeners, for listeners that cannot handle the delta, when
+     * the change log no longer covers the revision of the listener, when the number of
+     * alarms in the database no longer matches the number of alarms we know about or
+     * after {@link #ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL} deltas.
+     */
     protected void doSnapshot() {
         if (listeners.size() < 1) {
             return;
         }
 
+        final Set<AlarmLifecycleListener> listenersForSnapshot = new HashSet<>();
+        final Set<AlarmLifecycleListener> listenersForDelta = new HashSet<>();
+        for (AlarmLifecycleListener listener : listeners) {
+            if (ALARM_SNAPSHOT_DELTA && syncedRevisions.containsKey(listener) && !isFullSyncDue(listener)) {
+                listenersForDelta.add(listener);
+            } else {
+                listenersForSnapshot.add(listener);
+            }
+        }
+
+        if (!listenersForDelta.isEmpty()) {
+            listenersForSnapshot.addAll(doDelta(listenersForDelta));
+        }
+        if (!listenersForSnapshot.isEmpty()) {
+            doFullSnapshot(listenersForSnapshot);
+        }
+    }
+
+    private boolean isFullSyncDue(AlarmLifecycleListener listener) {
+        return ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL > 0
+                && deltasSinceSnapshot.getOrDefault(listener, 0) >= ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL;
+    }
+
+    /**
+     * @return the listeners that require a complete snapshot
+     */
+    private Collection<AlarmLifecycleListener> doDelta(Collection<AlarmLifecycleListener> listenersForDelta) {
+        final Set<AlarmLifecycleListener> listenersForSnapshot = new HashSet<>();
+        try (Context ctx = deltaSyncTimer.time()) {
+            forEachListener(listenersForDelta, AlarmLifecycleListener::preHandleAlarmSnapshot);
+            // Changes with a greater revision are dispatched after the listeners started tracking them
+            final long toRevision = changeLog.getRevision();
+            final long fromRevision = listenersForDelta.stream()
+                    .mapToLong(l -> syncedRevisions.getOrDefault(l, 0L))
+                    .min().orElse(toRevision);
+
+            sessionUtils.withTransaction(() -> {
+                final int knownAlarms = changeLog.getExistingAlarmCount();
+                final int alarmsInDb = alarmDao.countAll();
+                if (knownAlarms != alarmsInDb) {
+                    countMismatches++;
+                    if (countMismatches >= MAX_COUNT_MISMATCHES) {
+                        LOG.info("Found {} alarms in the database, but expected {}. Performing a complete snapshot.", alarmsInDb, knownAlarms);
+                        fullSyncsForced.inc();
+                        listenersForSnapshot.addAll(listenersForDelta);
+                        return null;
+                    }
+                } else {
+                    countMismatches = 0;
+                }
+
+                final List<AlarmChangeLog.Change> changes = changeLog.getChangesSince(fromRevision);
+                if (changes == null) {
+                    LOG.info("The change log no longer covers revision {}. Performing a complete snapshot.", fromRevision);
+                    fullSyncsForced.inc();
+                    listenersForSnapshot.addAll(listenersForDelta);
+                    return null;
+                }
+
+                final AlarmDelta delta = loadDelta(fromRevision, toRevision, changes);
+                deltaSize.update(delta.size());
+                LOG.debug("Alarm delta from revision {} to {} contains {} alarms.", fromRevision, toRevision, delta.size());
+                forEachListener(listenersForDelta, l -> {
+                    if (l.handleAlarmDelta(delta)) {
+                        syncedRevisions.put(l, toRevision);
+                        deltasSinceSnapshot.merge(l, 1, Integer::sum);
+                    } else {
+                        listenersForSnapshot.add(l);
+                    }
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.error("Error while performing delta update.", e);
+            listenersForSnapshot.addAll(listenersForDelta);
+        } finally {
+            forEachListener(listenersForDelta, AlarmLifecycleListener::postHandleAlarmSnapshot);
+        }
+        return listenersForSnapshot;
+    }
+
+    private AlarmDelta loadDelta(long fromRevision, long toRevision, List<AlarmChangeLog.Change> changes) {
+        final Map<Integer, String> deletedAlarms = new HashMap<>();
+        final List<Integer> updatedAlarmIds = new ArrayList<>();
+        for (AlarmChangeLog.Change change : changes) {
+            if (change.isDeleted()) {
+                deletedAlarms.put(change.getAlarmId(), change.getReductionKey());
+            } else {
+                updatedAlarmIds.add(change.getAlarmId());
+            }
+        }
+
+        final List<OnmsAlarm> updatedAlarms = new ArrayList<>(updatedAlarmIds.size());
+        for (List<Integer> batch : Iterables.partition(updatedAlarmIds, DELTA_LOAD_BATCH_SIZE)) {
+            updatedAlarms.addAll(alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("id", batch).toCriteria()));
+        }
+
+        // Alarms that were updated, but are no longer in the database have been deleted in the meantime
+        if (updatedAlarms.size() < updatedAlarmIds.size()) {
+            final Set<Integer> foundIds = updatedAlarms.stream().map(OnmsAlarm::getId).collect(Collectors.toSet());
+            for (AlarmChangeLog.Change change : changes) {
+                if (!change.isDeleted() && !foundIds.contains(change.getAlarmId())) {
+                    deletedAlarms.put(change.getAlarmId(), change.getReductionKey());
+                }
+            }
+        }
+        return new AlarmDelta(fromRevision, toRevision, updatedAlarms, deletedAlarms);
+    }
+
+    private void doFullSnapshot(Collection<AlarmLifecycleListener> listenersForSnapshot) {
         final AtomicLong numAlarms = new AtomicLong(-1);
         final long systemMillisBeforeSnapshot = System.currentTimeMillis();
         final AtomicLong systemMillisAfterLoad = new AtomicLong(-1);
-        try {
-            forEachListener(AlarmLifecycleListener::preHandleAlarmSnapshot);
+        try (Context ctx = fullSyncTimer.time()) {
+            forEachListener(listenersForSnapshot, AlarmLifecycleListener::preHandleAlarmSnapshot);
+            // Changes with a greater revision are dispatched after the listeners started tracking them
+            final long revision = changeLog.getRevision();
             sessionUtils.withTransaction(() -> {
                // Load all of the alarms
                final List<OnmsAlarm> allAlarms = alarmDao.findAll();
                numAlarms.set(allAlarms.size());
+               changeLog.resetExistingAlarms(allAlarms.stream().map(OnmsAlarm::getId).collect(Collectors.toList()), revision);
+               countMismatches = 0;
                // Save the timestamp after the load, so we can differentiate between how long it took
                // to load the alarms and how long it took to invoke the callbacks
                systemMillisAfterLoad.set(System.currentTimeMillis());
-               forEachListener(l -> {
+               forEachListener(listenersForSnapshot, l -> {
                    LOG.debug("Calling handleAlarmSnapshot on listener: {}", l);
                    l.handleAlarmSnapshot(allAlarms);
+                   syncedRevisions.put(l, revision);
+                   deltasSinceSnapshot.remove(l);
                    LOG.debug("Done calling listener.");
                });
                return null;
@@ -128,11 +316,14 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
                         systemMillisAfterLoad.get() - systemMillisBeforeSnapshot,
                         now - systemMillisBeforeSnapshot);
             }
-            forEachListener(AlarmLifecycleListener::postHandleAlarmSnapshot);
+            forEachListener(listenersForSnapshot, AlarmLifecycleListener::postHandleAlarmSnapshot);
         }
     }
 
     public void onNewOrUpdatedAlarm(OnmsAlarm alarm) {
+        if (alarm.getId() != null) {
+            changeLog.recordUpdated(alarm.getId(), alarm.getReductionKey());
+        }
         forEachListener(l -> l.handleNewOrUpdatedAlarm(alarm));
     }
 
@@ -143,6 +334,9 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
 
     @Override
     public void onAlarmDeleted(OnmsAlarm alarm) {
+        if (alarm.getId() != null) {
+            changeLog.recordDeleted(alarm.getId(), alarm.getReductionKey());
+        }
         forEachListener(l -> l.handleDeletedAlarm(alarm.getId(), alarm.getReductionKey()));
     }
 
@@ -207,6 +401,10 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     }
 
     private void forEachListener(Consumer<AlarmLifecycleListener> callback) {
+        forEachListener(listeners, callback);
+    }
+
+    private static void forEachListener(Collection<AlarmLifecycleListener> listeners, Consumer<AlarmLifecycleListener> callback) {
         for (AlarmLifecycleListener listener : listeners) {
             try {
                 callback.accept(listener);
@@ -224,6 +422,8 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
     public void onListenerUnregistered(final AlarmLifecycleListener listener, final Map<String,String> properties) {
         LOG.debug("onListenerUnregistered: {} with properties: {}", listener, properties);
         listeners.remove(listener);
+        syncedRevisions.remove(listener);
+        deltasSinceSnapshot.remove(listener);
     }
 
     public void setAlarmDao(AlarmDao alarmDao) {
@@ -234,6 +434,10 @@ public class AlarmLifecycleListenerManager implements AlarmEntityListener, Initi
         this.sessionUtils = sessionUtils;
     }
 
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void afterPropertiesSet() {
         start();
@@ -29,15 +29,20 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.opennms.core.sysprops.SystemProperties;
@@ -55,8 +60,12 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -68,7 +77,7 @@ import com.google.common.util.concurrent.Striped;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -76,6 +85,10 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static final Integer NUM_STRIPE_LOCKS = SystemProperties.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
+    protected static final Integer BATCH_SHARDS = SystemProperties.getInteger("org.opennms.alarmd.batch.shards", 0);
+    protected static final Integer BATCH_SIZE = SystemProperties.getInteger("org.opennms.alarmd.batch.size", 100);
+    protected static final Long BATCH_WINDOW_MS = SystemProperties.getLong("org.opennms.alarmd.batch.window", 50L);
+    protected static final Integer BATCH_INDEX_SIZE = SystemProperties.getInteger("org.opennms.alarmd.batch.index.size", 10000);
 
     @Autowired
     private AlarmDao m_alarmDao;
@@ -100,6 +113,31 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private int m_batchShards = BATCH_SHARDS;
+
+    private AlarmReductionShards m_reductionShards;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_batchShards > 0) {
+            m_reductionShards = new AlarmReductionShards(this, m_batchShards, BATCH_SIZE, BATCH_WINDOW_MS, BATCH_INDEX_SIZE);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_reductionShards != null) {
+            m_reductionShards.stop();
+            m_reductionShards = null;
+        }
+    }
+
+    /**
+     * Persists the alarm for the given event.
+     *
+     * When batched reduction is enabled the event is handed to the shard that owns its
+     * key and null is returned, the alarm is created or reduced shortly afterwards.
+     */
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -107,6 +145,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             return null;
         }
 
+        if (m_reductionShards != null) {
+            m_reductionShards.submit(event);
+            return null;
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
         }
@@ -127,13 +170,129 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Creates or reduces the alarms for a batch of events from a single shard in one transaction.
+     *
+     * Alarms are looked up through the shard's index of alarm ids by key first, so that repeated
+     * reductions of the same alarm do not query (and flush) the alarms table. Hibernate then writes a
+     * single update for every alarm that was touched when the transaction commits. The notifier and
+     * extension callbacks are still invoked for every event, in the order of the batch. The notifier
+     * callbacks are deferred until the transaction committed.
+     *
+     * If the transaction fails, the index is cleared and the events are persisted one by one.
+     */
+    void persistBatch(List<Event> events, Map<String, Integer> alarmIdsByKey) {
+        final Set<String> keys = new LinkedHashSet<>();
+        events.forEach(event -> keys.addAll(getLockKeys(event)));
+
+        final Iterable<Lock> locks = lockStripes.bulkGet(keys);
+        try {
+            locks.forEach(Lock::lock);
+            m_transactionOperations.execute((action) -> {
+                final Map<String, OnmsAlarm> alarmsByKey = new HashMap<>();
+                final Function<String, OnmsAlarm> lookup = key -> findByReductionKey(key, alarmsByKey, alarmIdsByKey);
+                final List<Runnable> notifications = new ArrayList<>(events.size());
+                for (final Event event : events) {
+                    final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
+                    if (persistedEvent == null) {
+                        LOG.warn("persistBatch: event with id {} was deleted before we could retrieve it and create an alarm.", event.getDbid());
+                        continue;
+                    }
+                    final OnmsAlarm alarm = addOrReduceEventAsAlarm(event, persistedEvent, lookup, notifications::add);
+                    alarmsByKey.put(alarm.getReductionKey(), alarm);
+                    alarmIdsByKey.put(alarm.getReductionKey(), alarm.getId());
+                }
+                notifyAfterCommit(notifications);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("persistBatch: failed to persist a batch of {} events, persisting them one by one.", events.size(), e);
+            // The index may reference alarms that were rolled back
+            alarmIdsByKey.clear();
+            for (final Event event : events) {
+                try {
+                    m_transactionOperations.execute((action) -> {
+                        final List<Runnable> notifications = new ArrayList<>(2);
+                        addOrReduceEventAsAlarm(event, notifications::add);
+                        notifyAfterCommit(notifications);
+                        return null;
+                    });
+                } catch (RuntimeException ex) {
+                    LOG.error("persistBatch: failed to persist alarm for event with id {}.", event.getDbid(), ex);
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Issues the given notifications once the current transaction committed, so that they are not
+     * issued for alarms that are rolled back and then persisted again.
+     */
+    private static void notifyAfterCommit(List<Runnable> notifications) {
+        final Runnable notifyAll = () -> notifications.forEach(notification -> {
+            try {
+                notification.run();
+            } catch (RuntimeException e) {
+                LOG.error("An error occurred while notifying the alarm listeners.", e);
+            }
+        });
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    notifyAll.run();
+                }
+            });
+        } else {
+            notifyAll.run();
+        }
+    }
+
+    private OnmsAlarm findByReductionKey(String key, Map<String, OnmsAlarm> alarmsByKey, Map<String, Integer> alarmIdsByKey) {
+        // Archived alarms have their reduction key changed, so always verify the key of a cached alarm
+        OnmsAlarm alarm = alarmsByKey.get(key);
+        if (alarm != null && key.equals(alarm.getReductionKey())) {
+            return alarm;
+        }
+
+        final Integer alarmId = alarmIdsByKey.get(key);
+        if (alarmId != null) {
+            alarm = m_alarmDao.get(alarmId);
+            if (alarm != null && key.equals(alarm.getReductionKey())) {
+                alarmsByKey.put(key, alarm);
+                return alarm;
+            }
+            alarmIdsByKey.remove(key);
+        }
+
+        alarm = m_alarmDao.findByReductionKey(key);
+        if (alarm != null) {
+            alarmsByKey.put(key, alarm);
+            alarmIdsByKey.put(key, alarm.getId());
+        }
+        return alarm;
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
-        
+        return addOrReduceEventAsAlarm(event, Runnable::run);
+    }
+
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, Consumer<Runnable> notifications) throws IllegalStateException {
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
         if (persistedEvent == null) {
             throw new IllegalStateException("Event with id " + event.getDbid() + " was deleted before we could retrieve it and create an alarm.");
         }
 
+        return addOrReduceEventAsAlarm(event, persistedEvent, m_alarmDao::findByReductionKey, notifications);
+    }
+
+    /**
+     * @param notifications runs or collects the notifier callbacks
+     */
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, OnmsEvent persistedEvent, Function<String, OnmsAlarm> findByReductionKey,
+                                              Consumer<Runnable> notifications) {
         final String reductionKey = event.getAlarmData().getReductionKey();
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         
@@ -146,11 +305,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             didSwapReductionKeyWithClearKey = true;
         }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = findByReductionKey.apply(key);
 
         if (alarm == null && didSwapReductionKeyWithClearKey) {
             // if the clearKey returns null, still need to check the reductionKey
-            alarm = m_alarmDao.findByReductionKey(reductionKey);
+            alarm = findByReductionKey.apply(reductionKey);
         }
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
@@ -165,7 +324,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_alarmDao.save(alarm);
                 m_alarmDao.flush();
 
-                m_alarmEntityNotifier.didArchiveAlarm(alarm, reductionKey);
+                final OnmsAlarm alarmArchived = alarm;
+                notifications.accept(() -> m_alarmEntityNotifier.didArchiveAlarm(alarmArchived, reductionKey));
             }
 
             alarm = createNewAlarm(persistedEvent, event);
@@ -181,7 +341,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(persistedEvent);
 
-            m_alarmEntityNotifier.didCreateAlarm(alarm);
+            final OnmsAlarm alarmCreated = alarm;
+            notifications.accept(() -> m_alarmEntityNotifier.didCreateAlarm(alarmCreated));
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getId());
             reduceEvent(persistedEvent, alarm, event);
@@ -201,7 +362,8 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
             }
 
-            m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+            final OnmsAlarm alarmUpdated = alarm;
+            notifications.accept(() -> m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarmUpdated));
         }
         return alarm;
     }
@@ -425,7 +587,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return true;
     }
 
-    private static Collection<String> getLockKeys(Event event) {
+    static Collection<String> getLockKeys(Event event) {
         if (event.getAlarmData().getClearKey() == null) {
             return Collections.singletonList(event.getAlarmData().getReductionKey());
         } else {
@@ -527,4 +689,16 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public int getBatchShards() {
+        return m_batchShards;
+    }
+
+    /**
+     * Sets the number of shards used for batched reduction, 0 disables it.
+     * Must be set before the bean is initialized.
+     */
+    public void setBatchShards(int batchShards) {
+        m_batchShards = batchShards;
+    }
 }
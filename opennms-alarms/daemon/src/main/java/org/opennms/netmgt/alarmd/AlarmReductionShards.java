@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads the events that need to be reduced into alarms over a fixed number of shards.
+ *
+ * Every shard is owned by a single thread, so all of the events for a given key are
+ * processed one after another in the order they were submitted. The thread collects
+ * the events that arrive within a short window and hands them to the
+ * {@link AlarmPersisterImpl} as a single batch. It also keeps an index from reduction
+ * key to alarm id for the keys it owns, which allows the persister to skip the lookup
+ * by reduction key for alarms that are reduced often.
+ */
+class AlarmReductionShards {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmReductionShards.class);
+
+    private static final int QUEUE_SIZE = 10000;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final AlarmPersisterImpl m_persister;
+    private final Shard[] m_shards;
+    private final int m_batchSize;
+    private final long m_windowNanos;
+
+    private volatile boolean m_running = true;
+
+    AlarmReductionShards(AlarmPersisterImpl persister, int numShards, int batchSize, long windowMs, int indexSize) {
+        m_persister = Objects.requireNonNull(persister);
+        m_batchSize = Math.max(1, batchSize);
+        m_windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMs));
+        m_shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            m_shards[i] = new Shard(i, indexSize);
+        }
+        LOG.info("Reducing alarms in batches of up to {} events over {} shards.", m_batchSize, numShards);
+    }
+
+    /**
+     * Hands the event to the shard that owns its key, blocking while the queue of the shard is full.
+     */
+    void submit(Event event) {
+        final Shard shard = m_shards[Math.floorMod(getShardKey(event).hashCode(), m_shards.length)];
+        try {
+            shard.m_queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing event with id " + event.getDbid(), e);
+        }
+    }
+
+    /**
+     * Stops the shards after the events that are already queued have been persisted.
+     */
+    void stop() {
+        m_running = false;
+        for (final Shard shard : m_shards) {
+            try {
+                shard.m_thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Resolution events reduce onto the alarm identified by their clear key, so they must
+     * be handled by the same shard as the events that raised that alarm.
+     */
+    private static String getShardKey(Event event) {
+        final String clearKey = event.getAlarmData().getClearKey();
+        if (clearKey != null && Objects.equals(event.getAlarmData().getAlarmType(), OnmsAlarm.RESOLUTION_TYPE)) {
+            return clearKey;
+        }
+        return event.getAlarmData().getReductionKey();
+    }
+
+    private class Shard implements Runnable {
+        private final BlockingQueue<Event> m_queue = new LinkedBlockingQueue<>(QUEUE_SIZE);
+        private final Map<String, Integer> m_alarmIdsByKey;
+        private final Thread m_thread;
+
+        private Shard(int index, int indexSize) {
+            m_alarmIdsByKey = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > indexSize;
+                }
+            };
+            m_thread = new Thread(this, "alarmd-reduction-" + index);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        @Override
+        public void run() {
+            Logging.putPrefix(Alarmd.NAME);
+            final List<Event> batch = new ArrayList<>(m_batchSize);
+            try {
+                while (m_running || !m_queue.isEmpty()) {
+                    final Event first = m_queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+
+                    // Collect the events that arrive within the window
+                    final long deadline = System.nanoTime() + m_windowNanos;
+                    while (batch.size() < m_batchSize) {
+                        final Event next = m_queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    try {
+                        m_persister.persistBatch(batch, m_alarmIdsByKey);
+                    } catch (Throwable t) {
+                        LOG.error("Unexpected exception while persisting a batch of {} events.", batch.size(), t);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted with {} events left in the queue.", m_queue.size());
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -55,6 +55,7 @@ import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.netmgt.alarmd.Alarmd;
 import org.opennms.netmgt.alarmd.api.AlarmCallbackStateTracker;
+import org.opennms.netmgt.alarmd.api.AlarmDelta;
 import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
 import org.opennms.netmgt.dao.api.AcknowledgmentDao;
 import org.opennms.netmgt.dao.api.AlarmDao;
@@ -362,6 +363,44 @@ public class DroolsAlarmContext extends ManagedDroolsContext implements AlarmLif
         // pass
     }
 
+    @Override
+    public boolean handleAlarmDelta(AlarmDelta delta) {
+        if (!isStarted()) {
+            LOG.debug("Ignoring alarm delta. Drools session is stopped.");
+            return true;
+        }
+
+        LOG.debug("Handling delta for {} alarms.", delta.size());
+        final List<OnmsAlarm> alarms = delta.getUpdatedAlarms();
+        for (OnmsAlarm alarm : alarms) {
+            eagerlyInitializeAlarm(alarm);
+        }
+        final Map<Integer, OnmsAcknowledgment> acksByRefId = fetchAcks(alarms);
+
+        submitOrRun(kieSession -> {
+            // Same rules as for the snapshot, skip any alarms for which we received callbacks in the meantime
+            for (Map.Entry<Integer, String> deletedAlarm : delta.getDeletedAlarms().entrySet()) {
+                final Integer alarmId = deletedAlarm.getKey();
+                if (alarmsById.containsKey(alarmId) && !stateTracker.wasAlarmWithIdUpdated(alarmId)) {
+                    handleDeletedAlarmForAtomic(kieSession, alarmId, deletedAlarm.getValue());
+                }
+            }
+            for (OnmsAlarm alarm : alarms) {
+                if (stateTracker.wasAlarmWithIdUpdated(alarm.getId()) || stateTracker.wasAlarmWithIdDeleted(alarm.getId())) {
+                    continue;
+                }
+                final AlarmAndFact alarmAndFact = alarmsById.get(alarm.getId());
+                if (alarmAndFact == null || shouldUpdateAlarmForSnapshot(alarmAndFact.getAlarm(), alarm)) {
+                    handleNewOrUpdatedAlarmForAtomic(kieSession, alarm, acksByRefId.get(alarm.getId()));
+                }
+            }
+
+            stateTracker.resetStateAndStopTrackingAlarms();
+            LOG.debug("Done handling delta.");
+        });
+        return true;
+    }
+
     /**
      * Used to determine if an alarm that is presently in the working memory should be updated
      * with the given alarm, when handling alarm snapshots.
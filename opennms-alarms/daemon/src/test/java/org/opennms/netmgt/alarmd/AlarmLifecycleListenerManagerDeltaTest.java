@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.criteria.Criteria;
+import org.opennms.netmgt.alarmd.api.AlarmDelta;
+import org.opennms.netmgt.alarmd.api.AlarmLifecycleListener;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.mock.MockSessionUtils;
+import org.opennms.netmgt.model.OnmsAlarm;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the {@link AlarmLifecycleListenerManager} only takes complete snapshots when required
+ * and otherwise synchronizes the listeners with deltas.
+ */
+public class AlarmLifecycleListenerManagerDeltaTest {
+
+    private final List<OnmsAlarm> m_alarmsInDb = new ArrayList<>();
+    private AlarmLifecycleListenerManager m_alm;
+
+    private static class RecordingListener implements AlarmLifecycleListener {
+        private final boolean m_supportsDeltas;
+        private final List<List<OnmsAlarm>> m_snapshots = new ArrayList<>();
+        private final List<AlarmDelta> m_deltas = new ArrayList<>();
+
+        private RecordingListener(boolean supportsDeltas) {
+            m_supportsDeltas = supportsDeltas;
+        }
+
+        @Override
+        public void handleAlarmSnapshot(List<OnmsAlarm> alarms) {
+            m_snapshots.add(alarms);
+        }
+
+        @Override
+        public boolean handleAlarmDelta(AlarmDelta delta) {
+            if (m_supportsDeltas) {
+                m_deltas.add(delta);
+            }
+            return m_supportsDeltas;
+        }
+
+        @Override
+        public void preHandleAlarmSnapshot() {
+            // pass
+        }
+
+        @Override
+        public void postHandleAlarmSnapshot() {
+            // pass
+        }
+
+        @Override
+        public void handleNewOrUpdatedAlarm(OnmsAlarm alarm) {
+            // pass
+        }
+
+        @Override
+        public void handleDeletedAlarm(int alarmId, String reductionKey) {
+            // pass
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final AlarmDao alarmDao = mock(AlarmDao.class);
+        when(alarmDao.findAll()).thenAnswer(invocation -> new ArrayList<>(m_alarmsInDb));
+        when(alarmDao.countAll()).thenAnswer(invocation -> m_alarmsInDb.size());
+        // Only the alarms we're interested in are ever updated in these tests, so we can ignore the criteria
+        when(alarmDao.findMatching(any(Criteria.class))).thenAnswer(invocation -> new ArrayList<>(m_alarmsInDb));
+
+        m_alm = new AlarmLifecycleListenerManager();
+        m_alm.setAlarmDao(alarmDao);
+        m_alm.setSessionUtils(new MockSessionUtils());
+    }
+
+    private static OnmsAlarm alarm(int id) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey("rk" + id);
+        return alarm;
+    }
+
+    @Test
+    public void canSynchronizeWithDeltas() {
+        final RecordingListener listener = new RecordingListener(true);
+        m_alm.onListenerRegistered(listener, Maps.newHashMap());
+
+        // The first synchronization is always a complete snapshot
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(1));
+        assertThat(listener.m_deltas, hasSize(0));
+
+        // Create an alarm
+        final OnmsAlarm alarm = alarm(1);
+        m_alarmsInDb.add(alarm);
+        m_alm.onAlarmCreated(alarm);
+
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(1));
+        assertThat(listener.m_deltas, hasSize(1));
+        AlarmDelta delta = listener.m_deltas.get(0);
+        assertThat(delta.getFromRevision(), equalTo(0L));
+        assertThat(delta.getToRevision(), equalTo(1L));
+        assertThat(delta.getUpdatedAlarms(), contains(alarm));
+
+        // Nothing changed
+        m_alm.doSnapshot();
+        assertThat(listener.m_deltas, hasSize(2));
+        assertThat(listener.m_deltas.get(1).size(), equalTo(0));
+
+        // Delete the alarm
+        m_alarmsInDb.clear();
+        m_alm.onAlarmDeleted(alarm);
+
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(1));
+        delta = listener.m_deltas.get(2);
+        assertThat(delta.getUpdatedAlarms(), hasSize(0));
+        assertThat(delta.getDeletedAlarms(), equalTo(Collections.singletonMap(1, "rk1")));
+        assertThat(m_alm.getMetrics().histogram("deltaSize").getCount(), equalTo(3L));
+    }
+
+    @Test
+    public void canFallBackToSnapshotOnMismatch() {
+        final RecordingListener listener = new RecordingListener(true);
+        m_alm.onListenerRegistered(listener, Maps.newHashMap());
+        m_alm.doSnapshot();
+
+        // Alarm added without a callback
+        m_alarmsInDb.add(alarm(1));
+
+        // A single mismatch may be caused by transactions that are in flight
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(1));
+        assertThat(listener.m_deltas, hasSize(1));
+
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(2));
+        assertThat(listener.m_snapshots.get(1), hasSize(1));
+        assertThat(m_alm.getMetrics().counter("fullSyncsForced").getCount(), equalTo(1L));
+
+        // Back in sync
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(2));
+        assertThat(listener.m_deltas, hasSize(2));
+    }
+
+    @Test
+    public void canSendSnapshotsPeriodically() {
+        final RecordingListener listener = new RecordingListener(true);
+        m_alm.onListenerRegistered(listener, Maps.newHashMap());
+        m_alm.doSnapshot();
+
+        // Alarm updated in place without a callback
+        m_alarmsInDb.add(alarm(1));
+        m_alm.onAlarmCreated(m_alarmsInDb.get(0));
+        m_alarmsInDb.get(0).setCounter(2);
+
+        for (int i = 0; i < AlarmLifecycleListenerManager.ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL; i++) {
+            m_alm.doSnapshot();
+        }
+        assertThat(listener.m_snapshots, hasSize(1));
+        assertThat(listener.m_deltas, hasSize(AlarmLifecycleListenerManager.ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL));
+
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(2));
+        assertThat(listener.m_snapshots.get(1), contains(m_alarmsInDb.get(0)));
+
+        // And back to deltas
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(2));
+        assertThat(listener.m_deltas, hasSize(AlarmLifecycleListenerManager.ALARM_SNAPSHOT_DELTA_FULL_SYNC_INTERVAL + 1));
+    }
+
+    @Test
+    public void canSendSnapshotsToListenersWithoutDeltaSupport() {
+        final RecordingListener listener = new RecordingListener(false);
+        m_alm.onListenerRegistered(listener, Maps.newHashMap());
+
+        m_alm.doSnapshot();
+        m_alm.doSnapshot();
+        assertThat(listener.m_snapshots, hasSize(2));
+    }
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Verifies the batched reduction mode of the {@link AlarmPersisterImpl}.
+ */
+public class AlarmPersisterBatchTest {
+
+    // The shards access these from their own threads
+    private final Map<Integer, OnmsAlarm> m_alarms = new ConcurrentHashMap<>();
+    private final Map<Integer, OnmsEvent> m_events = new ConcurrentHashMap<>();
+    private final AtomicInteger m_nextId = new AtomicInteger(1);
+
+    private AlarmDao m_alarmDao;
+    private EventDao m_eventDao;
+    private AlarmEntityNotifier m_notifier;
+    private AlarmPersisterImpl m_persister;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        m_alarmDao = mock(AlarmDao.class);
+        when(m_alarmDao.save(any(OnmsAlarm.class))).thenAnswer(invocation -> {
+            final OnmsAlarm alarm = invocation.getArgument(0);
+            alarm.setId(m_nextId.getAndIncrement());
+            m_alarms.put(alarm.getId(), alarm);
+            return alarm.getId();
+        });
+        when(m_alarmDao.get(anyInt())).thenAnswer(invocation -> m_alarms.get(invocation.<Integer>getArgument(0)));
+        when(m_alarmDao.findByReductionKey(anyString())).thenAnswer(invocation -> m_alarms.values().stream()
+                .filter(a -> a.getReductionKey().equals(invocation.getArgument(0)))
+                .findFirst().orElse(null));
+
+        m_eventDao = mock(EventDao.class);
+        when(m_eventDao.get(anyInt())).thenAnswer(invocation -> m_events.get(invocation.<Integer>getArgument(0)));
+
+        // Alarms created in a transaction that fails are rolled back
+        final TransactionOperations transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any())).thenAnswer(invocation -> {
+            final Map<Integer, OnmsAlarm> alarmsBefore = new HashMap<>(m_alarms);
+            try {
+                return ((TransactionCallback<Object>)invocation.getArgument(0)).doInTransaction(null);
+            } catch (RuntimeException e) {
+                m_alarms.clear();
+                m_alarms.putAll(alarmsBefore);
+                throw e;
+            }
+        });
+
+        m_notifier = mock(AlarmEntityNotifier.class);
+
+        m_persister = new AlarmPersisterImpl();
+        m_persister.setAlarmDao(m_alarmDao);
+        m_persister.setEventDao(m_eventDao);
+        m_persister.setTransactionOperations(transactionOperations);
+        m_persister.setAlarmChangeListener(m_notifier);
+    }
+
+    private Event event(int dbid, String reductionKey, int alarmType) {
+        final OnmsEvent persistedEvent = new OnmsEvent();
+        persistedEvent.setId(dbid);
+        persistedEvent.setEventUei("uei.opennms.org/test");
+        persistedEvent.setEventTime(new Date());
+        persistedEvent.setEventSeverity(OnmsSeverity.MAJOR.getId());
+        persistedEvent.setEventLogMsg("event " + dbid);
+        m_events.put(dbid, persistedEvent);
+
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setAlarmType(alarmType);
+
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test");
+        event.setDbid(dbid);
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    @Test
+    public void canReduceBatchWithSingleLookupPerKey() {
+        final Map<String, Integer> index = new HashMap<>();
+        m_persister.persistBatch(Arrays.asList(
+                event(1, "a", 1),
+                event(2, "b", 1),
+                event(3, "a", 1),
+                event(4, "a", 1)), index);
+
+        final OnmsAlarm a = m_alarmDao.findByReductionKey("a");
+        final OnmsAlarm b = m_alarmDao.findByReductionKey("b");
+        assertThat(a.getCounter(), equalTo(3));
+        assertThat(a.getLastEvent().getId(), equalTo(4));
+        assertThat(b.getCounter(), equalTo(1));
+        assertThat(index.get("a"), equalTo(a.getId()));
+
+        // One lookup for each key in the batch, plus the two made by this test
+        verify(m_alarmDao, times(2)).findByReductionKey("a");
+        verify(m_alarmDao, times(2)).findByReductionKey("b");
+
+        // The callbacks are issued in order
+        final InOrder inOrder = inOrder(m_notifier);
+        inOrder.verify(m_notifier).didCreateAlarm(a);
+        inOrder.verify(m_notifier).didCreateAlarm(b);
+        inOrder.verify(m_notifier, times(2)).didUpdateAlarmWithReducedEvent(a);
+
+        // The next batch finds the alarm through the index
+        m_persister.persistBatch(Arrays.asList(event(5, "a", 1)), index);
+        assertThat(a.getCounter(), equalTo(4));
+        verify(m_alarmDao, times(2)).findByReductionKey("a");
+    }
+
+    @Test
+    public void canClearAlarmWithinBatch() {
+        final Event clear = event(2, "a:clear", 2);
+        clear.getAlarmData().setClearKey("a");
+
+        m_persister.persistBatch(Arrays.asList(event(1, "a", 1), clear), new HashMap<>());
+
+        final OnmsAlarm a = m_alarmDao.findByReductionKey("a");
+        assertThat(a.getSeverity(), equalTo(OnmsSeverity.CLEARED));
+        assertThat(m_alarmDao.findByReductionKey("a:clear"), nullValue());
+    }
+
+    @Test
+    public void canSkipDeletedEvents() {
+        final Event deleted = event(2, "a", 1);
+        m_events.remove(2);
+
+        m_persister.persistBatch(Arrays.asList(event(1, "a", 1), deleted, event(3, "a", 1)), new HashMap<>());
+
+        assertThat(m_alarmDao.findByReductionKey("a").getCounter(), equalTo(2));
+    }
+
+    @Test
+    public void canNotifyOnceWhenBatchFails() {
+        // Fail the batch on its last event, the retry of the event succeeds
+        doThrow(new IllegalStateException("Batch failed")).doNothing()
+                .when(m_eventDao).saveOrUpdate(argThat(e -> e != null && e.getId() == 3));
+
+        m_persister.persistBatch(Arrays.asList(
+                event(1, "a", 1),
+                event(2, "b", 1),
+                event(3, "c", 1)), new HashMap<>());
+
+        for (String key : Arrays.asList("a", "b", "c")) {
+            assertThat(m_alarmDao.findByReductionKey(key).getCounter(), equalTo(1));
+        }
+
+        // The callbacks of the rolled back batch were never issued, only the ones of the retries
+        verify(m_notifier, times(3)).didCreateAlarm(any());
+        verify(m_notifier, never()).didUpdateAlarmWithReducedEvent(any());
+    }
+
+    @Test
+    public void canPersistThroughShards() {
+        m_persister.setBatchShards(2);
+        m_persister.afterPropertiesSet();
+        try {
+            for (int i = 1; i <= 50; i++) {
+                assertThat(m_persister.persist(event(i, "key" + (i % 5), 1)), nullValue());
+            }
+        } finally {
+            // Waits for the queued events to be persisted
+            m_persister.destroy();
+        }
+
+        verify(m_notifier, times(5)).didCreateAlarm(any());
+        verify(m_notifier, times(45)).didUpdateAlarmWithReducedEvent(any());
+        verify(m_notifier, never()).didArchiveAlarm(any(), any());
+        for (int i = 0; i < 5; i++) {
+            assertThat(m_alarmDao.findByReductionKey("key" + i).getCounter(), equalTo(10));
+        }
+    }
+}
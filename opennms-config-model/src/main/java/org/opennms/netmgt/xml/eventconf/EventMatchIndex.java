@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Precompiled index over the event definitions of a single {@link Events} file, used
+ * to narrow down the definitions that need to be evaluated by their {@link EventMatcher}.
+ * <p>
+ * The index dispatches on the UEI, the enterprise id, the generic and specific trap numbers,
+ * the varbind values and the partition key. For every one of these dimensions, the mask of
+ * an event definition is reduced to a necessary condition: the set of exact values and prefixes
+ * ("value%") the field must have for the definition to match. Definitions using regular
+ * expressions, or not constraining the field at all, are candidates for any value.
+ * <p>
+ * The candidates are kept in the same order as the original linear scan, so the first
+ * candidate whose matcher accepts the event is the same definition the scan would have returned.
+ * The candidates for the UEI, enterprise id, generic, specific and partition key of an event are
+ * cached in a LRU cache, since traps of the same type keep arriving with the same values.
+ */
+class EventMatchIndex {
+
+    public static final String INDEX_ENABLED_SYS_PROP = "org.opennms.eventconf.index.enabled";
+
+    public static final String INDEX_CACHE_SIZE_SYS_PROP = "org.opennms.eventconf.index.cacheSize";
+
+    /**
+     * Used in place of the value of a field that could not be retrieved. Compared by identity.
+     */
+    private static final String UNKNOWN_VALUE = new String("unknown");
+
+    private static final String[] MASK_ELEMENT_DIMENSIONS = new String[] {
+            Maskelement.TAG_UEI,
+            Maskelement.TAG_SNMP_EID,
+            Maskelement.TAG_SNMP_GENERIC,
+            Maskelement.TAG_SNMP_SPECIFIC
+    };
+
+    /**
+     * Event definitions in evaluation order.
+     */
+    private final Event[] m_events;
+
+    private final Partition m_partition;
+
+    private final Dimension m_partitionDimension;
+
+    private final Dimension[] m_maskElementDimensions;
+
+    private final Dimension[] m_varbindDimensions;
+
+    private final Cache<List<String>, BitSet> m_candidateCache;
+
+    private EventMatchIndex(final List<Event> events, final Partition partition, final Dimension partitionDimension,
+                            final Dimension[] maskElementDimensions, final Dimension[] varbindDimensions, final int cacheSize) {
+        m_events = events.toArray(new Event[0]);
+        m_partition = partition;
+        m_partitionDimension = partitionDimension;
+        m_maskElementDimensions = maskElementDimensions;
+        m_varbindDimensions = varbindDimensions;
+        m_candidateCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(INDEX_ENABLED_SYS_PROP, "true"));
+    }
+
+    /**
+     * Builds the index.
+     *
+     * @param events the event definitions, in evaluation order
+     * @param nullPartitionedEvents the event definitions that are evaluated regardless of the partition key
+     * @param partitionedEvents the event definitions that are only evaluated for the given partition keys
+     * @param partition used to determine the partition key of the events
+     */
+    public static EventMatchIndex build(final List<Event> events, final Collection<Event> nullPartitionedEvents,
+                                        final Map<String, List<Event>> partitionedEvents, final Partition partition) {
+        final int size = events.size();
+
+        final Dimension partitionDimension = new Dimension(null, size);
+        final Map<Event, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            positions.put(events.get(i), i);
+        }
+        for (final Event event : nullPartitionedEvents) {
+            partitionDimension.addUnconstrained(positions.get(event));
+        }
+        for (final Map.Entry<String, List<Event>> entry : partitionedEvents.entrySet()) {
+            for (final Event event : entry.getValue()) {
+                final int position = positions.get(event);
+                if (!partitionDimension.isUnconstrained(position)) {
+                    partitionDimension.addValue(entry.getKey(), position, false);
+                }
+            }
+        }
+
+        final Dimension[] maskElementDimensions = new Dimension[MASK_ELEMENT_DIMENSIONS.length];
+        for (int d = 0; d < MASK_ELEMENT_DIMENSIONS.length; d++) {
+            maskElementDimensions[d] = new Dimension(EventMatchers.field(MASK_ELEMENT_DIMENSIONS[d]), size);
+        }
+        final Map<Integer, Dimension> varbindDimensions = new TreeMap<>();
+        final List<Map<Integer, Varbind>> varbindsByEvent = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            final Event event = events.get(i);
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelements().size() <= 0) {
+                // Matched by UEI only, see Event.constructMatcher()
+                for (int d = 0; d < MASK_ELEMENT_DIMENSIONS.length; d++) {
+                    if (Maskelement.TAG_UEI.equals(MASK_ELEMENT_DIMENSIONS[d])) {
+                        if (event.getUei() != null) {
+                            maskElementDimensions[d].addValue(event.getUei(), i, false);
+                        }
+                    } else {
+                        maskElementDimensions[d].addUnconstrained(i);
+                    }
+                }
+                varbindsByEvent.add(null);
+                continue;
+            }
+
+            for (int d = 0; d < MASK_ELEMENT_DIMENSIONS.length; d++) {
+                final Maskelement maskElement = mask.getMaskElement(MASK_ELEMENT_DIMENSIONS[d]);
+                maskElementDimensions[d].addConstraint(maskElement == null ? null : maskElement.getMevalues(), i);
+            }
+
+            final Map<Integer, Varbind> varbinds = new HashMap<>();
+            for (final Varbind varbind : mask.getVarbinds()) {
+                if (varbind.getVbnumber() != null && !varbinds.containsKey(varbind.getVbnumber())) {
+                    varbinds.put(varbind.getVbnumber(), varbind);
+                    varbindDimensions.computeIfAbsent(varbind.getVbnumber(), vbnumber -> new Dimension(EventMatchers.varbind(vbnumber), size));
+                }
+            }
+            varbindsByEvent.add(varbinds);
+        }
+
+        // Now that we know which varbinds are used, populate their dimensions
+        for (int i = 0; i < size; i++) {
+            final Map<Integer, Varbind> varbinds = varbindsByEvent.get(i);
+            for (final Map.Entry<Integer, Dimension> entry : varbindDimensions.entrySet()) {
+                final Varbind varbind = varbinds == null ? null : varbinds.get(entry.getKey());
+                entry.getValue().addConstraint(varbind == null ? null : varbind.getVbvalues(), i);
+            }
+        }
+
+        final int cacheSize = Integer.getInteger(INDEX_CACHE_SIZE_SYS_PROP, 10000);
+        return new EventMatchIndex(events, partition, partitionDimension, maskElementDimensions,
+                varbindDimensions.values().toArray(new Dimension[0]), cacheSize);
+    }
+
+    /**
+     * Finds the first event definition that matches the given event.
+     *
+     * @return the matching definition, or null if none of the definitions match
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final BitSet candidates = getCandidates(matchingEvent);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final Event event = m_events[i];
+            if (event.matches(matchingEvent).matched()) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    protected BitSet getCandidates(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final String[] signature = new String[m_maskElementDimensions.length + 1];
+        for (int d = 0; d < m_maskElementDimensions.length; d++) {
+            signature[d] = m_maskElementDimensions[d].getValue(matchingEvent);
+        }
+        signature[m_maskElementDimensions.length] = m_partition.group(matchingEvent);
+        final List<String> key = Arrays.asList(signature);
+
+        BitSet candidates = m_candidateCache.getIfPresent(key);
+        if (candidates == null) {
+            candidates = m_partitionDimension.lookup(signature[m_maskElementDimensions.length]);
+            for (int d = 0; d < m_maskElementDimensions.length; d++) {
+                candidates.and(m_maskElementDimensions[d].lookup(signature[d]));
+            }
+            if (!key.contains(UNKNOWN_VALUE)) {
+                m_candidateCache.put(key, candidates);
+            }
+        }
+
+        if (m_varbindDimensions.length < 1 || candidates.isEmpty()) {
+            // The cached candidates are never modified, so they can be returned as-is
+            return candidates;
+        }
+        // The varbind values vary too much between events to be part of the cache key
+        candidates = (BitSet)candidates.clone();
+        for (final Dimension dimension : m_varbindDimensions) {
+            candidates.and(dimension.lookup(dimension.getValue(matchingEvent)));
+        }
+        return candidates;
+    }
+
+    public long getCacheSize() {
+        return m_candidateCache.size();
+    }
+
+    /**
+     * Maps the values of a single field to the event definitions that can match them.
+     */
+    private static class Dimension {
+        private final Field m_field;
+        private final int m_size;
+        private final BitSet m_unconstrained;
+        private final TrieNode m_root = new TrieNode();
+
+        private Dimension(final Field field, final int size) {
+            m_field = field;
+            m_size = size;
+            m_unconstrained = new BitSet(size);
+        }
+
+        private void addUnconstrained(final int position) {
+            m_unconstrained.set(position);
+        }
+
+        private boolean isUnconstrained(final int position) {
+            return m_unconstrained.get(position);
+        }
+
+        /**
+         * Adds the necessary condition for the values of a mask element or varbind,
+         * mirroring the matchers built by {@link Maskelement#constructMatcher()}.
+         */
+        private void addConstraint(final List<String> values, final int position) {
+            if (values == null) {
+                addUnconstrained(position);
+                return;
+            }
+            for (final String value : values) {
+                if (value != null && value.startsWith("~")) {
+                    // Can't reason about regular expressions
+                    addUnconstrained(position);
+                    return;
+                }
+            }
+            for (final String value : values) {
+                if (value == null) {
+                    continue;
+                }
+                if (value.endsWith("%")) {
+                    addValue(value.substring(0, value.length() - 1), position, true);
+                } else {
+                    addValue(value, position, false);
+                }
+            }
+        }
+
+        private void addValue(final String value, final int position, final boolean prefix) {
+            TrieNode node = m_root;
+            for (int i = 0; i < value.length(); i++) {
+                node = node.m_children.computeIfAbsent(value.charAt(i), c -> new TrieNode());
+            }
+            if (prefix) {
+                if (node.m_prefix == null) {
+                    node.m_prefix = new BitSet();
+                }
+                node.m_prefix.set(position);
+            } else {
+                if (node.m_exact == null) {
+                    node.m_exact = new BitSet();
+                }
+                node.m_exact.set(position);
+            }
+        }
+
+        private String getValue(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            try {
+                return m_field.get(matchingEvent);
+            } catch (final RuntimeException e) {
+                // Leave it up to the matchers
+                return UNKNOWN_VALUE;
+            }
+        }
+
+        private BitSet lookup(final String value) {
+            if (value == UNKNOWN_VALUE) {
+                final BitSet all = new BitSet(m_size);
+                all.set(0, m_size);
+                return all;
+            }
+            final BitSet candidates = (BitSet)m_unconstrained.clone();
+            if (value == null) {
+                return candidates;
+            }
+            TrieNode node = m_root;
+            for (int i = 0; ; i++) {
+                if (node.m_prefix != null) {
+                    candidates.or(node.m_prefix);
+                }
+                if (i == value.length()) {
+                    if (node.m_exact != null) {
+                        candidates.or(node.m_exact);
+                    }
+                    break;
+                }
+                node = node.m_children.get(value.charAt(i));
+                if (node == null) {
+                    break;
+                }
+            }
+            return candidates;
+        }
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> m_children = new HashMap<>(4);
+        private BitSet m_exact;
+        private BitSet m_prefix;
+    }
+}
@@ -57,6 +57,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -119,6 +120,9 @@ public class Events implements Serializable {
     @XmlTransient
     private EventOrdering m_ordering;
 
+    @XmlTransient
+    private transient EventMatchIndex m_matchIndex;
+
     public Global getGlobal() {
         return m_global;
     }
@@ -284,19 +288,27 @@ public class Events implements Serializable {
         }
 
         // If the UEI match failed, fallback to searching with the matchers through the partitions
-        final String key = m_partition.group(matchingEvent);
-        Collection<Event> potentialMatches = m_nullPartitionedEvents;
-        if (key != null) {
-            final List<Event> events = m_partitionedEvents.get(key);
-            if (events != null) {
-                potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
-                potentialMatches.addAll(events);
+        final EventMatchIndex matchIndex = m_matchIndex;
+        if (matchIndex != null) {
+            final Event event = matchIndex.findFirstMatchingEvent(matchingEvent);
+            if (event != null) {
+                return event;
+            }
+        } else {
+            final String key = m_partition.group(matchingEvent);
+            Collection<Event> potentialMatches = m_nullPartitionedEvents;
+            if (key != null) {
+                final List<Event> events = m_partitionedEvents.get(key);
+                if (events != null) {
+                    potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
+                    potentialMatches.addAll(events);
+                }
             }
-        }
 
-        for (final Event event : potentialMatches) {
-            if (event.matches(matchingEvent).matched()) {
-                return event;
+            for (final Event event : potentialMatches) {
+                if (event.matches(matchingEvent).matched()) {
+                    return event;
+                }
             }
         }
 
@@ -371,6 +383,35 @@ public class Events implements Serializable {
         m_nullPartitionedEvents.sort(Comparator.naturalOrder());
 
         indexEventsByUei();
+        buildMatchIndex();
+    }
+
+    /**
+     * Builds the index used to narrow down the event definitions that are evaluated
+     * when an event can't be matched by UEI. The index covers the same definitions, in the
+     * same order, as a scan through the partitions would.
+     */
+    private void buildMatchIndex() {
+        if (!EventMatchIndex.isEnabled()) {
+            m_matchIndex = null;
+            return;
+        }
+        final Set<Event> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Event> candidates = new ArrayList<>();
+        for (final Event event : m_nullPartitionedEvents) {
+            if (seen.add(event)) {
+                candidates.add(event);
+            }
+        }
+        for (final List<Event> events : m_partitionedEvents.values()) {
+            for (final Event event : events) {
+                if (seen.add(event)) {
+                    candidates.add(event);
+                }
+            }
+        }
+        candidates.sort(Comparator.naturalOrder());
+        m_matchIndex = EventMatchIndex.build(candidates, m_nullPartitionedEvents, m_partitionedEvents, m_partition);
     }
 
     // Recurse through the configuration and return Event Definitions with priority > 0
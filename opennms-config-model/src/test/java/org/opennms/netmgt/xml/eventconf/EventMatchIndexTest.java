@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.event.Value;
+
+public class EventMatchIndexTest {
+
+    private static final String[] ENTERPRISES = new String[] {
+            ".1.3.6.1.4.1.9", ".1.3.6.1.4.1.9.9.41.2", ".1.3.6.1.4.1.99", ".1.3.6.1.4.1.2636.4.5", ".1.3.6.1.6.3.1.1.5"
+    };
+
+    @After
+    public void tearDown() {
+        System.clearProperty(EventMatchIndex.INDEX_ENABLED_SYS_PROP);
+    }
+
+    @Test
+    public void canPreserveFirstMatchOrder() {
+        final Event exact = trapDefinition("exact", ".1.3.6.1.4.1.9", "6", "1");
+        final Event prefix = trapDefinition("prefix", ".1.3.6.1.4.1.9%", "6", null);
+        final Event regex = trapDefinition("regex", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.9\\..*", null, null);
+        final Event prioritized = trapDefinition("prioritized", ".1.3.6.1.4.1.99", "6", "2");
+        prioritized.setPriority(1);
+
+        final Events events = new Events();
+        events.addEvent(exact);
+        events.addEvent(prefix);
+        events.addEvent(regex);
+        events.addEvent(prioritized);
+        events.initialize(new WildcardAwarePartition(), new EventOrdering());
+
+        assertSame(exact, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1)));
+        assertSame(prefix, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 2)));
+        assertSame(prefix, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.99", 6, 1)));
+        assertSame(prioritized, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.99", 6, 2)));
+        assertSame(regex, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9.1", 0, 0)));
+        assertNull(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.8", 6, 1)));
+        assertNull(events.findFirstMatchingEvent(new org.opennms.netmgt.xml.event.Event()));
+    }
+
+    @Test
+    public void canDispatchOnVarbinds() {
+        final Event up = trapDefinition("up", ".1.3.6.1.4.1.9", "6", "1");
+        up.getMask().addVarbind(varbind(2, "1"));
+        final Event down = trapDefinition("down", ".1.3.6.1.4.1.9", "6", "1");
+        down.getMask().addVarbind(varbind(2, "2"));
+        final Event other = trapDefinition("other", ".1.3.6.1.4.1.9", "6", "1");
+
+        final Events events = new Events();
+        events.addEvent(up);
+        events.addEvent(down);
+        events.addEvent(other);
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        assertSame(up, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1, "x", "1")));
+        assertSame(down, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1, "x", "2")));
+        assertSame(other, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1, "x", "3")));
+        assertSame(other, events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1)));
+    }
+
+    /**
+     * Compares the results of the index with the ones of the linear scan
+     * for randomly generated definitions and events.
+     */
+    @Test
+    public void canMatchSameDefinitionsAsLinearScan() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            final long seed = random.nextLong();
+            System.setProperty(EventMatchIndex.INDEX_ENABLED_SYS_PROP, "true");
+            final Events indexed = randomEvents(new Random(seed));
+            System.setProperty(EventMatchIndex.INDEX_ENABLED_SYS_PROP, "false");
+            final Events linear = randomEvents(new Random(seed));
+
+            for (int i = 0; i < 500; i++) {
+                final org.opennms.netmgt.xml.event.Event trap = randomTrap(random);
+                final Event expected = linear.findFirstMatchingEvent(trap);
+                final Event actual = indexed.findFirstMatchingEvent(trap);
+                assertEquals("Mismatch for trap " + trap, expected == null ? null : expected.getEventLabel(),
+                        actual == null ? null : actual.getEventLabel());
+            }
+        }
+    }
+
+    /**
+     * Same as the partition used by the DefaultEventConfDao, definitions with wildcards are not partitioned.
+     */
+    private static class WildcardAwarePartition extends EnterpriseIdPartition {
+        @Override
+        public List<String> group(final Event eventConf) {
+            final List<String> keys = super.group(eventConf);
+            if (keys != null && keys.stream().anyMatch(key -> key.endsWith("%") || key.startsWith("~"))) {
+                return null;
+            }
+            return keys;
+        }
+    }
+
+    private static Events randomEvents(final Random random) {
+        final Events events = new Events();
+        final boolean wildcardAware = random.nextBoolean();
+        for (int i = 0; i < 200; i++) {
+            final String enterprise = ENTERPRISES[random.nextInt(ENTERPRISES.length)];
+            final String id;
+            switch (random.nextInt(5)) {
+                case 0: id = null; break;
+                case 1: id = enterprise.substring(0, enterprise.length() - 1) + "%"; break;
+                case 2: id = "~^" + enterprise.replace(".", "\\.") + ".*"; break;
+                default: id = enterprise;
+            }
+            final Event event = trapDefinition("def" + i, id,
+                    random.nextInt(3) == 0 ? null : Integer.toString(random.nextInt(7)),
+                    random.nextInt(3) == 0 ? null : Integer.toString(random.nextInt(4)));
+            if (random.nextInt(4) == 0) {
+                event.getMask().addVarbind(varbind(1 + random.nextInt(2), Integer.toString(random.nextInt(3))));
+            }
+            if (random.nextInt(20) == 0) {
+                event.setPriority(1 + random.nextInt(2));
+            }
+            events.addEvent(event);
+        }
+        events.initialize(wildcardAware ? new WildcardAwarePartition() : new EnterpriseIdPartition(), new EventOrdering());
+        return events;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event randomTrap(final Random random) {
+        final String enterprise = ENTERPRISES[random.nextInt(ENTERPRISES.length)];
+        final String[] varbinds = new String[random.nextInt(3)];
+        for (int i = 0; i < varbinds.length; i++) {
+            varbinds[i] = Integer.toString(random.nextInt(3));
+        }
+        return trap(random.nextInt(10) == 0 ? enterprise + ".1" : enterprise, random.nextInt(7), random.nextInt(4), varbinds);
+    }
+
+    private static Event trapDefinition(final String label, final String id, final String generic, final String specific) {
+        final Mask mask = new Mask();
+        if (id != null) {
+            mask.addMaskelement(maskElement("id", id));
+        }
+        if (generic != null) {
+            mask.addMaskelement(maskElement("generic", generic));
+        }
+        if (specific != null) {
+            mask.addMaskelement(maskElement("specific", specific));
+        }
+        if (mask.getMaskelements().isEmpty()) {
+            mask.addMaskelement(maskElement("source", "trapd"));
+        }
+        final Event event = new Event();
+        event.setUei("uei.opennms.org/test/" + label);
+        event.setEventLabel(label);
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Maskelement maskElement(final String name, final String value) {
+        final Maskelement maskElement = new Maskelement();
+        maskElement.setMename(name);
+        maskElement.addMevalue(value);
+        return maskElement;
+    }
+
+    private static Varbind varbind(final int vbnumber, final String value) {
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(vbnumber);
+        varbind.addVbvalue(value);
+        return varbind;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String enterprise, final int generic, final int specific, final String... varbinds) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(enterprise);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSource("trapd");
+        event.setSnmp(snmp);
+        for (int i = 0; i < varbinds.length; i++) {
+            final Parm parm = new Parm();
+            parm.setParmName(".1.3.6.1.4.1.9.1." + (i + 1));
+            parm.setValue(new Value(varbinds[i]));
+            event.addParm(parm);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.core.utils.InetAddressComparator;
+import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManager;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.netmgt.events.api.model.IParm;
+import org.opennms.netmgt.filter.FilterRuleCompiler.UnsupportedRuleException;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.filter.api.FilterParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link FilterDao} that evaluates filter rules in memory.
+ *
+ * Rules are compiled once and evaluated against a {@link FilterSnapshot} of the node,
+ * interface, service and category attributes. The snapshot is kept up to date with
+ * the node events. When the active IP address list cache is flushed, the nodes with
+ * interfaces or services added since the last check are reloaded as well. The whole
+ * snapshot is reloaded after <code>org.opennms.filter.compiled.maxSnapshotAge</code>
+ * milliseconds, or after an event without a node ID.
+ *
+ * Rules referencing other columns, or constrained to a node, interface or service
+ * that isn't in the snapshot yet, are handed to the delegate {@link JdbcFilterDao}.
+ * Unless <code>org.opennms.filter.compiled</code> is set to true, all of the rules
+ * are handed to the delegate.
+ */
+public class CompiledFilterDao implements FilterDao, EventListener, InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledFilterDao.class);
+
+    private static final long DEFAULT_MAX_SNAPSHOT_AGE = 300000L;
+
+    private static final int MAX_CACHED_RULES = 1000;
+
+    private static final List<String> UEIS = Arrays.asList(
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_LOCATION_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+            EventConstants.SERVICE_DELETED_EVENT_UEI,
+            EventConstants.SERVICE_UNMANAGED_EVENT_UEI,
+            EventConstants.DUP_NODE_DELETED_EVENT_UEI);
+
+    private FilterDao m_delegate;
+    private DataSource m_dataSource;
+    private DatabaseSchemaConfig m_databaseSchemaConfigFactory;
+    private EventIpcManager m_eventIpcManager;
+    private boolean m_enabled = Boolean.getBoolean("org.opennms.filter.compiled");
+    private long m_maxSnapshotAge = SystemProperties.getLong("org.opennms.filter.compiled.maxSnapshotAge", DEFAULT_MAX_SNAPSHOT_AGE);
+
+    private FilterRuleCompiler m_compiler;
+    private final Map<String, Optional<CompiledFilterRule>> m_rules = new ConcurrentHashMap<>();
+
+    private final Object m_snapshotLock = new Object();
+    private final AtomicLong m_generation = new AtomicLong();
+    private volatile FilterSnapshot m_snapshot;
+    private volatile boolean m_refreshAddedNodes = false;
+    private boolean m_listening = false;
+
+    /**
+     * <p>setDelegate</p>
+     *
+     * @param delegate the {@link FilterDao} used for the rules that can't be evaluated in memory
+     */
+    public void setDelegate(final FilterDao delegate) {
+        m_delegate = delegate;
+    }
+
+    public FilterDao getDelegate() {
+        return m_delegate;
+    }
+
+    public void setDataSource(final DataSource dataSource) {
+        m_dataSource = dataSource;
+    }
+
+    public void setDatabaseSchemaConfigFactory(final DatabaseSchemaConfig factory) {
+        m_databaseSchemaConfigFactory = factory;
+    }
+
+    /**
+     * <p>setEventIpcManager</p>
+     *
+     * @param eventIpcManager the event manager to receive node events from. If not set,
+     *        the {@link EventIpcManagerFactory} instance is used once it is available.
+     */
+    public void setEventIpcManager(final EventIpcManager eventIpcManager) {
+        m_eventIpcManager = eventIpcManager;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        m_enabled = enabled;
+    }
+
+    public void setMaxSnapshotAge(final long maxSnapshotAge) {
+        m_maxSnapshotAge = maxSnapshotAge;
+    }
+
+    /**
+     * Replaces the snapshot, for testing.
+     */
+    void setSnapshot(final FilterSnapshot snapshot) {
+        synchronized (m_snapshotLock) {
+            m_snapshot = snapshot;
+        }
+    }
+
+    long getGeneration() {
+        return m_generation.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Assert.state(m_delegate != null, "property delegate cannot be null");
+        Assert.state(m_dataSource != null, "property dataSource cannot be null");
+        Assert.state(m_databaseSchemaConfigFactory != null, "property databaseSchemaConfigFactory cannot be null");
+        m_compiler = new FilterRuleCompiler(m_databaseSchemaConfigFactory);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedMap<Integer, String> getNodeMap(final String rule) throws FilterParseException {
+        return evaluate(rule, false, (compiled, snapshot) -> {
+            final SortedMap<Integer, String> resultMap = new TreeMap<>();
+            compiled.scan(snapshot, false, false, null, row -> {
+                resultMap.put(row.getNode().getId(), row.getNode().getLabel());
+                return true;
+            });
+            return Collections.unmodifiableSortedMap(resultMap);
+        }, () -> m_delegate.getNodeMap(rule));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<InetAddress, Set<String>> getIPAddressServiceMap(final String rule) throws FilterParseException {
+        final Map<Integer, Map<InetAddress, Set<String>>> nodeIpServices = getNodeIPAddressServiceMap(rule);
+
+        // Flatten the map, remove the node
+        final Map<InetAddress, Set<String>> ipServices = new TreeMap<>(new InetAddressComparator());
+        nodeIpServices.values().forEach(ipServicesForNode -> {
+            ipServicesForNode.forEach((ipAddr, services) -> {
+                ipServices.computeIfAbsent(ipAddr, key -> new TreeSet<>()).addAll(services);
+            });
+        });
+
+        return ipServices;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<Integer, Map<InetAddress, Set<String>>> getNodeIPAddressServiceMap(final String rule) throws FilterParseException {
+        return evaluate(rule, false, (compiled, snapshot) -> {
+            final Map<Integer, Map<InetAddress, Set<String>>> nodeIpServices = new TreeMap<>();
+            compiled.scan(snapshot, true, false, null, row -> {
+                final Map<InetAddress, Set<String>> ifServices = nodeIpServices.computeIfAbsent(row.getNode().getId(), key -> new TreeMap<>(new InetAddressComparator()));
+                ifServices.computeIfAbsent(addr(row.getInterface().getIpAddr()), key -> new TreeSet<>()).add(row.getService());
+                return true;
+            });
+            return nodeIpServices;
+        }, () -> m_delegate.getNodeIPAddressServiceMap(rule));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Also reloads the nodes that were added or gained interfaces or services before the
+     * next evaluation, since the callers expect to see the changes they've just been
+     * notified about, even if the event hasn't reached the snapshot yet.
+     */
+    @Override
+    public void flushActiveIpAddressListCache() {
+        m_refreshAddedNodes = true;
+        m_delegate.flushActiveIpAddressListCache();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getActiveIPAddressList(final String rule) throws FilterParseException {
+        return evaluate(rule, true, (compiled, snapshot) -> getIPAddressList(compiled, snapshot, true),
+                () -> m_delegate.getActiveIPAddressList(rule));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<InetAddress> getIPAddressList(final String rule) throws FilterParseException {
+        return evaluate(rule, false, (compiled, snapshot) -> getIPAddressList(compiled, snapshot, false),
+                () -> m_delegate.getIPAddressList(rule));
+    }
+
+    private static List<InetAddress> getIPAddressList(final CompiledFilterRule compiled, final FilterSnapshot snapshot, final boolean activeOnly) {
+        final Set<String> addresses = new LinkedHashSet<>();
+        compiled.scan(snapshot, false, activeOnly, null, row -> {
+            addresses.add(row.getInterface().getIpAddr());
+            return true;
+        });
+
+        final List<InetAddress> resultList = new ArrayList<>(addresses.size());
+        for (final String address : addresses) {
+            resultList.add(addr(address));
+        }
+        return resultList;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isValid(final String addr, final String rule) throws FilterParseException {
+        if (rule.length() == 0) {
+            return true;
+        }
+        return evaluate(rule, true, (compiled, snapshot) -> matches(compiled, snapshot, true, addr),
+                () -> m_delegate.isValid(addr, rule));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isRuleMatching(final String rule) throws FilterParseException {
+        return evaluate(rule, false, (compiled, snapshot) -> matches(compiled, snapshot, false, null),
+                () -> m_delegate.isRuleMatching(rule));
+    }
+
+    private static boolean matches(final CompiledFilterRule compiled, final FilterSnapshot snapshot, final boolean activeOnly, final String address) {
+        final boolean[] matches = new boolean[] { false };
+        compiled.scan(snapshot, false, activeOnly, address, row -> {
+            matches[0] = true;
+            return false;
+        });
+        return matches[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Rules are always validated by the delegate, since the database is the
+     * authority on what is valid.
+     */
+    @Override
+    public void validateRule(final String rule) throws FilterParseException {
+        m_delegate.validateRule(rule);
+    }
+
+    private <T> T evaluate(final String rule, final boolean activeOnly, final BiFunction<CompiledFilterRule, FilterSnapshot, T> inMemory, final Supplier<T> fallback) {
+        if (!m_enabled) {
+            return fallback.get();
+        }
+
+        final CompiledFilterRule compiled = getCompiledRule(rule);
+        if (compiled == null || (activeOnly && compiled.overridesManagedFilter())) {
+            return fallback.get();
+        }
+
+        final FilterSnapshot snapshot = getSnapshot();
+        if (snapshot == null || compiled.isMissingFrom(snapshot)) {
+            return fallback.get();
+        }
+
+        try {
+            return inMemory.apply(compiled, snapshot);
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to evaluate filter rule \"{}\" in memory. Using SQL instead.", rule, e);
+            return fallback.get();
+        }
+    }
+
+    private CompiledFilterRule getCompiledRule(final String rule) {
+        Optional<CompiledFilterRule> compiled = m_rules.get(rule);
+        if (compiled == null) {
+            try {
+                compiled = Optional.of(m_compiler.compile(rule));
+            } catch (final UnsupportedRuleException e) {
+                LOG.debug("Filter rule \"{}\" can't be evaluated in memory: {}", rule, e.getMessage());
+                compiled = Optional.empty();
+            }
+            if (m_rules.size() >= MAX_CACHED_RULES) {
+                // The notification manager creates a new rule for every event, so don't try to be clever
+                m_rules.clear();
+            }
+            m_rules.put(rule, compiled);
+        }
+        return compiled.orElse(null);
+    }
+
+    private boolean isCurrent(final FilterSnapshot snapshot) {
+        return snapshot != null
+                && snapshot.getGeneration() == m_generation.get()
+                && System.currentTimeMillis() - snapshot.getLoadTime() < m_maxSnapshotAge;
+    }
+
+    /**
+     * @return the current snapshot, reloading it if necessary, or null if it can't be loaded
+     */
+    private FilterSnapshot getSnapshot() {
+        final FilterSnapshot snapshot = m_snapshot;
+        if (isCurrent(snapshot) && !m_refreshAddedNodes) {
+            return snapshot;
+        }
+
+        synchronized (m_snapshotLock) {
+            if (isCurrent(m_snapshot)) {
+                if (!m_refreshAddedNodes) {
+                    return m_snapshot;
+                }
+                // A flush during the refresh triggers another one
+                m_refreshAddedNodes = false;
+                try {
+                    final long start = System.currentTimeMillis();
+                    final int count = m_snapshot.refreshAddedNodes(m_dataSource);
+                    LOG.debug("Reloaded {} added nodes into the filter snapshot in {}ms.", count, System.currentTimeMillis() - start);
+                    return m_snapshot;
+                } catch (final SQLException e) {
+                    LOG.warn("Failed to reload the added nodes into the filter snapshot. Reloading the filter snapshot.", e);
+                    m_generation.incrementAndGet();
+                }
+            }
+            listenForEvents();
+
+            // Events without a node ID during the load make it stale right away
+            m_refreshAddedNodes = false;
+            final long generation = m_generation.get();
+            try {
+                final long start = System.currentTimeMillis();
+                m_snapshot = FilterSnapshot.load(m_dataSource, generation);
+                LOG.debug("Loaded the filter snapshot with {} nodes in {}ms.", m_snapshot.getNodeCount(), System.currentTimeMillis() - start);
+            } catch (final SQLException e) {
+                LOG.warn("Failed to load the filter snapshot. Using SQL instead.", e);
+                m_snapshot = null;
+            }
+            return m_snapshot;
+        }
+    }
+
+    private void listenForEvents() {
+        if (m_listening) {
+            return;
+        }
+        EventIpcManager eventIpcManager = m_eventIpcManager;
+        if (eventIpcManager == null) {
+            try {
+                eventIpcManager = EventIpcManagerFactory.getIpcManager();
+            } catch (final IllegalStateException e) {
+                LOG.debug("The event manager isn't available yet. The filter snapshot will be reloaded every {}ms.", m_maxSnapshotAge);
+                return;
+            }
+        }
+        eventIpcManager.addEventListener(this, UEIS);
+        m_listening = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reloads the nodes affected by the event into the snapshot.
+     */
+    @Override
+    public void onEvent(final IEvent e) {
+        final Set<Integer> nodeIds = new TreeSet<>();
+        if (e.getNodeid() != null && e.getNodeid() > 0) {
+            nodeIds.add(e.getNodeid().intValue());
+        }
+        if (EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(e.getUei())) {
+            for (final String parmName : Arrays.asList(EventConstants.PARM_OLD_NODEID, EventConstants.PARM_NEW_NODEID)) {
+                final IParm parm = e.getParm(parmName);
+                if (parm != null && parm.getValue() != null) {
+                    try {
+                        nodeIds.add(Integer.valueOf(parm.getValue().getContent()));
+                    } catch (final NumberFormatException nfe) {
+                        LOG.warn("Parameter {} cannot be non-numeric", parmName, nfe);
+                    }
+                }
+            }
+        }
+
+        synchronized (m_snapshotLock) {
+            final FilterSnapshot snapshot = m_snapshot;
+            if (!isCurrent(snapshot)) {
+                // It will be reloaded anyway
+                return;
+            }
+            if (nodeIds.isEmpty()) {
+                LOG.debug("Received {} without a node ID. Reloading the filter snapshot.", e.getUei());
+                m_generation.incrementAndGet();
+                return;
+            }
+            for (final Integer nodeId : nodeIds) {
+                try {
+                    snapshot.refreshNode(m_dataSource, nodeId);
+                } catch (final SQLException ex) {
+                    LOG.warn("Failed to reload node {} into the filter snapshot. Reloading the filter snapshot.", nodeId, ex);
+                    m_generation.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+}
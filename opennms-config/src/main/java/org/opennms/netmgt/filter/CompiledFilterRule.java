@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.filter.FilterSnapshot.CategoryEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.InterfaceEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.NodeEntry;
+
+/**
+ * A filter rule compiled by the {@link FilterRuleCompiler} into a predicate over
+ * the rows of a {@link FilterSnapshot}.
+ *
+ * The rows are the ones the {@link JdbcFilterDao} would select: one row per
+ * interface, multiplied by the services of the interface when the rule (or the
+ * query) references the service table, and by the categories of the node when
+ * the rule references the categories table. Conditions use the three-valued
+ * logic of SQL, so a row is only selected if the rule evaluates to TRUE.
+ */
+class CompiledFilterRule {
+    private static final List<String> NO_SERVICES = Collections.singletonList(null);
+    private static final List<CategoryEntry> NO_CATEGORIES = Collections.singletonList(null);
+
+    private final Condition m_condition;
+    private final boolean m_usesServices;
+    private final boolean m_usesCategories;
+    private final boolean m_overridesManagedFilter;
+    private final Integer m_nodeId;
+    private final String m_ipAddr;
+    private final String m_serviceName;
+
+    CompiledFilterRule(final Condition condition, final boolean usesServices, final boolean usesCategories, final boolean overridesManagedFilter,
+            final Integer nodeId, final String ipAddr, final String serviceName) {
+        m_condition = condition;
+        m_usesServices = usesServices;
+        m_usesCategories = usesCategories;
+        m_overridesManagedFilter = overridesManagedFilter;
+        m_nodeId = nodeId;
+        m_ipAddr = ipAddr;
+        m_serviceName = serviceName;
+    }
+
+    /**
+     * The {@link JdbcFilterDao} doesn't exclude deleted interfaces from the active
+     * addresses if the generated SQL mentions isManaged.
+     */
+    boolean overridesManagedFilter() {
+        return m_overridesManagedFilter;
+    }
+
+    /**
+     * Checks whether the node, interface or service the rule is constrained to
+     * with top-level equality comparisons is missing from the snapshot. The event
+     * that added it may not have been processed yet, so the caller should not
+     * trust the snapshot for the rule.
+     */
+    boolean isMissingFrom(final FilterSnapshot snapshot) {
+        final Collection<NodeEntry> nodes = getCandidateNodes(snapshot);
+        if (nodes.isEmpty()) {
+            return m_nodeId != null || m_ipAddr != null;
+        }
+        if (m_ipAddr == null && m_serviceName == null) {
+            return false;
+        }
+        for (final NodeEntry node : nodes) {
+            for (final InterfaceEntry iface : node.getInterfaces()) {
+                if ((m_ipAddr == null || m_ipAddr.equals(iface.getIpAddr()))
+                        && (m_serviceName == null || iface.getServices().contains(m_serviceName))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits the selected rows of the snapshot.
+     *
+     * @param withServices whether to join the services, even if the rule doesn't reference them
+     * @param activeOnly whether to skip deleted interfaces
+     * @param ipAddr only visit the interfaces with this address, if not null
+     * @param visitor receives the rows, and returns false to stop the scan
+     */
+    void scan(final FilterSnapshot snapshot, final boolean withServices, final boolean activeOnly, final String ipAddr, final RowVisitor visitor) {
+        final FilterRow row = new FilterRow(snapshot);
+        for (final NodeEntry node : getCandidateNodes(snapshot)) {
+            row.m_node = node;
+            final List<CategoryEntry> categories = m_usesCategories && !node.getCategories().isEmpty() ? node.getCategories() : NO_CATEGORIES;
+            for (final InterfaceEntry iface : node.getInterfaces()) {
+                if ((m_ipAddr != null && !m_ipAddr.equals(iface.getIpAddr()))
+                        || (ipAddr != null && !ipAddr.equals(iface.getIpAddr()))
+                        || (activeOnly && "D".equals(iface.getIsManaged()))) {
+                    continue;
+                }
+                row.m_interface = iface;
+                for (final String service : m_usesServices || withServices ? iface.getServices() : NO_SERVICES) {
+                    row.m_service = service;
+                    for (final CategoryEntry category : categories) {
+                        row.m_category = category;
+                        if ((m_condition == null || m_condition.test(row) == Boolean.TRUE) && !visitor.visit(row)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Collection<NodeEntry> getCandidateNodes(final FilterSnapshot snapshot) {
+        if (m_nodeId != null) {
+            final NodeEntry node = snapshot.getNode(m_nodeId);
+            return node == null ? Collections.emptyList() : Collections.singletonList(node);
+        } else if (m_ipAddr != null) {
+            return snapshot.getNodesWithAddress(m_ipAddr);
+        }
+        return snapshot.getNodes();
+    }
+
+    interface RowVisitor {
+        boolean visit(FilterRow row);
+    }
+
+    /**
+     * A row of the joined node, interface, service and category tables.
+     */
+    static class FilterRow {
+        private final FilterSnapshot m_snapshot;
+        private NodeEntry m_node;
+        private InterfaceEntry m_interface;
+        private String m_service;
+        private CategoryEntry m_category;
+
+        FilterRow(final FilterSnapshot snapshot) {
+            m_snapshot = snapshot;
+        }
+
+        FilterSnapshot getSnapshot() {
+            return m_snapshot;
+        }
+
+        NodeEntry getNode() {
+            return m_node;
+        }
+
+        InterfaceEntry getInterface() {
+            return m_interface;
+        }
+
+        String getService() {
+            return m_service;
+        }
+
+        CategoryEntry getCategory() {
+            return m_category;
+        }
+    }
+
+    enum Type {
+        INTEGER,
+        TEXT,
+        CHAR
+    }
+
+    /**
+     * A column of the database schema that is available in the snapshot.
+     */
+    static class Column {
+        private final String m_name;
+        private final Type m_type;
+        private final boolean m_service;
+        private final boolean m_category;
+        private final Function<FilterRow, Object> m_accessor;
+
+        Column(final String name, final Type type, final boolean service, final boolean category, final Function<FilterRow, Object> accessor) {
+            m_name = name;
+            m_type = type;
+            m_service = service;
+            m_category = category;
+            m_accessor = accessor;
+        }
+
+        String getName() {
+            return m_name;
+        }
+
+        Type getType() {
+            return m_type;
+        }
+
+        boolean isService() {
+            return m_service;
+        }
+
+        boolean isCategory() {
+            return m_category;
+        }
+
+        Object get(final FilterRow row) {
+            return m_accessor.apply(row);
+        }
+    }
+
+    /**
+     * A condition evaluating to TRUE, FALSE or UNKNOWN (null).
+     */
+    interface Condition {
+        Boolean test(FilterRow row);
+    }
+
+    static class And implements Condition {
+        private final Condition m_left;
+        private final Condition m_right;
+
+        And(final Condition left, final Condition right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        Condition getLeft() {
+            return m_left;
+        }
+
+        Condition getRight() {
+            return m_right;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            final Boolean left = m_left.test(row);
+            if (left == Boolean.FALSE) {
+                return Boolean.FALSE;
+            }
+            final Boolean right = m_right.test(row);
+            if (right == Boolean.FALSE) {
+                return Boolean.FALSE;
+            }
+            return left == null || right == null ? null : Boolean.TRUE;
+        }
+    }
+
+    static class Or implements Condition {
+        private final Condition m_left;
+        private final Condition m_right;
+
+        Or(final Condition left, final Condition right) {
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            final Boolean left = m_left.test(row);
+            if (left == Boolean.TRUE) {
+                return Boolean.TRUE;
+            }
+            final Boolean right = m_right.test(row);
+            if (right == Boolean.TRUE) {
+                return Boolean.TRUE;
+            }
+            return left == null || right == null ? null : Boolean.FALSE;
+        }
+    }
+
+    static class Not implements Condition {
+        private final Condition m_condition;
+
+        Not(final Condition condition) {
+            m_condition = condition;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            final Boolean value = m_condition.test(row);
+            return value == null ? null : Boolean.valueOf(!value);
+        }
+    }
+
+    static class Comparison implements Condition {
+        private final Column m_column;
+        private final String m_operator;
+        private final Object m_value;
+
+        /**
+         * @param value an {@link Integer} for integer columns, and a {@link String} otherwise
+         */
+        Comparison(final Column column, final String operator, final Object value) {
+            m_column = column;
+            m_operator = operator;
+            m_value = m_column.getType() == Type.CHAR ? trimTrailingSpaces((String)value) : value;
+        }
+
+        Column getColumn() {
+            return m_column;
+        }
+
+        boolean isEquality() {
+            return "=".equals(m_operator);
+        }
+
+        Object getValue() {
+            return m_value;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            Object value = m_column.get(row);
+            if (value == null) {
+                return null;
+            } else if (m_column.getType() == Type.CHAR) {
+                value = trimTrailingSpaces((String)value);
+            }
+
+            final int result;
+            if (m_column.getType() == Type.INTEGER) {
+                result = Integer.compare((Integer)value, (Integer)m_value);
+            } else {
+                // Only (in)equality is supported for text
+                result = value.equals(m_value) ? 0 : 1;
+            }
+
+            switch (m_operator) {
+                case "=": return result == 0;
+                case "!=":
+                case "<>": return result != 0;
+                case "<": return result < 0;
+                case "<=": return result <= 0;
+                case ">": return result > 0;
+                case ">=": return result >= 0;
+                default: throw new IllegalStateException("Unsupported operator " + m_operator);
+            }
+        }
+    }
+
+    static class In implements Condition {
+        private final Column m_column;
+        private final Set<Object> m_values;
+
+        In(final Column column, final Set<Object> values) {
+            m_column = column;
+            m_values = values;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : Boolean.valueOf(m_values.contains(value));
+        }
+    }
+
+    static class Like implements Condition {
+        private final Column m_column;
+        private final Pattern m_pattern;
+
+        Like(final Column column, final Pattern pattern) {
+            m_column = column;
+            m_pattern = pattern;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            final Object value = m_column.get(row);
+            return value == null ? null : Boolean.valueOf(m_pattern.matcher((String)value).matches());
+        }
+    }
+
+    static class IsNull implements Condition {
+        private final Column m_column;
+
+        IsNull(final Column column) {
+            m_column = column;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            return m_column.get(row) == null;
+        }
+    }
+
+    static class IpLike implements Condition {
+        private final String m_pattern;
+
+        IpLike(final String pattern) {
+            m_pattern = pattern;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            return IPLike.matches(row.getInterface().getIpAddr(), m_pattern);
+        }
+    }
+
+    /**
+     * The catincVALUE prefix: the node is in the category.
+     */
+    static class InCategory implements Condition {
+        private final String m_categoryName;
+
+        InCategory(final String categoryName) {
+            m_categoryName = categoryName;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            for (final CategoryEntry category : row.getNode().getCategories()) {
+                if (m_categoryName.equals(category.getName())) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    }
+
+    /**
+     * The notisVALUE prefix: no interface with the address of the row supports the service.
+     */
+    static class NotOnAddress implements Condition {
+        private final String m_serviceName;
+
+        NotOnAddress(final String serviceName) {
+            m_serviceName = serviceName;
+        }
+
+        @Override
+        public Boolean test(final FilterRow row) {
+            return !row.getSnapshot().isServiceOnAddress(row.getInterface().getIpAddr(), m_serviceName);
+        }
+    }
+
+    private static String trimTrailingSpaces(final String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+}
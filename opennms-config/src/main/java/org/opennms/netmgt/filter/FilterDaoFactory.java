@@ -92,8 +92,14 @@ public class FilterDaoFactory {
         jdbcFilterDao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
         
         jdbcFilterDao.afterPropertiesSet();
+
+        CompiledFilterDao compiledFilterDao = new CompiledFilterDao();
+        compiledFilterDao.setDelegate(jdbcFilterDao);
+        compiledFilterDao.setDataSource(jdbcFilterDao.getDataSource());
+        compiledFilterDao.setDatabaseSchemaConfigFactory(jdbcFilterDao.getDatabaseSchemaConfigFactory());
+        compiledFilterDao.afterPropertiesSet();
         
-        setInstance(jdbcFilterDao);
+        setInstance(compiledFilterDao);
     }
 
 }
@@ -0,0 +1,504 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
+import org.opennms.netmgt.config.filter.Table;
+import org.opennms.netmgt.filter.CompiledFilterRule.And;
+import org.opennms.netmgt.filter.CompiledFilterRule.Column;
+import org.opennms.netmgt.filter.CompiledFilterRule.Comparison;
+import org.opennms.netmgt.filter.CompiledFilterRule.Condition;
+import org.opennms.netmgt.filter.CompiledFilterRule.In;
+import org.opennms.netmgt.filter.CompiledFilterRule.InCategory;
+import org.opennms.netmgt.filter.CompiledFilterRule.IpLike;
+import org.opennms.netmgt.filter.CompiledFilterRule.IsNull;
+import org.opennms.netmgt.filter.CompiledFilterRule.Like;
+import org.opennms.netmgt.filter.CompiledFilterRule.Not;
+import org.opennms.netmgt.filter.CompiledFilterRule.NotOnAddress;
+import org.opennms.netmgt.filter.CompiledFilterRule.Or;
+import org.opennms.netmgt.filter.CompiledFilterRule.Type;
+
+/**
+ * Compiles filter rules into {@link CompiledFilterRule}s.
+ *
+ * The compiler accepts the same syntax as {@link JdbcFilterDao#parseRule}, including its
+ * aliases and prefixed values, but only for the columns held by the {@link FilterSnapshot}
+ * and the operators whose semantics can be reproduced exactly. Anything else, including
+ * rules that would fail to parse or to execute, raises an {@link UnsupportedRuleException},
+ * and is left to the database.
+ */
+class FilterRuleCompiler {
+    private static final Pattern IPLIKE6_RHS_PATTERN = Pattern.compile("^[0-9A-Fa-f:*,-]+$");
+    private static final Pattern IPLIKE_PATTERN_CHARS = Pattern.compile("[0-9a-f.:*,-]", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("-?[0-9]+");
+
+    private static final Map<String, Column> COLUMNS = new HashMap<>();
+    static {
+        addColumn("node", new Column("nodeID", Type.INTEGER, false, false, row -> row.getNode().getId()));
+        for (int i = 0; i < FilterSnapshot.NODE_COLUMNS.length; i++) {
+            final int index = i;
+            final String name = FilterSnapshot.NODE_COLUMNS[i];
+            final Type type = "nodeType".equals(name) || "nodeLabelSource".equals(name) ? Type.CHAR : Type.TEXT;
+            addColumn("node", new Column(name, type, false, false, row -> row.getNode().getAttribute(index)));
+        }
+        addColumn("ipInterface", new Column("ipAddr", Type.TEXT, false, false, row -> row.getInterface().getIpAddr()));
+        addColumn("ipInterface", new Column("ipHostname", Type.TEXT, false, false, row -> row.getInterface().getIpHostname()));
+        addColumn("ipInterface", new Column("isManaged", Type.CHAR, false, false, row -> row.getInterface().getIsManaged()));
+        addColumn("ipInterface", new Column("isSnmpPrimary", Type.CHAR, false, false, row -> row.getInterface().getIsSnmpPrimary()));
+        addColumn("service", new Column("serviceName", Type.TEXT, true, false, row -> row.getService()));
+        addColumn("categories", new Column("categoryID", Type.INTEGER, false, true, row -> row.getCategory() == null ? null : row.getCategory().getId()));
+        addColumn("categories", new Column("categoryName", Type.TEXT, false, true, row -> row.getCategory() == null ? null : row.getCategory().getName()));
+    }
+
+    private static void addColumn(final String table, final Column column) {
+        COLUMNS.put(key(table, column.getName()), column);
+    }
+
+    private static String key(final String table, final String column) {
+        return (table + "." + column).toLowerCase(Locale.ROOT);
+    }
+
+    private final DatabaseSchemaConfig m_databaseSchemaConfig;
+
+    FilterRuleCompiler(final DatabaseSchemaConfig databaseSchemaConfig) {
+        m_databaseSchemaConfig = databaseSchemaConfig;
+    }
+
+    CompiledFilterRule compile(final String rule) throws UnsupportedRuleException {
+        if (rule == null || rule.length() == 0) {
+            return new CompiledFilterRule(null, false, false, false, null, null, null);
+        }
+        return new Parser(rule).parse();
+    }
+
+    static class UnsupportedRuleException extends Exception {
+        private static final long serialVersionUID = -4012880963498937434L;
+
+        UnsupportedRuleException(final String message) {
+            super(message);
+        }
+    }
+
+    private enum TokenType {
+        STRING,
+        NUMBER,
+        WORD,
+        IPLIKE_PATTERN,
+        OPERATOR,
+        AND,
+        OR,
+        NOT,
+        LIKE,
+        IN,
+        IS,
+        NULL,
+        IPLIKE,
+        LPAREN,
+        RPAREN,
+        COMMA,
+        END
+    }
+
+    private static class Token {
+        private final TokenType m_type;
+        private final String m_text;
+
+        private Token(final TokenType type, final String text) {
+            m_type = type;
+            m_text = text;
+        }
+    }
+
+    private static List<Token> tokenize(final String rule) throws UnsupportedRuleException {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = rule.length();
+        int i = 0;
+        while (i < length) {
+            final char c = rule.charAt(i);
+            final char next = i + 1 < length ? rule.charAt(i + 1) : 0;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                // Pairs of quotes within a quoted string are an escaped quote character
+                final StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (true) {
+                    if (j >= length) {
+                        throw new UnsupportedRuleException("Unmatched " + c);
+                    } else if (rule.charAt(j) != c) {
+                        value.append(rule.charAt(j++));
+                    } else if (j + 1 < length && rule.charAt(j + 1) == c) {
+                        value.append(c);
+                        j += 2;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(new Token(TokenType.STRING, value.toString()));
+                i = j + 1;
+            } else if (c == '&' || c == '|') {
+                if (next == c) {
+                    // The JdbcFilterDao translates these into invalid SQL
+                    throw new UnsupportedRuleException("Unsupported operator " + c + c);
+                }
+                tokens.add(new Token(c == '&' ? TokenType.AND : TokenType.OR, null));
+                i++;
+            } else if (c == '!') {
+                if (next == '=') {
+                    tokens.add(new Token(TokenType.OPERATOR, "!="));
+                    i += 2;
+                } else {
+                    tokens.add(new Token(TokenType.NOT, null));
+                    i++;
+                }
+            } else if (c == '=') {
+                tokens.add(new Token(TokenType.OPERATOR, "="));
+                i += next == '=' ? 2 : 1;
+            } else if (c == '<' || c == '>') {
+                if (next == '=' || (c == '<' && next == '>')) {
+                    tokens.add(new Token(TokenType.OPERATOR, rule.substring(i, i + 2)));
+                    i += 2;
+                } else {
+                    tokens.add(new Token(TokenType.OPERATOR, String.valueOf(c)));
+                    i++;
+                }
+            } else if (c == '(') {
+                tokens.add(new Token(TokenType.LPAREN, null));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(TokenType.RPAREN, null));
+                i++;
+            } else if (c == ',') {
+                tokens.add(new Token(TokenType.COMMA, null));
+                i++;
+            } else if (isWordChar(c)) {
+                int j = i;
+                while (j < length && isWordChar(rule.charAt(j))) {
+                    j++;
+                }
+                final String word = rule.substring(i, j);
+                i = j;
+
+                final TokenType keyword = getKeyword(word);
+                if (keyword != null) {
+                    tokens.add(new Token(keyword, word));
+                    if (keyword == TokenType.IPLIKE) {
+                        i = tokenizeIplikePattern(rule, i, tokens);
+                    }
+                } else if (word.chars().anyMatch(Character::isLetter)) {
+                    tokens.add(new Token(TokenType.WORD, word));
+                } else if (INTEGER_PATTERN.matcher(word).matches()) {
+                    tokens.add(new Token(TokenType.NUMBER, word));
+                } else {
+                    throw new UnsupportedRuleException("Unsupported value " + word);
+                }
+            } else {
+                throw new UnsupportedRuleException("Unsupported character " + c);
+            }
+        }
+        tokens.add(new Token(TokenType.END, null));
+        return tokens;
+    }
+
+    /**
+     * When IPLIKE is used as an operator, the value doesn't have to be quoted.
+     */
+    private static int tokenizeIplikePattern(final String rule, final int start, final List<Token> tokens) throws UnsupportedRuleException {
+        int i = start;
+        while (i < rule.length() && Character.isWhitespace(rule.charAt(i))) {
+            i++;
+        }
+        if (i == start || i >= rule.length() || rule.charAt(i) == '\'' || rule.charAt(i) == '"' || rule.charAt(i) == '(') {
+            return start;
+        }
+        int j = i;
+        while (j < rule.length() && IPLIKE_PATTERN_CHARS.matcher(rule.substring(j, j + 1)).matches()) {
+            j++;
+        }
+        if (j == i || (j < rule.length() && isWordChar(rule.charAt(j)))) {
+            throw new UnsupportedRuleException("Unsupported IPLIKE value " + rule.substring(i));
+        }
+        tokens.add(new Token(TokenType.IPLIKE_PATTERN, rule.substring(i, j)));
+        return j;
+    }
+
+    private static boolean isWordChar(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    private static TokenType getKeyword(final String word) {
+        switch (word.toUpperCase(Locale.ROOT)) {
+            case "AND": return TokenType.AND;
+            case "OR": return TokenType.OR;
+            case "NOT": return TokenType.NOT;
+            case "LIKE": return TokenType.LIKE;
+            case "IN": return TokenType.IN;
+            case "IS": return TokenType.IS;
+            case "NULL": return TokenType.NULL;
+            case "IPLIKE": return TokenType.IPLIKE;
+            default: return null;
+        }
+    }
+
+    /**
+     * Converts a SQL LIKE pattern into a regular expression.
+     */
+    private static Pattern toRegex(final String like) throws UnsupportedRuleException {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            final char c = like.charAt(i);
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else if (c == '\\') {
+                if (++i >= like.length()) {
+                    throw new UnsupportedRuleException("LIKE pattern must not end with escape character");
+                }
+                regex.append(Pattern.quote(String.valueOf(like.charAt(i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private class Parser {
+        private final String m_rule;
+        private final List<Token> m_tokens;
+        private int m_position = 0;
+        private boolean m_usesServices = false;
+        private boolean m_usesCategories = false;
+
+        private Parser(final String rule) throws UnsupportedRuleException {
+            m_rule = rule;
+            m_tokens = tokenize(rule);
+        }
+
+        private CompiledFilterRule parse() throws UnsupportedRuleException {
+            final Condition condition = parseOr();
+            expect(TokenType.END);
+
+            // Use the top-level equality constraints, as added by the notification manager, to narrow the scans
+            Integer nodeId = null;
+            String ipAddr = null;
+            String serviceName = null;
+            final List<Condition> conjuncts = new ArrayList<>();
+            collectConjuncts(condition, conjuncts);
+            for (final Condition conjunct : conjuncts) {
+                if (conjunct instanceof Comparison && ((Comparison) conjunct).isEquality()) {
+                    final Comparison comparison = (Comparison) conjunct;
+                    final String column = comparison.getColumn().getName();
+                    if (nodeId == null && "nodeID".equals(column)) {
+                        nodeId = (Integer) comparison.getValue();
+                    } else if (ipAddr == null && "ipAddr".equals(column)) {
+                        ipAddr = (String) comparison.getValue();
+                    } else if (serviceName == null && "serviceName".equals(column)) {
+                        serviceName = (String) comparison.getValue();
+                    }
+                }
+            }
+
+            return new CompiledFilterRule(condition, m_usesServices, m_usesCategories, m_rule.contains("isManaged"), nodeId, ipAddr, serviceName);
+        }
+
+        private void collectConjuncts(final Condition condition, final List<Condition> conjuncts) {
+            if (condition instanceof And) {
+                collectConjuncts(((And) condition).getLeft(), conjuncts);
+                collectConjuncts(((And) condition).getRight(), conjuncts);
+            } else {
+                conjuncts.add(condition);
+            }
+        }
+
+        private Condition parseOr() throws UnsupportedRuleException {
+            Condition condition = parseAnd();
+            while (accept(TokenType.OR) != null) {
+                condition = new Or(condition, parseAnd());
+            }
+            return condition;
+        }
+
+        private Condition parseAnd() throws UnsupportedRuleException {
+            Condition condition = parseNot();
+            while (accept(TokenType.AND) != null) {
+                condition = new And(condition, parseNot());
+            }
+            return condition;
+        }
+
+        private Condition parseNot() throws UnsupportedRuleException {
+            if (accept(TokenType.NOT) != null) {
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        private Condition parsePrimary() throws UnsupportedRuleException {
+            if (accept(TokenType.LPAREN) != null) {
+                final Condition condition = parseOr();
+                expect(TokenType.RPAREN);
+                return condition;
+            } else if (accept(TokenType.IPLIKE) != null) {
+                expect(TokenType.LPAREN);
+                final Column column = parseColumn();
+                expect(TokenType.COMMA);
+                final String pattern = expect(TokenType.STRING).m_text;
+                expect(TokenType.RPAREN);
+                return ipLike(column, pattern);
+            }
+
+            final String word = expect(TokenType.WORD).m_text;
+            if (word.startsWith("is")) {
+                return new Comparison(toColumn("serviceName"), "=", word.substring(2));
+            } else if (word.startsWith("notis")) {
+                return new NotOnAddress(word.substring(5));
+            } else if (word.startsWith("catinc")) {
+                return new InCategory(word.substring(6));
+            }
+            return parsePredicate(toColumn(word));
+        }
+
+        private Condition parsePredicate(final Column column) throws UnsupportedRuleException {
+            final Token operator = accept(TokenType.OPERATOR);
+            if (operator != null) {
+                if (column.getType() != Type.INTEGER && !"=".equals(operator.m_text) && !"!=".equals(operator.m_text) && !"<>".equals(operator.m_text)) {
+                    throw new UnsupportedRuleException("Unsupported text comparison " + operator.m_text);
+                }
+                return new Comparison(column, operator.m_text, parseValue(column));
+            } else if (accept(TokenType.IS) != null) {
+                final boolean not = accept(TokenType.NOT) != null;
+                expect(TokenType.NULL);
+                final Condition condition = new IsNull(column);
+                return not ? new Not(condition) : condition;
+            } else if (accept(TokenType.IPLIKE) != null) {
+                final Token pattern = accept(TokenType.IPLIKE_PATTERN);
+                return ipLike(column, pattern != null ? pattern.m_text : expect(TokenType.STRING).m_text);
+            }
+
+            final boolean not = accept(TokenType.NOT) != null;
+            final Condition condition;
+            if (accept(TokenType.LIKE) != null) {
+                if (column.getType() != Type.TEXT) {
+                    throw new UnsupportedRuleException("Unsupported LIKE on " + column.getName());
+                }
+                condition = new Like(column, toRegex(expect(TokenType.STRING).m_text));
+            } else if (accept(TokenType.IN) != null) {
+                if (column.getType() == Type.CHAR) {
+                    throw new UnsupportedRuleException("Unsupported IN on " + column.getName());
+                }
+                final Set<Object> values = new HashSet<>();
+                expect(TokenType.LPAREN);
+                do {
+                    values.add(parseValue(column));
+                } while (accept(TokenType.COMMA) != null);
+                expect(TokenType.RPAREN);
+                condition = new In(column, values);
+            } else {
+                throw new UnsupportedRuleException("Unsupported expression on " + column.getName());
+            }
+            return not ? new Not(condition) : condition;
+        }
+
+        private Object parseValue(final Column column) throws UnsupportedRuleException {
+            final Token token = accept(TokenType.STRING);
+            if (column.getType() != Type.INTEGER) {
+                if (token == null) {
+                    throw new UnsupportedRuleException("Unsupported unquoted value for " + column.getName());
+                }
+                return token.m_text;
+            }
+            // Like PostgreSQL, accept quoted integers for integer columns
+            final String text = token != null ? token.m_text.trim() : expect(TokenType.NUMBER).m_text;
+            try {
+                return Integer.valueOf(text);
+            } catch (final NumberFormatException e) {
+                throw new UnsupportedRuleException("Invalid integer " + text);
+            }
+        }
+
+        private Condition ipLike(final Column column, final String pattern) throws UnsupportedRuleException {
+            if (!"ipAddr".equals(column.getName())) {
+                throw new UnsupportedRuleException("Unsupported IPLIKE on " + column.getName());
+            }
+            try {
+                IPLike.matches("0.0.0.0", pattern);
+                IPLike.matches("::", pattern);
+            } catch (final RuntimeException e) {
+                throw new UnsupportedRuleException("Unsupported IPLIKE value " + pattern);
+            }
+            return new IpLike(pattern);
+        }
+
+        private Column parseColumn() throws UnsupportedRuleException {
+            return toColumn(expect(TokenType.WORD).m_text);
+        }
+
+        private Column toColumn(final String word) throws UnsupportedRuleException {
+            if (IPLIKE6_RHS_PATTERN.matcher(word).matches()) {
+                throw new UnsupportedRuleException("Unsupported value " + word);
+            }
+            final Table table = m_databaseSchemaConfig.findTableByVisibleColumn(word);
+            final Column column = table == null ? null : COLUMNS.get(key(table.getName(), word));
+            if (column == null) {
+                throw new UnsupportedRuleException("Unsupported column " + word);
+            }
+            m_usesServices |= column.isService();
+            m_usesCategories |= column.isCategory();
+            return column;
+        }
+
+        private Token accept(final TokenType type) {
+            final Token token = m_tokens.get(m_position);
+            if (token.m_type != type) {
+                return null;
+            }
+            m_position++;
+            return token;
+        }
+
+        private Token expect(final TokenType type) throws UnsupportedRuleException {
+            final Token token = accept(type);
+            if (token == null) {
+                throw new UnsupportedRuleException("Expected " + type + " instead of " + m_tokens.get(m_position).m_type);
+            }
+            return token;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+
+/**
+ * An in-memory copy of the node, interface, service and category attributes
+ * that the {@link CompiledFilterDao} evaluates filter rules against.
+ *
+ * The snapshot is loaded in full from the database and afterwards kept up to
+ * date one node at a time with {@link #refreshNode(DataSource, int)} and
+ * {@link #refreshAddedNodes(DataSource)}. The
+ * entries themselves are never modified once they are published, so readers
+ * don't need any locking.
+ */
+class FilterSnapshot {
+    /**
+     * The text columns of the node table, in the order of {@link NodeEntry#getAttribute(int)}.
+     */
+    static final String[] NODE_COLUMNS = new String[] {
+        "location",
+        "nodeType",
+        "nodeSysOID",
+        "nodeSysName",
+        "nodeSysDescription",
+        "nodeSysLocation",
+        "nodeSysContact",
+        "nodeLabel",
+        "nodeLabelSource",
+        "nodeNetbiosName",
+        "nodeDomainName",
+        "operatingSystem",
+        "foreignSource",
+        "foreignID"
+    };
+
+    private static final int NODE_LABEL = 7;
+
+    private static final String NODE_SQL = "SELECT node.nodeID, node." + String.join(", node.", NODE_COLUMNS) + " FROM node";
+    private static final String INTERFACE_SQL = "SELECT ipInterface.id, ipInterface.nodeID, ipInterface.ipAddr, ipInterface.ipHostname, ipInterface.isManaged, ipInterface.isSnmpPrimary FROM ipInterface";
+    private static final String SERVICE_SQL = "SELECT ipInterface.id, service.serviceName, ifServices.id FROM ipInterface JOIN ifServices ON (ipInterface.id = ifServices.ipInterfaceId) JOIN service ON (ifServices.serviceID = service.serviceID)";
+    private static final String CATEGORY_SQL = "SELECT category_node.nodeID, categories.categoryID, categories.categoryName FROM category_node JOIN categories ON (category_node.categoryID = categories.categoryID)";
+
+    /**
+     * The node, interface and service rows added after the given ID, as pairs of the ID and the node ID.
+     */
+    static final String[] ADDED_SQL = new String[] {
+        "SELECT node.nodeID, node.nodeID FROM node WHERE node.nodeID > ?",
+        "SELECT ipInterface.id, ipInterface.nodeID FROM ipInterface WHERE ipInterface.id > ?",
+        "SELECT ifServices.id, ipInterface.nodeID FROM ifServices JOIN ipInterface ON (ifServices.ipInterfaceId = ipInterface.id) WHERE ifServices.id > ?"
+    };
+
+    private static final int NODE_ID = 0;
+    private static final int INTERFACE_ID = 1;
+    private static final int SERVICE_ID = 2;
+
+    private final ConcurrentNavigableMap<Integer, NodeEntry> m_nodes = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Set<Integer>> m_nodesByAddress = new ConcurrentHashMap<>();
+    private final long m_generation;
+    private final long m_loadTime;
+    // The highest node, interface and service IDs seen when loading the snapshot or refreshing the added nodes
+    private final long[] m_maxIds = new long[ADDED_SQL.length];
+
+    FilterSnapshot(final long generation, final long loadTime) {
+        m_generation = generation;
+        m_loadTime = loadTime;
+    }
+
+    /**
+     * Loads the attributes of all nodes from the database.
+     *
+     * @param dataSource the database to read from
+     * @param generation an opaque marker stored with the snapshot
+     */
+    static FilterSnapshot load(final DataSource dataSource, final long generation) throws SQLException {
+        final FilterSnapshot snapshot = new FilterSnapshot(generation, System.currentTimeMillis());
+        for (final NodeEntry node : query(dataSource, null, snapshot.m_maxIds)) {
+            snapshot.putNode(node);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reloads the attributes of a single node from the database, removing the node
+     * from the snapshot if it no longer exists.
+     */
+    void refreshNode(final DataSource dataSource, final int nodeId) throws SQLException {
+        final List<NodeEntry> nodes = query(dataSource, nodeId, null);
+        if (nodes.isEmpty()) {
+            removeNode(nodeId);
+        } else {
+            putNode(nodes.get(0));
+        }
+    }
+
+    /**
+     * Reloads the nodes that gained a node, interface or service row since the snapshot was
+     * loaded or since the last call, which only takes a range scan of each primary key.
+     *
+     * Rows that are changed or deleted aren't detected, and neither are rows committed after a
+     * row with a higher ID was seen. The node events sent for these keep the snapshot current.
+     *
+     * @return the number of nodes that were reloaded
+     */
+    int refreshAddedNodes(final DataSource dataSource) throws SQLException {
+        final long[] maxIds = m_maxIds.clone();
+        final Set<Integer> nodeIds = new TreeSet<>();
+
+        final DBUtils d = new DBUtils(FilterSnapshot.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+
+            for (int i = 0; i < ADDED_SQL.length; i++) {
+                final PreparedStatement stmt = conn.prepareStatement(ADDED_SQL[i]);
+                d.watch(stmt);
+                stmt.setLong(1, maxIds[i]);
+                final ResultSet rset = stmt.executeQuery();
+                d.watch(rset);
+                while (rset.next()) {
+                    maxIds[i] = Math.max(maxIds[i], rset.getLong(1));
+                    nodeIds.add(rset.getInt(2));
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        for (final Integer nodeId : nodeIds) {
+            refreshNode(dataSource, nodeId);
+        }
+        // Only once the nodes are reloaded, so that they are retried if that fails
+        System.arraycopy(maxIds, 0, m_maxIds, 0, maxIds.length);
+        return nodeIds.size();
+    }
+
+    void putNode(final NodeEntry node) {
+        final NodeEntry previous = m_nodes.put(node.getId(), node);
+        if (previous != null) {
+            unindex(previous);
+        }
+        for (final InterfaceEntry iface : node.getInterfaces()) {
+            m_nodesByAddress.compute(iface.getIpAddr(), (addr, nodeIds) -> {
+                final Set<Integer> updated = nodeIds == null ? new TreeSet<>() : new TreeSet<>(nodeIds);
+                updated.add(node.getId());
+                return Collections.unmodifiableSet(updated);
+            });
+        }
+    }
+
+    void removeNode(final int nodeId) {
+        final NodeEntry previous = m_nodes.remove(nodeId);
+        if (previous != null) {
+            unindex(previous);
+        }
+    }
+
+    private void unindex(final NodeEntry node) {
+        for (final InterfaceEntry iface : node.getInterfaces()) {
+            m_nodesByAddress.computeIfPresent(iface.getIpAddr(), (addr, nodeIds) -> {
+                final Set<Integer> updated = new TreeSet<>(nodeIds);
+                updated.remove(node.getId());
+                return updated.isEmpty() ? null : Collections.unmodifiableSet(updated);
+            });
+        }
+    }
+
+    long getGeneration() {
+        return m_generation;
+    }
+
+    long getLoadTime() {
+        return m_loadTime;
+    }
+
+    int getNodeCount() {
+        return m_nodes.size();
+    }
+
+    NodeEntry getNode(final int nodeId) {
+        return m_nodes.get(nodeId);
+    }
+
+    /**
+     * @return all nodes, ordered by node ID
+     */
+    Collection<NodeEntry> getNodes() {
+        return m_nodes.values();
+    }
+
+    /**
+     * @return the nodes with an interface with the given address, ordered by node ID
+     */
+    List<NodeEntry> getNodesWithAddress(final String ipAddr) {
+        final Set<Integer> nodeIds = m_nodesByAddress.get(ipAddr);
+        if (nodeIds == null) {
+            return Collections.emptyList();
+        }
+        final List<NodeEntry> nodes = new ArrayList<>(nodeIds.size());
+        for (final Integer nodeId : nodeIds) {
+            final NodeEntry node = m_nodes.get(nodeId);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return true if an interface with the given address on any node supports the service
+     */
+    boolean isServiceOnAddress(final String ipAddr, final String serviceName) {
+        for (final NodeEntry node : getNodesWithAddress(ipAddr)) {
+            for (final InterfaceEntry iface : node.getInterfaces()) {
+                if (iface.getIpAddr().equals(ipAddr) && iface.getServices().contains(serviceName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param maxIds if not null, updated with the highest node, interface and service IDs read
+     */
+    private static List<NodeEntry> query(final DataSource dataSource, final Integer nodeId, final long[] maxIds) throws SQLException {
+        final Map<Integer, NodeEntry> nodes = new HashMap<>();
+        final Map<Integer, InterfaceEntry> interfaces = new HashMap<>();
+
+        final DBUtils d = new DBUtils(FilterSnapshot.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+
+            ResultSet rset = executeQuery(d, conn, NODE_SQL, "node.nodeID", nodeId);
+            while (rset.next()) {
+                updateMaxId(maxIds, NODE_ID, rset.getLong(1));
+                final String[] attributes = new String[NODE_COLUMNS.length];
+                for (int i = 0; i < attributes.length; i++) {
+                    attributes[i] = rset.getString(i + 2);
+                }
+                nodes.put(rset.getInt(1), new NodeEntry(rset.getInt(1), attributes));
+            }
+
+            rset = executeQuery(d, conn, INTERFACE_SQL, "ipInterface.nodeID", nodeId);
+            while (rset.next()) {
+                updateMaxId(maxIds, INTERFACE_ID, rset.getLong(1));
+                final NodeEntry node = nodes.get(rset.getInt(2));
+                final String ipAddr = rset.getString(3);
+                if (node == null || ipAddr == null) {
+                    continue;
+                }
+                final InterfaceEntry iface = new InterfaceEntry(ipAddr, rset.getString(4), rset.getString(5), rset.getString(6));
+                node.m_interfaces.add(iface);
+                interfaces.put(rset.getInt(1), iface);
+            }
+
+            rset = executeQuery(d, conn, SERVICE_SQL, "ipInterface.nodeID", nodeId);
+            while (rset.next()) {
+                updateMaxId(maxIds, SERVICE_ID, rset.getLong(3));
+                final InterfaceEntry iface = interfaces.get(rset.getInt(1));
+                if (iface != null) {
+                    iface.m_services.add(rset.getString(2));
+                }
+            }
+
+            rset = executeQuery(d, conn, CATEGORY_SQL, "category_node.nodeID", nodeId);
+            while (rset.next()) {
+                final NodeEntry node = nodes.get(rset.getInt(1));
+                if (node != null) {
+                    node.m_categories.add(new CategoryEntry(rset.getInt(2), rset.getString(3)));
+                }
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return new ArrayList<>(nodes.values());
+    }
+
+    private static void updateMaxId(final long[] maxIds, final int index, final long id) {
+        if (maxIds != null) {
+            maxIds[index] = Math.max(maxIds[index], id);
+        }
+    }
+
+    private static ResultSet executeQuery(final DBUtils d, final Connection conn, final String sql, final String nodeIdColumn, final Integer nodeId) throws SQLException {
+        final PreparedStatement stmt = conn.prepareStatement(nodeId == null ? sql : sql + " WHERE " + nodeIdColumn + " = ?");
+        d.watch(stmt);
+        if (nodeId != null) {
+            stmt.setInt(1, nodeId);
+        }
+        final ResultSet rset = stmt.executeQuery();
+        d.watch(rset);
+        return rset;
+    }
+
+    static class NodeEntry {
+        private final int m_id;
+        private final String[] m_attributes;
+        private final List<InterfaceEntry> m_interfaces = new ArrayList<>();
+        private final List<CategoryEntry> m_categories = new ArrayList<>();
+
+        NodeEntry(final int id, final String[] attributes) {
+            m_id = id;
+            m_attributes = attributes;
+        }
+
+        int getId() {
+            return m_id;
+        }
+
+        String getLabel() {
+            return m_attributes[NODE_LABEL];
+        }
+
+        /**
+         * @param index the index of the column in {@link FilterSnapshot#NODE_COLUMNS}
+         */
+        String getAttribute(final int index) {
+            return m_attributes[index];
+        }
+
+        List<InterfaceEntry> getInterfaces() {
+            return m_interfaces;
+        }
+
+        List<CategoryEntry> getCategories() {
+            return m_categories;
+        }
+
+        NodeEntry addInterface(final InterfaceEntry iface) {
+            m_interfaces.add(iface);
+            return this;
+        }
+
+        NodeEntry addCategory(final CategoryEntry category) {
+            m_categories.add(category);
+            return this;
+        }
+    }
+
+    static class InterfaceEntry {
+        private final String m_ipAddr;
+        private final String m_ipHostname;
+        private final String m_isManaged;
+        private final String m_isSnmpPrimary;
+        private final List<String> m_services = new ArrayList<>();
+
+        InterfaceEntry(final String ipAddr, final String ipHostname, final String isManaged, final String isSnmpPrimary) {
+            m_ipAddr = ipAddr;
+            m_ipHostname = ipHostname;
+            m_isManaged = isManaged;
+            m_isSnmpPrimary = isSnmpPrimary;
+        }
+
+        String getIpAddr() {
+            return m_ipAddr;
+        }
+
+        String getIpHostname() {
+            return m_ipHostname;
+        }
+
+        String getIsManaged() {
+            return m_isManaged;
+        }
+
+        String getIsSnmpPrimary() {
+            return m_isSnmpPrimary;
+        }
+
+        List<String> getServices() {
+            return m_services;
+        }
+
+        InterfaceEntry addService(final String serviceName) {
+            m_services.add(serviceName);
+            return this;
+        }
+    }
+
+    static class CategoryEntry {
+        private final int m_id;
+        private final String m_name;
+
+        CategoryEntry(final int id, final String name) {
+            m_id = id;
+            m_name = name;
+        }
+
+        int getId() {
+            return m_id;
+        }
+
+        String getName() {
+            return m_name;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressComparator;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+import org.opennms.netmgt.filter.FilterSnapshot.CategoryEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.InterfaceEntry;
+import org.opennms.netmgt.filter.FilterSnapshot.NodeEntry;
+import org.opennms.netmgt.filter.api.FilterDao;
+
+public class CompiledFilterDaoTest {
+
+    private FilterDao m_delegate;
+
+    private DataSource m_dataSource;
+
+    private CompiledFilterDao m_dao;
+
+    @Before
+    public void setUp() throws Exception {
+        m_delegate = mock(FilterDao.class);
+        m_dataSource = mock(DataSource.class);
+        when(m_dataSource.getConnection()).thenThrow(new SQLException("no database"));
+
+        m_dao = new CompiledFilterDao();
+        m_dao.setDelegate(m_delegate);
+        m_dao.setDataSource(m_dataSource);
+        m_dao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory());
+        m_dao.setEnabled(true);
+        m_dao.setMaxSnapshotAge(Long.MAX_VALUE);
+        m_dao.afterPropertiesSet();
+
+        final FilterSnapshot snapshot = new FilterSnapshot(m_dao.getGeneration(), System.currentTimeMillis());
+        snapshot.putNode(node(1, "alpha", "router")
+                .addInterface(new InterfaceEntry("192.168.1.1", "alpha.example.com", "M", "P").addService("ICMP").addService("SNMP"))
+                .addInterface(new InterfaceEntry("10.0.0.1", null, "D", "N").addService("ICMP"))
+                .addCategory(new CategoryEntry(1, "Servers"))
+                .addCategory(new CategoryEntry(2, "Production")));
+        snapshot.putNode(node(2, "beta", null)
+                .addInterface(new InterfaceEntry("192.168.1.2", null, "M", "N").addService("HTTP"))
+                .addInterface(new InterfaceEntry("10.0.0.1", null, "M", "N")));
+        snapshot.putNode(node(3, "gamma", null));
+        m_dao.setSnapshot(snapshot);
+    }
+
+    private static NodeEntry node(final int nodeId, final String label, final String sysName) {
+        final String[] attributes = new String[FilterSnapshot.NODE_COLUMNS.length];
+        attributes[Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("location")] = "Default";
+        attributes[Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("nodeType")] = "A";
+        attributes[Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("nodeLabel")] = label;
+        attributes[Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("nodeSysName")] = sysName;
+        return new NodeEntry(nodeId, attributes);
+    }
+
+    @Test
+    public void canEvaluateRulesInMemory() {
+        assertAddresses("IPADDR IPLIKE 192.168.*.*", "192.168.1.1", "192.168.1.2");
+        assertAddresses("ipaddr != '0.0.0.0'", "192.168.1.1", "10.0.0.1", "192.168.1.2");
+        assertAddresses("isICMP", "192.168.1.1", "10.0.0.1");
+        assertAddresses("notisICMP", "192.168.1.2");
+        assertAddresses("catincServers", "192.168.1.1", "10.0.0.1");
+        assertAddresses("(nodeLabel like 'b%' | nodeId == 1) & IsSnmpPrimary = 'P'", "192.168.1.1");
+        assertAddresses("nodeid IN (1, '2') AND NOT ipaddr = '10.0.0.1'", "192.168.1.1", "192.168.1.2");
+        assertAddresses("nodeType = 'A ' & ipHostname IS NOT NULL", "192.168.1.1");
+        assertAddresses("IPLIKE(ipaddr, '10.0.0.1-5')", "10.0.0.1");
+
+        assertEquals(Collections.singletonMap(1, "alpha"), m_dao.getNodeMap("categoryName == 'Production' & nodeLabel LIKE 'al%'"));
+        assertEquals(Collections.singletonMap(1, "alpha"), m_dao.getNodeMap("categoryID > 1"));
+        assertEquals(Collections.singletonMap(2, "beta"), m_dao.getNodeMap("categoryName IS NULL"));
+
+        verify(m_delegate, never()).getIPAddressList(anyString());
+        verify(m_delegate, never()).getNodeMap(anyString());
+    }
+
+    @Test
+    public void usesThreeValuedLogic() {
+        // The sysName of beta is NULL, so neither the comparison nor its negation is true
+        assertEquals(Collections.singletonMap(1, "alpha"), m_dao.getNodeMap("nodeSysName == 'router'"));
+        assertEquals(Collections.emptyMap(), m_dao.getNodeMap("!(nodeSysName == 'router')"));
+        assertEquals(Collections.singletonMap(2, "beta"), m_dao.getNodeMap("nodeSysName IS NULL"));
+    }
+
+    @Test
+    public void canGetActiveAddressesAndServices() {
+        assertEquals(Arrays.asList(addr("192.168.1.1")), m_dao.getActiveIPAddressList("isICMP"));
+        assertTrue(m_dao.isValid("192.168.1.1", "isICMP"));
+        assertFalse(m_dao.isValid("10.0.0.1", "isICMP"));
+        assertTrue(m_dao.isValid("10.0.0.1", ""));
+
+        final Map<Integer, Map<InetAddress, Set<String>>> expected = new TreeMap<>();
+        expected.put(1, new TreeMap<>(new InetAddressComparator()));
+        expected.get(1).put(addr("192.168.1.1"), new TreeSet<>(Arrays.asList("ICMP", "SNMP")));
+        expected.get(1).put(addr("10.0.0.1"), new TreeSet<>(Arrays.asList("ICMP")));
+        assertEquals(expected, m_dao.getNodeIPAddressServiceMap("nodeLabel == 'alpha'"));
+        assertEquals(expected.get(1), m_dao.getIPAddressServiceMap("nodeLabel == 'alpha'"));
+    }
+
+    @Test
+    public void canMatchNotificationRules() {
+        assertTrue(m_dao.isRuleMatching("((IPADDR IPLIKE *.*.*.*) & (nodeId == 2) & (ipAddr == '192.168.1.2') & (serviceName == 'HTTP'))"));
+        assertFalse(m_dao.isRuleMatching("((catincServers) & (nodeId == 2) & (ipAddr == '192.168.1.2'))"));
+        verify(m_delegate, never()).isRuleMatching(anyString());
+
+        // The node, interface or service may have been added after the snapshot was updated
+        final String unknownNode = "((IPADDR IPLIKE *.*.*.*) & (nodeId == 4))";
+        when(m_delegate.isRuleMatching(unknownNode)).thenReturn(true);
+        assertTrue(m_dao.isRuleMatching(unknownNode));
+        final String unknownService = "((IPADDR IPLIKE *.*.*.*) & (nodeId == 2) & (ipAddr == '192.168.1.2') & (serviceName == 'ICMP'))";
+        when(m_delegate.isRuleMatching(unknownService)).thenReturn(true);
+        assertTrue(m_dao.isRuleMatching(unknownService));
+    }
+
+    @Test
+    public void usesDelegateForUnsupportedRules() {
+        final List<String> rules = Arrays.asList(
+                "snmpIfType == 6",
+                "building == 'A'",
+                "nodeLabel == 'alpha' && nodeId == 1",
+                "nodeLabel < 'b'",
+                "nodeLabel == alpha",
+                "nodeId == 'one'",
+                "ipaddr IN (SELECT ipaddr FROM ipinterface)",
+                "nodeLabel == 'alpha");
+
+        for (final String rule : rules) {
+            when(m_delegate.isRuleMatching(rule)).thenReturn(true);
+            assertTrue(rule, m_dao.isRuleMatching(rule));
+            verify(m_delegate).isRuleMatching(rule);
+        }
+
+        // The delegate doesn't exclude the deleted interfaces if the rule mentions isManaged
+        when(m_delegate.getActiveIPAddressList("nodeLabel != 'isManaged'")).thenReturn(Collections.emptyList());
+        m_dao.getActiveIPAddressList("nodeLabel != 'isManaged'");
+        verify(m_delegate).getActiveIPAddressList("nodeLabel != 'isManaged'");
+
+        m_dao.validateRule("isICMP");
+        verify(m_delegate).validateRule("isICMP");
+    }
+
+    @Test
+    public void refreshesAddedNodesWhenFlushed() throws Exception {
+        final List<String> statements = mockDatabase();
+        assertAddresses("isICMP", "192.168.1.1", "10.0.0.1");
+        assertTrue(statements.isEmpty());
+
+        // Node beta gained ICMP, but the event did not reach the snapshot yet
+        m_dao.flushActiveIpAddressListCache();
+        verify(m_delegate).flushActiveIpAddressListCache();
+        assertTrue(statements.isEmpty());
+        assertAddresses("isICMP", "192.168.1.1", "10.0.0.1", "192.168.1.2");
+
+        // Only the added rows and the node they belong to were read
+        assertEquals(FilterSnapshot.ADDED_SQL.length + 4, statements.size());
+        for (final String sql : statements) {
+            assertTrue(sql, sql.contains(" WHERE "));
+        }
+
+        // The snapshot is used as is until the next flush
+        assertAddresses("isICMP", "192.168.1.1", "10.0.0.1", "192.168.1.2");
+        assertEquals(FilterSnapshot.ADDED_SQL.length + 4, statements.size());
+        verify(m_delegate, never()).getIPAddressList(anyString());
+
+        // The snapshot can't be reloaded without a database, so the delegate is used
+        doThrow(new SQLException("no database")).when(m_dataSource).getConnection();
+        m_dao.flushActiveIpAddressListCache();
+        m_dao.getIPAddressList("catincProduction");
+        verify(m_delegate).getIPAddressList("catincProduction");
+    }
+
+    @Test
+    public void usesDelegateWhenDisabled() {
+        m_dao.setEnabled(false);
+        m_dao.isRuleMatching("isICMP");
+        verify(m_delegate).isRuleMatching("isICMP");
+    }
+
+    /**
+     * Answers the queries for the rows added since the snapshot was loaded with a service
+     * added to node beta, and the queries for node beta with its reloaded attributes.
+     *
+     * @return the statements that were executed
+     */
+    private List<String> mockDatabase() throws SQLException {
+        final Object[] beta = new Object[FilterSnapshot.NODE_COLUMNS.length + 1];
+        beta[0] = 2;
+        beta[1 + Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("location")] = "Default";
+        beta[1 + Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("nodeType")] = "A";
+        beta[1 + Arrays.asList(FilterSnapshot.NODE_COLUMNS).indexOf("nodeLabel")] = "beta";
+
+        final Map<String, Object[][]> rows = new LinkedHashMap<>();
+        rows.put(FilterSnapshot.ADDED_SQL[0], new Object[0][]);
+        rows.put(FilterSnapshot.ADDED_SQL[1], new Object[0][]);
+        rows.put(FilterSnapshot.ADDED_SQL[2], new Object[][] { { 7, 2 } });
+        rows.put("FROM node WHERE node.nodeID = ?", new Object[][] { beta });
+        rows.put("FROM ipInterface WHERE ipInterface.nodeID = ?", new Object[][] { { 5, 2, "192.168.1.2", null, "M", "N" } });
+        rows.put("JOIN service", new Object[][] { { 5, "HTTP", 6 }, { 5, "ICMP", 7 } });
+        rows.put("FROM category_node", new Object[0][]);
+
+        final List<String> statements = new ArrayList<>();
+        final Connection conn = mock(Connection.class);
+        when(conn.prepareStatement(anyString())).thenAnswer(invocation -> {
+            final String sql = invocation.getArgument(0);
+            statements.add(sql);
+            final Object[][] result = rows.entrySet().stream()
+                    .filter(e -> sql.contains(e.getKey()))
+                    .map(Map.Entry::getValue)
+                    .findFirst()
+                    .orElseThrow(() -> new SQLException("unexpected statement: " + sql));
+            final PreparedStatement stmt = mock(PreparedStatement.class);
+            final ResultSet rset = resultSet(result);
+            when(stmt.executeQuery()).thenReturn(rset);
+            return stmt;
+        });
+        doReturn(conn).when(m_dataSource).getConnection();
+        return statements;
+    }
+
+    private static ResultSet resultSet(final Object[][] rows) throws SQLException {
+        final ResultSet rset = mock(ResultSet.class);
+        final int[] row = new int[] { -1 };
+        when(rset.next()).thenAnswer(invocation -> ++row[0] < rows.length);
+        when(rset.getInt(anyInt())).thenAnswer(invocation -> ((Number) rows[row[0]][invocation.<Integer>getArgument(0) - 1]).intValue());
+        when(rset.getLong(anyInt())).thenAnswer(invocation -> ((Number) rows[row[0]][invocation.<Integer>getArgument(0) - 1]).longValue());
+        when(rset.getString(anyInt())).thenAnswer(invocation -> (String) rows[row[0]][invocation.<Integer>getArgument(0) - 1]);
+        return rset;
+    }
+
+    private void assertAddresses(final String rule, final String... addresses) {
+        assertEquals(rule, Arrays.asList(addresses), m_dao.getIPAddressList(rule).stream()
+                .map(a -> a.getHostAddress())
+                .collect(Collectors.toList()));
+    }
+}
@@ -31,34 +31,27 @@ package org.opennms.netmgt.dao.hibernate;
 import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.opennms.core.criteria.CriteriaBuilder;
-import org.opennms.core.utils.LocationUtils;
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
-import org.opennms.netmgt.model.PrimaryType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -66,10 +59,10 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.SortedSetMultimap;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
@@ -85,120 +78,21 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache implements InterfaceToNodeCache {
     private static final Logger LOG = LoggerFactory.getLogger(InterfaceToNodeCacheDaoImpl.class);
 
+    /**
+     * Selects the store holding the cached interfaces: {@value #MULTIMAP_STORE} (default) uses a sorted multimap
+     * guarded by a read-write lock, {@value #SNAPSHOT_STORE} uses an immutable hash table that is swapped on changes
+     * so that lookups never block.
+     */
+    public static final String STORE_SYS_PROP = "org.opennms.interface-node-cache.store";
+    public static final String MULTIMAP_STORE = "multimap";
+    public static final String SNAPSHOT_STORE = "snapshot";
+
     private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
             .setNameFormat("sync-interface-to-node-cache")
             .build();
     private final ExecutorService executorService = Executors.newSingleThreadExecutor(threadFactory);
     private final CountDownLatch initialNodeSyncDone = new CountDownLatch(1);
 
-    private static class Key {
-        private final String location;
-        private final InetAddress ipAddress;
-
-        public Key(String location, InetAddress ipAddress) {
-            // Use the default location when location is null
-            this.location = LocationUtils.getEffectiveLocationName(location);
-            this.ipAddress = Objects.requireNonNull(ipAddress);
-        }
-
-        public InetAddress getIpAddress() {
-            return ipAddress;
-        }
-
-        public String getLocation() {
-            return location;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (obj == this) {
-                return true;
-            }
-            if (obj.getClass() != getClass()) {
-                return false;
-            }
-            final Key that = (Key) obj;
-            return Objects.equals(this.ipAddress, that.ipAddress)
-                    && Objects.equals(this.location, that.location);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.ipAddress, this.location);
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Key[location='%s', ipAddress='%s']", this.location, this.ipAddress);
-        }
-    }
-
-    private static class Value implements Comparable<Value> {
-        private final int nodeId;
-        private final int interfaceId;
-        private final PrimaryType type;
-
-
-        private Value(final int nodeId,
-                      final int interfaceId,
-                      final PrimaryType type) {
-            this.nodeId = nodeId;
-            this.interfaceId = interfaceId;
-            this.type = type;
-        }
-
-        public int getNodeId() {
-            return this.nodeId;
-        }
-
-        public int getInterfaceId() {
-            return this.interfaceId;
-        }
-
-        public PrimaryType getType() {
-            return this.type;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (obj == this) {
-                return true;
-            }
-            if (obj.getClass() != getClass()) {
-                return false;
-            }
-            final Value that = (Value) obj;
-            return Objects.equals(this.nodeId, that.nodeId)
-                    && Objects.equals(this.interfaceId, that.interfaceId)
-                    && Objects.equals(this.type, that.type);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.nodeId, this.type.getCharCode());
-        }
-
-        @Override
-        public String toString() {
-            return String.format("Value[nodeId='%s', interfaceId='%s', type='%s']", this.nodeId, this.interfaceId, this.type);
-        }
-
-        @Override
-        public int compareTo(final Value that) {
-            return ComparisonChain.start()
-                    .compare(this.type, that.type)
-                    .compare(this.nodeId, that.nodeId)
-                    .compare(this.interfaceId, that.interfaceId)
-                    .result();
-        }
-    }
-
     @Autowired
     private NodeDao m_nodeDao;
 
@@ -208,10 +102,14 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     @Autowired
     private TransactionOperations transactionOperations;
 
-    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
-    private SortedSetMultimap<Key, Value> m_managedAddresses = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+    private final InterfaceToNodeStore m_store;
 
-    private final Timer refreshTimer = new Timer(getClass().getSimpleName());
+    private MetricRegistry m_metricRegistry = new MetricRegistry();
+    private Meter m_hits;
+    private Meter m_misses;
+    private Timer m_syncTimer;
+
+    private final java.util.Timer refreshTimer = new java.util.Timer(getClass().getSimpleName());
 
     // in ms
     private final long refreshRate;
@@ -221,11 +119,31 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
     }
 
     public InterfaceToNodeCacheDaoImpl(long refreshRate) {
+        this(refreshRate, System.getProperty(STORE_SYS_PROP, MULTIMAP_STORE));
+    }
+
+    public InterfaceToNodeCacheDaoImpl(long refreshRate, String store) {
         this.refreshRate = refreshRate;
+        this.m_store = createStore(store);
+    }
+
+    private static InterfaceToNodeStore createStore(final String store) {
+        if (SNAPSHOT_STORE.equalsIgnoreCase(store)) {
+            return new SnapshotInterfaceToNodeStore();
+        }
+        if (store != null && !MULTIMAP_STORE.equalsIgnoreCase(store)) {
+            LOG.warn("Unknown interface to node cache store '{}', using '{}'.", store, MULTIMAP_STORE);
+        }
+        return new MultimapInterfaceToNodeStore();
     }
 
     @PostConstruct
     public void init() {
+        m_hits = m_metricRegistry.meter(MetricRegistry.name("interfaceToNodeCache", "hits"));
+        m_misses = m_metricRegistry.meter(MetricRegistry.name("interfaceToNodeCache", "misses"));
+        m_syncTimer = m_metricRegistry.timer(MetricRegistry.name("interfaceToNodeCache", "sync"));
+        m_metricRegistry.register(MetricRegistry.name("interfaceToNodeCache", "size"), (Gauge<Integer>) m_store::size);
+
         // sync datasource asynchronously in order to not block bean initialization.
         syncDataSourceAsynchronously().whenComplete((result, ex) -> {
             initialNodeSyncDone.countDown();
@@ -258,6 +176,14 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
         m_nodeDao = nodeDao;
     }
 
+    public MetricRegistry getMetricRegistry() {
+        return m_metricRegistry;
+    }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        m_metricRegistry = Objects.requireNonNull(metricRegistry);
+    }
+
     public IpInterfaceDao getIpInterfaceDao() {
         return m_ipInterfaceDao;
     }
@@ -300,32 +226,29 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
          * if something goes wrong with the DB we won't lose whatever was already
          * in there
          */
-        final SortedSetMultimap<Key, Value> newAlreadyDiscovered = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
-
-        // Fetch all non-deleted nodes
-        final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
-        builder.ne("type", String.valueOf(OnmsNode.NodeType.DELETED.value()));
-
-        for (OnmsNode node : m_nodeDao.findMatching(builder.toCriteria())) {
-            for (final OnmsIpInterface iface : node.getIpInterfaces()) {
-                // Skip deleted interfaces
-                // TODO: Refactor the 'D' value with an enumeration
-                if ("D".equals(iface.getIsManaged())) {
-                    continue;
+        final List<InterfaceToNodeStore.Mapping> newAlreadyDiscovered = new ArrayList<>();
+
+        try (Timer.Context ctx = m_syncTimer.time()) {
+            // Fetch all non-deleted nodes
+            final CriteriaBuilder builder = new CriteriaBuilder(OnmsNode.class);
+            builder.ne("type", String.valueOf(OnmsNode.NodeType.DELETED.value()));
+
+            for (OnmsNode node : m_nodeDao.findMatching(builder.toCriteria())) {
+                for (final OnmsIpInterface iface : node.getIpInterfaces()) {
+                    // Skip deleted interfaces
+                    // TODO: Refactor the 'D' value with an enumeration
+                    if ("D".equals(iface.getIsManaged())) {
+                        continue;
+                    }
+                    LOG.debug("Adding entry: {}:{} -> {}", node.getLocation().getLocationName(), iface.getIpAddress(), node.getId());
+                    newAlreadyDiscovered.add(new InterfaceToNodeStore.Mapping(node.getLocation().getLocationName(), iface.getIpAddress(), node.getId(), iface.getId(), iface.getIsSnmpPrimary()));
                 }
-                LOG.debug("Adding entry: {}:{} -> {}", node.getLocation().getLocationName(), iface.getIpAddress(), node.getId());
-                newAlreadyDiscovered.put(new Key(node.getLocation().getLocationName(), iface.getIpAddress()), new Value(node.getId(), iface.getId(), iface.getIsSnmpPrimary()));
             }
-        }
 
-        try {
-            m_lock.writeLock().lock();
-            m_managedAddresses = newAlreadyDiscovered;
-        } finally {
-            m_lock.writeLock().unlock();
+            m_store.replace(newAlreadyDiscovered);
         }
 
-        LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_managedAddresses.size());
+        LOG.info("dataSourceSync: initialized list of managed IP addresses with {} members", m_store.size());
     }
 
     @Override
@@ -334,13 +257,13 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
             return Optional.empty();
         }
         waitForInitialNodeSync();
-        m_lock.readLock().lock();
-        try {
-            var values = m_managedAddresses.get(new Key(location, ipAddr));
-            return values.isEmpty() ? Optional.empty() : Optional.of(new Entry(values.first().nodeId, values.first().interfaceId));
-        } finally {
-            m_lock.readLock().unlock();
+        final Optional<Entry> entry = m_store.getFirst(location, ipAddr);
+        if (entry.isPresent()) {
+            m_hits.mark();
+        } else {
+            m_misses.mark();
         }
+        return entry;
     }
 
     private void waitForInitialNodeSync() {
@@ -372,12 +295,7 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("setNodeId: adding IP address to cache: {}:{} -> {}", location, str(addr), nodeid);
 
-        m_lock.writeLock().lock();
-        try {
-            return m_managedAddresses.put(new Key(location, addr), new Value(nodeid, iface.getId(), iface.getIsSnmpPrimary()));
-        } finally {
-            m_lock.writeLock().unlock();
-        }
+        return m_store.put(new InterfaceToNodeStore.Mapping(location, addr, nodeid, iface.getId(), iface.getIsSnmpPrimary()));
     }
 
     /**
@@ -395,51 +313,24 @@ public class InterfaceToNodeCacheDaoImpl extends AbstractInterfaceToNodeCache im
 
         LOG.debug("removeNodeId: removing IP address from cache: {}:{}", location, str(address));
 
-        m_lock.writeLock().lock();
-        try {
-            final Key key = new Key(location, address);
-            return m_managedAddresses.get(key).removeIf(e -> e.nodeId == nodeId);
-        } finally {
-            m_lock.writeLock().unlock();
-        }
+        return m_store.remove(location, address, nodeId);
     }
 
     @Override
     public int size() {
         waitForInitialNodeSync();
-        m_lock.readLock().lock();
-        try {
-            return m_managedAddresses.size();
-        } finally {
-            m_lock.readLock().unlock();
-        }
+        return m_store.size();
     }
 
     @Override
     public void clear() {
-        m_lock.writeLock().lock();
-        try {
-            m_managedAddresses.clear();
-        } finally {
-            m_lock.writeLock().unlock();
-        }
+        m_store.clear();
     }
 
     @Override
     public void removeInterfacesForNode(int nodeId) {
-        m_lock.writeLock().lock();
-        try {
-            List<Map.Entry<Key, Value>> keyValues = m_managedAddresses.entries().stream()
-                    .filter(keyValueEntry -> keyValueEntry.getValue().getNodeId() == nodeId)
-                    .collect(Collectors.toList());
-            keyValues.forEach(keyValue -> {
-                boolean succeeded = m_managedAddresses.remove(keyValue.getKey(), keyValue.getValue());
-                if (succeeded) {
-                    LOG.debug("removeInterfacesForNode: removed IP address from cache: {}", str(keyValue.getKey().getIpAddress()));
-                }
-            });
-        } finally {
-            m_lock.writeLock().unlock();
+        for (final InetAddress address : m_store.removeNode(nodeId)) {
+            LOG.debug("removeInterfacesForNode: removed IP address from cache: {}", str(address));
         }
     }
 }
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.model.PrimaryType;
+
+/**
+ * The storage behind {@link InterfaceToNodeCacheDaoImpl}.
+ *
+ * For every location and address the store keeps the set of interfaces ordered by their SNMP primary type, node ID
+ * and interface ID. Lookups return the first interface of that order.
+ */
+interface InterfaceToNodeStore {
+
+    class Mapping {
+        public final String location;
+        public final InetAddress ipAddress;
+        public final int nodeId;
+        public final int interfaceId;
+        public final PrimaryType type;
+
+        public Mapping(final String location,
+                       final InetAddress ipAddress,
+                       final int nodeId,
+                       final int interfaceId,
+                       final PrimaryType type) {
+            this.location = location;
+            this.ipAddress = Objects.requireNonNull(ipAddress);
+            this.nodeId = nodeId;
+            this.interfaceId = interfaceId;
+            this.type = type;
+        }
+    }
+
+    Optional<InterfaceToNodeCache.Entry> getFirst(String location, InetAddress ipAddress);
+
+    /**
+     * @return true if the mapping was not known before
+     */
+    boolean put(Mapping mapping);
+
+    /**
+     * @return true if any interface of the given node was known for the address
+     */
+    boolean remove(String location, InetAddress ipAddress, int nodeId);
+
+    /**
+     * @return the addresses removed for the node
+     */
+    List<InetAddress> removeNode(int nodeId);
+
+    /**
+     * Replaces the content of the store as a whole.
+     */
+    void replace(Collection<Mapping> mappings);
+
+    int size();
+
+    void clear();
+}
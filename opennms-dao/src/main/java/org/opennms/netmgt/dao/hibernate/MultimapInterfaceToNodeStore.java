@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.opennms.core.utils.LocationUtils;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.model.PrimaryType;
+
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SortedSetMultimap;
+
+/**
+ * Keeps the interfaces in a sorted multimap guarded by a read-write lock.
+ */
+class MultimapInterfaceToNodeStore implements InterfaceToNodeStore {
+
+    private static class Key {
+        private final String location;
+        private final InetAddress ipAddress;
+
+        public Key(String location, InetAddress ipAddress) {
+            // Use the default location when location is null
+            this.location = LocationUtils.getEffectiveLocationName(location);
+            this.ipAddress = Objects.requireNonNull(ipAddress);
+        }
+
+        public InetAddress getIpAddress() {
+            return ipAddress;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (obj == this) {
+                return true;
+            }
+            if (obj.getClass() != getClass()) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return Objects.equals(this.ipAddress, that.ipAddress)
+                    && Objects.equals(this.location, that.location);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.ipAddress, this.location);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Key[location='%s', ipAddress='%s']", this.location, this.ipAddress);
+        }
+    }
+
+    private static class Value implements Comparable<Value> {
+        private final int nodeId;
+        private final int interfaceId;
+        private final PrimaryType type;
+
+
+        private Value(final int nodeId,
+                      final int interfaceId,
+                      final PrimaryType type) {
+            this.nodeId = nodeId;
+            this.interfaceId = interfaceId;
+            this.type = type;
+        }
+
+        public int getNodeId() {
+            return this.nodeId;
+        }
+
+        public int getInterfaceId() {
+            return this.interfaceId;
+        }
+
+        public PrimaryType getType() {
+            return this.type;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (obj == this) {
+                return true;
+            }
+            if (obj.getClass() != getClass()) {
+                return false;
+            }
+            final Value that = (Value) obj;
+            return Objects.equals(this.nodeId, that.nodeId)
+                    && Objects.equals(this.interfaceId, that.interfaceId)
+                    && Objects.equals(this.type, that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.nodeId, this.type.getCharCode());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Value[nodeId='%s', interfaceId='%s', type='%s']", this.nodeId, this.interfaceId, this.type);
+        }
+
+        @Override
+        public int compareTo(final Value that) {
+            return ComparisonChain.start()
+                    .compare(this.type, that.type)
+                    .compare(this.nodeId, that.nodeId)
+                    .compare(this.interfaceId, that.interfaceId)
+                    .result();
+        }
+    }
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+    private SortedSetMultimap<Key, Value> m_managedAddresses = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+
+    @Override
+    public Optional<InterfaceToNodeCache.Entry> getFirst(final String location, final InetAddress ipAddress) {
+        m_lock.readLock().lock();
+        try {
+            var values = m_managedAddresses.get(new Key(location, ipAddress));
+            return values.isEmpty() ? Optional.empty() : Optional.of(new InterfaceToNodeCache.Entry(values.first().nodeId, values.first().interfaceId));
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean put(final Mapping mapping) {
+        m_lock.writeLock().lock();
+        try {
+            return m_managedAddresses.put(new Key(mapping.location, mapping.ipAddress), new Value(mapping.nodeId, mapping.interfaceId, mapping.type));
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final String location, final InetAddress ipAddress, final int nodeId) {
+        m_lock.writeLock().lock();
+        try {
+            final Key key = new Key(location, ipAddress);
+            return m_managedAddresses.get(key).removeIf(e -> e.nodeId == nodeId);
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<InetAddress> removeNode(final int nodeId) {
+        m_lock.writeLock().lock();
+        try {
+            List<Map.Entry<Key, Value>> keyValues = m_managedAddresses.entries().stream()
+                    .filter(keyValueEntry -> keyValueEntry.getValue().getNodeId() == nodeId)
+                    .collect(Collectors.toList());
+            return keyValues.stream()
+                    .filter(keyValue -> m_managedAddresses.remove(keyValue.getKey(), keyValue.getValue()))
+                    .map(keyValue -> keyValue.getKey().getIpAddress())
+                    .collect(Collectors.toList());
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void replace(final Collection<Mapping> mappings) {
+        /*
+         * Make a new multimap with which we'll replace the existing one, that way
+         * readers are only blocked for the swap
+         */
+        final SortedSetMultimap<Key, Value> newAlreadyDiscovered = Multimaps.newSortedSetMultimap(Maps.newHashMap(), TreeSet::new);
+        for (final Mapping mapping : mappings) {
+            newAlreadyDiscovered.put(new Key(mapping.location, mapping.ipAddress), new Value(mapping.nodeId, mapping.interfaceId, mapping.type));
+        }
+
+        m_lock.writeLock().lock();
+        try {
+            m_managedAddresses = newAlreadyDiscovered;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        m_lock.readLock().lock();
+        try {
+            return m_managedAddresses.size();
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        m_lock.writeLock().lock();
+        try {
+            m_managedAddresses.clear();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+}
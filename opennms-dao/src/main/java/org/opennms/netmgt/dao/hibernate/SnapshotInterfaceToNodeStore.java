@@ -0,0 +1,547 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.core.utils.LocationUtils;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.model.PrimaryType;
+
+/**
+ * Keeps the interfaces in immutable open addressing hash tables which are published as a whole on every change.
+ *
+ * Keys are stored as primitive values: the interned location and the address as two longs, where IPv4 addresses
+ * are stored in their IPv4-mapped IPv6 form. Lookups only read the currently published snapshot and therefore never
+ * block. The keys are spread over segments of about {@link #SEGMENT_KEYS} keys each by their hash, so a change only
+ * copies the table of its segment and the array of segments, modifies the copy and publishes it afterwards.
+ *
+ * The interfaces of an address are packed into sorted longs holding the primary type rank, the node ID and the
+ * interface ID, which keeps the ordering of {@link MultimapInterfaceToNodeStore}.
+ */
+class SnapshotInterfaceToNodeStore implements InterfaceToNodeStore {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int SEGMENT_KEYS = 256;
+
+    private static final long[] NO_VALUES = new long[0];
+
+    private static final long IPV4_MAPPED_PREFIX = 0x0000FFFF00000000L;
+
+    private static final long ID_MASK = 0x7FFFFFFFL;
+
+    private final Map<String, Integer> m_locationIds = new ConcurrentHashMap<>();
+
+    private final int m_segmentKeys;
+
+    private volatile Snapshot m_snapshot;
+
+    SnapshotInterfaceToNodeStore() {
+        this(SEGMENT_KEYS);
+    }
+
+    /**
+     * @param segmentKeys the number of keys per segment the snapshot is laid out for
+     */
+    SnapshotInterfaceToNodeStore(final int segmentKeys) {
+        m_segmentKeys = segmentKeys;
+        m_snapshot = new Snapshot(1);
+    }
+
+    @Override
+    public Optional<InterfaceToNodeCache.Entry> getFirst(final String location, final InetAddress ipAddress) {
+        final Integer locationId = m_locationIds.get(LocationUtils.getEffectiveLocationName(location));
+        if (locationId == null) {
+            return Optional.empty();
+        }
+
+        final byte[] address = ipAddress.getAddress();
+        final long[] values = m_snapshot.get(locationId, high(address), low(address));
+        if (values == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new InterfaceToNodeCache.Entry(nodeId(values[0]), interfaceId(values[0])));
+    }
+
+    @Override
+    public synchronized boolean put(final Mapping mapping) {
+        final int locationId = locationId(mapping.location);
+        final byte[] address = mapping.ipAddress.getAddress();
+        final long high = high(address);
+        final long low = low(address);
+
+        final Snapshot snapshot = m_snapshot;
+        final long[] values = snapshot.get(locationId, high, low);
+        final long[] updated = insert(values != null ? values : NO_VALUES, pack(mapping));
+        if (updated == values) {
+            return false;
+        }
+
+        final Snapshot next = snapshot.with(locationId, high, low, updated);
+        // grow the number of segments once they hold far more keys than planned
+        m_snapshot = next.keys > 4L * next.tables.length * m_segmentKeys ? next.resize(segmentsFor(next.keys)) : next;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(final String location, final InetAddress ipAddress, final int nodeId) {
+        final Integer locationId = m_locationIds.get(LocationUtils.getEffectiveLocationName(location));
+        if (locationId == null) {
+            return false;
+        }
+
+        final byte[] address = ipAddress.getAddress();
+        final long high = high(address);
+        final long low = low(address);
+
+        final Snapshot snapshot = m_snapshot;
+        final long[] values = snapshot.get(locationId, high, low);
+        if (values == null) {
+            return false;
+        }
+        final long[] updated = removeNode(values, nodeId);
+        if (updated == values) {
+            return false;
+        }
+
+        m_snapshot = snapshot.with(locationId, high, low, updated);
+        return true;
+    }
+
+    @Override
+    public synchronized List<InetAddress> removeNode(final int nodeId) {
+        final Snapshot snapshot = m_snapshot;
+        final Table[] tables = snapshot.tables.clone();
+        final List<InetAddress> removed = new ArrayList<>();
+        for (int segment = 0; segment < tables.length; segment++) {
+            final Table table = tables[segment];
+            Table next = null;
+            for (int i = 0; i < table.values.length; i++) {
+                final long[] values = table.values[i];
+                if (values == null) {
+                    continue;
+                }
+                final long[] updated = removeNode(values, nodeId);
+                if (updated != values) {
+                    removed.add(address(table.highs[i], table.lows[i]));
+                    if (next == null) {
+                        // only the tables of the segments holding the node are copied
+                        next = table.copy(table.keys);
+                    }
+                    next.put(Table.hash(table.locations[i], table.highs[i], table.lows[i]), table.locations[i], table.highs[i], table.lows[i], updated);
+                }
+            }
+            if (next != null) {
+                tables[segment] = next;
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            m_snapshot = new Snapshot(tables);
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void replace(final Collection<Mapping> mappings) {
+        final Snapshot next = new Snapshot(segmentsFor(mappings.size()));
+        for (final Mapping mapping : mappings) {
+            final int locationId = locationId(mapping.location);
+            final byte[] address = mapping.ipAddress.getAddress();
+            final long high = high(address);
+            final long low = low(address);
+
+            final long[] values = next.get(locationId, high, low);
+            next.put(locationId, high, low, insert(values != null ? values : NO_VALUES, pack(mapping)));
+        }
+        m_snapshot = next;
+    }
+
+    @Override
+    public int size() {
+        return m_snapshot.entries;
+    }
+
+    @Override
+    public synchronized void clear() {
+        m_snapshot = new Snapshot(1);
+    }
+
+    /**
+     * @return the power of two number of segments holding the keys with about {@link #m_segmentKeys} keys each
+     */
+    private int segmentsFor(final int keys) {
+        int segments = 1;
+        while ((long) segments * m_segmentKeys < keys) {
+            segments <<= 1;
+        }
+        return segments;
+    }
+
+    private int locationId(final String location) {
+        // Only called by writers holding the monitor, so the size is stable while assigning the next ID
+        return m_locationIds.computeIfAbsent(LocationUtils.getEffectiveLocationName(location), l -> m_locationIds.size());
+    }
+
+    private static long high(final byte[] address) {
+        if (address.length == 4) {
+            return 0L;
+        }
+        long high = 0L;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (address[i] & 0xFF);
+        }
+        return high;
+    }
+
+    private static long low(final byte[] address) {
+        if (address.length == 4) {
+            return IPV4_MAPPED_PREFIX
+                    | (address[0] & 0xFFL) << 24
+                    | (address[1] & 0xFFL) << 16
+                    | (address[2] & 0xFFL) << 8
+                    | (address[3] & 0xFFL);
+        }
+        long low = 0L;
+        for (int i = 8; i < 16; i++) {
+            low = (low << 8) | (address[i] & 0xFF);
+        }
+        return low;
+    }
+
+    private static InetAddress address(final long high, final long low) {
+        final byte[] address = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            address[i] = (byte) (high >>> (56 - 8 * i));
+            address[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            // IPv4-mapped addresses are converted back to IPv4 addresses
+            return InetAddress.getByAddress(address);
+        } catch (final UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Packs the value into a long which sorts the same way as the values of {@link MultimapInterfaceToNodeStore} when
+     * compared unsigned: two bits of primary type rank, followed by 31 bits each for the node and interface ID.
+     */
+    private static long pack(final Mapping mapping) {
+        final PrimaryType type = mapping.type != null ? mapping.type : PrimaryType.NOT_ELIGIBLE;
+        final long rank = type.compareTo(PrimaryType.NOT_ELIGIBLE);
+        return rank << 62 | (mapping.nodeId & ID_MASK) << 31 | (mapping.interfaceId & ID_MASK);
+    }
+
+    private static int nodeId(final long value) {
+        return (int) ((value >>> 31) & ID_MASK);
+    }
+
+    private static int interfaceId(final long value) {
+        return (int) (value & ID_MASK);
+    }
+
+    /**
+     * @return a sorted copy containing the value or the given array if the value is already contained
+     */
+    private static long[] insert(final long[] values, final long value) {
+        int pos = 0;
+        while (pos < values.length && Long.compareUnsigned(values[pos], value) < 0) {
+            pos++;
+        }
+        if (pos < values.length && values[pos] == value) {
+            return values;
+        }
+        final long[] updated = new long[values.length + 1];
+        System.arraycopy(values, 0, updated, 0, pos);
+        updated[pos] = value;
+        System.arraycopy(values, pos, updated, pos + 1, values.length - pos);
+        return updated;
+    }
+
+    /**
+     * @return a copy without the values of the node or the given array if the node is not contained
+     */
+    private static long[] removeNode(final long[] values, final int nodeId) {
+        int remaining = 0;
+        final long[] updated = new long[values.length];
+        for (final long value : values) {
+            if (nodeId(value) != nodeId) {
+                updated[remaining++] = value;
+            }
+        }
+        return remaining == values.length ? values : Arrays.copyOf(updated, remaining);
+    }
+
+    /**
+     * The tables of the segments. The segment of a key is selected by the upper half of its hash, while the lower
+     * half selects the slot within the table. Snapshots and their tables are only modified before being published.
+     */
+    private static final class Snapshot {
+        private final Table[] tables;
+
+        private int keys;
+        private int entries;
+
+        private Snapshot(final int segments) {
+            this.tables = new Table[segments];
+            for (int i = 0; i < segments; i++) {
+                this.tables[i] = new Table(MIN_CAPACITY);
+            }
+        }
+
+        private Snapshot(final Table[] tables) {
+            this.tables = tables;
+            for (final Table table : tables) {
+                this.keys += table.keys;
+                this.entries += table.entries;
+            }
+        }
+
+        private Snapshot(final Table[] tables, final int keys, final int entries) {
+            this.tables = tables;
+            this.keys = keys;
+            this.entries = entries;
+        }
+
+        private Table table(final long hash) {
+            return tables[(int) (hash >>> 32) & (tables.length - 1)];
+        }
+
+        private long[] get(final int location, final long high, final long low) {
+            final long hash = Table.hash(location, high, low);
+            return table(hash).get(hash, location, high, low);
+        }
+
+        /**
+         * Sets the values of the key in place, growing the table of its segment if needed.
+         */
+        private void put(final int location, final long high, final long low, final long[] updated) {
+            final long hash = Table.hash(location, high, low);
+            final int segment = (int) (hash >>> 32) & (tables.length - 1);
+            final Table table = tables[segment].withCapacity(tables[segment].keys + 1);
+            keys -= table.keys;
+            entries -= table.entries;
+            table.put(hash, location, high, low, updated);
+            keys += table.keys;
+            entries += table.entries;
+            tables[segment] = table;
+        }
+
+        /**
+         * @return a copy with the values of the key set, sharing the tables of all other segments
+         */
+        private Snapshot with(final int location, final long high, final long low, final long[] updated) {
+            final long hash = Table.hash(location, high, low);
+            final int segment = (int) (hash >>> 32) & (tables.length - 1);
+            final Table[] nextTables = tables.clone();
+            final Table next = tables[segment].copy(tables[segment].keys + 1);
+            next.put(hash, location, high, low, updated);
+            nextTables[segment] = next;
+
+            return new Snapshot(nextTables,
+                    keys + next.keys - tables[segment].keys,
+                    entries + next.entries - tables[segment].entries);
+        }
+
+        /**
+         * @return a copy with the keys spread over the given number of segments
+         */
+        private Snapshot resize(final int segments) {
+            final Snapshot snapshot = new Snapshot(segments);
+            for (final Table table : tables) {
+                for (int i = 0; i < table.values.length; i++) {
+                    if (table.values[i] != null) {
+                        snapshot.put(table.locations[i], table.highs[i], table.lows[i], table.values[i]);
+                    }
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Linear probing hash table with parallel arrays. A slot is free if its values are null. Tables are only modified
+     * before being published.
+     */
+    private static final class Table {
+        private final int[] locations;
+        private final long[] highs;
+        private final long[] lows;
+        private final long[][] values;
+
+        private int keys;
+        private int entries;
+
+        private Table(final int capacity) {
+            this.locations = new int[capacity];
+            this.highs = new long[capacity];
+            this.lows = new long[capacity];
+            this.values = new long[capacity][];
+        }
+
+        private Table(final Table that) {
+            this.locations = that.locations.clone();
+            this.highs = that.highs.clone();
+            this.lows = that.lows.clone();
+            // the value arrays are never modified and can be shared
+            this.values = that.values.clone();
+            this.keys = that.keys;
+            this.entries = that.entries;
+        }
+
+        /**
+         * Keeps the load factor at or below one half.
+         */
+        private static int capacityFor(final int keys) {
+            int capacity = MIN_CAPACITY;
+            while (capacity < 2L * keys) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        private Table copy(final int keys) {
+            final int capacity = capacityFor(keys);
+            if (capacity <= values.length) {
+                return new Table(this);
+            }
+            return rehash(capacity);
+        }
+
+        /**
+         * @return this table, or a larger copy if it cannot hold the given number of keys
+         */
+        private Table withCapacity(final int keys) {
+            final int capacity = capacityFor(keys);
+            return capacity <= values.length ? this : rehash(capacity);
+        }
+
+        private Table rehash(final int capacity) {
+            final Table table = new Table(capacity);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    table.put(hash(locations[i], highs[i], lows[i]), locations[i], highs[i], lows[i], values[i]);
+                }
+            }
+            return table;
+        }
+
+        private static long hash(final int location, final long high, final long low) {
+            long h = high * 0x9E3779B97F4A7C15L + low;
+            h ^= location * 0xC2B2AE3D27D4EB4FL;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        /**
+         * @return the slot of the key if found or the complement of the free slot where the key would be inserted
+         */
+        private int find(final long hash, final int location, final long high, final long low) {
+            final int mask = values.length - 1;
+            int slot = (int) hash & mask;
+            while (values[slot] != null) {
+                if (lows[slot] == low && highs[slot] == high && locations[slot] == location) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        private long[] get(final long hash, final int location, final long high, final long low) {
+            final int slot = find(hash, location, high, low);
+            return slot >= 0 ? values[slot] : null;
+        }
+
+        /**
+         * Sets the values of the key, removing the key if there are no values left.
+         */
+        private void put(final long hash, final int location, final long high, final long low, final long[] updated) {
+            final int slot = find(hash, location, high, low);
+            if (slot >= 0) {
+                entries += updated.length - values[slot].length;
+                if (updated.length > 0) {
+                    values[slot] = updated;
+                } else {
+                    delete(slot);
+                    keys--;
+                }
+            } else if (updated.length > 0) {
+                final int free = ~slot;
+                locations[free] = location;
+                highs[free] = high;
+                lows[free] = low;
+                values[free] = updated;
+                keys++;
+                entries += updated.length;
+            }
+        }
+
+        /**
+         * Removes the slot by shifting back the following entries of the probe sequence, so no tombstones are needed.
+         */
+        private void delete(int slot) {
+            final int mask = values.length - 1;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (values[next] == null) {
+                    break;
+                }
+                final int home = (int) hash(locations[next], highs[next], lows[next]) & mask;
+                // move the entry if its home slot is not cyclically within (slot, next]
+                final boolean movable = slot <= next
+                        ? home <= slot || home > next
+                        : home <= slot && home > next;
+                if (movable) {
+                    locations[slot] = locations[next];
+                    highs[slot] = highs[next];
+                    lows[slot] = lows[next];
+                    values[slot] = values[next];
+                    slot = next;
+                }
+            }
+            values[slot] = null;
+        }
+    }
+}
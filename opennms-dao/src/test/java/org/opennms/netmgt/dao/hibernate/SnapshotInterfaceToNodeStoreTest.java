@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.dao.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.dao.hibernate.InterfaceToNodeStore.Mapping;
+import org.opennms.netmgt.model.PrimaryType;
+
+public class SnapshotInterfaceToNodeStoreTest {
+
+    private static final String DEFAULT = "Default";
+
+    private static InetAddress addr(final String address) throws UnknownHostException {
+        return InetAddress.getByName(address);
+    }
+
+    @Test
+    public void testGetFirstOrdering() throws UnknownHostException {
+        final SnapshotInterfaceToNodeStore store = new SnapshotInterfaceToNodeStore();
+        final InetAddress address = addr("192.168.1.1");
+
+        assertTrue(store.put(new Mapping(DEFAULT, address, 5, 50, PrimaryType.PRIMARY)));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(5, 50)), store.getFirst(DEFAULT, address));
+
+        // NOT_ELIGIBLE sorts before PRIMARY, the same way the multimap store orders its values
+        assertTrue(store.put(new Mapping(DEFAULT, address, 7, 70, PrimaryType.NOT_ELIGIBLE)));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(7, 70)), store.getFirst(DEFAULT, address));
+
+        assertTrue(store.put(new Mapping(DEFAULT, address, 3, 30, PrimaryType.NOT_ELIGIBLE)));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(3, 30)), store.getFirst(DEFAULT, address));
+
+        // duplicates are not added
+        assertFalse(store.put(new Mapping(DEFAULT, address, 3, 30, PrimaryType.NOT_ELIGIBLE)));
+        assertEquals(3, store.size());
+
+        assertTrue(store.remove(DEFAULT, address, 3));
+        assertFalse(store.remove(DEFAULT, address, 3));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(7, 70)), store.getFirst(DEFAULT, address));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testLocationsAndAddressFamilies() throws UnknownHostException {
+        final SnapshotInterfaceToNodeStore store = new SnapshotInterfaceToNodeStore();
+        store.put(new Mapping(null, addr("10.0.0.1"), 1, 1, PrimaryType.SECONDARY));
+        store.put(new Mapping("Remote", addr("10.0.0.1"), 2, 2, PrimaryType.SECONDARY));
+        store.put(new Mapping(DEFAULT, addr("fe80::1"), 3, 3, PrimaryType.SECONDARY));
+
+        // a null location is the default location
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(1, 1)), store.getFirst(DEFAULT, addr("10.0.0.1")));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(2, 2)), store.getFirst("Remote", addr("10.0.0.1")));
+        assertEquals(Optional.of(new InterfaceToNodeCache.Entry(3, 3)), store.getFirst(null, addr("fe80::1")));
+        assertEquals(Optional.empty(), store.getFirst("Unknown", addr("10.0.0.1")));
+        assertEquals(Optional.empty(), store.getFirst(DEFAULT, addr("10.0.0.2")));
+        assertEquals(Optional.empty(), store.getFirst(DEFAULT, addr("::a00:1")));
+
+        assertEquals(Arrays.asList(addr("10.0.0.1")), store.removeNode(2));
+        assertEquals(Optional.empty(), store.getFirst("Remote", addr("10.0.0.1")));
+        assertEquals(Arrays.asList(addr("fe80::1")), store.removeNode(3));
+        assertEquals(1, store.size());
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(Optional.empty(), store.getFirst(DEFAULT, addr("10.0.0.1")));
+    }
+
+    /**
+     * Applies the same random operations to both stores and verifies that they always agree.
+     */
+    @Test
+    public void testEquivalentToMultimapStore() throws UnknownHostException {
+        verifyEquivalentToMultimapStore(new SnapshotInterfaceToNodeStore());
+    }
+
+    /**
+     * Spreads the keys over many segments, which are added while the store grows.
+     */
+    @Test
+    public void testEquivalentToMultimapStoreWithSmallSegments() throws UnknownHostException {
+        verifyEquivalentToMultimapStore(new SnapshotInterfaceToNodeStore(4));
+    }
+
+    private static void verifyEquivalentToMultimapStore(final InterfaceToNodeStore actual) throws UnknownHostException {
+        final Random random = new Random(42);
+        final InterfaceToNodeStore expected = new MultimapInterfaceToNodeStore();
+
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            addresses.add(addr("10.0." + (i / 100) + "." + (i % 100)));
+            addresses.add(addr("2001:db8::" + Integer.toHexString(i)));
+        }
+        final String[] locations = {DEFAULT, "Remote", "Other"};
+        final PrimaryType[] types = {PrimaryType.PRIMARY, PrimaryType.SECONDARY, PrimaryType.NOT_ELIGIBLE};
+
+        final List<Mapping> initial = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            initial.add(randomMapping(random, locations, addresses, types));
+        }
+        expected.replace(initial);
+        actual.replace(initial);
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < 20000; i++) {
+            final int op = random.nextInt(10);
+            if (op < 6) {
+                final Mapping mapping = randomMapping(random, locations, addresses, types);
+                assertEquals(expected.put(mapping), actual.put(mapping));
+            } else if (op < 9) {
+                final String location = locations[random.nextInt(locations.length)];
+                final InetAddress address = addresses.get(random.nextInt(addresses.size()));
+                final int nodeId = random.nextInt(50);
+                assertEquals(expected.remove(location, address, nodeId), actual.remove(location, address, nodeId));
+            } else {
+                final int nodeId = random.nextInt(50);
+                assertEquals(new HashSet<>(expected.removeNode(nodeId)), new HashSet<>(actual.removeNode(nodeId)));
+            }
+            assertEquals(expected.size(), actual.size());
+
+            for (final String location : locations) {
+                final InetAddress address = addresses.get(random.nextInt(addresses.size()));
+                assertEquals(expected.getFirst(location, address), actual.getFirst(location, address));
+            }
+        }
+
+        for (final String location : locations) {
+            for (final InetAddress address : addresses) {
+                assertEquals(expected.getFirst(location, address), actual.getFirst(location, address));
+            }
+        }
+    }
+
+    private static Mapping randomMapping(final Random random, final String[] locations, final List<InetAddress> addresses, final PrimaryType[] types) {
+        final int nodeId = random.nextInt(50);
+        return new Mapping(locations[random.nextInt(locations.length)],
+                addresses.get(random.nextInt(addresses.size())),
+                nodeId,
+                nodeId * 1000 + random.nextInt(3),
+                types[random.nextInt(types.length)]);
+    }
+}
@@ -109,7 +109,7 @@ import org.slf4j.LoggerFactory;
  * @author ranger
  * @version $Id: $
  */
-public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, Runnable {
+public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.CreateOperation,String>, RrdQueueStatistics, Runnable {
 
     private Logger m_log = LoggerFactory.getLogger(QueuingRrdStrategy.class);
 
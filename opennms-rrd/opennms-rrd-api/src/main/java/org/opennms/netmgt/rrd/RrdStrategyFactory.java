@@ -46,8 +46,10 @@ public class RrdStrategyFactory implements ApplicationContextAware {
     private static enum StrategyName {
         basicRrdStrategy,
         queuingRrdStrategy,
+        shardedQueuingRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        tcpAndShardedQueuingRrdStrategy
     }
 
     @Override
@@ -65,12 +67,13 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        Boolean useShardedQueue = m_context.containsBean("useShardedQueue") && (Boolean) m_context.getBean("useShardedQueue");
 
         if (useQueue) {
             if (useTcp) {
-                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString());
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(useShardedQueue ? StrategyName.tcpAndShardedQueuingRrdStrategy.toString() : StrategyName.tcpAndQueuingRrdStrategy.toString());
             } else {
-                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.queuingRrdStrategy.toString());
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(useShardedQueue ? StrategyName.shardedQueuingRrdStrategy.toString() : StrategyName.queuingRrdStrategy.toString());
             }
         } else {
             if (useTcp) {
@@ -81,7 +84,7 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         }
 
         if (rrdStrategy == null) {
-            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useTcp: %s", useQueue, useTcp));
+            throw new IllegalStateException(String.format("Invalid RRD configuration useQueue: %s, useTcp: %s, useShardedQueue: %s", useQueue, useTcp, useShardedQueue));
         }
 
         return rrdStrategy;
@@ -0,0 +1,792 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Queuing implementation of RrdStrategy that does not serialize the collectors on a single monitor.
+ * <p>
+ * Like the {@link QueuingRrdStrategy}, creates and updates are queued per file and all pending operations of a file
+ * are written with a single open of the file. The pending operations are kept in a concurrent map keyed by file
+ * name, so enqueuing only contends with other updates of the same file. Each file is owned by one of the write
+ * threads, picked by the hash of its name, so no reservations are needed to keep a file from being written by two
+ * threads at once. Idle write threads park until work for their shard arrives instead of polling.
+ * <p>
+ * When prioritizing significant updates, the write threads drain the files with only insignificant updates in
+ * proportion to their share of the queue depth, and files waiting longer than maxInsigUpdateSeconds are written
+ * next regardless of the significant work.
+ * <p>
+ * The time the operations spent in the queue is tracked in the "queueAge" timer, which is exposed via JMX along
+ * with the number of pending operations.
+ */
+public class ShardedQueuingRrdStrategy implements RrdStrategy<ShardedQueuingRrdStrategy.CreateOperation,String>, RrdQueueStatistics {
+
+    public static final String JMX_DOMAIN = "org.opennms.netmgt.rrd.queuing";
+
+    private Logger m_log = LoggerFactory.getLogger(ShardedQueuingRrdStrategy.class);
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private boolean m_queueCreates;
+
+    private boolean m_prioritizeSignificantUpdates;
+
+    private long m_inSigHighWaterMark;
+
+    private long m_sigHighWaterMark;
+
+    private long m_queueHighWaterMark;
+
+    private long m_modulus = 10000;
+
+    private long m_maxInsigUpdateSeconds;
+
+    private long m_writeThreadSleepTime = 50;
+
+    private long m_writeThreadExitDelay = 60000;
+
+    private final ConcurrentMap<String, PendingFile> m_pendingFiles = new ConcurrentHashMap<>();
+
+    private volatile Shard[] m_shards;
+
+    private final LongAdder m_enqueuedOperations = new LongAdder();
+
+    private final LongAdder m_significantOpsEnqueued = new LongAdder();
+
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
+
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
+
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
+
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
+
+    private final AtomicLong m_createsCompleted = new AtomicLong();
+
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
+
+    private final AtomicLong m_errors = new AtomicLong();
+
+    private final AtomicLong m_promotionCount = new AtomicLong();
+
+    private final AtomicLong m_startTime = new AtomicLong();
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private final Timer m_queueAge = m_metrics.timer("queueAge");
+
+    private JmxReporter m_reporter;
+
+    /**
+     * The create operation handed out by {@link #createDefinition}, queued like an update when queueCreates is set.
+     */
+    public static class CreateOperation {
+        private final String m_fileName;
+        private final Object m_rrdDef;
+
+        CreateOperation(final String fileName, final Object rrdDef) {
+            m_fileName = fileName;
+            m_rrdDef = rrdDef;
+        }
+
+        public String getFileName() {
+            return m_fileName;
+        }
+
+        public Object getRrdDef() {
+            return m_rrdDef;
+        }
+    }
+
+    /**
+     * The operations waiting for a file. Only modified while mapped in {@link #m_pendingFiles}, and only read by
+     * the owning write thread once it was removed from there.
+     */
+    private static class PendingFile {
+        private final long m_enqueued = System.nanoTime();
+        // either a CreateOperation or the update string
+        private final List<Object> m_operations = new ArrayList<>(2);
+        private int m_significant;
+
+        private boolean add(final Object operation, final boolean significant) {
+            final boolean promoted = significant && m_significant == 0 && !m_operations.isEmpty();
+            m_operations.add(operation);
+            if (significant) {
+                m_significant++;
+            }
+            return promoted;
+        }
+    }
+
+    /**
+     * The files owned by one write thread.
+     */
+    private class Shard implements Runnable {
+        private final int m_index;
+        private final ConcurrentLinkedDeque<String> m_significant = new ConcurrentLinkedDeque<>();
+        private final ConcurrentLinkedDeque<String> m_insignificant = new ConcurrentLinkedDeque<>();
+        // entries in the deques, which may include files that were already written
+        private final AtomicInteger m_significantSize = new AtomicInteger();
+        private final AtomicInteger m_insignificantSize = new AtomicInteger();
+        private final AtomicLong m_depth = new AtomicLong();
+        private final AtomicBoolean m_running = new AtomicBoolean(false);
+        private volatile Thread m_thread;
+        private volatile boolean m_idle;
+        // only used by the write thread
+        private double m_insignificantCredit;
+
+        private Shard(final int index) {
+            m_index = index;
+        }
+
+        private void offer(final String fileName, final boolean significant, final boolean first) {
+            if (significant) {
+                if (first) {
+                    m_significant.offerFirst(fileName);
+                } else {
+                    m_significant.offerLast(fileName);
+                }
+                m_significantSize.incrementAndGet();
+            } else {
+                m_insignificant.offerLast(fileName);
+                m_insignificantSize.incrementAndGet();
+            }
+
+            if (m_running.compareAndSet(false, true)) {
+                // not a daemon, like the write threads of the QueuingRrdStrategy, so that pending updates are
+                // written before the JVM exits, the thread ends on its own once the shard has been idle long enough
+                final Thread thread = new Thread(this, ShardedQueuingRrdStrategy.class.getSimpleName() + "-" + m_index);
+                m_thread = thread;
+                thread.start();
+            } else if (m_idle) {
+                LockSupport.unpark(m_thread);
+            }
+        }
+
+        private boolean isEmpty() {
+            return m_significant.isEmpty() && m_insignificant.isEmpty();
+        }
+
+        /**
+         * Picks the next file to write. Significant work goes first, but every significant file earns the
+         * insignificant files a share of the write thread that grows with their part of the queue.
+         */
+        private String next() {
+            String fileName = null;
+            if (!m_insignificant.isEmpty()) {
+                final boolean aged = m_maxInsigUpdateSeconds > 0 && isOlderThan(m_insignificant.peekFirst(), TimeUnit.SECONDS.toNanos(m_maxInsigUpdateSeconds));
+                if (aged || m_insignificantCredit >= 1.0 || m_significant.isEmpty()) {
+                    fileName = m_insignificant.pollFirst();
+                    if (fileName != null) {
+                        m_insignificantSize.decrementAndGet();
+                        if (!m_significant.isEmpty()) {
+                            m_promotionCount.incrementAndGet();
+                            m_insignificantCredit = Math.max(0.0, m_insignificantCredit - 1.0);
+                        }
+                        return fileName;
+                    }
+                }
+            }
+
+            fileName = m_significant.pollFirst();
+            if (fileName != null) {
+                m_significantSize.decrementAndGet();
+                m_insignificantCredit += m_insignificantSize.get() / (m_significantSize.get() + 1.0);
+            }
+            return fileName;
+        }
+
+        @Override
+        public void run() {
+            long idleSince = -1L;
+            while (true) {
+                final String fileName = next();
+                if (fileName != null) {
+                    idleSince = -1L;
+                    processPendingOperations(this, fileName);
+                    continue;
+                }
+
+                final long now = System.currentTimeMillis();
+                if (idleSince < 0) {
+                    idleSince = now;
+                } else if (now - idleSince >= m_writeThreadExitDelay) {
+                    // exit unless work arrived while giving up the shard
+                    m_running.set(false);
+                    if (isEmpty() || !m_running.compareAndSet(false, true)) {
+                        return;
+                    }
+                    idleSince = -1L;
+                    continue;
+                }
+
+                m_idle = true;
+                if (isEmpty()) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(m_writeThreadSleepTime, 1)));
+                }
+                m_idle = false;
+            }
+        }
+    }
+
+    /**
+     * <p>Constructor for ShardedQueuingRrdStrategy.</p>
+     *
+     * @param delegate a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public ShardedQueuingRrdStrategy(final RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+        m_metrics.register("pending", (Gauge<Long>) this::getTotalOperationsPending);
+        m_metrics.register("pendingFiles", (Gauge<Integer>) m_pendingFiles::size);
+    }
+
+    public void init() {
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        m_reporter.start();
+    }
+
+    public void destroy() {
+        if (m_reporter != null) {
+            m_reporter.stop();
+            m_reporter = null;
+        }
+    }
+
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    public void setWriteThreads(final int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    public boolean queueCreates() {
+        return m_queueCreates;
+    }
+
+    public void setQueueCreates(final boolean queueCreates) {
+        m_queueCreates = queueCreates;
+    }
+
+    public boolean prioritizeSignificantUpdates() {
+        return m_prioritizeSignificantUpdates;
+    }
+
+    public void setPrioritizeSignificantUpdates(final boolean prioritizeSignificantUpdates) {
+        m_prioritizeSignificantUpdates = prioritizeSignificantUpdates;
+    }
+
+    public long getInSigHighWaterMark() {
+        return m_inSigHighWaterMark;
+    }
+
+    public void setInSigHighWaterMark(final long inSigHighWaterMark) {
+        m_inSigHighWaterMark = inSigHighWaterMark;
+    }
+
+    public long getSigHighWaterMark() {
+        return m_sigHighWaterMark;
+    }
+
+    public void setSigHighWaterMark(final long sigHighWaterMark) {
+        m_sigHighWaterMark = sigHighWaterMark;
+    }
+
+    public long getQueueHighWaterMark() {
+        return m_queueHighWaterMark;
+    }
+
+    public void setQueueHighWaterMark(final long queueHighWaterMark) {
+        m_queueHighWaterMark = queueHighWaterMark;
+    }
+
+    public long getModulus() {
+        return m_modulus;
+    }
+
+    public void setModulus(final long modulus) {
+        m_modulus = modulus;
+    }
+
+    public String getCategory() {
+        return m_category;
+    }
+
+    public void setCategory(final String category) {
+        m_category = category;
+        m_log = LoggerFactory.getLogger(m_category);
+    }
+
+    public long getMaxInsigUpdateSeconds() {
+        return m_maxInsigUpdateSeconds;
+    }
+
+    public void setMaxInsigUpdateSeconds(final long maxInsigUpdateSeconds) {
+        m_maxInsigUpdateSeconds = maxInsigUpdateSeconds;
+    }
+
+    public long getWriteThreadSleepTime() {
+        return m_writeThreadSleepTime;
+    }
+
+    /**
+     * Idle write threads are woken up as soon as work arrives, this only bounds how long they park at once.
+     */
+    public void setWriteThreadSleepTime(final long writeThreadSleepTime) {
+        m_writeThreadSleepTime = writeThreadSleepTime;
+    }
+
+    public long getWriteThreadExitDelay() {
+        return m_writeThreadExitDelay;
+    }
+
+    public void setWriteThreadExitDelay(final long writeThreadExitDelay) {
+        m_writeThreadExitDelay = writeThreadExitDelay;
+    }
+
+    //
+    // Queue management
+    //
+
+    private Shard[] getShards() {
+        Shard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    shards = new Shard[Math.max(1, m_writeThreads)];
+                    for (int i = 0; i < shards.length; i++) {
+                        shards[i] = new Shard(i);
+                    }
+                    m_shards = shards;
+                }
+            }
+        }
+        return shards;
+    }
+
+    private Shard getShard(final String fileName) {
+        final Shard[] shards = getShards();
+        return shards[Math.floorMod(fileName.hashCode(), shards.length)];
+    }
+
+    private boolean isOlderThan(final String fileName, final long ageNanos) {
+        if (fileName == null) {
+            return false;
+        }
+        final PendingFile pendingFile = m_pendingFiles.get(fileName);
+        return pendingFile != null && System.nanoTime() - pendingFile.m_enqueued >= ageNanos;
+    }
+
+    private void addOperation(final String fileName, final Object operation, final boolean significant) {
+        final long pending = getTotalOperationsPending();
+        if (m_queueHighWaterMark > 0 && pending >= m_queueHighWaterMark) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+        if (significant && m_sigHighWaterMark > 0 && pending >= m_sigHighWaterMark) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+        if (!significant && m_inSigHighWaterMark > 0 && pending >= m_inSigHighWaterMark) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", fileName);
+            return;
+        }
+
+        final Shard shard = getShard(fileName);
+        // counted before the operation becomes visible to the write thread, which subtracts it again
+        shard.m_depth.incrementAndGet();
+        final boolean[] queued = { false, false };
+        m_pendingFiles.compute(fileName, (f, pendingFile) -> {
+            if (pendingFile == null) {
+                pendingFile = new PendingFile();
+                queued[0] = true;
+            }
+            queued[1] = pendingFile.add(operation, significant);
+            return pendingFile;
+        });
+
+        m_enqueuedOperations.increment();
+        if (significant) {
+            m_significantOpsEnqueued.increment();
+        }
+
+        // without prioritization every file is treated as significant
+        if (queued[0]) {
+            shard.offer(fileName, significant || !m_prioritizeSignificantUpdates, false);
+        } else if (queued[1] && m_prioritizeSignificantUpdates) {
+            shard.offer(fileName, true, false);
+        }
+    }
+
+    private void processPendingOperations(final Shard shard, final String fileName) {
+        final PendingFile pendingFile = m_pendingFiles.remove(fileName);
+        if (pendingFile == null) {
+            // already written when it was queued a second time
+            return;
+        }
+
+        m_startTime.compareAndSet(0, System.currentTimeMillis());
+        final int count = pendingFile.m_operations.size();
+        shard.m_depth.addAndGet(-count);
+        m_dequeuedOperations.addAndGet(count);
+        m_significantOpsDequeued.addAndGet(pendingFile.m_significant);
+        m_dequeuedItems.incrementAndGet();
+        m_queueAge.update(System.nanoTime() - pendingFile.m_enqueued, TimeUnit.NANOSECONDS);
+
+        Logging.withPrefix(m_category, () -> {
+            // update stats correctly we update them even if an exception occurs while we are processing
+            m_significantOpsCompleted.addAndGet(pendingFile.m_significant);
+
+            Object rrd = null;
+            try {
+                for (final Object operation : pendingFile.m_operations) {
+                    if (operation instanceof CreateOperation) {
+                        if (rrd != null) {
+                            m_delegate.closeFile(rrd);
+                            rrd = null;
+                        }
+                        m_delegate.createFile(((CreateOperation)operation).getRrdDef());
+                        m_createsCompleted.incrementAndGet();
+                    } else {
+                        if (rrd == null) {
+                            rrd = m_delegate.openFile(fileName);
+                        }
+                        try {
+                            m_delegate.updateFile(rrd, "", (String)operation);
+                        } catch (final Throwable e) {
+                            throw new Exception(String.format("Error processing update for file %s: %s", fileName, operation), e);
+                        }
+                        if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
+                            logStats();
+                        }
+                    }
+                }
+            } catch (final Throwable e) {
+                m_errors.incrementAndGet();
+                m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
+            } finally {
+                if (rrd != null) {
+                    try {
+                        m_delegate.closeFile(rrd);
+                    } catch (final Throwable e) {
+                        m_errors.incrementAndGet();
+                        m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates with a single value of zero are insignificant, the same rule the {@link QueuingRrdStrategy} uses.
+     */
+    static boolean isSignificant(final String update) {
+        try {
+            final int colon = update.indexOf(':');
+            if (colon >= 0 && Double.parseDouble(update.substring(colon + 1)) == 0.0) {
+                return false;
+            }
+        } catch (final NumberFormatException e) {
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        for (final String fileName : rrdFiles) {
+            if (m_pendingFiles.containsKey(fileName)) {
+                getShard(fileName).offer(fileName, true, true);
+            }
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    //
+    // RrdStrategy Implementation.. These methods just enqueue the calls as
+    // operations
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public CreateOperation createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        final String fileName = directory + File.separator + rrdName + m_delegate.getDefaultFileExtension();
+        final Object def = m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+        return new CreateOperation(fileName, def);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createFile(final CreateOperation op) throws Exception {
+        if (m_queueCreates) {
+            addOperation(op.getFileName(), op, true);
+        } else {
+            m_delegate.createFile(op.getRrdDef());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(final String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final String rrdFile, final String owner, final String data) throws Exception {
+        addOperation(rrdFile, data, isSignificant(data));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(final String rrd) throws Exception {
+        // no need to do anything here
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    //
+    // Statistics
+    //
+
+    void logStats() {
+        if (m_log.isDebugEnabled()) {
+            m_log.debug(getStats());
+        }
+    }
+
+    /**
+     * Print queue statistics.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getStats() {
+        final Snapshot queueAge = m_queueAge.getSnapshot();
+        final StringBuilder depths = new StringBuilder();
+        final Shard[] shards = m_shards;
+        if (shards != null) {
+            for (final Shard shard : shards) {
+                depths.append(depths.length() == 0 ? "" : "/").append(shard.m_depth.get());
+            }
+        }
+        return "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
+                ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
+                ", filesPending=" + m_pendingFiles.size() +
+                ", shardDepths=(" + depths + ")"
+                + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
+                ", updatesCompleted=" + getUpdatesCompleted() +
+                ", errors=" + getErrors() +
+                ", promotionCount=" + getPromotionCount() +
+                ", opsPerUpdate=" + (getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0))
+                + "\nQS:\t" + ", queueAgeMillis=(p50=" + toMillis(queueAge.getMedian()) +
+                ", p95=" + toMillis(queueAge.get95thPercentile()) +
+                ", p99=" + toMillis(queueAge.get99thPercentile()) +
+                ", max=" + toMillis(queueAge.getMax()) + ")";
+    }
+
+    private static double toMillis(final double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Percentiles of the time the operations of a file waited before they were written.
+     */
+    public Snapshot getQueueAge() {
+        return m_queueAge.getSnapshot();
+    }
+
+    @Override
+    public long getTotalOperationsPending() {
+        final Shard[] shards = m_shards;
+        if (shards == null) {
+            return 0;
+        }
+        long pending = 0;
+        for (final Shard shard : shards) {
+            pending += shard.m_depth.get();
+        }
+        return pending;
+    }
+
+    @Override
+    public long getEnqueuedOperations() {
+        return m_enqueuedOperations.sum();
+    }
+
+    @Override
+    public long getDequeuedOperations() {
+        return m_dequeuedOperations.get();
+    }
+
+    @Override
+    public long getDequeuedItems() {
+        return m_dequeuedItems.get();
+    }
+
+    @Override
+    public long getSignificantOpsEnqueued() {
+        return m_significantOpsEnqueued.sum();
+    }
+
+    @Override
+    public long getSignificantOpsDequeued() {
+        return m_significantOpsDequeued.get();
+    }
+
+    @Override
+    public long getSignificantOpsCompleted() {
+        return m_significantOpsCompleted.get();
+    }
+
+    @Override
+    public long getCreatesCompleted() {
+        return m_createsCompleted.get();
+    }
+
+    @Override
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return m_promotionCount.get();
+    }
+
+    @Override
+    public long getStartTime() {
+        return m_startTime.get();
+    }
+}
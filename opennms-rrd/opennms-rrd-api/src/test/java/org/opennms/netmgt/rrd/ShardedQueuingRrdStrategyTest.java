@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.ShardedQueuingRrdStrategy.CreateOperation;
+
+public class ShardedQueuingRrdStrategyTest {
+
+    private static final String BLOCKER = "blocker";
+
+    private final List<String> m_operations = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch m_blocked = new CountDownLatch(1);
+
+    private final CountDownLatch m_release = new CountDownLatch(1);
+
+    private volatile Thread m_writeThread;
+
+    private ShardedQueuingRrdStrategy m_strategy;
+
+    /**
+     * Records the operations on all files except the blocker, which holds the write thread until released.
+     */
+    private class RecordingRrdStrategy extends NullRrdStrategy {
+        @Override
+        public Object createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) {
+            return directory + File.separator + rrdName + getDefaultFileExtension();
+        }
+
+        @Override
+        public void createFile(Object rrdDef) {
+            m_operations.add("create " + rrdDef);
+        }
+
+        @Override
+        public Object openFile(String fileName) {
+            if (BLOCKER.equals(fileName)) {
+                m_blocked.countDown();
+                try {
+                    m_release.await(30, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                m_operations.add("open " + fileName);
+            }
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            m_writeThread = Thread.currentThread();
+            if (!BLOCKER.equals(rrd)) {
+                m_operations.add("update " + rrd + " " + data);
+            }
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            if (!BLOCKER.equals(rrd)) {
+                m_operations.add("close " + rrd);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        m_strategy = new ShardedQueuingRrdStrategy(new RecordingRrdStrategy());
+        m_strategy.setWriteThreads(1);
+        m_strategy.setWriteThreadSleepTime(10);
+    }
+
+    @After
+    public void tearDown() {
+        m_release.countDown();
+    }
+
+    @Test
+    public void canCoalesceUpdatesPerFile() throws Exception {
+        block();
+        m_strategy.updateFile("a", "test", "N:1");
+        m_strategy.updateFile("b", "test", "N:2");
+        m_strategy.updateFile("a", "test", "N:3");
+        m_strategy.updateFile("a", "test", "N:4");
+        assertEquals(4, m_strategy.getTotalOperationsPending());
+        release();
+
+        awaitOperations(8);
+        assertEquals(Arrays.asList(
+                "open a", "update a N:1", "update a N:3", "update a N:4", "close a",
+                "open b", "update b N:2", "close b"), m_operations);
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+        // including the blocker
+        assertEquals(3, m_strategy.getDequeuedItems());
+        assertEquals(5, m_strategy.getDequeuedOperations());
+    }
+
+    @Test
+    public void canQueueCreatesBeforeUpdates() throws Exception {
+        m_strategy.setQueueCreates(true);
+        final CreateOperation def = m_strategy.createDefinition("test", "dir", "a", 300, Collections.emptyList(), Collections.emptyList());
+        final String fileName = def.getFileName();
+
+        block();
+        m_strategy.createFile(def);
+        m_strategy.updateFile(fileName, "test", "N:1");
+        assertTrue(m_operations.isEmpty());
+        release();
+
+        awaitOperations(4);
+        assertEquals(Arrays.asList(
+                "create " + fileName, "open " + fileName, "update " + fileName + " N:1", "close " + fileName), m_operations);
+        assertEquals(1, m_strategy.getCreatesCompleted());
+        assertEquals(2, m_strategy.getUpdatesCompleted());
+    }
+
+    @Test
+    public void canDrainFilesInOrderWithoutPrioritization() throws Exception {
+        block();
+        m_strategy.updateFile("i1", "test", "N:0");
+        m_strategy.updateFile("s1", "test", "N:1");
+        release();
+
+        awaitOperations(6);
+        assertEquals(Arrays.asList("i1", "s1"), getWrittenFiles());
+    }
+
+    @Test
+    public void canDrainSignificantBeforeInsignificantUpdates() throws Exception {
+        m_strategy.setPrioritizeSignificantUpdates(true);
+
+        block();
+        m_strategy.updateFile("i1", "test", "N:0");
+        for (int i = 1; i <= 4; i++) {
+            m_strategy.updateFile("s" + i, "test", "N:1");
+        }
+        release();
+
+        // the insignificant file gets its share of the write thread once enough significant files were written
+        awaitOperations(15);
+        assertEquals(Arrays.asList("s1", "s2", "s3", "i1", "s4"), getWrittenFiles());
+        assertEquals(1, m_strategy.getPromotionCount());
+    }
+
+    @Test
+    public void canDrainAgedInsignificantUpdatesFirst() throws Exception {
+        m_strategy.setPrioritizeSignificantUpdates(true);
+        m_strategy.setMaxInsigUpdateSeconds(1);
+
+        block();
+        m_strategy.updateFile("i1", "test", "N:0");
+        for (int i = 1; i <= 4; i++) {
+            m_strategy.updateFile("s" + i, "test", "N:1");
+        }
+        Thread.sleep(1100);
+        release();
+
+        awaitOperations(15);
+        assertEquals(Arrays.asList("i1", "s1", "s2", "s3", "s4"), getWrittenFiles());
+        assertEquals(1, m_strategy.getPromotionCount());
+    }
+
+    @Test
+    public void canDiscardAboveQueueHighWaterMark() throws Exception {
+        m_strategy.setQueueHighWaterMark(2);
+
+        block();
+        m_strategy.updateFile("a", "test", "N:1");
+        m_strategy.updateFile("b", "test", "N:0");
+        m_strategy.updateFile("c", "test", "N:1");
+        assertEquals(2, m_strategy.getTotalOperationsPending());
+        release();
+
+        awaitOperations(6);
+        assertEquals(Arrays.asList("a", "b"), getWrittenFiles());
+        // including the blocker
+        assertEquals(3, m_strategy.getEnqueuedOperations());
+    }
+
+    @Test
+    public void canDiscardAboveSignificanceHighWaterMarks() throws Exception {
+        m_strategy.setSigHighWaterMark(2);
+        m_strategy.setInSigHighWaterMark(3);
+
+        block();
+        m_strategy.updateFile("a", "test", "N:1");
+        m_strategy.updateFile("b", "test", "N:1");
+        // above the significant high water mark
+        m_strategy.updateFile("c", "test", "N:1");
+        // still below the insignificant one
+        m_strategy.updateFile("d", "test", "N:0");
+        m_strategy.updateFile("e", "test", "N:0");
+        assertEquals(3, m_strategy.getTotalOperationsPending());
+        release();
+
+        awaitOperations(9);
+        assertEquals(Arrays.asList("a", "b", "d"), getWrittenFiles());
+    }
+
+    @Test
+    public void canRestartWriteThreadAfterExit() throws Exception {
+        m_strategy.setWriteThreadExitDelay(100);
+
+        m_strategy.updateFile("a", "test", "N:1");
+        awaitOperations(3);
+        final Thread first = m_writeThread;
+        assertEquals(ShardedQueuingRrdStrategy.class.getSimpleName() + "-0", first.getName());
+        // pending updates must not be dropped when the JVM exits
+        assertFalse(first.isDaemon());
+
+        // the idle write thread gives up its shard
+        await().atMost(10, TimeUnit.SECONDS).until(() -> !first.isAlive());
+
+        // and a new one is started once the shard gets work again
+        m_strategy.updateFile("b", "test", "N:2");
+        awaitOperations(6);
+        final Thread second = m_writeThread;
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList(
+                "open a", "update a N:1", "close a",
+                "open b", "update b N:2", "close b"), m_operations);
+    }
+
+    /**
+     * Occupies the single write thread until {@link #release()} is called, so that the following operations queue up.
+     */
+    private void block() throws Exception {
+        m_strategy.updateFile(BLOCKER, "test", "N:1");
+        assertTrue(m_blocked.await(10, TimeUnit.SECONDS));
+    }
+
+    private void release() {
+        m_release.countDown();
+    }
+
+    private void awaitOperations(final int count) {
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_operations.size() >= count);
+        assertEquals(count, m_operations.size());
+    }
+
+    private List<String> getWrittenFiles() {
+        synchronized (m_operations) {
+            return m_operations.stream()
+                    .filter(op -> op.startsWith("open "))
+                    .map(op -> op.substring("open ".length()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -71,6 +72,8 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAPPED_MAX_BYTES_PROPERTY = "org.opennms.rrd.jrobin.mapped.maxBytes";
+    private static final String MAPPED_FLUSH_INTERVAL_PROPERTY = "org.opennms.rrd.jrobin.mapped.flushInterval";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -130,6 +133,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equals(factory)) {
+                    RrdBackendFactory.registerFactory(new MappedRrdBackendFactory(
+                            getLongProperty(MAPPED_MAX_BYTES_PROPERTY, MappedRrdBackendFactory.DEFAULT_MAX_MAPPED_BYTES),
+                            getLongProperty(MAPPED_FLUSH_INTERVAL_PROPERTY, MappedRrdBackendFactory.DEFAULT_FLUSH_INTERVAL)));
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
@@ -138,6 +146,19 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private long getLongProperty(final String name, final long defaultValue) {
+        final String value = m_configurationProperties.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warn("Invalid value '{}' for {}, using {}", value, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
     /**
      * Closes the JRobin RrdDb.
      *
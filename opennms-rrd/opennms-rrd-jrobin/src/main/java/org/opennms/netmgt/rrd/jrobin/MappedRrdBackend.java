@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+
+import org.jrobin.core.RrdFileBackend;
+
+/**
+ * JRobin backend reading and writing RRD files through the mappings kept by the {@link MappedRrdBackendFactory}.
+ * Falls back to regular file I/O for files that are not mapped.
+ */
+public class MappedRrdBackend extends RrdFileBackend {
+
+    private final MappedRrdBackendFactory m_factory;
+
+    private final boolean m_readOnly;
+
+    private MappedRrdBackendFactory.MappedRrdFile m_mappedFile;
+
+    /**
+     * <p>Constructor for MappedRrdBackend.</p>
+     *
+     * @param path the path of the RRD file
+     * @param readOnly true if the file is only read
+     * @param factory the factory keeping the mappings
+     * @throws java.io.IOException if any.
+     */
+    protected MappedRrdBackend(final String path, final boolean readOnly, final MappedRrdBackendFactory factory) throws IOException {
+        super(path, readOnly);
+        m_factory = factory;
+        m_readOnly = readOnly;
+        m_mappedFile = factory.acquire(getCanonicalPath(), file, readOnly);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void setLength(final long length) throws IOException {
+        if (m_mappedFile != null) {
+            if (m_mappedFile.getLength() == length) {
+                return;
+            }
+            m_factory.release(m_mappedFile);
+            m_mappedFile = null;
+        }
+        super.setLength(length);
+        // replaces the mapping of the previous length
+        m_mappedFile = m_factory.acquire(getCanonicalPath(), file, m_readOnly);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized long getLength() throws IOException {
+        return m_mappedFile != null ? m_mappedFile.getLength() : super.getLength();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void write(final long offset, final byte[] b) throws IOException {
+        if (m_mappedFile != null) {
+            m_mappedFile.write(offset, b);
+        } else {
+            super.write(offset, b);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void read(final long offset, final byte[] b) throws IOException {
+        if (m_mappedFile != null) {
+            m_mappedFile.read(offset, b);
+        } else {
+            super.read(offset, b);
+        }
+    }
+
+    /**
+     * Closes the file but keeps it mapped, the factory writes the changes to disk in the background.
+     *
+     * @throws java.io.IOException if any.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (m_mappedFile != null) {
+            m_factory.release(m_mappedFile);
+            m_mappedFile = null;
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdFileBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend factory that keeps recently used RRD files memory-mapped between opens.
+ * <p>
+ * Unlike the NIO backend, which maps and syncs each file every time it is opened, the mappings are shared by all
+ * backends of a file and outlive them. Updates only touch the page cache and the dirty mappings are forced to disk
+ * by a single background thread every flushInterval milliseconds, ordered by path so that files stored next to
+ * each other are written together. Each force writes the dirty pages of a file in ascending offset order, so the
+ * header and archive pointers rewritten by every update hit the disk once per flush instead of once per sample.
+ * <p>
+ * The mappings are kept in a LRU bounded by maxMappedBytes. Evicted mappings are flushed and dropped, the address
+ * space is released once they are garbage collected. Since the mappings are shared with the page cache, updates
+ * that have not been flushed yet are visible to readers using any other backend, and survive a restart of the JVM.
+ */
+public class MappedRrdBackendFactory extends RrdFileBackendFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    public static final String NAME = "MAPPED";
+
+    public static final long DEFAULT_MAX_MAPPED_BYTES = 512L * 1024L * 1024L;
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 30000L;
+
+    private final long m_maxMappedBytes;
+
+    private final long m_flushInterval;
+
+    // access ordered, guarded by this
+    private final Map<String, MappedRrdFile> m_mappedFiles = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long m_mappedBytes = 0;
+
+    private ScheduledExecutorService m_flusher;
+
+    /**
+     * A memory-mapped RRD file, shared by all open backends of the file.
+     */
+    static class MappedRrdFile {
+        private final String m_path;
+        // identifies the file the mapping belongs to in case it gets replaced
+        private final Object m_fileKey;
+        private final MappedByteBuffer m_buffer;
+        private int m_references = 0;
+        private volatile boolean m_dirty = false;
+
+        private MappedRrdFile(final String path, final Object fileKey, final MappedByteBuffer buffer) {
+            m_path = path;
+            m_fileKey = fileKey;
+            m_buffer = buffer;
+        }
+
+        int getLength() {
+            return m_buffer.capacity();
+        }
+
+        void read(final long offset, final byte[] b) {
+            final ByteBuffer buffer = m_buffer.duplicate();
+            buffer.position((int) offset);
+            buffer.get(b);
+        }
+
+        void write(final long offset, final byte[] b) {
+            final ByteBuffer buffer = m_buffer.duplicate();
+            buffer.position((int) offset);
+            buffer.put(b);
+            m_dirty = true;
+        }
+
+        boolean isDirty() {
+            return m_dirty;
+        }
+
+        void flush() {
+            if (m_dirty) {
+                // cleared first so writes racing with the force are flushed the next time
+                m_dirty = false;
+                m_buffer.force();
+            }
+        }
+    }
+
+    /**
+     * <p>Constructor for MappedRrdBackendFactory.</p>
+     *
+     * @param maxMappedBytes the total size of the files to keep mapped
+     * @param flushInterval the interval in milliseconds in which dirty mappings are written to disk
+     */
+    public MappedRrdBackendFactory(final long maxMappedBytes, final long flushInterval) {
+        m_maxMappedBytes = maxMappedBytes;
+        m_flushInterval = flushInterval;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        return new MappedRrdBackend(path, readOnly, this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    public long getMaxMappedBytes() {
+        return m_maxMappedBytes;
+    }
+
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    /**
+     * <p>getMappedBytes</p>
+     *
+     * @return the total size of the files currently mapped
+     */
+    public synchronized long getMappedBytes() {
+        return m_mappedBytes;
+    }
+
+    /**
+     * Returns the mapping of the given file, mapping it if needed, and registers the caller as a user of it.
+     * Returns null if the file can not be mapped, in which case the caller has to use regular file I/O.
+     */
+    MappedRrdFile acquire(final String path, final RandomAccessFile file, final boolean readOnly) throws IOException {
+        final Object fileKey = Files.readAttributes(Paths.get(path), BasicFileAttributes.class).fileKey();
+        final long length = file.length();
+        final List<MappedRrdFile> evicted;
+        final MappedRrdFile mappedFile;
+        synchronized (this) {
+            MappedRrdFile existing = m_mappedFiles.get(path);
+            if (existing != null && (existing.getLength() != length || !Objects.equals(existing.m_fileKey, fileKey))) {
+                // the file was resized or replaced, backends still using the old mapping keep it until closed
+                m_mappedFiles.remove(path);
+                m_mappedBytes -= existing.getLength();
+                existing = null;
+            }
+            if (existing == null) {
+                if (readOnly) {
+                    // readers don't need the mapping, only use it when a writer already created it
+                    return null;
+                }
+                if (length == 0 || length > Integer.MAX_VALUE || length > m_maxMappedBytes) {
+                    return null;
+                }
+                existing = new MappedRrdFile(path, fileKey, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length));
+                m_mappedFiles.put(path, existing);
+                m_mappedBytes += length;
+                startFlusher();
+            }
+            existing.m_references++;
+            mappedFile = existing;
+            evicted = evict();
+        }
+        flush(evicted);
+        return mappedFile;
+    }
+
+    /**
+     * Unregisters a user of the mapping, which may be evicted from now on.
+     */
+    void release(final MappedRrdFile mappedFile) {
+        final List<MappedRrdFile> evicted;
+        synchronized (this) {
+            mappedFile.m_references--;
+            evicted = evict();
+        }
+        flush(evicted);
+    }
+
+    /**
+     * Removes the least recently used mappings not in use until the mapped size fits.
+     */
+    private List<MappedRrdFile> evict() {
+        List<MappedRrdFile> evicted = null;
+        final Iterator<MappedRrdFile> it = m_mappedFiles.values().iterator();
+        while (m_mappedBytes > m_maxMappedBytes && it.hasNext()) {
+            final MappedRrdFile mappedFile = it.next();
+            if (mappedFile.m_references > 0) {
+                continue;
+            }
+            it.remove();
+            m_mappedBytes -= mappedFile.getLength();
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(mappedFile);
+        }
+        return evicted;
+    }
+
+    private void startFlusher() {
+        if (m_flusher == null && m_flushInterval > 0) {
+            m_flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "JRobin-MappedRrdFlusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            m_flusher.scheduleWithFixedDelay(this::flush, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all dirty mappings to disk.
+     */
+    public void flush() {
+        final List<MappedRrdFile> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (final MappedRrdFile mappedFile : m_mappedFiles.values()) {
+                if (mappedFile.isDirty()) {
+                    dirty.add(mappedFile);
+                }
+            }
+        }
+        flush(dirty);
+    }
+
+    private static void flush(final List<MappedRrdFile> mappedFiles) {
+        if (mappedFiles == null || mappedFiles.isEmpty()) {
+            return;
+        }
+        mappedFiles.sort(Comparator.comparing(f -> f.m_path));
+        final long start = System.currentTimeMillis();
+        for (final MappedRrdFile mappedFile : mappedFiles) {
+            try {
+                mappedFile.flush();
+            } catch (final Throwable e) {
+                LOG.error("Failed to flush mapped RRD file {}", mappedFile.m_path, e);
+            }
+        }
+        LOG.debug("Flushed {} mapped RRD files in {}ms", mappedFiles.size(), System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdBackendFactoryTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testUpdatesAreVisibleBeforeFlush() throws Exception {
+        // no background flushes
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory(MappedRrdBackendFactory.DEFAULT_MAX_MAPPED_BYTES, 0);
+        final String path = createRrd(factory, "test.jrb");
+        assertTrue(factory.getMappedBytes() > 0);
+
+        final RrdDb rrd = new RrdDb(path, factory);
+        rrd.createSample().setAndUpdate("1300:1");
+        rrd.createSample().setAndUpdate("1600:2");
+        rrd.close();
+
+        final RrdDb reader = new RrdDb(path, true, RrdBackendFactory.getFactory("FILE"));
+        try {
+            assertEquals(1600, reader.getLastUpdateTime());
+        } finally {
+            reader.close();
+        }
+
+        factory.flush();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final MappedRrdBackendFactory sizing = new MappedRrdBackendFactory(MappedRrdBackendFactory.DEFAULT_MAX_MAPPED_BYTES, 0);
+        createRrd(sizing, "sizing.jrb");
+        final long size = sizing.getMappedBytes();
+
+        final MappedRrdBackendFactory factory = new MappedRrdBackendFactory(2 * size, 0);
+        final String first = createRrd(factory, "first.jrb");
+        createRrd(factory, "second.jrb");
+        createRrd(factory, "third.jrb");
+        assertEquals(2 * size, factory.getMappedBytes());
+
+        // the evicted file is mapped again when it is updated
+        final RrdDb rrd = new RrdDb(first, factory);
+        rrd.createSample().setAndUpdate("1300:1");
+        rrd.close();
+        assertEquals(2 * size, factory.getMappedBytes());
+
+        final RrdDb reader = new RrdDb(first, true, RrdBackendFactory.getFactory("FILE"));
+        try {
+            assertEquals(1300, reader.getLastUpdateTime());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String createRrd(final MappedRrdBackendFactory factory, final String name) throws Exception {
+        final String path = new File(m_folder.getRoot(), name).getAbsolutePath();
+        final RrdDef def = new RrdDef(path);
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("a", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:100");
+        new RrdDb(def, factory).close();
+        return path;
+    }
+}
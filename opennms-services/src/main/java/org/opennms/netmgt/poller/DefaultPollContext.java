@@ -95,6 +95,14 @@ public class DefaultPollContext implements PollContext, EventListener {
      */
     public static final boolean DISABLE_POLL_TIMESTAMP_TRACKING = Boolean.getBoolean("org.opennms.netmgt.poller.disablePollTimestampTracking");
 
+    /**
+     * With node outage processing enabled, all of the polls of a node are serialized on the
+     * lock of the node, including the time spent waiting for the monitor. When this is set,
+     * the monitors are invoked outside of the lock and the lock is only held while the results
+     * are applied to the tree.
+     */
+    public static final boolean POLL_OUTSIDE_OF_TREE_LOCK = Boolean.getBoolean("org.opennms.netmgt.poller.pollOutsideOfTreeLock");
+
     private volatile PollerConfig m_pollerConfig;
     private volatile QueryManager m_queryManager;
     private volatile EventIpcManager m_eventManager;
@@ -395,6 +403,12 @@ public class DefaultPollContext implements PollContext, EventListener {
         return getPollerConfig().isServiceUnresponsiveEnabled();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean isPollingOutsideOfTreeLockEnabled() {
+        return POLL_OUTSIDE_OF_TREE_LOCK;
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.eventd.EventListener#onEvent(org.opennms.netmgt.events.api.model.IEvent)
      */
@@ -0,0 +1,710 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+import java.net.InetAddress;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.poller.pollables.PollableService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Writes the outages and the service status changes of the poller in the background.
+ *
+ * The poller threads make these changes while they hold the lock on the pollable tree, so
+ * they should not have to wait on the database. Instead, the changes are queued, coalesced
+ * per outage and per service, and written by a single thread in batches, one transaction
+ * per batch.
+ *
+ * Outage ids are allocated from the outage sequence ahead of time, so they can be returned
+ * right away and used to attach the event ids once the events come back from the event bus.
+ * The changes to an outage are applied in the order they were made. Within a batch the
+ * outages that already exist are updated before the new ones are inserted, so that an
+ * outage is always resolved before the next outage of the same service is opened.
+ */
+public class OutageWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(OutageWriter.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Where the batches are written to.
+     */
+    interface Store {
+        List<Integer> nextOutageIds(int count);
+
+        Integer findOpenOutageId(ServiceKey service);
+
+        /**
+         * @return the services that no longer exist
+         */
+        List<PendingService> write(List<PendingOutage> outages, List<PendingService> services);
+
+        /**
+         * Forgets about the cached state of the given services.
+         */
+        void invalidate(Predicate<ServiceKey> services);
+    }
+
+    private final Store m_store;
+    private final int m_batchSize;
+    private final int m_queueSize;
+
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private final Condition m_notEmpty = m_lock.newCondition();
+    private final Condition m_notFull = m_lock.newCondition();
+    private final Condition m_idle = m_lock.newCondition();
+    // Keyed by outage id for the outages, and by service for the service status changes
+    private final Map<Object, Object> m_pending = new LinkedHashMap<>();
+    private boolean m_writing = false;
+
+    private final Map<ServiceKey, Integer> m_openOutageIds = new ConcurrentHashMap<>();
+    // Deleted by the poller threads, the writer must never wait for the lock on the pollable tree
+    private final Set<PollableService> m_missingServices = ConcurrentHashMap.newKeySet();
+    private final Deque<Integer> m_outageIds = new ArrayDeque<>();
+
+    private final AtomicLong m_batchesWritten = new AtomicLong();
+    private final AtomicLong m_writeTimeMillis = new AtomicLong();
+    private volatile long m_lastWriteTimeMillis = 0;
+
+    private final Thread m_thread;
+    private volatile boolean m_running = true;
+
+    public OutageWriter(JdbcTemplate jdbcTemplate, TransactionOperations transactionOperations, int batchSize, int queueSize) {
+        this(new JdbcStore(jdbcTemplate, transactionOperations), batchSize, queueSize);
+    }
+
+    OutageWriter(Store store, int batchSize, int queueSize) {
+        m_store = Objects.requireNonNull(store);
+        m_batchSize = Math.max(1, batchSize);
+        m_queueSize = Math.max(m_batchSize, queueSize);
+        m_thread = new Thread(this::run, "poller-outage-writer");
+        m_thread.setDaemon(true);
+        m_thread.start();
+        LOG.info("Writing outages in batches of up to {} changes.", m_batchSize);
+    }
+
+    /**
+     * Queues a new outage for the given service and returns its id.
+     */
+    public int openOutage(int nodeId, String ipAddr, String svcName, Date lostTime) {
+        final ServiceKey service = new ServiceKey(nodeId, ipAddr, svcName);
+        final int outageId = nextOutageId();
+        // Cached while holding the queue lock, so that it can not be invalidated before the outage is queued
+        enqueue(outageId, () -> new PendingOutage(outageId, service, true), outage -> {
+            outage.m_lostTime = lostTime;
+            m_openOutageIds.put(service, outageId);
+        });
+        return outageId;
+    }
+
+    /**
+     * Queues the resolution of the outstanding outage of the given service and returns the id
+     * of this outage, or null if the service has no outstanding outage.
+     */
+    public Integer resolveOutage(int nodeId, String ipAddr, String svcName, Date regainedTime) {
+        final ServiceKey service = new ServiceKey(nodeId, ipAddr, svcName);
+        m_lock.lock();
+        try {
+            final Integer outageId = m_openOutageIds.remove(service);
+            if (outageId != null) {
+                enqueue(outageId, () -> new PendingOutage(outageId, service, false), outage -> outage.m_regainedTime = regainedTime);
+                return outageId;
+            }
+        } finally {
+            m_lock.unlock();
+        }
+
+        // The outage was not opened by this writer, i.e. before the poller was started, or it was closed by other means
+        final Integer outageId = m_store.findOpenOutageId(service);
+        if (outageId == null) {
+            return null;
+        }
+        enqueue(outageId, () -> new PendingOutage(outageId, service, false), outage -> outage.m_regainedTime = regainedTime);
+        return outageId;
+    }
+
+    public void setLostEventId(int outageId, int lostEventId) {
+        enqueue(outageId, () -> new PendingOutage(outageId, null, false), outage -> outage.m_lostEventId = lostEventId);
+    }
+
+    public void setRegainedEventId(int outageId, int regainedEventId) {
+        enqueue(outageId, () -> new PendingOutage(outageId, null, false), outage -> outage.m_regainedEventId = regainedEventId);
+    }
+
+    public void updateServiceStatus(int nodeId, String ipAddr, String svcName, String status) {
+        final ServiceKey service = new ServiceKey(nodeId, ipAddr, svcName);
+        enqueue(service, () -> new PendingService(service), pending -> pending.m_status = status);
+    }
+
+    public void updateLastGoodOrFail(PollableService pollableService, PollStatus status) {
+        if (m_missingServices.remove(pollableService)) {
+            pollableService.delete();
+            return;
+        }
+        final ServiceKey service = new ServiceKey(pollableService.getNodeId(), pollableService.getAddress(), pollableService.getSvcName());
+        enqueue(service, () -> new PendingService(service), pending -> {
+            pending.m_pollableService = pollableService;
+            if (status.isAvailable()) {
+                pending.m_lastGood = latest(pending.m_lastGood, status.getTimestamp());
+            } else if (status.isUnavailable() || status.isUnresponsive()) {
+                pending.m_lastFail = latest(pending.m_lastFail, status.getTimestamp());
+            }  // else ignore, not explicitly good or bad
+        });
+    }
+
+    /**
+     * Waits until all of the changes that were queued so far have been written.
+     */
+    public void flush() {
+        m_lock.lock();
+        try {
+            awaitIdle();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all of the queued changes and forgets about the outstanding outages of the matching
+     * services. A null ipAddr or svcName matches any interface or service.
+     *
+     * Must be called before changing the outages of these services by other means.
+     */
+    public void flushAndInvalidate(int nodeId, String ipAddr, String svcName) {
+        final String addr = ipAddr != null ? InetAddressUtils.str(InetAddressUtils.addr(ipAddr)) : null;
+        flushAndInvalidate(service -> service.m_nodeId == nodeId
+                && (addr == null || addr.equals(service.m_ipAddr))
+                && (svcName == null || svcName.equals(service.m_svcName)));
+    }
+
+    /**
+     * Writes all of the queued changes and forgets about all of the outstanding outages.
+     */
+    public void flushAndInvalidateAll() {
+        flushAndInvalidate(service -> true);
+    }
+
+    private void flushAndInvalidate(Predicate<ServiceKey> services) {
+        m_lock.lock();
+        try {
+            awaitIdle();
+            // Nothing can be queued or written while the lock is held
+            m_openOutageIds.keySet().removeIf(services);
+            m_store.invalidate(services);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the queue is empty and the writer is idle. Must be called with the lock held.
+     */
+    private void awaitIdle() {
+        try {
+            while (!m_pending.isEmpty() || m_writing) {
+                if (!m_thread.isAlive()) {
+                    return;
+                }
+                m_idle.await(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the writer after the changes that are already queued have been written.
+     */
+    public void stop() {
+        m_lock.lock();
+        try {
+            m_running = false;
+            m_notEmpty.signal();
+        } finally {
+            m_lock.unlock();
+        }
+        try {
+            m_thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The number of outages and services with changes that have not been written yet.
+     */
+    public long getQueueDepth() {
+        m_lock.lock();
+        try {
+            return m_pending.size();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public long getBatchesWritten() {
+        return m_batchesWritten.get();
+    }
+
+    /**
+     * The total time spent writing and committing the batches.
+     */
+    public long getWriteTimeMillis() {
+        return m_writeTimeMillis.get();
+    }
+
+    public long getLastWriteTimeMillis() {
+        return m_lastWriteTimeMillis;
+    }
+
+    private synchronized int nextOutageId() {
+        if (m_outageIds.isEmpty()) {
+            m_outageIds.addAll(m_store.nextOutageIds(m_batchSize));
+        }
+        return m_outageIds.removeFirst();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void enqueue(Object key, Supplier<T> create, Consumer<T> update) {
+        m_lock.lock();
+        try {
+            T pending = (T) m_pending.get(key);
+            if (pending == null) {
+                while (m_pending.size() >= m_queueSize && m_thread.isAlive()) {
+                    m_notFull.await();
+                }
+                pending = create.get();
+                m_pending.put(key, pending);
+                m_notEmpty.signal();
+            }
+            update.accept(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing the changes for " + key, e);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private void run() {
+        Logging.putPrefix(Poller.getLoggingCategory());
+        final List<PendingOutage> outages = new ArrayList<>(m_batchSize);
+        final List<PendingService> services = new ArrayList<>(m_batchSize);
+        try {
+            while (true) {
+                m_lock.lock();
+                try {
+                    m_writing = false;
+                    m_idle.signalAll();
+                    while (m_pending.isEmpty()) {
+                        if (!m_running) {
+                            return;
+                        }
+                        m_notEmpty.await(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+
+                    // Take the oldest changes, further changes to the same outages or services are queued again
+                    for (final Iterator<Object> it = m_pending.values().iterator(); it.hasNext() && outages.size() + services.size() < m_batchSize;) {
+                        final Object pending = it.next();
+                        if (pending instanceof PendingOutage) {
+                            outages.add((PendingOutage) pending);
+                        } else {
+                            services.add((PendingService) pending);
+                        }
+                        it.remove();
+                    }
+                    m_writing = true;
+                    m_notFull.signalAll();
+                } finally {
+                    m_lock.unlock();
+                }
+
+                write(outages, services);
+                outages.clear();
+                services.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted with {} changes left in the queue.", getQueueDepth());
+            Thread.currentThread().interrupt();
+        } finally {
+            m_lock.lock();
+            try {
+                m_writing = false;
+                m_idle.signalAll();
+                m_notFull.signalAll();
+            } finally {
+                m_lock.unlock();
+            }
+        }
+    }
+
+    private void write(List<PendingOutage> outages, List<PendingService> services) {
+        final long start = System.nanoTime();
+        final List<PendingService> missingServices = new ArrayList<>();
+        try {
+            missingServices.addAll(m_store.write(outages, services));
+        } catch (Throwable t) {
+            LOG.warn("Failed to write a batch of {} outages and {} services. Writing them one at a time.", outages.size(), services.size(), t);
+            m_store.invalidate(service -> true);
+            for (final PendingOutage outage : outages) {
+                try {
+                    m_store.write(Collections.singletonList(outage), Collections.emptyList());
+                } catch (Throwable t2) {
+                    LOG.error("Failed to write {}.", outage, t2);
+                }
+            }
+            for (final PendingService service : services) {
+                try {
+                    missingServices.addAll(m_store.write(Collections.emptyList(), Collections.singletonList(service)));
+                } catch (Throwable t2) {
+                    LOG.error("Failed to write {}.", service, t2);
+                }
+            }
+        }
+        for (final PendingService service : missingServices) {
+            LOG.error("Failed to update the {}. The service no longer exists.", service);
+            if (service.m_pollableService != null) {
+                // Deleted with the next status change of the service
+                m_missingServices.add(service.m_pollableService);
+            }
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        m_lastWriteTimeMillis = elapsedMillis;
+        m_writeTimeMillis.addAndGet(elapsedMillis);
+        m_batchesWritten.incrementAndGet();
+        LOG.debug("Wrote a batch of {} outages and {} services in {}ms.", outages.size(), services.size(), elapsedMillis);
+    }
+
+    private static Date latest(Date a, Date b) {
+        if (a == null || (b != null && b.after(a))) {
+            return b;
+        }
+        return a;
+    }
+
+    static class ServiceKey {
+        final int m_nodeId;
+        final String m_ipAddr;
+        final String m_svcName;
+
+        ServiceKey(int nodeId, String ipAddr, String svcName) {
+            this(nodeId, InetAddressUtils.addr(ipAddr), svcName);
+        }
+
+        ServiceKey(int nodeId, InetAddress ipAddr, String svcName) {
+            m_nodeId = nodeId;
+            m_ipAddr = InetAddressUtils.str(ipAddr);
+            m_svcName = Objects.requireNonNull(svcName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ServiceKey)) {
+                return false;
+            }
+            final ServiceKey other = (ServiceKey) obj;
+            return m_nodeId == other.m_nodeId
+                    && Objects.equals(m_ipAddr, other.m_ipAddr)
+                    && m_svcName.equals(other.m_svcName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_nodeId, m_ipAddr, m_svcName);
+        }
+
+        @Override
+        public String toString() {
+            return m_nodeId + ":" + m_ipAddr + ":" + m_svcName;
+        }
+    }
+
+    /**
+     * The changes to a single outage. Outages that are opened are inserted, all others are updated.
+     */
+    static class PendingOutage {
+        final int m_outageId;
+        final ServiceKey m_service;
+        final boolean m_open;
+        Date m_lostTime;
+        Integer m_lostEventId;
+        Date m_regainedTime;
+        Integer m_regainedEventId;
+
+        PendingOutage(int outageId, ServiceKey service, boolean open) {
+            m_outageId = outageId;
+            m_service = service;
+            m_open = open;
+        }
+
+        @Override
+        public String toString() {
+            return "outage " + m_outageId + (m_service != null ? " for " + m_service : "");
+        }
+    }
+
+    /**
+     * The changes to the status of a single service.
+     */
+    static class PendingService {
+        final ServiceKey m_service;
+        PollableService m_pollableService;
+        Date m_lastGood;
+        Date m_lastFail;
+        String m_status;
+
+        PendingService(ServiceKey service) {
+            m_service = service;
+        }
+
+        @Override
+        public String toString() {
+            return "status of service " + m_service;
+        }
+    }
+
+    static class JdbcStore implements Store {
+        private static final String NEXT_OUTAGE_IDS = "SELECT nextval('outageNxtId') FROM generate_series(1, ?)";
+
+        private static final String FIND_SERVICE_ID = "SELECT ifservices.id FROM ifservices"
+                + " JOIN ipinterface ON ifservices.ipinterfaceid = ipinterface.id"
+                + " JOIN service ON ifservices.serviceid = service.serviceid"
+                + " WHERE ipinterface.nodeid = ? AND ipinterface.ipaddr = ? AND service.servicename = ?";
+
+        private static final String FIND_OPEN_OUTAGE_ID = "SELECT outages.outageid FROM outages"
+                + " JOIN ifservices ON outages.ifserviceid = ifservices.id"
+                + " JOIN ipinterface ON ifservices.ipinterfaceid = ipinterface.id"
+                + " JOIN service ON ifservices.serviceid = service.serviceid"
+                + " WHERE ipinterface.nodeid = ? AND ipinterface.ipaddr = ? AND service.servicename = ?"
+                + " AND outages.ifregainedservice IS NULL AND outages.perspective IS NULL";
+
+        private static final String UPDATE_OUTAGE = "UPDATE outages SET"
+                + " svclosteventid = COALESCE(?, svclosteventid),"
+                + " ifregainedservice = COALESCE(?, ifregainedservice),"
+                + " svcregainedeventid = COALESCE(?, svcregainedeventid)"
+                + " WHERE outageid = ?";
+
+        private static final String INSERT_OUTAGE = "INSERT INTO outages"
+                + " (outageid, ifserviceid, iflostservice, svclosteventid, ifregainedservice, svcregainedeventid)"
+                + " VALUES (?, ?, ?, ?, ?, ?)";
+
+        private static final String UPDATE_SERVICE = "UPDATE ifservices SET"
+                + " lastgood = COALESCE(?, lastgood),"
+                + " lastfail = COALESCE(?, lastfail),"
+                + " status = COALESCE(?, status)"
+                + " WHERE id = ?";
+
+        private final JdbcTemplate m_jdbcTemplate;
+        private final TransactionOperations m_transactionOperations;
+        // Only used by the writer thread, or while it is idle
+        private final Map<ServiceKey, Integer> m_serviceIds = new LinkedHashMap<ServiceKey, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ServiceKey, Integer> eldest) {
+                return size() > 100000;
+            }
+        };
+
+        JdbcStore(JdbcTemplate jdbcTemplate, TransactionOperations transactionOperations) {
+            m_jdbcTemplate = Objects.requireNonNull(jdbcTemplate);
+            m_transactionOperations = Objects.requireNonNull(transactionOperations);
+        }
+
+        @Override
+        public List<Integer> nextOutageIds(int count) {
+            return m_jdbcTemplate.queryForList(NEXT_OUTAGE_IDS, Integer.class, count);
+        }
+
+        @Override
+        public Integer findOpenOutageId(ServiceKey service) {
+            final List<Integer> outageIds = m_jdbcTemplate.queryForList(FIND_OPEN_OUTAGE_ID, Integer.class,
+                    service.m_nodeId, service.m_ipAddr, service.m_svcName);
+            return outageIds.isEmpty() ? null : outageIds.get(0);
+        }
+
+        @Override
+        public List<PendingService> write(List<PendingOutage> outages, List<PendingService> services) {
+            final List<PendingService> missingServices = new ArrayList<>();
+            m_transactionOperations.execute((TransactionCallback<Void>) status -> {
+                final List<PendingOutage> updates = new ArrayList<>(outages.size());
+                final List<PendingOutage> inserts = new ArrayList<>(outages.size());
+                final List<Integer> insertServiceIds = new ArrayList<>(outages.size());
+                for (final PendingOutage outage : outages) {
+                    if (!outage.m_open) {
+                        updates.add(outage);
+                        continue;
+                    }
+                    final Integer serviceId = getServiceId(outage.m_service);
+                    if (serviceId == null) {
+                        LOG.warn("Failed to open {}. The service could not be found.", outage);
+                        continue;
+                    }
+                    inserts.add(outage);
+                    insertServiceIds.add(serviceId);
+                }
+
+                final List<PendingService> serviceUpdates = new ArrayList<>(services.size());
+                final List<Integer> serviceIds = new ArrayList<>(services.size());
+                for (final PendingService service : services) {
+                    final Integer serviceId = getServiceId(service.m_service);
+                    if (serviceId == null) {
+                        missingServices.add(service);
+                        continue;
+                    }
+                    serviceUpdates.add(service);
+                    serviceIds.add(serviceId);
+                }
+
+                // Resolve the outstanding outages before opening new ones
+                m_jdbcTemplate.batchUpdate(UPDATE_OUTAGE, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        final PendingOutage outage = updates.get(i);
+                        setInteger(ps, 1, outage.m_lostEventId);
+                        setTimestamp(ps, 2, outage.m_regainedTime);
+                        setInteger(ps, 3, outage.m_regainedEventId);
+                        ps.setInt(4, outage.m_outageId);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return updates.size();
+                    }
+                });
+                m_jdbcTemplate.batchUpdate(INSERT_OUTAGE, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        final PendingOutage outage = inserts.get(i);
+                        ps.setInt(1, outage.m_outageId);
+                        ps.setInt(2, insertServiceIds.get(i));
+                        setTimestamp(ps, 3, outage.m_lostTime);
+                        setInteger(ps, 4, outage.m_lostEventId);
+                        setTimestamp(ps, 5, outage.m_regainedTime);
+                        setInteger(ps, 6, outage.m_regainedEventId);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return inserts.size();
+                    }
+                });
+                m_jdbcTemplate.batchUpdate(UPDATE_SERVICE, new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        final PendingService service = serviceUpdates.get(i);
+                        setTimestamp(ps, 1, service.m_lastGood);
+                        setTimestamp(ps, 2, service.m_lastFail);
+                        if (service.m_status != null) {
+                            ps.setString(3, service.m_status);
+                        } else {
+                            ps.setNull(3, Types.VARCHAR);
+                        }
+                        ps.setInt(4, serviceIds.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return serviceUpdates.size();
+                    }
+                });
+                return null;
+            });
+            return missingServices;
+        }
+
+        @Override
+        public void invalidate(Predicate<ServiceKey> services) {
+            m_serviceIds.keySet().removeIf(services);
+        }
+
+        private Integer getServiceId(ServiceKey service) {
+            Integer serviceId = m_serviceIds.get(service);
+            if (serviceId == null) {
+                final List<Integer> serviceIds = m_jdbcTemplate.queryForList(FIND_SERVICE_ID, Integer.class,
+                        service.m_nodeId, service.m_ipAddr, service.m_svcName);
+                if (serviceIds.isEmpty()) {
+                    return null;
+                }
+                serviceId = serviceIds.get(0);
+                m_serviceIds.put(service, serviceId);
+            }
+            return serviceId;
+        }
+
+        private static void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+            if (value != null) {
+                ps.setInt(index, value);
+            } else {
+                ps.setNull(index, Types.INTEGER);
+            }
+        }
+
+        private static void setTimestamp(PreparedStatement ps, int index, Date value) throws SQLException {
+            if (value != null) {
+                ps.setTimestamp(index, new Timestamp(value.getTime()));
+            } else {
+                ps.setNull(index, Types.TIMESTAMP);
+            }
+        }
+    }
+}
@@ -61,7 +61,10 @@ import org.opennms.netmgt.model.OnmsOutage;
 import org.opennms.netmgt.poller.pollables.PollableService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionOperations;
 
@@ -70,10 +73,18 @@ import org.springframework.transaction.support.TransactionOperations;
  *
  * @author brozow
  */
-public class QueryManagerDaoImpl implements QueryManager {
+public class QueryManagerDaoImpl implements QueryManager, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueryManagerDaoImpl.class);
 
+    /**
+     * Outages and service status changes are written in the calling thread by default. When enabled,
+     * they are queued and written in batches by an {@link OutageWriter} instead.
+     */
+    protected static final boolean OUTAGE_WRITER_ENABLED = Boolean.getBoolean("org.opennms.netmgt.poller.outageWriter.enabled");
+    protected static final Integer OUTAGE_WRITER_BATCH_SIZE = Integer.getInteger("org.opennms.netmgt.poller.outageWriter.batchSize", 500);
+    protected static final Integer OUTAGE_WRITER_QUEUE_SIZE = Integer.getInteger("org.opennms.netmgt.poller.outageWriter.queueSize", 100000);
+
     @Autowired
     private NodeDao m_nodeDao;
 
@@ -91,8 +102,39 @@ public class QueryManagerDaoImpl implements QueryManager {
 
     @Autowired
     private TransactionOperations m_transcationOps;
-    
 
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    private boolean m_outageWriterEnabled = OUTAGE_WRITER_ENABLED;
+
+    private OutageWriter m_outageWriter;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_outageWriterEnabled) {
+            m_outageWriter = new OutageWriter(m_jdbcTemplate, m_transcationOps, OUTAGE_WRITER_BATCH_SIZE, OUTAGE_WRITER_QUEUE_SIZE);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_outageWriter != null) {
+            m_outageWriter.stop();
+            m_outageWriter = null;
+        }
+    }
+
+    public void setOutageWriterEnabled(boolean outageWriterEnabled) {
+        m_outageWriterEnabled = outageWriterEnabled;
+    }
+
+    /**
+     * @return the writer for the outages and service status changes, or null if they are written in the calling thread
+     */
+    public OutageWriter getOutageWriter() {
+        return m_outageWriter;
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -118,6 +160,9 @@ public class QueryManagerDaoImpl implements QueryManager {
     @Override
     public Integer openOutagePendingLostEventId(int nodeId, String ipAddr, String svcName, Date lostTime) {
         LOG.info("opening outage for {}:{}:{} @ {}", nodeId, ipAddr, svcName, lostTime);
+        if (m_outageWriter != null) {
+            return m_outageWriter.openOutage(nodeId, ipAddr, svcName, lostTime);
+        }
         final OnmsMonitoredService service = m_monitoredServiceDao.get(nodeId, InetAddressUtils.addr(ipAddr), svcName);
         final OnmsOutage outage = new OnmsOutage(lostTime, service);
         m_outageDao.saveOrUpdate(outage);
@@ -128,6 +173,10 @@ public class QueryManagerDaoImpl implements QueryManager {
     @Override
     public void updateOpenOutageWithEventId(int outageId, int lostEventId) {
         LOG.info("updating open outage {} with event id {}", outageId, lostEventId);
+        if (m_outageWriter != null) {
+            m_outageWriter.setLostEventId(outageId, lostEventId);
+            return;
+        }
 
         final OnmsEvent event = m_eventDao.get(lostEventId);
         final OnmsOutage outage = m_outageDao.get(outageId);
@@ -146,6 +195,9 @@ public class QueryManagerDaoImpl implements QueryManager {
     @Override
     public Integer resolveOutagePendingRegainEventId(int nodeId, String ipAddr, String svcName, Date regainedTime) {
         LOG.info("resolving outage for {}:{}:{} @ {}", nodeId, ipAddr, svcName, regainedTime);
+        if (m_outageWriter != null) {
+            return m_outageWriter.resolveOutage(nodeId, ipAddr, svcName, regainedTime);
+        }
         final OnmsMonitoredService service = m_monitoredServiceDao.get(nodeId, InetAddressUtils.addr(ipAddr), svcName);
         if (service == null) {
             LOG.warn("Failed to resolve the pending outage for {}:{}:{} @ {}. The service could not be found.",
@@ -168,6 +220,10 @@ public class QueryManagerDaoImpl implements QueryManager {
     @Override
     public void updateResolvedOutageWithEventId(int outageId, int regainedEventId) {
         LOG.info("updating resolved outage {} with event id {}", outageId, regainedEventId);
+        if (m_outageWriter != null) {
+            m_outageWriter.setRegainedEventId(outageId, regainedEventId);
+            return;
+        }
 
         final OnmsEvent event = m_eventDao.get(regainedEventId);
         final OnmsOutage outage = m_outageDao.get(outageId);
@@ -205,6 +261,10 @@ public class QueryManagerDaoImpl implements QueryManager {
      */
     @Override
     public void closeOutagesForUnmanagedServices() {
+        if (m_outageWriter != null) {
+            // Only called when the poller is started, before any of the services are polled
+            m_outageWriter.flushAndInvalidateAll();
+        }
         Date closeDate = new java.util.Date();
         Criteria criteria = new Criteria(OnmsOutage.class);
         criteria.addRestriction(new NullRestriction("perspective"));
@@ -251,6 +311,7 @@ public class QueryManagerDaoImpl implements QueryManager {
      */
     @Override
     public void closeOutagesForNode(Date closeDate, int eventId, int nodeId) {
+        flushOutageWriter(nodeId, null, null);
         Criteria criteria = new Criteria(OnmsOutage.class);
         criteria.addRestriction(new NullRestriction("perspective"));
         criteria.setAliases(Arrays.asList(new Alias[] {
@@ -278,6 +339,7 @@ public class QueryManagerDaoImpl implements QueryManager {
      */
     @Override
     public void closeOutagesForInterface(Date closeDate, int eventId, int nodeId, String ipAddr) {
+        flushOutageWriter(nodeId, ipAddr, null);
         Criteria criteria = new Criteria(OnmsOutage.class);
         criteria.addRestriction(new NullRestriction("perspective"));
         criteria.setAliases(Arrays.asList(new Alias[] {
@@ -307,6 +369,7 @@ public class QueryManagerDaoImpl implements QueryManager {
      */
     @Override
     public void closeOutagesForService(Date closeDate, int eventId, int nodeId, String ipAddr, String serviceName) {
+        flushOutageWriter(nodeId, ipAddr, serviceName);
         Criteria criteria = new Criteria(OnmsOutage.class);
         criteria.addRestriction(new NullRestriction("perspective"));
         criteria.setAliases(Arrays.asList(new Alias[] {
@@ -331,6 +394,10 @@ public class QueryManagerDaoImpl implements QueryManager {
 
     @Override
     public void updateServiceStatus(int nodeId, String ipAddr, String serviceName, String status) {
+        if (m_outageWriter != null) {
+            m_outageWriter.updateServiceStatus(nodeId, ipAddr, serviceName, status);
+            return;
+        }
         try {
             OnmsMonitoredService service = m_monitoredServiceDao.get(nodeId, InetAddress.getByName(ipAddr), serviceName);
             service.setStatus(status);
@@ -343,6 +410,10 @@ public class QueryManagerDaoImpl implements QueryManager {
 
     @Override
     public void updateLastGoodOrFail(PollableService pollableService, PollStatus status) {
+        if (m_outageWriter != null) {
+            m_outageWriter.updateLastGoodOrFail(pollableService, status);
+            return;
+        }
         final var nodeId = pollableService.getNodeId();
         final var ipAddr = pollableService.getAddress();
         final var serviceName = pollableService.getSvcName();
@@ -370,5 +441,14 @@ public class QueryManagerDaoImpl implements QueryManager {
         }
     }
 
+    /**
+     * The outages are closed with the DAOs, so any queued changes must be written first.
+     */
+    private void flushOutageWriter(int nodeId, String ipAddr, String serviceName) {
+        if (m_outageWriter != null) {
+            m_outageWriter.flushAndInvalidate(nodeId, ipAddr, serviceName);
+        }
+    }
+
 
 }
@@ -31,7 +31,10 @@ package org.opennms.netmgt.poller.jmx;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.poller.OutageWriter;
+import org.opennms.netmgt.poller.QueryManager;
+import org.opennms.netmgt.poller.QueryManagerDaoImpl;
+import org.opennms.netmgt.scheduler.Schedulers;
 
 /**
  * <p>Pollerd class.</p>
@@ -159,11 +162,37 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
     
+    @Override
+    public long getOutageWriterQueueDepth() {
+        final OutageWriter outageWriter = getOutageWriter();
+        return outageWriter != null ? outageWriter.getQueueDepth() : 0L;
+    }
+
+    @Override
+    public long getOutageWriterBatches() {
+        final OutageWriter outageWriter = getOutageWriter();
+        return outageWriter != null ? outageWriter.getBatchesWritten() : 0L;
+    }
+
+    @Override
+    public long getOutageWriterWriteTime() {
+        final OutageWriter outageWriter = getOutageWriter();
+        return outageWriter != null ? outageWriter.getWriteTimeMillis() : 0L;
+    }
+
+    private OutageWriter getOutageWriter() {
+        final QueryManager queryManager = getDaemon().getQueryManager();
+        if (queryManager instanceof QueryManagerDaoImpl) {
+            return ((QueryManagerDaoImpl) queryManager).getOutageWriter();
+        }
+        return null;
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) Schedulers.getRunner(getDaemon().getScheduler());
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (Schedulers.getRunner(getDaemon().getScheduler()) instanceof ThreadPoolExecutor);
     }
 }
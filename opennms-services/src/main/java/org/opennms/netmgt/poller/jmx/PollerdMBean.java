@@ -93,4 +93,19 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of outages and services with changes that are waiting to be written, if the outage writer is enabled
+     */
+    public long getOutageWriterQueueDepth();
+
+    /**
+     * @return The cumulative number of batches written by the outage writer since poller startup
+     */
+    public long getOutageWriterBatches();
+
+    /**
+     * @return The cumulative time in milliseconds spent writing and committing batches of outages since poller startup
+     */
+    public long getOutageWriterWriteTime();
 }
@@ -107,6 +107,15 @@ public interface PollContext {
      */
     public boolean isServiceUnresponsiveEnabled();
 
+    /**
+     * When enabled, scheduled polls invoke the monitor before taking the lock of the
+     * node and only hold the lock while the result is applied to the tree. This lets
+     * the services of the same node be polled in parallel.
+     *
+     * @return a boolean.
+     */
+    public boolean isPollingOutsideOfTreeLockEnabled();
+
     void trackPoll(PollableService service, PollStatus result);
 
 }
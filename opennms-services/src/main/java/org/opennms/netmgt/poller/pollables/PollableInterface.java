@@ -223,12 +223,23 @@ public class PollableInterface extends PollableContainer {
     /** {@inheritDoc} */
     @Override
     protected PollStatus poll(PollableElement elem) {
-        PollableService critSvc = getCriticalService();
-        if (getStatus().isUp() || critSvc == null || elem == critSvc)
+        if (isPollingMember(elem))
             return super.poll(elem);
     
         return PollStatus.down();
     }
+
+    /**
+     * Returns false when the interface is down and the given member is not the critical
+     * service, in which case polls of the member are answered without invoking its monitor.
+     *
+     * @param elem a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
+     * @return a boolean.
+     */
+    boolean isPollingMember(PollableElement elem) {
+        PollableService critSvc = getCriticalService();
+        return getStatus().isUp() || critSvc == null || elem == critSvc;
+    }
     
     /** {@inheritDoc} */
     @Override
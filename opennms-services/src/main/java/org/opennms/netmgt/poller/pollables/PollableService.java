@@ -31,6 +31,7 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -55,10 +56,39 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
 
     private final class PollRunner implements Runnable {
     	
+    	private final PollStatus m_polledStatus;
+    	private final long m_pollCount;
     	private volatile PollStatus m_pollStatus;
+
+    	public PollRunner() {
+    	    this(null, 0L);
+    	}
+
+    	/**
+    	 * @param polledStatus the result of a poll that was taken before the tree lock was obtained
+    	 * @param pollCount the number of polls of the service when that poll was started
+    	 */
+    	public PollRunner(PollStatus polledStatus, long pollCount) {
+    	    m_polledStatus = polledStatus;
+    	    m_pollCount = pollCount;
+    	}
+
             @Override
 		public void run() {
-		    doPoll();
+		    if (m_polledStatus != null) {
+		        if (isDeleted()) {
+		            m_pollStatus = getStatus();
+		            return;
+		        }
+		        // If the service was polled by another thread in the meantime, i.e. while
+		        // checking if the node is down, that result is newer than ours
+		        m_pendingStatus = m_pollCount == m_pollsCompleted.get() ? m_polledStatus : PollStatus.unknown();
+		    }
+		    try {
+		        doPoll();
+		    } finally {
+		        m_pendingStatus = null;
+		    }
 		    getNode().processStatusChange(new Date());
 		    m_pollStatus = getStatus();
 		}
@@ -73,6 +103,10 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    private volatile PollStatus m_pendingStatus;
+    private final AtomicLong m_pollsCompleted = new AtomicLong(0L);
+    // A poll taken outside of the tree lock whose result could not be applied yet
+    private volatile PollRunner m_postponedPoll;
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -188,7 +222,14 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_pendingStatus;
+        if (newStatus != null) {
+            // Use the result of the poll that was taken outside of the tree lock
+            m_pendingStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+            m_pollsCompleted.incrementAndGet();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -400,11 +441,26 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
+                PollRunner r;
+                if (getContext().isPollingOutsideOfTreeLockEnabled() && getInterface().isPollingMember(this)) {
+                    // Only hold the lock of the node while the result is applied to the tree
+                    r = m_postponedPoll;
+                    m_postponedPoll = null;
+                    if (r == null) {
+                        final long pollCount = m_pollsCompleted.get();
+                        r = new PollRunner(m_pollConfig.poll(), pollCount);
+                    }
+                } else {
+                    r = new PollRunner();
+                }
                 try {
                     withTreeLock(r, timeout);
                 } catch (LockUnavailable e) {
                     LOG.info("Postponing poll for {}. Another service is currently holding the lock.", this);
+                    if (r.m_polledStatus != null) {
+                        // Keep the result, so that only applying it is retried
+                        m_postponedPoll = r;
+                    }
                     throw new PostponeNecessary("LockUnavailable postpone poll");
                 }
                 status = r.getPollStatus();
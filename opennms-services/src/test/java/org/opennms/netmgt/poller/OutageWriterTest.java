@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.poller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.poller.OutageWriter.PendingOutage;
+import org.opennms.netmgt.poller.OutageWriter.PendingService;
+import org.opennms.netmgt.poller.OutageWriter.ServiceKey;
+import org.opennms.netmgt.poller.pollables.PollableService;
+
+public class OutageWriterTest {
+
+    private final MockStore m_store = new MockStore();
+
+    private OutageWriter m_writer;
+
+    @After
+    public void tearDown() {
+        if (m_writer != null) {
+            m_writer.stop();
+        }
+    }
+
+    @Test
+    public void canCoalesceChangesToTheSameOutage() throws Exception {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+
+        // Open and resolve the outage while the writer is busy
+        final int outageId = m_writer.openOutage(1, "192.168.1.1", "HTTP", new Date(1000));
+        m_writer.setLostEventId(outageId, 10);
+        assertEquals(Integer.valueOf(outageId), m_writer.resolveOutage(1, "192.168.1.1", "HTTP", new Date(2000)));
+        m_writer.setRegainedEventId(outageId, 11);
+        assertEquals(1, m_writer.getQueueDepth());
+
+        m_store.unblock();
+        m_writer.flush();
+        assertEquals(0, m_writer.getQueueDepth());
+        assertEquals(2, m_store.m_batches.size());
+
+        // The outage is inserted with all of its changes at once
+        final List<PendingOutage> outages = m_store.m_batches.get(1).m_outages;
+        assertEquals(1, outages.size());
+        final PendingOutage outage = outages.get(0);
+        assertEquals(outageId, outage.m_outageId);
+        assertTrue(outage.m_open);
+        assertEquals(new Date(1000), outage.m_lostTime);
+        assertEquals(Integer.valueOf(10), outage.m_lostEventId);
+        assertEquals(new Date(2000), outage.m_regainedTime);
+        assertEquals(Integer.valueOf(11), outage.m_regainedEventId);
+        assertEquals(2, m_writer.getBatchesWritten());
+    }
+
+    @Test
+    public void canUpdateOutagesThatWereAlreadyWritten() {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        final int outageId = m_writer.openOutage(1, "192.168.1.1", "HTTP", new Date(1000));
+        m_writer.flush();
+
+        // The event comes back after the outage was inserted
+        m_writer.setLostEventId(outageId, 10);
+        m_writer.flush();
+
+        assertEquals(2, m_store.m_batches.size());
+        assertTrue(m_store.m_batches.get(0).m_outages.get(0).m_open);
+        final PendingOutage update = m_store.m_batches.get(1).m_outages.get(0);
+        assertEquals(outageId, update.m_outageId);
+        assertFalse(update.m_open);
+        assertEquals(Integer.valueOf(10), update.m_lostEventId);
+        assertNull(update.m_lostTime);
+        assertNull(update.m_regainedTime);
+    }
+
+    @Test
+    public void canResolveOutagesThatWereOpenedBefore() throws Exception {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        m_store.m_openOutageIds.put(new ServiceKey(1, "192.168.1.1", "HTTP"), 42);
+
+        // Services without outages are not resolved
+        assertNull(m_writer.resolveOutage(1, "192.168.1.1", "ICMP", new Date(2000)));
+
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+
+        // Resolve the existing outage and open the next one in the same batch
+        assertEquals(Integer.valueOf(42), m_writer.resolveOutage(1, "192.168.1.1", "HTTP", new Date(2000)));
+        final int outageId = m_writer.openOutage(1, "192.168.1.1", "HTTP", new Date(3000));
+        m_store.unblock();
+        m_writer.flush();
+
+        // The outages are handed to the store in the order they were changed
+        final List<PendingOutage> outages = m_store.m_batches.get(1).m_outages;
+        assertEquals(2, outages.size());
+        assertEquals(42, outages.get(0).m_outageId);
+        assertFalse(outages.get(0).m_open);
+        assertEquals(new Date(2000), outages.get(0).m_regainedTime);
+        assertEquals(outageId, outages.get(1).m_outageId);
+        assertTrue(outages.get(1).m_open);
+
+        // The new outage is resolved without asking the store
+        m_store.m_openOutageIds.clear();
+        assertEquals(Integer.valueOf(outageId), m_writer.resolveOutage(1, "192.168.1.1", "HTTP", new Date(4000)));
+    }
+
+    @Test
+    public void canInvalidateOnlyTheAffectedOutages() throws Exception {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        m_writer.openOutage(1, "192.168.1.1", "HTTP", new Date(1000));
+        final int icmpOutageId = m_writer.openOutage(1, "192.168.1.1", "ICMP", new Date(1000));
+        final int otherInterfaceOutageId = m_writer.openOutage(1, "192.168.1.2", "HTTP", new Date(1000));
+        final int otherNodeOutageId = m_writer.openOutage(2, "192.168.1.1", "HTTP", new Date(1000));
+
+        // The outage of the service is closed by other means
+        m_writer.flushAndInvalidate(1, "192.168.1.1", "HTTP");
+        assertEquals(0, m_writer.getQueueDepth());
+        assertEquals(1, m_store.m_invalidated.size());
+        final Predicate<ServiceKey> invalidated = m_store.m_invalidated.get(0);
+        assertTrue(invalidated.test(new ServiceKey(1, "192.168.1.1", "HTTP")));
+        assertFalse(invalidated.test(new ServiceKey(1, "192.168.1.1", "ICMP")));
+        assertNull(m_writer.resolveOutage(1, "192.168.1.1", "HTTP", new Date(2000)));
+
+        // The outages of the other services are still known
+        assertEquals(Integer.valueOf(icmpOutageId), m_writer.resolveOutage(1, "192.168.1.1", "ICMP", new Date(2000)));
+        assertEquals(Integer.valueOf(otherInterfaceOutageId), m_writer.resolveOutage(1, "192.168.1.2", "HTTP", new Date(2000)));
+
+        // Closing the interface or the node does not affect the other nodes
+        m_writer.openOutage(1, "192.168.1.1", "ICMP", new Date(3000));
+        m_writer.flushAndInvalidate(1, null, null);
+        assertNull(m_writer.resolveOutage(1, "192.168.1.1", "ICMP", new Date(4000)));
+        assertEquals(Integer.valueOf(otherNodeOutageId), m_writer.resolveOutage(2, "192.168.1.1", "HTTP", new Date(4000)));
+    }
+
+    @Test
+    public void canCoalesceServiceStatusChanges() throws Exception {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        final PollableService service = mockService(1, "192.168.1.1", "HTTP");
+
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.available(), 1000));
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.unavailable(), 2000));
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.available(), 3000));
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.unknown(), 4000));
+        m_writer.updateServiceStatus(1, "192.168.1.1", "HTTP", "N");
+        assertEquals(1, m_writer.getQueueDepth());
+
+        m_store.unblock();
+        m_writer.flush();
+
+        final List<PendingService> services = m_store.m_batches.get(1).m_services;
+        assertEquals(1, services.size());
+        assertEquals(new Date(3000), services.get(0).m_lastGood);
+        assertEquals(new Date(2000), services.get(0).m_lastFail);
+        assertEquals("N", services.get(0).m_status);
+    }
+
+    @Test
+    public void canDeleteMissingServicesOnThePollerThread() {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        final PollableService service = mockService(1, "192.168.1.1", "HTTP");
+        m_store.m_missingServices.add(new ServiceKey(1, "192.168.1.1", "HTTP"));
+
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.available(), 1000));
+        m_writer.flush();
+        // The writer thread must not take the lock on the pollable tree
+        verify(service, never()).delete();
+
+        // The service is deleted with its next change instead of queuing it
+        m_writer.updateLastGoodOrFail(service, pollStatus(PollStatus.available(), 2000));
+        verify(service, times(1)).delete();
+        assertEquals(0, m_writer.getQueueDepth());
+        m_writer.flush();
+        assertEquals(1, m_store.m_batches.size());
+    }
+
+    @Test
+    public void canWriteInBatches() {
+        m_writer = new OutageWriter(m_store, 10, 1000);
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+
+        for (int i = 0; i < 25; i++) {
+            m_writer.openOutage(2, "192.168.1." + i, "ICMP", new Date(1000));
+        }
+        m_store.unblock();
+        m_writer.flush();
+
+        assertEquals(4, m_store.m_batches.size());
+        assertEquals(10, m_store.m_batches.get(1).m_outages.size());
+        assertEquals(10, m_store.m_batches.get(2).m_outages.size());
+        assertEquals(5, m_store.m_batches.get(3).m_outages.size());
+    }
+
+    @Test(timeout=30000)
+    public void blocksWhenTheQueueIsFull() throws Exception {
+        m_writer = new OutageWriter(m_store, 1, 1);
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+
+        // Fill the queue
+        m_writer.updateServiceStatus(1, "192.168.1.2", "ICMP", "A");
+        // Changes to services that are already queued are coalesced
+        m_writer.updateServiceStatus(1, "192.168.1.2", "ICMP", "N");
+
+        final CompletableFuture<Void> future = CompletableFuture.runAsync(() -> m_writer.updateServiceStatus(1, "192.168.1.3", "ICMP", "A"));
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+
+        m_store.unblock();
+        future.get();
+        m_writer.flush();
+        assertEquals(3, m_store.m_batches.size());
+    }
+
+    @Test
+    public void canStopAfterWritingTheQueuedChanges() {
+        m_writer = new OutageWriter(m_store, 100, 1000);
+        m_store.blockNextWrite();
+        m_writer.updateServiceStatus(1, "192.168.1.1", "ICMP", "A");
+        m_store.awaitBlockedWrite();
+        m_writer.openOutage(1, "192.168.1.1", "HTTP", new Date(1000));
+        m_store.unblock();
+
+        m_writer.stop();
+        m_writer = null;
+        assertEquals(2, m_store.m_batches.size());
+    }
+
+    private static PollableService mockService(int nodeId, String ipAddr, String svcName) {
+        final InetAddress addr = InetAddressUtils.addr(ipAddr);
+        final PollableService service = mock(PollableService.class);
+        when(service.getNodeId()).thenReturn(nodeId);
+        when(service.getAddress()).thenReturn(addr);
+        when(service.getIpAddr()).thenReturn(ipAddr);
+        when(service.getSvcName()).thenReturn(svcName);
+        return service;
+    }
+
+    private static PollStatus pollStatus(PollStatus status, long timestamp) {
+        status.setTimestamp(new Date(timestamp));
+        return status;
+    }
+
+    private static class Batch {
+        private final List<PendingOutage> m_outages;
+        private final List<PendingService> m_services;
+
+        private Batch(List<PendingOutage> outages, List<PendingService> services) {
+            m_outages = new ArrayList<>(outages);
+            m_services = new ArrayList<>(services);
+        }
+    }
+
+    private static class MockStore implements OutageWriter.Store {
+        private final AtomicInteger m_outageIds = new AtomicInteger();
+        private final Map<ServiceKey, Integer> m_openOutageIds = new HashMap<>();
+        private final List<Batch> m_batches = new ArrayList<>();
+        private final Set<ServiceKey> m_missingServices = ConcurrentHashMap.newKeySet();
+        private final List<Predicate<ServiceKey>> m_invalidated = new ArrayList<>();
+        private volatile boolean m_blockNextWrite = false;
+        private volatile CountDownLatch m_blocked;
+        private volatile CountDownLatch m_released;
+
+        @Override
+        public List<Integer> nextOutageIds(int count) {
+            final List<Integer> outageIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                outageIds.add(m_outageIds.incrementAndGet());
+            }
+            return outageIds;
+        }
+
+        @Override
+        public Integer findOpenOutageId(ServiceKey service) {
+            return m_openOutageIds.get(service);
+        }
+
+        @Override
+        public List<PendingService> write(List<PendingOutage> outages, List<PendingService> services) {
+            if (m_blockNextWrite) {
+                m_blockNextWrite = false;
+                m_blocked.countDown();
+                try {
+                    m_released.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            synchronized (m_batches) {
+                m_batches.add(new Batch(outages, services));
+            }
+            return services.stream()
+                    .filter(service -> m_missingServices.contains(service.m_service))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public void invalidate(Predicate<ServiceKey> services) {
+            m_invalidated.add(services);
+        }
+
+        private void blockNextWrite() {
+            m_blocked = new CountDownLatch(1);
+            m_released = new CountDownLatch(1);
+            m_blockNextWrite = true;
+        }
+
+        private void awaitBlockedWrite() {
+            try {
+                assertTrue(m_blocked.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void unblock() {
+            m_released.countDown();
+        }
+    }
+}
@@ -61,6 +61,7 @@ public class MockPollContext implements PollContext, EventListener {
     private boolean m_nodeProcessingEnabled;
     private boolean m_pollingAllIfCritServiceUndefined;
     private boolean m_serviceUnresponsiveEnabled;
+    private boolean m_pollingOutsideOfTreeLockEnabled;
     private EventIpcManager m_eventMgr;
     private MockDatabase m_db;
     private MockNetwork m_mockNetwork;
@@ -173,6 +174,14 @@ public class MockPollContext implements PollContext, EventListener {
         return m_serviceUnresponsiveEnabled;
     }
 
+    @Override
+    public boolean isPollingOutsideOfTreeLockEnabled() {
+        return m_pollingOutsideOfTreeLockEnabled;
+    }
+    public void setPollingOutsideOfTreeLockEnabled(boolean pollingOutsideOfTreeLockEnabled) {
+        m_pollingOutsideOfTreeLockEnabled = pollingOutsideOfTreeLockEnabled;
+    }
+
     @Override
     public void trackPoll(PollableService service, PollStatus result) {
         // pass, nothing to track
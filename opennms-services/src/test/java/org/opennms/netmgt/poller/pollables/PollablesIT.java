@@ -49,6 +49,7 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -86,6 +87,7 @@ import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.poller.ServiceMonitorAdaptor;
 import org.opennms.netmgt.poller.mock.MockPollContext;
+import org.opennms.netmgt.scheduler.PostponeNecessary;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.ScheduleTimer;
 import org.opennms.netmgt.scheduler.mock.MockScheduler;
@@ -1196,6 +1198,80 @@ public class PollablesIT {
 
     }
 
+    @Test
+    public void testPollingOutsideOfTreeLock() {
+        m_pollContext.setPollingOutsideOfTreeLockEnabled(true);
+
+        // anticipate nothing
+
+        pDot1Smtp.run();
+
+        verifyAnticipated();
+        assertPoll(mDot1Smtp);
+
+        anticipateDown(mDot1Smtp);
+
+        mDot1Smtp.bringDown();
+
+        pDot1Smtp.run();
+
+        verifyAnticipated();
+        assertDown(pDot1Smtp);
+        assertUp(pDot1);
+
+        anticipateUp(mDot1Smtp);
+
+        mDot1Smtp.bringUp();
+
+        pDot1Smtp.run();
+
+        verifyAnticipated();
+        assertUp(pDot1Smtp);
+    }
+
+    @Test(timeout=30000)
+    public void testPollingOutsideOfTreeLockDoesNotWaitForTheLock() throws Exception {
+        m_pollContext.setPollingOutsideOfTreeLockEnabled(true);
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread locker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pNode1.withTreeLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        locked.countDown();
+                        try { release.await(); } catch (InterruptedException e) {}
+                    }
+                });
+            }
+        });
+        locker.start();
+        locked.await();
+
+        // The monitor is invoked even though the node is locked, only applying the result is postponed
+        try {
+            pDot1Smtp.run();
+            fail("Expected the poll to be postponed");
+        } catch (PostponeNecessary e) {
+            // expected
+        }
+        assertPoll(mDot1Smtp);
+
+        release.countDown();
+        locker.join();
+
+        // The postponed poll only applies the result that was already taken
+        pDot1Smtp.run();
+        assertNoPoll(mDot1Smtp);
+        assertUp(pDot1Smtp);
+
+        // And the next poll invokes the monitor again
+        pDot1Smtp.run();
+        assertPoll(mDot1Smtp);
+    }
+
     @Test
     public void testServiceEvent() throws Exception {
         MockService mSvc = mDot1Smtp;
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmark jar.
+ * <p>
+ * Runs the JMH suites of this module with the given JMH command line options. Unless a result format or file is
+ * given, results are written as JSON to {@value #DEFAULT_RESULT_FILE} so they can be compared across upgrades.
+ * <p>
+ * The suites read the shipped configuration from the source tree and must be run from the module directory.
+ */
+public class Benchmarks {
+
+    public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(withDefaults(args));
+    }
+
+    static String[] withDefaults(final String[] args) {
+        final List<String> argList = new ArrayList<>(Arrays.asList(args));
+        if (!argList.contains("-rf")) {
+            argList.add("-rf");
+            argList.add("json");
+        }
+        if (!argList.contains("-rff")) {
+            argList.add("-rff");
+            argList.add(DEFAULT_RESULT_FILE);
+            new File(DEFAULT_RESULT_FILE).getParentFile().mkdirs();
+        }
+        return argList.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.bsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.bsm.mock.MockAlarmWrapper;
+import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy;
+import org.opennms.netmgt.bsm.service.internal.DefaultBusinessServiceStateMachine;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
+import org.opennms.netmgt.bsm.service.model.BusinessService;
+import org.opennms.netmgt.bsm.service.model.Status;
+
+/**
+ * Propagates alarms through the business service hierarchies, which is what Bsmd does
+ * for every alarm with a reduction key of a business service.
+ *
+ * The business services are grouped into unrelated hierarchies of {@value #SERVICES_PER_HIERARCHY}
+ * services: a parent with children, where every child has {@value #REDUCTION_KEYS_PER_SERVICE}
+ * reduction keys.
+ * <ul>
+ *     <li>alarm: the latency of a single alarm</li>
+ *     <li>alarmsFromThreads: the throughput of alarms sent from several threads, to unrelated hierarchies</li>
+ *     <li>reload: reloading the state machine with the same business services</li>
+ * </ul>
+ */
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BusinessServiceStateMachineBenchmark {
+
+    private static final int SERVICES_PER_HIERARCHY = 10;
+
+    private static final int REDUCTION_KEYS_PER_SERVICE = 5;
+
+    private static final Status[] STATUSES = new Status[] { Status.MAJOR, Status.NORMAL, Status.WARNING, Status.NORMAL };
+
+    @State(Scope.Benchmark)
+    public static class StateMachineState {
+
+        @Param({"1000", "20000"})
+        public int businessServices;
+
+        private List<BusinessService> services;
+
+        private List<String> reductionKeys;
+
+        private DefaultBusinessServiceStateMachine stateMachine;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            final MockBusinessServiceHierarchy.HierarchyBuilder builder = MockBusinessServiceHierarchy.builder();
+            this.reductionKeys = new ArrayList<>();
+            long edgeId = 0;
+            for (int parentId = 0; parentId < this.businessServices; parentId += SERVICES_PER_HIERARCHY) {
+                final MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder parent = builder.withBusinessService(parentId);
+                for (int childId = parentId + 1; childId < parentId + SERVICES_PER_HIERARCHY; childId++) {
+                    final MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder child = parent.withBusinessService(childId);
+                    for (int k = 0; k < REDUCTION_KEYS_PER_SERVICE; k++) {
+                        final String reductionKey = "uei.opennms.org/nodes/nodeDown::" + childId + ":" + k;
+                        child.withReductionKey(edgeId++, reductionKey);
+                        this.reductionKeys.add(reductionKey);
+                    }
+                    child.commit();
+                }
+                parent.commit();
+            }
+            this.services = builder.build().getBusinessServices();
+
+            this.stateMachine = new DefaultBusinessServiceStateMachine();
+            this.stateMachine.addHandler((graph, businessService, newStatus, oldStatus) -> { }, new HashMap<>());
+            this.stateMachine.setBusinessServices(this.services);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AlarmState {
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup(final StateMachineState state) {
+            // Start every thread at a different hierarchy
+            this.next = (int) (Thread.currentThread().getId() * SERVICES_PER_HIERARCHY * REDUCTION_KEYS_PER_SERVICE * 7) % state.reductionKeys.size();
+        }
+
+        private AlarmWrapper nextAlarm(final StateMachineState state) {
+            final int i = this.next++;
+            final String reductionKey = state.reductionKeys.get(Math.floorMod(i, state.reductionKeys.size()));
+            final Status status = STATUSES[Math.floorMod(i / state.reductionKeys.size(), STATUSES.length)];
+            return new MockAlarmWrapper(reductionKey, status);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void alarm(final StateMachineState state, final AlarmState alarmState) {
+        state.stateMachine.handleNewOrUpdatedAlarm(alarmState.nextAlarm(state));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(4)
+    public void alarmsFromThreads(final StateMachineState state, final AlarmState alarmState) {
+        state.stateMachine.handleNewOrUpdatedAlarm(alarmState.nextAlarm(state));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void reload(final StateMachineState state) {
+        state.stateMachine.setBusinessServices(state.services);
+    }
+}
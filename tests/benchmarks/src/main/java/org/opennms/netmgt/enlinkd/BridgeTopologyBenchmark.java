@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.enlinkd.generator.util.MacAddressGenerator;
+import org.opennms.netmgt.enlinkd.service.api.Bridge;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTable;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.enlinkd.service.api.BridgeSimpleConnection;
+import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacIndex;
+
+/**
+ * Calculates the topology of a broadcast domain from the bridge forwarding tables, which is what
+ * Enlinkd does for every domain with updated forwarding tables.
+ *
+ * The domain is a tree of bridges with {@value #FANOUT} downlinks each, using the mac addresses of the
+ * topology generator. Every bridge learns the macs of all the hosts, but not the macs of the other bridges,
+ * so the simple connections are found by intersecting the forwarding tables.
+ * <ul>
+ *     <li>calculate: the whole calculation of the domain</li>
+ *     <li>simpleConnection: the simple connection between the root and the last bridge, with and without the {@link MacIndex}</li>
+ *     <li>checkMacSets: the check used to group the bridges into domains, on sets and on bitmaps</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BridgeTopologyBenchmark {
+
+    private static final int FANOUT = 4;
+
+    private static final int UPLINK_PORT = 1;
+
+    private static final int HOST_PORT = 48;
+
+    @State(Scope.Benchmark)
+    public static class TopologyState {
+
+        @Param({"25", "100"})
+        public int bridges;
+
+        @Param({"20", "100"})
+        public int hostsPerBridge;
+
+        private Map<Integer, Set<BridgeForwardingTableEntry>> bfts;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            this.bfts = generate(this.bridges, this.hostsPerBridge);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConnectionState {
+
+        @Param({"strings", "bitmaps"})
+        public String engine;
+
+        @Param({"100"})
+        public int bridges;
+
+        @Param({"20", "100"})
+        public int hostsPerBridge;
+
+        private BridgeForwardingTable rootBft;
+
+        private BridgeForwardingTable leafBft;
+
+        private Set<String> rootMacs;
+
+        private Set<String> leafMacs;
+
+        private BitSet rootBitmap;
+
+        private BitSet leafBitmap;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            final Map<Integer, Set<BridgeForwardingTableEntry>> bfts = generate(this.bridges, this.hostsPerBridge);
+            final BroadcastDomain domain = new BroadcastDomain();
+            final Bridge root = Bridge.create(domain, 0);
+            final Bridge leaf = Bridge.create(domain, this.bridges - 1);
+            if ("bitmaps".equals(this.engine)) {
+                final MacIndex macIndex = new MacIndex();
+                this.rootBft = BridgeForwardingTable.create(root, bfts.get(0), macIndex);
+                this.leafBft = BridgeForwardingTable.create(leaf, bfts.get(this.bridges - 1), macIndex);
+                this.rootBitmap = this.rootBft.getLearnedBitmap();
+                this.leafBitmap = this.leafBft.getLearnedBitmap();
+            } else {
+                this.rootBft = BridgeForwardingTable.create(root, bfts.get(0));
+                this.leafBft = BridgeForwardingTable.create(leaf, bfts.get(this.bridges - 1));
+            }
+            this.rootMacs = new HashSet<>(this.rootBft.getMactoport().keySet());
+            this.leafMacs = new HashSet<>(this.leafBft.getMactoport().keySet());
+        }
+    }
+
+    @Benchmark
+    public DiscoveryBridgeTopology calculate(final TopologyState state) {
+        // The calculation changes the bridges, so every invocation works on a fresh domain
+        final DiscoveryBridgeTopology topology = new DiscoveryBridgeTopology(new BroadcastDomain());
+        for (Map.Entry<Integer, Set<BridgeForwardingTableEntry>> bft : state.bfts.entrySet()) {
+            topology.addUpdatedBFT(bft.getKey(), bft.getValue());
+        }
+        topology.calculate();
+        return topology;
+    }
+
+    @Benchmark
+    public BridgeSimpleConnection simpleConnection(final ConnectionState state) throws Exception {
+        return BridgeSimpleConnection.createAndRun(state.rootBft, state.leafBft);
+    }
+
+    @Benchmark
+    public boolean checkMacSets(final ConnectionState state) {
+        if ("bitmaps".equals(state.engine)) {
+            return BroadcastDomain.checkMacSets(state.rootBitmap, state.leafBitmap);
+        }
+        return BroadcastDomain.checkMacSets(state.rootMacs, state.leafMacs);
+    }
+
+    /**
+     * Generates the forwarding tables of a tree of bridges: bridge i is connected
+     * to the downlink port of bridge (i - 1) / FANOUT with its uplink port.
+     */
+    private static Map<Integer, Set<BridgeForwardingTableEntry>> generate(int bridges, int hostsPerBridge) {
+        final MacAddressGenerator macGenerator = new MacAddressGenerator();
+        final List<String> bridgeMacs = new ArrayList<>(bridges);
+        final List<List<String>> hostMacs = new ArrayList<>(bridges);
+        for (int i = 0; i < bridges; i++) {
+            bridgeMacs.add(macGenerator.next());
+            final List<String> hosts = new ArrayList<>(hostsPerBridge);
+            for (int j = 0; j < hostsPerBridge; j++) {
+                hosts.add(macGenerator.next());
+            }
+            hostMacs.add(hosts);
+        }
+
+        final Map<Integer, Set<BridgeForwardingTableEntry>> bfts = new HashMap<>();
+        for (int bridge = 0; bridge < bridges; bridge++) {
+            final Set<BridgeForwardingTableEntry> bft = new HashSet<>();
+            bft.add(entry(bridge, null, bridgeMacs.get(bridge), BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF));
+            for (int target = 0; target < bridges; target++) {
+                final int port = getPort(bridge, target);
+                for (String mac : hostMacs.get(target)) {
+                    bft.add(entry(bridge, port, mac, BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED));
+                }
+            }
+            bfts.put(bridge, bft);
+        }
+        return bfts;
+    }
+
+    // the port of the bridge that forwards to the hosts of the target bridge
+    private static int getPort(int bridge, int target) {
+        if (bridge == target) {
+            return HOST_PORT;
+        }
+        int child = target;
+        while (child > bridge) {
+            final int parent = (child - 1) / FANOUT;
+            if (parent == bridge) {
+                return UPLINK_PORT + 1 + (child - 1) % FANOUT;
+            }
+            child = parent;
+        }
+        return UPLINK_PORT;
+    }
+
+    private static BridgeForwardingTableEntry entry(int bridge, Integer port, String mac, BridgeDot1qTpFdbStatus status) {
+        final BridgeForwardingTableEntry entry = new BridgeForwardingTableEntry();
+        entry.setNodeId(bridge);
+        entry.setBridgePort(port);
+        entry.setBridgePortIfIndex(port);
+        entry.setMacAddress(mac);
+        entry.setVlan(1);
+        entry.setBridgeDot1qTpFdbStatus(status);
+        return entry;
+    }
+}
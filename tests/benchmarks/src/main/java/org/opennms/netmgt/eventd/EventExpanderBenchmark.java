@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.core.io.FileSystemResource;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Expands events against the complete event configuration shipped with OpenNMS.
+ * <p>
+ * The fixture mixes internal events, SNMP traps matched by their masks, threshold events and events without a
+ * definition which fall back to the default event. Each invocation builds and expands the next event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EventExpanderBenchmark {
+
+    @State(Scope.Thread)
+    public static class BState {
+        private EventExpander expander;
+
+        private List<Supplier<Event>> events;
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            final DefaultEventConfDao eventConfDao = new DefaultEventConfDao();
+            eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+            eventConfDao.afterPropertiesSet();
+
+            final MetricRegistry metricRegistry = new MetricRegistry();
+            this.expander = new EventExpander(metricRegistry);
+            this.expander.setEventConfDao(eventConfDao);
+            this.expander.setEventUtil(new FixtureEventUtil(metricRegistry));
+            this.expander.afterPropertiesSet();
+
+            final InetAddress iface = InetAddress.getByName("192.0.2.17");
+            this.events = Arrays.asList(
+                    () -> new EventBuilder(EventConstants.NODE_DOWN_EVENT_UEI, "poller")
+                            .setNodeid(17)
+                            .getEvent(),
+                    () -> new EventBuilder(EventConstants.NODE_LOST_SERVICE_EVENT_UEI, "poller")
+                            .setNodeid(17)
+                            .setInterface(iface)
+                            .setService("ICMP")
+                            .addParam(EventConstants.PARM_LOSTSERVICE_REASON, "Timeout exceeded for ICMP")
+                            .getEvent(),
+                    () -> new EventBuilder(EventConstants.INTERFACE_DOWN_EVENT_UEI, "poller")
+                            .setNodeid(17)
+                            .setInterface(iface)
+                            .getEvent(),
+                    () -> new EventBuilder(null, "trapd")
+                            .setNodeid(17)
+                            .setInterface(iface)
+                            .setSnmpVersion("v2c")
+                            .setCommunity("public")
+                            .setEnterpriseId(".1.3.6.1.6.3.1.1.5")
+                            .setGeneric(2)
+                            .setSpecific(0)
+                            .addParam(".1.3.6.1.2.1.2.2.1.1.3", 3)
+                            .addParam(".1.3.6.1.2.1.2.2.1.7.3", 1)
+                            .addParam(".1.3.6.1.2.1.2.2.1.8.3", 2)
+                            .getEvent(),
+                    () -> new EventBuilder(null, "trapd")
+                            .setNodeid(17)
+                            .setInterface(iface)
+                            .setSnmpVersion("v2c")
+                            .setCommunity("public")
+                            .setEnterpriseId(".1.3.6.1.4.1.9.9.41.2")
+                            .setGeneric(6)
+                            .setSpecific(1)
+                            .addParam(".1.3.6.1.4.1.9.9.41.1.2.3.1.2.42", "LINEPROTO")
+                            .addParam(".1.3.6.1.4.1.9.9.41.1.2.3.1.3.42", 6)
+                            .addParam(".1.3.6.1.4.1.9.9.41.1.2.3.1.4.42", "UPDOWN")
+                            .addParam(".1.3.6.1.4.1.9.9.41.1.2.3.1.5.42", "Line protocol on Interface GigabitEthernet0/1, changed state to down")
+                            .getEvent(),
+                    () -> new EventBuilder(EventConstants.HIGH_THRESHOLD_EVENT_UEI, "threshd")
+                            .setNodeid(17)
+                            .setInterface(iface)
+                            .setService("SNMP")
+                            .addParam("label", "GigabitEthernet0/1")
+                            .addParam("ds", "ifHCInOctets")
+                            .addParam("description", "ifHCInOctets")
+                            .addParam("value", "9.87E8")
+                            .addParam("instance", "3")
+                            .addParam("threshold", "9.0E8")
+                            .addParam("trigger", "3")
+                            .addParam("rearm", "7.0E8")
+                            .getEvent(),
+                    () -> new EventBuilder("uei.opennms.org/vendor/unknown/benchmark", "benchmark")
+                            .setNodeid(17)
+                            .addParam("reason", "no event definition")
+                            .getEvent());
+        }
+
+        private Event next() {
+            return this.events.get(this.next++ % this.events.size()).get();
+        }
+    }
+
+    @Benchmark
+    public Event expandEvent(final BState state) {
+        final Event event = state.next();
+        state.expander.expandEvent(event);
+        return event;
+    }
+
+    /**
+     * Answers the node related lookups with constant values instead of querying the database.
+     */
+    private static class FixtureEventUtil extends AbstractEventUtil {
+
+        private FixtureEventUtil(final MetricRegistry registry) {
+            super(registry);
+        }
+
+        @Override
+        public String getNodeLabel(final long nodeId) {
+            return "node-" + nodeId;
+        }
+
+        @Override
+        public String getNodeLocation(final long nodeId) {
+            return "Default";
+        }
+
+        @Override
+        public String getForeignSource(final long nodeId) {
+            return "Routers";
+        }
+
+        @Override
+        public String getForeignId(final long nodeId) {
+            return Long.toString(nodeId);
+        }
+
+        @Override
+        public String getPrimaryInterface(final long nodeId) {
+            return "192.0.2.17";
+        }
+
+        @Override
+        public String getIfAlias(final long nodeId, final String ipAddr) {
+            return "uplink";
+        }
+
+        @Override
+        public String getAssetFieldValue(final String parm, final long nodeId) {
+            return "";
+        }
+
+        @Override
+        public String getHardwareFieldValue(final String parm, final long nodeId) {
+            return "";
+        }
+
+        @Override
+        public String getHostName(final int nodeId, final String hostip) {
+            return "node-" + nodeId + ".example.org";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+/**
+ * Applies the expressions of typical graphs to fetched results, which is what the measurements
+ * API does for every graph rendered by the UI or requested by Grafana.
+ *
+ * Compares the {@link JEXLExpressionEngine} with the {@link CompiledExpressionEngine} over:
+ * <ul>
+ *     <li>traffic: the expressions of an interface traffic graph</li>
+ *     <li>cdef: the JEXL equivalents of the RRD LIMIT, MINNAN and ADDNAN functions used by the graph templates</li>
+ *     <li>samples: references to prior samples using the fn namespace</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExpressionEngineBenchmark {
+
+    @State(Scope.Thread)
+    public static class BState {
+
+        @Param({"jexl", "compiled"})
+        public String engine;
+
+        @Param({"traffic", "cdef", "samples"})
+        public String expressions;
+
+        // 105120 rows is a year of samples at a 5 minute step
+        @Param({"300", "4000", "105120"})
+        public int rows;
+
+        private ExpressionEngine expressionEngine;
+
+        private QueryRequest request;
+
+        private long[] timestamps;
+
+        private double[] octetsIn;
+
+        private double[] octetsOut;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            this.request = new QueryRequest();
+            this.request.setSources(Arrays.asList(
+                    new Source("octIn", "node[17].interfaceSnmp[eth0-0050568a1b2c]", "ifHCInOctets", "ifHCInOctets", true),
+                    new Source("octOut", "node[17].interfaceSnmp[eth0-0050568a1b2c]", "ifHCOutOctets", "ifHCOutOctets", true)));
+            this.request.setExpressions(getExpressions(this.expressions));
+            this.expressionEngine = "compiled".equals(this.engine) ? new CompiledExpressionEngine() : new JEXLExpressionEngine();
+
+            this.timestamps = new long[this.rows];
+            this.octetsIn = new double[this.rows];
+            this.octetsOut = new double[this.rows];
+            for (int i = 0; i < this.rows; i++) {
+                this.timestamps[i] = i * 300_000L;
+                this.octetsIn[i] = 1.25e6 + 1.0e6 * Math.sin(i / 12.0);
+                this.octetsOut[i] = i % 100 == 0 ? Double.NaN : 0.5e6 + 0.25e6 * Math.cos(i / 12.0);
+            }
+        }
+
+        private static List<Expression> getExpressions(String expressions) {
+            switch (expressions) {
+                case "cdef":
+                    return Arrays.asList(
+                            new Expression("inLimited", "( ( (octIn == __inf) || (octIn == __neg_inf) || (octIn < 0) || (octIn > 2000000.0d) ) ? NaN : octIn )", false),
+                            new Expression("minNaN", "( ( octIn == NaN ) ? octOut : ( ( octOut == NaN ) ? octIn : math:min(octIn,octOut) ) )", false),
+                            new Expression("addNaN", "( ( ( octIn == NaN ) && ( octOut == NaN ) ) ? NaN : ( ( octIn == NaN ) ? octOut : ( ( octOut == NaN ) ? octIn : ( octIn + octOut ) ) ) )", false));
+                case "samples":
+                    return Arrays.asList(
+                            new Expression("deltaIn", "octIn - fn:arrayNaN(\"octIn\", 1)", false),
+                            new Expression("smoothedOut", "0.5 * octOut + 0.25 * fn:arrayFirst(\"octOut\", 1) + 0.25 * fn:arrayFirst(\"octOut\", 2)", false));
+                default:
+                    return Arrays.asList(
+                            new Expression("bitsIn", "octIn * 8", false),
+                            new Expression("bitsOut", "octOut * 8", false),
+                            new Expression("bitsOutNeg", "-1.0 * bitsOut", false),
+                            new Expression("bitsTotal", "bitsIn + bitsOut", false),
+                            new Expression("utilization", "bitsTotal / __speed * 100.0", false));
+            }
+        }
+    }
+
+    @Benchmark
+    public FetchResults applyExpressions(final BState state) throws Exception {
+        // The engine adds and removes columns, so every invocation works on fresh results
+        final Map<String, double[]> columns = new HashMap<>();
+        columns.put("octIn", state.octetsIn);
+        columns.put("octOut", state.octetsOut);
+        final Map<String, Object> constants = new HashMap<>();
+        constants.put("__speed", 1.0e9);
+
+        final FetchResults results = new FetchResults(state.timestamps, columns, 300_000L, constants, null);
+        state.expressionEngine.applyExpressions(state.request, results);
+        return results;
+    }
+}
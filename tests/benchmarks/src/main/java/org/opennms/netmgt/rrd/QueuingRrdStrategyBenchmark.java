@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queues a collection cycle worth of updates in the {@link QueuingRrdStrategy} or the
+ * {@link ShardedQueuingRrdStrategy} and waits until the write threads have handed all of them to the delegate.
+ * <p>
+ * The delegate is a {@link NullRrdStrategy} so only the queue itself is measured. A third of the values are zero
+ * and end up as insignificant updates. The write threads only sleep for a millisecond when idle, as with the
+ * default of 50ms the idle time would dominate the results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class QueuingRrdStrategyBenchmark {
+
+    // updates queued per invocation
+    private static final int UPDATES = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"queuing", "sharded"})
+        public String queue;
+
+        @Param({"2", "8"})
+        public int writeThreads;
+
+        @Param({"100", "10000"})
+        public int files;
+
+        private RrdStrategy<?, String> strategy;
+
+        private RrdQueueStatistics statistics;
+
+        private String[] fileNames;
+
+        private long timestamp = System.currentTimeMillis() / 1000;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            if ("sharded".equals(this.queue)) {
+                final ShardedQueuingRrdStrategy sharded = new ShardedQueuingRrdStrategy(new NullRrdStrategy());
+                sharded.setWriteThreads(this.writeThreads);
+                sharded.setModulus(10000);
+                sharded.setWriteThreadSleepTime(1);
+                sharded.setWriteThreadExitDelay(60000);
+                this.strategy = sharded;
+                this.statistics = sharded;
+            } else {
+                final QueuingRrdStrategy queuing = new QueuingRrdStrategy(new NullRrdStrategy());
+                queuing.setWriteThreads(this.writeThreads);
+                queuing.setModulus(10000);
+                queuing.setWriteThreadSleepTime(1);
+                queuing.setWriteThreadExitDelay(60000);
+                this.strategy = queuing;
+                this.statistics = queuing;
+            }
+
+            this.fileNames = new String[this.files];
+            for (int i = 0; i < this.files; i++) {
+                this.fileNames[i] = "snmp/" + (i / 50) + "/ifHCInOctets-" + i + ".jrb";
+            }
+        }
+    }
+
+    @Benchmark
+    public long enqueueAndDrain(final BState state) throws Exception {
+        for (int i = 0; i < UPDATES; i++) {
+            // Every file gets the next step once all files have been updated
+            final long timestamp = state.timestamp + (i / state.files) * 300;
+            final long value = i % 3 == 0 ? 0 : i;
+            state.strategy.updateFile(state.fileNames[i % state.files], "benchmark", timestamp + ":" + value);
+        }
+        state.timestamp += (UPDATES / state.files + 1) * 300;
+
+        while (state.statistics.getTotalOperationsPending() > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return state.statistics.getUpdatesCompleted();
+    }
+}
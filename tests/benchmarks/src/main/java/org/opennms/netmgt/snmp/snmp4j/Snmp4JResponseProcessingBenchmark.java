@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.snmp.PduBuilder;
+import org.opennms.netmgt.snmp.ResponseProcessor;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.asn1.BEROutputStream;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Decodes a GETBULK response for the ifXTable and feeds it to a {@link TableTracker}, the same way the
+ * {@link Snmp4JWalker} does once a response arrived from the agent.
+ * <p>
+ * No agent is involved: the response is encoded once and decoded again in every invocation, so this covers BER
+ * decoding, the conversion to {@link Snmp4JValue}s and the row assembly of the tracker.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class Snmp4JResponseProcessingBenchmark {
+
+    // ifName, ifHCInOctets, ifHCOutOctets, ifHighSpeed, ifAlias
+    private static final String[] COLUMNS = {
+            ".1.3.6.1.2.1.31.1.1.1.1",
+            ".1.3.6.1.2.1.31.1.1.1.6",
+            ".1.3.6.1.2.1.31.1.1.1.10",
+            ".1.3.6.1.2.1.31.1.1.1.15",
+            ".1.3.6.1.2.1.31.1.1.1.18"
+    };
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"48", "480"})
+        public int rows;
+
+        private SnmpObjId[] columns;
+
+        private byte[] response;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.columns = new SnmpObjId[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                this.columns[i] = SnmpObjId.get(COLUMNS[i]);
+            }
+
+            final PDU pdu = new PDU();
+            pdu.setType(PDU.RESPONSE);
+            pdu.setRequestID(new Integer32(42));
+            for (int row = 1; row <= this.rows; row++) {
+                pdu.add(new VariableBinding(new OID(COLUMNS[0] + "." + row), new OctetString("Gi0/0/" + row)));
+                pdu.add(new VariableBinding(new OID(COLUMNS[1] + "." + row), new Counter64(1_000_000_000L * row)));
+                pdu.add(new VariableBinding(new OID(COLUMNS[2] + "." + row), new Counter64(2_000_000_000L * row)));
+                pdu.add(new VariableBinding(new OID(COLUMNS[3] + "." + row), new Gauge32(10_000)));
+                pdu.add(new VariableBinding(new OID(COLUMNS[4] + "." + row), new OctetString("uplink to core-" + row)));
+            }
+            // The last repetition runs off the end of the MIB view which completes all columns
+            for (final String column : COLUMNS) {
+                pdu.add(new VariableBinding(new OID(column + "." + (this.rows + 1)), Null.endOfMibView));
+            }
+
+            final BEROutputStream out = new BEROutputStream(ByteBuffer.allocate(pdu.getBERLength()));
+            pdu.encodeBER(out);
+            this.response = out.getBuffer().array();
+
+            final int processed = walk();
+            if (processed != this.rows) {
+                throw new IllegalStateException("Expected " + this.rows + " rows but got " + processed);
+            }
+        }
+
+        private int walk() throws Exception {
+            final int[] completed = new int[1];
+            final TableTracker tracker = new TableTracker(row -> completed[0]++, this.rows + 1, 0, this.columns);
+
+            final ResponseProcessor processor = tracker.buildNextPdu(new DiscardingPduBuilder());
+
+            final PDU pdu = new PDU();
+            pdu.decodeBER(new BERInputStream(ByteBuffer.wrap(this.response)));
+            if (pdu.getErrorStatus() == PDU.noError || !processor.processErrors(pdu.getErrorStatus(), pdu.getErrorIndex())) {
+                for (int i = 0; i < pdu.size(); i++) {
+                    final VariableBinding vb = pdu.get(i);
+                    processor.processResponse(SnmpObjId.get(vb.getOid().getValue()), new Snmp4JValue(vb.getVariable()));
+                }
+            }
+
+            if (!tracker.isFinished()) {
+                throw new IllegalStateException("Tracker did not finish");
+            }
+            return completed[0];
+        }
+    }
+
+    @Benchmark
+    public int decodeAndTrack(final BState state) throws Exception {
+        return state.walk();
+    }
+
+    /**
+     * The request is never sent, so there is nothing to build.
+     */
+    private static class DiscardingPduBuilder extends PduBuilder {
+        @Override
+        public void addOid(final SnmpObjId snmpObjId) {
+        }
+
+        @Override
+        public void setNonRepeaters(final int numNonRepeaters) {
+        }
+
+        @Override
+        public void setMaxRepetitions(final int maxRepetitions) {
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.mock.snmp.MockSnmpAgent;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpWalker;
+
+/**
+ * Measures the wall-clock time of walking the ifXTable of a {@link MockSnmpAgent} with the {@link Snmp4JStrategy},
+ * with and without several requests in flight and adaptive max-repetitions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class Snmp4JWalkBenchmark {
+
+    // ifName, ifInMulticastPkts, ifHCInOctets, ifHCOutOctets, ifHighSpeed, ifAlias
+    private static final String[] COLUMNS = {
+            ".1.3.6.1.2.1.31.1.1.1.1",
+            ".1.3.6.1.2.1.31.1.1.1.2",
+            ".1.3.6.1.2.1.31.1.1.1.6",
+            ".1.3.6.1.2.1.31.1.1.1.10",
+            ".1.3.6.1.2.1.31.1.1.1.15",
+            ".1.3.6.1.2.1.31.1.1.1.18"
+    };
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"100", "1000", "10000"})
+        public int rows;
+
+        @Param({"1", "4"})
+        public int window;
+
+        @Param({"false", "true"})
+        public boolean adaptive;
+
+        private File moFile;
+
+        private MockSnmpAgent agent;
+
+        private SnmpAgentConfig agentConfig;
+
+        private final Snmp4JStrategy strategy = new Snmp4JStrategy();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.moFile = File.createTempFile("ifXTable", ".properties");
+            try (PrintWriter out = new PrintWriter(this.moFile, StandardCharsets.UTF_8.name())) {
+                out.println(".1.3.6.1.2.1.1.2.0 = OID: .1.3.6.1.4.1.5813.1.25");
+                for (int row = 1; row <= this.rows; row++) {
+                    out.println(COLUMNS[0] + "." + row + " = STRING: Gi0/0/" + row);
+                    out.println(COLUMNS[1] + "." + row + " = Counter32: " + row);
+                    out.println(COLUMNS[2] + "." + row + " = Counter64: " + 1_000_000_000L * row);
+                    out.println(COLUMNS[3] + "." + row + " = Counter64: " + 2_000_000_000L * row);
+                    out.println(COLUMNS[4] + "." + row + " = Gauge32: 10000");
+                    out.println(COLUMNS[5] + "." + row + " = STRING: uplink to core-" + row);
+                }
+            }
+            this.agent = MockSnmpAgent.createAgentAndRun(this.moFile.toURI().toURL(), "127.0.0.1/0");
+
+            this.agentConfig = new SnmpAgentConfig(this.agent.getInetAddress());
+            this.agentConfig.setPort(this.agent.getPort());
+            this.agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+            this.agentConfig.setReadCommunity("public");
+
+            System.setProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP, Integer.toString(this.window));
+            System.setProperty(Snmp4JStrategy.WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP, Boolean.toString(this.adaptive));
+
+            final int walked = walk();
+            if (walked != this.rows * COLUMNS.length) {
+                throw new IllegalStateException("Expected " + this.rows * COLUMNS.length + " values but got " + walked);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            System.clearProperty(Snmp4JStrategy.WALKER_WINDOW_SYS_PROP);
+            System.clearProperty(Snmp4JStrategy.WALKER_ADAPTIVE_MAX_REPETITIONS_SYS_PROP);
+            this.agent.shutDownAndWait();
+            this.moFile.delete();
+        }
+
+        private int walk() throws Exception {
+            final CountingTracker tracker = new CountingTracker();
+            try (SnmpWalker walker = this.strategy.createWalker(this.agentConfig, "ifXTable", tracker)) {
+                walker.start();
+                walker.waitFor();
+                if (walker.failed()) {
+                    throw new IllegalStateException(walker.getErrorMessage());
+                }
+            }
+            return tracker.count;
+        }
+    }
+
+    @Benchmark
+    public int walkIfXTable(final BState state) throws Exception {
+        return state.walk();
+    }
+
+    private static class CountingTracker extends AggregateTracker {
+        private int count;
+
+        private CountingTracker() {
+            super(columnTrackers());
+        }
+
+        private static Collectable[] columnTrackers() {
+            final Collectable[] trackers = new Collectable[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                trackers[i] = new ColumnTracker(SnmpObjId.get(COLUMNS[i]));
+            }
+            return trackers;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            this.count++;
+        }
+    }
+}
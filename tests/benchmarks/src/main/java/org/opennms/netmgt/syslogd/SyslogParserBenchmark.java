@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.benchmarks.Fixtures;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+
+/**
+ * Parses captured syslog messages with the {@link Rfc5424SyslogParser}, the {@link RadixTreeSyslogParser} using the
+ * default grok patterns and a single sequence built by the {@link GrokParserStageSequenceBuilder}.
+ * <p>
+ * Each invocation parses the next message of the fixture, so the score is messages per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SyslogParserBenchmark {
+
+    private static final String CISCO_GROK = "<%{INT:facilityPriority}>%{MONTH:month} %{INT:day} %{INT:hour}:%{INT:minute}:%{INT:second} %{STRING:hostname} %{NOSPACE:processName}[%{INT:processId}]: %{STRING:message}";
+
+    @State(Scope.Thread)
+    public static class BState {
+        private SyslogdConfig config;
+
+        private ByteBuffer[] rfc5424;
+        private ByteBuffer[] bsd;
+        private ByteBuffer[] cisco;
+
+        private SingleSequenceParser grokParser;
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            final String configuration = "<syslogd-configuration><configuration syslog-port=\"10514\"/></syslogd-configuration>";
+            this.config = new SyslogdConfigFactory(new ByteArrayInputStream(configuration.getBytes(StandardCharsets.UTF_8)));
+
+            this.rfc5424 = load("syslog/rfc5424.txt");
+            this.bsd = load("syslog/bsd.txt");
+            this.cisco = load("syslog/cisco.txt");
+
+            this.grokParser = new SingleSequenceParser(GrokParserStageSequenceBuilder.parseGrok(CISCO_GROK));
+
+            // Trigger loading the default grok patterns outside of the measurement
+            RadixTreeSyslogParser.getRadixParser();
+        }
+
+        private ByteBuffer next(final ByteBuffer[] messages) {
+            return messages[this.next++ % messages.length].duplicate();
+        }
+
+        private static ByteBuffer[] load(final String resource) {
+            final List<String> lines = Fixtures.lines(resource);
+            return lines.stream()
+                    .map(line -> ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)))
+                    .toArray(ByteBuffer[]::new);
+        }
+    }
+
+    @Benchmark
+    public SyslogMessage rfc5424(final BState state) throws Exception {
+        final Rfc5424SyslogParser parser = new Rfc5424SyslogParser(state.config, state.next(state.rfc5424));
+        return parser.find() ? parser.parse() : null;
+    }
+
+    @Benchmark
+    public SyslogMessage radixTree(final BState state) {
+        return new RadixTreeSyslogParser(state.config, state.next(state.bsd)).parse();
+    }
+
+    @Benchmark
+    public SyslogMessage grok(final BState state) {
+        return state.grokParser.parse(state.next(state.cisco)).join();
+    }
+}
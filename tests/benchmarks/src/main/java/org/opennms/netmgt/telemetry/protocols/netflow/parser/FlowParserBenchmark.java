@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.benchmarks.Fixtures;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.distributed.core.api.Identity;
+import org.opennms.netmgt.dnsresolver.api.DnsResolver;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.telemetry.api.receiver.TelemetryMessage;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Pushes captured Netflow v9 and IPFIX packets through the complete UDP parser: session lookup, record decoding,
+ * enrichment, serialization and dispatching.
+ * <p>
+ * In contrast to {@code FlowDecodingBenchmark} in the parser module, which only decodes the packets, this covers the
+ * path a packet takes from the listener to the sink.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FlowParserBenchmark {
+
+    private static final InetSocketAddress REMOTE = new InetSocketAddress(InetAddress.getLoopbackAddress(), 2055);
+    private static final InetSocketAddress LOCAL = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4729);
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"NETFLOW9", "IPFIX"})
+        public Protocol protocol;
+
+        @Param({"false", "true"})
+        public boolean directDecoding;
+
+        private ScheduledExecutorService executor;
+
+        private UdpParserBase parser;
+
+        private byte[] data;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.executor = Executors.newSingleThreadScheduledExecutor();
+
+            final byte[] template;
+            if (this.protocol == Protocol.IPFIX) {
+                final IpfixUdpParser ipfix = new IpfixUdpParser("IPFIX", new DiscardingDispatcher(), new DiscardingEventForwarder(),
+                        new FixtureIdentity(), new NoOpDnsResolver(), new MetricRegistry());
+                ipfix.setDirectDecoding(this.directDecoding);
+                this.parser = ipfix;
+                template = Fixtures.bytes("flows/ipfix_test_mikrotik_tpl.dat");
+                this.data = Fixtures.bytes("flows/ipfix_test_mikrotik_data258.dat");
+            } else {
+                final Netflow9UdpParser netflow9 = new Netflow9UdpParser("Netflow-9", new DiscardingDispatcher(), new DiscardingEventForwarder(),
+                        new FixtureIdentity(), new NoOpDnsResolver(), new MetricRegistry());
+                netflow9.setDirectDecoding(this.directDecoding);
+                this.parser = netflow9;
+                template = Fixtures.bytes("flows/netflow9_test_cisco_asr9k_tpl260.dat");
+                this.data = Fixtures.bytes("flows/netflow9_test_cisco_asr9k_data260.dat");
+            }
+
+            this.parser.start(this.executor);
+
+            // Make the session learn the templates
+            this.parser.parse(Unpooled.wrappedBuffer(template), REMOTE, LOCAL).get();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.parser.stop();
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public Object parseAndDispatch(final BState state) throws Exception {
+        final ByteBuf buffer = Unpooled.wrappedBuffer(state.data);
+        return state.parser.parse(buffer, REMOTE, LOCAL).get();
+    }
+
+    private static class DiscardingDispatcher implements AsyncDispatcher<TelemetryMessage> {
+        @Override
+        public CompletableFuture<DispatchStatus> send(final TelemetryMessage message) {
+            return CompletableFuture.completedFuture(DispatchStatus.DISPATCHED);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class DiscardingEventForwarder implements EventForwarder {
+        @Override
+        public void sendNow(final Event event) {
+        }
+
+        @Override
+        public void sendNow(final Log eventLog) {
+        }
+
+        @Override
+        public void sendNowSync(final Event event) {
+        }
+
+        @Override
+        public void sendNowSync(final Log eventLog) {
+        }
+    }
+
+    private static class NoOpDnsResolver implements DnsResolver {
+        @Override
+        public CompletableFuture<Optional<InetAddress>> lookup(final String hostname) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        @Override
+        public CompletableFuture<Optional<String>> reverseLookup(final InetAddress inetAddress) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    }
+
+    private static class FixtureIdentity implements Identity {
+        @Override
+        public String getId() {
+            return "benchmark";
+        }
+
+        @Override
+        public String getLocation() {
+            return "Default";
+        }
+
+        @Override
+        public String getType() {
+            return "OpenNMS";
+        }
+    }
+}
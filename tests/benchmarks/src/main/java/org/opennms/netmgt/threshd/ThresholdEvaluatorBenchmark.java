@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.features.distributed.kvstore.api.BlobStore;
+import org.opennms.features.distributed.kvstore.blob.noop.NoOpBlobStore;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.config.threshd.Threshold;
+import org.opennms.netmgt.config.threshd.ThresholdType;
+import org.opennms.netmgt.threshd.api.ThresholdStateMonitor;
+import org.opennms.netmgt.threshd.api.ThresholdingSession;
+import org.opennms.netmgt.threshd.api.ThresholdingSessionKey;
+
+/**
+ * Evaluates high/low thresholds for a node with many interfaces, the way threshd does for every collected
+ * interface resource.
+ * <p>
+ * The collected values oscillate around the threshold so that states trigger and rearm during the run. In the
+ * distributed case the state is fetched from the (no-op) blob store before every evaluation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ThresholdEvaluatorBenchmark {
+
+    // number of collection rounds before the values repeat
+    private static final int ROUNDS = 16;
+
+    @State(Scope.Thread)
+    public static class BState {
+
+        @Param({"100", "1000"})
+        public int interfaces;
+
+        @Param({"false", "true"})
+        public boolean distributed;
+
+        private ThresholdEvaluatorState[] states;
+
+        private double[][] values;
+
+        private long sequenceNumber;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            final FixtureSession session = new FixtureSession(this.distributed);
+
+            final Threshold high = new Threshold();
+            high.setType(ThresholdType.HIGH);
+            high.setDsName("ifHCInOctets");
+            high.setDsType("if");
+            high.setValue("90.0");
+            high.setRearm("70.0");
+            high.setTrigger("3");
+
+            final Threshold low = new Threshold();
+            low.setType(ThresholdType.LOW);
+            low.setDsName("ifHCInOctets");
+            low.setDsType("if");
+            low.setValue("10.0");
+            low.setRearm("30.0");
+            low.setTrigger("3");
+
+            this.states = new ThresholdEvaluatorState[this.interfaces * 2];
+            this.values = new double[ROUNDS][this.interfaces];
+            for (int i = 0; i < this.interfaces; i++) {
+                this.states[2 * i] = newState(high, session, i);
+                this.states[2 * i + 1] = newState(low, session, i);
+                for (int round = 0; round < ROUNDS; round++) {
+                    // Shift the phase per interface so that transitions are spread over all rounds
+                    this.values[round][i] = 50.0 + 50.0 * Math.sin(2 * Math.PI * (round + i) / ROUNDS);
+                }
+            }
+        }
+
+        private static ThresholdEvaluatorState newState(final Threshold threshold, final ThresholdingSession session, final int ifIndex) {
+            final ThresholdEvaluatorHighLow.ThresholdEvaluatorStateHighLow state =
+                    new ThresholdEvaluatorHighLow.ThresholdEvaluatorStateHighLow(new ThresholdConfigWrapper(threshold), session);
+            state.setInstance(Integer.toString(ifIndex));
+            return state;
+        }
+    }
+
+    @Benchmark
+    public void evaluateRound(final BState state, final Blackhole blackhole) {
+        final long sequenceNumber = state.sequenceNumber++;
+        final double[] values = state.values[(int) (sequenceNumber % ROUNDS)];
+        for (int i = 0; i < state.states.length; i++) {
+            blackhole.consume(state.states[i].evaluate(values[i / 2], sequenceNumber));
+        }
+    }
+
+    private static class FixtureSession implements ThresholdingSession {
+        private final boolean distributed;
+
+        private final BlobStore blobStore = NoOpBlobStore.getInstance();
+
+        private final ThresholdStateMonitor monitor = new BlobStoreAwareMonitor(this.blobStore);
+
+        private final ThresholdingSessionKey key = new ThresholdingSessionKey() {
+            @Override
+            public String getLocation() {
+                return "Default";
+            }
+
+            @Override
+            public int getNodeId() {
+                return 17;
+            }
+
+            @Override
+            public String getServiceName() {
+                return "SNMP";
+            }
+        };
+
+        private FixtureSession(final boolean distributed) {
+            this.distributed = distributed;
+        }
+
+        @Override
+        public void accept(final CollectionSet collectionSet) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ThresholdingSessionKey getKey() {
+            return this.key;
+        }
+
+        @Override
+        public BlobStore getBlobStore() {
+            return this.blobStore;
+        }
+
+        @Override
+        public boolean isDistributed() {
+            return this.distributed;
+        }
+
+        @Override
+        public ThresholdStateMonitor getThresholdStateMonitor() {
+            return this.monitor;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Matches traps against the complete event configuration shipped with OpenNMS, with and without
+ * the {@link EventMatchIndex}.
+ * <p>
+ * The traps are derived from the mask elements of the shipped trap definitions, mixed with traps
+ * from enterprises without any definition, which have to be checked against every wildcard definition.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EventConfMatcherBenchmark {
+
+    private static final int NUM_TRAPS = 4096;
+
+    @State(Scope.Thread)
+    public static class BState {
+
+        @Param({"true", "false"})
+        public String index;
+
+        private DefaultEventConfDao eventConfDao;
+
+        private List<org.opennms.netmgt.xml.event.Event> traps;
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            System.setProperty(EventMatchIndex.INDEX_ENABLED_SYS_PROP, index);
+            this.eventConfDao = new DefaultEventConfDao();
+            this.eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+            this.eventConfDao.afterPropertiesSet();
+
+            final List<org.opennms.netmgt.xml.event.Event> matching = this.eventConfDao.getRootEvents().forEachEvent(new ArrayList<>(), (accum, eventConf) -> {
+                final String id = firstValue(eventConf, Maskelement.TAG_SNMP_EID);
+                final String generic = firstValue(eventConf, Maskelement.TAG_SNMP_GENERIC);
+                final String specific = firstValue(eventConf, Maskelement.TAG_SNMP_SPECIFIC);
+                if (id != null && generic != null && specific != null) {
+                    accum.add(trap(id, Integer.parseInt(generic), Integer.parseInt(specific)));
+                }
+                return accum;
+            });
+
+            final Random random = new Random(42);
+            Collections.shuffle(matching, random);
+            this.traps = new ArrayList<>(NUM_TRAPS);
+            for (int i = 0; i < NUM_TRAPS; i++) {
+                if (i % 4 == 3 || matching.isEmpty()) {
+                    // Enterprise without any event definition
+                    this.traps.add(trap(".1.3.6.1.4.1." + (60000 + random.nextInt(1000)) + ".1", 6, random.nextInt(100)));
+                } else {
+                    this.traps.add(matching.get(i % matching.size()));
+                }
+            }
+        }
+
+        private org.opennms.netmgt.xml.event.Event next() {
+            return this.traps.get(this.next++ % this.traps.size());
+        }
+    }
+
+    @Benchmark
+    public Event findByEvent(final BState state) {
+        return state.eventConfDao.findByEvent(state.next());
+    }
+
+    private static String firstValue(final Event eventConf, final String name) {
+        final List<String> values = eventConf.getMaskElementValues(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        final String value = values.get(0);
+        return value == null || value.startsWith("~") || value.endsWith("%") ? null : value;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String enterprise, final int generic, final int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(enterprise);
+        snmp.setVersion("v2c");
+        snmp.setCommunity("public");
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSource("trapd");
+        event.setInterface("192.0.2.17");
+        event.setSnmp(snmp);
+        return event;
+    }
+}